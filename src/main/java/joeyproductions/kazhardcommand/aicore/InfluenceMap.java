@@ -0,0 +1,392 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.aicore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * How strongly each team reaches every tile of a map, for threat heatmaps.
+ * <br><br>
+ * Each unit stamps a kernel around itself that spreads out the way units
+ * move, so it goes around cliffs and up ramps instead of through them, and
+ * fades by one step's worth with each tile walked. A tile's influence is the
+ * sum of every stamp that reaches it, kept in one short per tile per team.
+ * <br><br>
+ * refresh() only takes the stamps of units that moved, died, or left back
+ * out, and stamps them again where they are now. Terrain edits clear the
+ * tiles near them and stamp the units close enough to reach them again, so
+ * nothing is ever worked out from scratch. Sums are exact, since stamps are
+ * taken back out with the same numbers they put in; they only wrap past
+ * 32767 with thousands of units in one spot.<br>
+ * <br>
+ * Edits are only noted as they happen, and are handled on the next refresh,
+ * once passability has caught up with them.<br>
+ * <br>
+ * Like TacticalMapData, each refresh that changes anything bumps the
+ * generation and stamps it on the tiles and chunks it touched, so any number
+ * of readers can each ask for what changed since the generation they saw.
+ * @author Joseph Cramsey
+ */
+public class InfluenceMap implements TacticalMapListener {
+    
+    public static final int DEFAULT_RADIUS = 8;
+    public static final int MAX_RADIUS = 32;
+    public static final int CHUNK_DIM = 16;
+    
+    private final UnitStore store;
+    private final TerrainPassability passability;
+    private final TacticalMapData map;
+    private final int width;
+    private final int height;
+    private final int radius;
+    private final int teamCount;
+    private final int chunkColumns;
+    private final int chunkRows;
+    private final short[][] influence;
+    private final int[] directionOffsets;
+    
+    // What each unit slot was last stamped as
+    private int[] stampedHandles = new int[0];
+    private int[] stampedTiles = new int[0];
+    private byte[] stampedTeams = new byte[0];
+    
+    private final BitSet editedTiles = new BitSet();
+    
+    private long generation = 0;
+    private final long[] tileGenerations;
+    private final long[] chunkGenerations;
+    
+    // Search scratch, over the square a stamp can reach
+    private final int windowDim;
+    private final int[] windowMarks;
+    private final int[] queue;
+    private int mark = 0;
+    
+    private long stampCount = 0;
+    
+    private InfluenceMap(UnitStore store, TerrainPassability passability, int radius, int teamCount) {
+        this.store = store;
+        this.passability = passability;
+        this.radius = radius;
+        this.teamCount = teamCount;
+        map = store.getMap();
+        width = map.getWidth();
+        height = map.getHeight();
+        chunkColumns = (width + CHUNK_DIM - 1) / CHUNK_DIM;
+        chunkRows = (height + CHUNK_DIM - 1) / CHUNK_DIM;
+        influence = new short[teamCount][map.getTileCount()];
+        tileGenerations = new long[map.getTileCount()];
+        chunkGenerations = new long[chunkColumns * chunkRows];
+        windowDim = (2 * radius) + 1;
+        windowMarks = new int[windowDim * windowDim];
+        queue = new int[windowDim * windowDim];
+        directionOffsets = TacticalTileData.createIndexOffsets(width);
+    }
+    
+    public static InfluenceMap create(UnitStore store, TerrainPassability passability, int teamCount) {
+        return create(store, passability, teamCount, DEFAULT_RADIUS);
+    }
+    
+    /**
+     * Stamps every unit in a store, and follows the map for edits.
+     * @param store the units to follow
+     * @param passability moves allowed on the store's map
+     * @param teamCount teams are numbered from 0 up to this
+     * @param radius how many steps a stamp reaches
+     * @return the new influence map
+     */
+    public static InfluenceMap create(UnitStore store, TerrainPassability passability,
+            int teamCount, int radius) {
+        if (passability.getMap() != store.getMap()) {
+            throw new RuntimeException("Passability is for another map");
+        }
+        if (teamCount < 1 || teamCount > Byte.MAX_VALUE + 1) {
+            throw new RuntimeException("Team count out of range: " + teamCount);
+        }
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new RuntimeException("Influence radius out of range: " + radius);
+        }
+        
+        InfluenceMap product = new InfluenceMap(store, passability, radius, teamCount);
+        product.refresh();
+        product.map.addListener(product);
+        
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map) return;
+        editedTiles.or(change.getEditedTiles());
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public int getRadius() {
+        return radius;
+    }
+    
+    public int getTeamCount() {
+        return teamCount;
+    }
+    
+    /**
+     * @return how strongly a team reaches a tile
+     */
+    public int getInfluence(int team, int tileIndex) {
+        return influence[team][tileIndex];
+    }
+    
+    /**
+     * @return a team's influence on a tile, less every other team's, so
+     * negative where enemies hold sway
+     */
+    public int getBalance(int team, int tileIndex) {
+        int product = 0;
+        for (int other = 0; other < teamCount; other++) {
+            product += (other == team) ? influence[other][tileIndex] : -influence[other][tileIndex];
+        }
+        return product;
+    }
+    
+    /**
+     * @return how many stamps have been put in or taken out
+     */
+    public long getStampCount() {
+        return stampCount;
+    }
+    
+    /**
+     * @return the number of refreshes that changed any tile so far
+     */
+    public long getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * Finds every tile whose influence changed after a given generation, only
+     * looking inside chunks that changed.
+     * @param sinceGeneration the last generation the caller has seen
+     * @param out receives tile indices
+     * @return the number of tiles found
+     */
+    public int collectChangedTiles(long sinceGeneration, BitSet out) {
+        int count = 0;
+        if (generation <= sinceGeneration) return count;
+        for (int chunkY = 0; chunkY < chunkRows; chunkY++) {
+            for (int chunkX = 0; chunkX < chunkColumns; chunkX++) {
+                if (chunkGenerations[(chunkY * chunkColumns) + chunkX] <= sinceGeneration) continue;
+                
+                int maxX = Math.min(width, (chunkX + 1) * CHUNK_DIM);
+                int maxY = Math.min(height, (chunkY + 1) * CHUNK_DIM);
+                for (int y = chunkY * CHUNK_DIM; y < maxY; y++) {
+                    for (int x = chunkX * CHUNK_DIM; x < maxX; x++) {
+                        int i = (y * width) + x;
+                        if (tileGenerations[i] > sinceGeneration) {
+                            out.set(i);
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Brings every tile up to date with the units and the map.
+     */
+    public void refresh() {
+        // Everything touched on the way is stamped with the next generation
+        boolean terrainChanged = !editedTiles.isEmpty();
+        long startStampCount = stampCount;
+        if (terrainChanged) {
+            refreshTerrain();
+        }
+        
+        // Take out units that left, or are not where they were
+        for (int slot = 0; slot < stampedHandles.length; slot++) {
+            int handle = stampedHandles[slot];
+            if (handle == UnitStore.NO_UNIT) continue;
+            if (store.hasUnit(handle) && store.getTileIndex(handle) == stampedTiles[slot]
+                    && store.getTeam(handle) == stampedTeams[slot]) continue;
+            stamp(stampedTiles[slot], influence[stampedTeams[slot]], -1, null, true);
+            stampedHandles[slot] = UnitStore.NO_UNIT;
+        }
+        
+        int slotLimit = store.getSlotLimit();
+        if (slotLimit > stampedHandles.length) {
+            int oldLength = stampedHandles.length;
+            int capacity = Math.max(slotLimit, oldLength * 2);
+            stampedHandles = Arrays.copyOf(stampedHandles, capacity);
+            stampedTiles = Arrays.copyOf(stampedTiles, capacity);
+            stampedTeams = Arrays.copyOf(stampedTeams, capacity);
+            Arrays.fill(stampedHandles, oldLength, capacity, UnitStore.NO_UNIT);
+        }
+        
+        // Put in units that are new, or have moved
+        int count = store.getCount();
+        int[] tileIndices = store.getTileIndexColumn();
+        byte[] teams = store.getTeamColumn();
+        for (int row = 0; row < count; row++) {
+            int handle = store.getHandle(row);
+            int slot = UnitStore.getSlot(handle);
+            if (stampedHandles[slot] == handle) continue;
+            if (teams[row] >= teamCount) {
+                throw new RuntimeException("Team out of range: " + teams[row]);
+            }
+            stamp(tileIndices[row], influence[teams[row]], 1, null, true);
+            stampedHandles[slot] = handle;
+            stampedTiles[slot] = tileIndices[row];
+            stampedTeams[slot] = teams[row];
+        }
+        
+        if (terrainChanged || stampCount != startStampCount) {
+            generation++;
+        }
+    }
+    
+    /**
+     * Works out every tile from scratch, to check refresh() against.
+     * @param team the team to work out
+     * @return the team's influence, by tile
+     */
+    public short[] computeFromScratch(int team) {
+        // Stamp into a spare array, without counting it as a change
+        short[] product = new short[map.getTileCount()];
+        for (int row = 0; row < store.getCount(); row++) {
+            if (store.getTeamColumn()[row] == team) {
+                stamp(store.getTileIndexColumn()[row], product, 1, null, false);
+            }
+        }
+        return product;
+    }
+    
+    private void refreshTerrain() {
+        // Only stamps reaching an edit can change, and only near it
+        BitSet region = dilate(editedTiles, radius);
+        BitSet nearby = dilate(editedTiles, 2 * radius);
+        editedTiles.clear();
+        
+        for (short[] teamInfluence : influence) {
+            for (int i = region.nextSetBit(0); i >= 0; i = region.nextSetBit(i + 1)) {
+                teamInfluence[i] = 0;
+            }
+        }
+        for (int i = region.nextSetBit(0); i >= 0; i = region.nextSetBit(i + 1)) {
+            markChanged(i);
+        }
+        
+        for (int slot = 0; slot < stampedHandles.length; slot++) {
+            if (stampedHandles[slot] == UnitStore.NO_UNIT || !nearby.get(stampedTiles[slot])) continue;
+            stamp(stampedTiles[slot], influence[stampedTeams[slot]], 1, region, true);
+        }
+    }
+    
+    private BitSet dilate(BitSet tiles, int distance) {
+        BitSet product = new BitSet();
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            int x = i % width;
+            int y = i / width;
+            int minX = Math.max(0, x - distance);
+            int maxX = Math.min(width - 1, x + distance);
+            for (int yo = Math.max(0, y - distance); yo <= Math.min(height - 1, y + distance); yo++) {
+                product.set((yo * width) + minX, (yo * width) + maxX + 1);
+            }
+        }
+        return product;
+    }
+    
+    /**
+     * Spreads a unit's kernel out from its tile, step by step.
+     * @param teamInfluence the influence to stamp into
+     * @param sign 1 to put the stamp in, or -1 to take it out
+     * @param mask only these tiles are touched, or every tile if null
+     * @param live whether this is the map's own influence, which counts as a
+     * change
+     */
+    private void stamp(int tileIndex, short[] teamInfluence, int sign, BitSet mask, boolean live) {
+        int originX = (tileIndex % width) - radius;
+        int originY = (tileIndex / width) - radius;
+        mark++;
+        
+        // Tiles go in the queue by distance, so each layer is one step out
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = tileIndex;
+        windowMarks[getWindowIndex(tileIndex, originX, originY)] = mark;
+        int layerEnd = tail;
+        int distance = 0;
+        while (head < tail) {
+            if (head == layerEnd) {
+                distance++;
+                layerEnd = tail;
+            }
+            int current = queue[head++];
+            if (mask == null || mask.get(current)) {
+                teamInfluence[current] += sign * (radius + 1 - distance);
+                if (live) {
+                    markChanged(current);
+                }
+            }
+            if (distance == radius) continue;
+            
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                if (!passability.canStep(current, d)) continue;
+                int next = current + directionOffsets[d];
+                int windowIndex = getWindowIndex(next, originX, originY);
+                if (windowMarks[windowIndex] == mark) continue;
+                windowMarks[windowIndex] = mark;
+                queue[tail++] = next;
+            }
+        }
+        if (live) {
+            stampCount++;
+        }
+    }
+    
+    private void markChanged(int tileIndex) {
+        int x = tileIndex % width;
+        int y = tileIndex / width;
+        tileGenerations[tileIndex] = generation + 1;
+        chunkGenerations[((y / CHUNK_DIM) * chunkColumns) + (x / CHUNK_DIM)] = generation + 1;
+    }
+    
+    private int getWindowIndex(int tileIndex, int originX, int originY) {
+        return (((tileIndex / width) - originY) * windowDim) + ((tileIndex % width) - originX);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.aicore;
+
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.simcore.TurnOrders;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * Turns one of a few team-wide plans into a turn's orders. Searching over
+ * plans, instead of over every unit's own order, keeps the number of choices
+ * per turn small no matter how many units a team has.<br>
+ * <br>
+ * Every plan attacks with units that already have an enemy next to them.
+ * The rest advance on the nearest enemy, hold still, fall back from it, or
+ * close in from the side.
+ * @author Joseph Cramsey
+ */
+public class SquadPlan {
+    
+    public static final int ADVANCE = 0;
+    public static final int HOLD = 1;
+    public static final int RETREAT = 2;
+    public static final int FLANK = 3;
+    public static final int PLAN_COUNT = 4;
+    
+    private SquadPlan() {
+        //
+    }
+    
+    public static String getName(int plan) {
+        switch (plan) {
+            case ADVANCE:
+                return "advance";
+            case HOLD:
+                return "hold";
+            case RETREAT:
+                return "retreat";
+            case FLANK:
+                return "flank";
+            default:
+                throw new RuntimeException("Plan out of range: " + plan);
+        }
+    }
+    
+    /**
+     * Adds orders for every living unit on a team. Looking for the nearest
+     * enemy goes over every unit, so this is meant for a skirmish's worth of
+     * units, not a whole army.
+     * @param store the units
+     * @param passability moves allowed on the store's map
+     * @param team the team taking orders
+     * @param plan what the team does this turn
+     * @param orders receives the orders
+     */
+    public static void giveOrders(UnitStore store, TerrainPassability passability,
+            int team, int plan, TurnOrders orders) {
+        if (plan < 0 || plan >= PLAN_COUNT) {
+            throw new RuntimeException("Plan out of range: " + plan);
+        }
+        
+        int width = store.getMap().getWidth();
+        int count = store.getCount();
+        int[] tileIndices = store.getTileIndexColumn();
+        int[] hitPoints = store.getHitPointColumn();
+        byte[] teams = store.getTeamColumn();
+        for (int row = 0; row < count; row++) {
+            if (teams[row] != team || hitPoints[row] <= 0) continue;
+            
+            int x = tileIndices[row] % width;
+            int y = tileIndices[row] / width;
+            int nearest = -1;
+            int nearestDistance = Integer.MAX_VALUE;
+            for (int other = 0; other < count; other++) {
+                if (teams[other] == team || hitPoints[other] <= 0) continue;
+                int distance = Math.max(Math.abs((tileIndices[other] % width) - x),
+                        Math.abs((tileIndices[other] / width) - y));
+                if (distance < nearestDistance) {
+                    nearest = other;
+                    nearestDistance = distance;
+                }
+            }
+            if (nearest < 0) continue;
+            
+            if (nearestDistance <= 1) {
+                orders.addAttack(store.getHandle(row), store.getHandle(nearest));
+                continue;
+            }
+            if (plan == HOLD) continue;
+            
+            int dx = Integer.signum((tileIndices[nearest] % width) - x);
+            int dy = Integer.signum((tileIndices[nearest] / width) - y);
+            if (plan == RETREAT) {
+                dx = -dx;
+                dy = -dy;
+            }
+            int direction = TacticalTileData.getDirectionFromSigns(dx, dy);
+            if (plan == FLANK) {
+                // Come in at an angle, alternating sides by row
+                direction = (direction + ((row % 2 == 0) ? 1 : TacticalTileData.DIR_LEN - 1))
+                        % TacticalTileData.DIR_LEN;
+            }
+            
+            for (int attempt = 0; attempt < TacticalTileData.STEP_TRIES; attempt++) {
+                int tryDirection = TacticalTileData.getStepTry(direction, attempt);
+                if (passability.canStep(tileIndices[row], tryDirection)) {
+                    orders.addMove(store.getHandle(row), tryDirection);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.aicore;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import joeyproductions.kazhardcommand.combatcore.CoverTable;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.simcore.SplitMix64;
+import joeyproductions.kazhardcommand.simcore.TurnOrders;
+import joeyproductions.kazhardcommand.simcore.TurnResolver;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * A computer opponent that picks a squad plan for its team by Monte Carlo
+ * tree search, with every worker thread growing the same tree.<br>
+ * <br>
+ * Each worker keeps its own copy of the units and its own turn resolver, and
+ * copies the root units back in before every playout, so playouts never
+ * share state. The terrain is not copied: no plan edits it, so workers read
+ * it through the shared passability and cover tables, and the map must not
+ * be edited while a search runs.<br>
+ * <br>
+ * Workers walk down the tree by UCT, adding a virtual loss to every node on
+ * the way, so other workers spread out instead of all following the same
+ * line. Past the tree, both teams play random plans for a few more turns,
+ * and the score is how the hit point balance moved since the root.<br>
+ * <br>
+ * The calling thread waits out the time budget and then answers from
+ * whatever the tree holds, without waiting on playouts still in flight.
+ * Workers check the clock before resolving each turn they play, and stop a
+ * margin ahead of the deadline: a typical turn, plus the longest the calling
+ * thread took to answer after stopping over recent searches, so it grows on
+ * a busy machine and shrinks back after.<br>
+ * <br>
+ * That does not rule out a late answer: another thread, such as the JIT
+ * compiler, can hold the CPU right at the deadline. TacticalSearchBenchmark
+ * fails if any answer comes more than a bound late, 10 ms by default. With
+ * one worker on one CPU and a 100 ms budget, nearly every search answers in
+ * time, and the rare late one within a few milliseconds.
+ * @author Joseph Cramsey
+ */
+public class TacticalSearch {
+    
+    public static final int DEFAULT_TREE_DEPTH = 4;
+    public static final int DEFAULT_PLAYOUT_TURNS = 6;
+    
+    private static final double EXPLORATION = Math.sqrt(2.0);
+    
+    // The least of the budget set aside for waking up and answering, and
+    // what a new search assumes answering takes until it has measured it;
+    // the first few searches are the slowest, as the JIT is still at work
+    private static final long MIN_STOP_MARGIN_NANOS = 100000;
+    private static final long FIRST_ANSWER_NANOS = 5000000;
+    
+    // The answer peak loses this fraction (1/n) every search, and turn times
+    // are averaged over about this many turns
+    private static final int PEAK_DECAY = 8;
+    private static final int TURN_SMOOTHING = 64;
+    
+    private final TerrainPassability passability;
+    private final CoverTable cover;
+    private final UnitStore rootStore;
+    private final int workerCount;
+    private final int treeDepth;
+    private final int playoutTurns;
+    private final ExecutorService executor;
+    private final Worker[] workers;
+    
+    // Teams other than the searching one, as of the root
+    private int[] opponents = new int[0];
+    
+    private final AtomicLong playoutCount = new AtomicLong();
+    private volatile boolean isStopped = true;
+    private CountDownLatch running = new CountDownLatch(0);
+    
+    private long lastPlayouts = 0;
+    private long lastNanos = 0;
+    private long lastOvershootNanos = 0;
+    private long lastStopMarginNanos = 0;
+    private int lastTreeSize = 0;
+    
+    // How long after stopping the calling thread took to answer, at worst
+    private long answerPeakNanos = FIRST_ANSWER_NANOS;
+    
+    private static class Node {
+        
+        final Node parent;
+        final int plan;
+        final int depth;
+        Node[] children = null;
+        int visits = 0;
+        int virtualLosses = 0;
+        double totalScore = 0;
+        
+        Node(Node parent, int plan) {
+            this.parent = parent;
+            this.plan = plan;
+            depth = parent == null ? 0 : parent.depth + 1;
+        }
+    }
+    
+    // Everything one thread needs to play out a line on its own
+    private class Worker {
+        
+        final UnitStore store;
+        final TurnResolver resolver;
+        final TurnOrders orders = new TurnOrders();
+        final SplitMix64 random;
+        
+        // How long this worker's turns take, on a running average
+        volatile long turnNanos = 0;
+        
+        Worker(long seed) {
+            store = UnitStore.create(rootStore.getMap());
+            resolver = TurnResolver.create(store, passability, cover, seed, false);
+            random = new SplitMix64(seed);
+        }
+    }
+    
+    private TacticalSearch(TerrainPassability passability, CoverTable cover,
+            int workerCount, int treeDepth, int playoutTurns, long seed) {
+        this.passability = passability;
+        this.cover = cover;
+        this.workerCount = workerCount;
+        this.treeDepth = treeDepth;
+        this.playoutTurns = playoutTurns;
+        rootStore = UnitStore.create(passability.getMap());
+        executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "Tactical search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        SplitMix64 seeds = new SplitMix64(seed);
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(seeds.nextLong());
+        }
+    }
+    
+    public static TacticalSearch create(TerrainPassability passability, CoverTable cover, int workerCount) {
+        return create(passability, cover, workerCount, DEFAULT_TREE_DEPTH, DEFAULT_PLAYOUT_TURNS, 1);
+    }
+    
+    /**
+     * @param passability moves allowed on the map being played
+     * @param cover cover on the same map
+     * @param workerCount how many threads search at once
+     * @param treeDepth how many turns deep the tree may grow
+     * @param playoutTurns how many random turns are played past the tree
+     * @param seed where playouts get their randomness
+     * @return the new search, which owns threads until disposed
+     */
+    public static TacticalSearch create(TerrainPassability passability, CoverTable cover,
+            int workerCount, int treeDepth, int playoutTurns, long seed) {
+        if (passability.getMap() != cover.getMap()) {
+            throw new RuntimeException("Passability and cover are for different maps");
+        }
+        if (workerCount < 1) {
+            throw new RuntimeException("Worker count out of range: " + workerCount);
+        }
+        if (treeDepth < 1) {
+            throw new RuntimeException("Tree depth out of range: " + treeDepth);
+        }
+        if (playoutTurns < 0) {
+            throw new RuntimeException("Playout turns out of range: " + playoutTurns);
+        }
+        return new TacticalSearch(passability, cover, workerCount, treeDepth, playoutTurns, seed);
+    }
+    
+    /**
+     * Stops the worker threads.
+     */
+    public void dispose() {
+        isStopped = true;
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Searches for the best plan for a team, returning once the budget runs
+     * out. The units are copied first, so the caller can go on changing them.
+     * @param store the units as they stand, on the search's map
+     * @param team the team to plan for
+     * @param budgetNanos how long to search for
+     * @return one of the SquadPlan plans
+     */
+    public int search(UnitStore store, int team, long budgetNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        
+        // Workers from the last search stop within a turn, and have to be
+        // done with the root units before they are replaced
+        running.await();
+        long stopTime = deadline - getStopMargin(budgetNanos);
+        rootStore.copyFrom(store);
+        opponents = findOpponents(rootStore, team);
+        double startBalance = getBalance(rootStore, team);
+        double totalHitPoints = Math.max(1, getTotalHitPoints(rootStore));
+        
+        Node root = new Node(null, -1);
+        long startPlayouts = playoutCount.get();
+        CountDownLatch latch = new CountDownLatch(workerCount);
+        running = latch;
+        isStopped = false;
+        for (Worker worker : workers) {
+            executor.execute(() -> {
+                try {
+                    while (!isStopped && System.nanoTime() < stopTime) {
+                        playout(worker, root, team, startBalance, totalHitPoints, stopTime);
+                    }
+                }
+                finally {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        latch.await(Math.max(0, stopTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+        isStopped = true;
+        
+        int best = pickBest(root);
+        long end = System.nanoTime();
+        answerPeakNanos = Math.max(answerPeakNanos, end - stopTime);
+        lastPlayouts = playoutCount.get() - startPlayouts;
+        lastNanos = end - start;
+        lastOvershootNanos = Math.max(0, end - deadline);
+        lastStopMarginNanos = deadline - stopTime;
+        lastTreeSize = countNodes(root);
+        return best;
+    }
+    
+    /**
+     * @return playouts finished over every search
+     */
+    public long getPlayoutCount() {
+        return playoutCount.get();
+    }
+    
+    public long getLastPlayouts() {
+        return lastPlayouts;
+    }
+    
+    public long getLastNanos() {
+        return lastNanos;
+    }
+    
+    /**
+     * @return how long past its deadline the last search returned
+     */
+    public long getLastOvershootNanos() {
+        return lastOvershootNanos;
+    }
+    
+    /**
+     * @return how far ahead of its deadline the last search stopped workers
+     */
+    public long getLastStopMarginNanos() {
+        return lastStopMarginNanos;
+    }
+    
+    public int getLastTreeSize() {
+        return lastTreeSize;
+    }
+    
+    public int getWorkerCount() {
+        return workerCount;
+    }
+    
+    private void playout(Worker worker, Node root, int team,
+            double startBalance, double totalHitPoints, long stopTime) {
+        UnitStore store = worker.store;
+        store.copyFrom(rootStore);
+        
+        // Walk down, taking a virtual loss at every node passed
+        Node node = root;
+        synchronized (root) {
+            root.virtualLosses++;
+        }
+        while (node.depth < treeDepth && !isDecided(store)) {
+            node = select(node);
+            if (!playTurn(worker, team, node.plan, stopTime)) {
+                undoVirtualLosses(node);
+                return;
+            }
+        }
+        
+        for (int turn = 0; turn < playoutTurns && !isDecided(store); turn++) {
+            if (!playTurn(worker, team, worker.random.nextInt(SquadPlan.PLAN_COUNT), stopTime)) {
+                undoVirtualLosses(node);
+                return;
+            }
+        }
+        
+        // From 0 for losing every hit point the root had, to 1 for the enemy
+        // doing so
+        double score = 0.5 + ((getBalance(store, team) - startBalance) / (2 * totalHitPoints));
+        for (Node n = node; n != null; n = n.parent) {
+            synchronized (n) {
+                n.virtualLosses--;
+                n.visits++;
+                n.totalScore += score;
+            }
+        }
+        playoutCount.incrementAndGet();
+    }
+    
+    private Node select(Node node) {
+        synchronized (node) {
+            if (node.children == null) {
+                node.children = new Node[SquadPlan.PLAN_COUNT];
+                for (int plan = 0; plan < SquadPlan.PLAN_COUNT; plan++) {
+                    node.children[plan] = new Node(node, plan);
+                }
+            }
+            
+            // Virtual losses count as visits that scored nothing
+            double logVisits = Math.log(Math.max(1, node.visits + node.virtualLosses));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (Node child : node.children) {
+                double value;
+                synchronized (child) {
+                    int visits = child.visits + child.virtualLosses;
+                    value = visits == 0 ? Double.POSITIVE_INFINITY
+                            : (child.totalScore / visits) + (EXPLORATION * Math.sqrt(logVisits / visits));
+                }
+                if (value > bestValue) {
+                    best = child;
+                    bestValue = value;
+                }
+            }
+            synchronized (best) {
+                best.virtualLosses++;
+            }
+            return best;
+        }
+    }
+    
+    private void undoVirtualLosses(Node node) {
+        for (Node n = node; n != null; n = n.parent) {
+            synchronized (n) {
+                n.virtualLosses--;
+            }
+        }
+    }
+    
+    /**
+     * @return false if the search stopped before the turn could be resolved
+     */
+    private boolean playTurn(Worker worker, int team, int plan, long stopTime) {
+        long start = System.nanoTime();
+        if (isStopped || start >= stopTime) return false;
+        
+        UnitStore store = worker.store;
+        worker.orders.clear();
+        SquadPlan.giveOrders(store, passability, team, plan, worker.orders);
+        for (int other : opponents) {
+            SquadPlan.giveOrders(store, passability, other,
+                    worker.random.nextInt(SquadPlan.PLAN_COUNT), worker.orders);
+        }
+        if (isStopped || System.nanoTime() >= stopTime) return false;
+        worker.resolver.resolve(worker.orders);
+        
+        long turnNanos = System.nanoTime() - start;
+        worker.turnNanos += (turnNanos - worker.turnNanos) / TURN_SMOOTHING;
+        return true;
+    }
+    
+    private long getStopMargin(long budgetNanos) {
+        long turnNanos = 0;
+        for (Worker worker : workers) {
+            turnNanos = Math.max(turnNanos, worker.turnNanos);
+        }
+        long margin = Math.max(MIN_STOP_MARGIN_NANOS, turnNanos + answerPeakNanos);
+        answerPeakNanos -= answerPeakNanos / PEAK_DECAY;
+        return Math.min(margin, budgetNanos / 4);
+    }
+    
+    private int pickBest(Node root) {
+        // Most visited is steadier than best average
+        int best = SquadPlan.HOLD;
+        int bestVisits = 0;
+        synchronized (root) {
+            if (root.children == null) return best;
+            for (Node child : root.children) {
+                synchronized (child) {
+                    if (child.visits > bestVisits) {
+                        best = child.plan;
+                        bestVisits = child.visits;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    
+    private int countNodes(Node node) {
+        synchronized (node) {
+            if (node.children == null) return 1;
+            int product = 1;
+            for (Node child : node.children) {
+                product += countNodes(child);
+            }
+            return product;
+        }
+    }
+    
+    private static int[] findOpponents(UnitStore store, int team) {
+        byte[] teams = store.getTeamColumn();
+        boolean[] isPresent = new boolean[Byte.MAX_VALUE + 1];
+        int found = 0;
+        for (int row = 0; row < store.getCount(); row++) {
+            if (teams[row] != team && !isPresent[teams[row]]) {
+                isPresent[teams[row]] = true;
+                found++;
+            }
+        }
+        
+        int[] product = new int[found];
+        found = 0;
+        for (int other = 0; other < isPresent.length; other++) {
+            if (isPresent[other]) {
+                product[found++] = other;
+            }
+        }
+        return product;
+    }
+    
+    /**
+     * @return true once only one team has units left
+     */
+    private static boolean isDecided(UnitStore store) {
+        byte[] teams = store.getTeamColumn();
+        for (int row = 1; row < store.getCount(); row++) {
+            if (teams[row] != teams[0]) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return the team's hit points, less everyone else's
+     */
+    private static double getBalance(UnitStore store, int team) {
+        int[] hitPoints = store.getHitPointColumn();
+        byte[] teams = store.getTeamColumn();
+        long product = 0;
+        for (int row = 0; row < store.getCount(); row++) {
+            product += teams[row] == team ? hitPoints[row] : -hitPoints[row];
+        }
+        return product;
+    }
+    
+    private static long getTotalHitPoints(UnitStore store) {
+        int[] hitPoints = store.getHitPointColumn();
+        long product = 0;
+        for (int row = 0; row < store.getCount(); row++) {
+            product += hitPoints[row];
+        }
+        return product;
+    }
+}
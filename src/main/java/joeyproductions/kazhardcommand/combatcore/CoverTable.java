@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.combatcore;
+
+import java.util.BitSet;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * The cover each tile gives from each direction, and its elevation, packed
+ * into one int per tile so combat can ask as often as it likes.<br>
+ * <br>
+ * A higher orthogonal neighbor is a wall and gives full cover from that side,
+ * unless it is the ramp leading up from a ramp base, which only gives half.
+ * A higher diagonal neighbor gives half cover from the corner, and so does a
+ * wall to either side of it. Two walls around a corner give full cover.<br>
+ * <br>
+ * Per tile, bits 0-15 are the cover by direction, two bits each, bits 16-23
+ * are the neighbors a level below, and bits 24-27 are the tile's own level.<br>
+ * <br>
+ * getAttackDamage() is the damage rule every simulation shares, so cover and
+ * height count the same everywhere.
+ * @author Joseph Cramsey
+ */
+public class CoverTable implements TacticalMapListener {
+    
+    public static final int COVER_NONE = 0;
+    public static final int COVER_HALF = 1;
+    public static final int COVER_FULL = 2;
+    
+    // Damage before height and cover is BASE_DAMAGE plus a roll below this
+    public static final int DAMAGE_SPREAD = 6;
+    private static final int BASE_DAMAGE = 6;
+    private static final int ELEVATION_DAMAGE = 3;
+    private static final int COVER_STEPS = COVER_FULL + 1;
+    
+    private static final int COVER_BITS = 2;
+    private static final int COVER_MASK = 0b11;
+    private static final int LOWER_SHIFT = 16;
+    private static final int LEVEL_SHIFT = 24;
+    
+    // tan(22.5 degrees) is close to 169 / 408, for sorting offsets by octant
+    private static final int OCTANT_RISE = 169;
+    private static final int OCTANT_RUN = 408;
+    
+    private final TacticalMapData map;
+    private final int width;
+    private final int height;
+    private final int[] entries;
+    
+    private CoverTable(TacticalMapData map) {
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+        entries = new int[map.getTileCount()];
+    }
+    
+    /**
+     * Works out cover for a whole map, and keeps it up to date as the map is
+     * edited.
+     * @param map the map to follow
+     * @return the new table
+     */
+    public static CoverTable create(TacticalMapData map) {
+        CoverTable product = new CoverTable(map);
+        
+        for (int y = 0; y < product.height; y++) {
+            for (int x = 0; x < product.width; x++) {
+                product.refresh(x, y);
+            }
+        }
+        map.addListener(product);
+        
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map) return;
+        
+        // Cover only depends on the tiles one step away
+        BitSet editedTiles = change.getEditedTiles();
+        BitSet affectedTiles = new BitSet();
+        for (int i = editedTiles.nextSetBit(0); i >= 0; i = editedTiles.nextSetBit(i + 1)) {
+            int x = i % width;
+            int y = i / width;
+            int minX = Math.max(0, x - 1);
+            int maxX = Math.min(width - 1, x + 1);
+            for (int yo = Math.max(0, y - 1); yo <= Math.min(height - 1, y + 1); yo++) {
+                affectedTiles.set((yo * width) + minX, (yo * width) + maxX + 1);
+            }
+        }
+        
+        for (int i = affectedTiles.nextSetBit(0); i >= 0; i = affectedTiles.nextSetBit(i + 1)) {
+            refresh(i % width, i / width);
+        }
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * @return the whole packed entry for a tile
+     */
+    public int getEntry(int tileIndex) {
+        return entries[tileIndex];
+    }
+    
+    /**
+     * Gets the cover a tile gives against attacks coming from one direction.
+     * @return COVER_NONE, COVER_HALF, or COVER_FULL
+     */
+    public int getCover(int tileIndex, int direction) {
+        return (entries[tileIndex] >>> (direction * COVER_BITS)) & COVER_MASK;
+    }
+    
+    /**
+     * Gets the cover a target has against an attacker, going by which of the
+     * eight directions the attacker is closest to.
+     */
+    public int getCover(int targetX, int targetY, int attackerX, int attackerY) {
+        if (targetX == attackerX && targetY == attackerY) return COVER_NONE;
+        return getCover(map.getTileIndex(targetX, targetY), getDirection(attackerX - targetX, attackerY - targetY));
+    }
+    
+    /**
+     * @return the tile's level, from 0 for ground
+     */
+    public int getLevel(int tileIndex) {
+        return entries[tileIndex] >>> LEVEL_SHIFT;
+    }
+    
+    /**
+     * @return how many levels an attacker stands above a target, which is
+     * negative when the attacker is below
+     */
+    public int getElevationAdvantage(int attackerTileIndex, int targetTileIndex) {
+        return getLevel(attackerTileIndex) - getLevel(targetTileIndex);
+    }
+    
+    /**
+     * Works out how hard one attack hits.
+     * @param roll a random number from 0 to DAMAGE_SPREAD - 1
+     * @param elevationAdvantage as from getElevationAdvantage()
+     * @param cover the target's cover against the attacker
+     * @return the hit points taken off the target
+     */
+    public static int getAttackDamage(int roll, int elevationAdvantage, int cover) {
+        int damage = BASE_DAMAGE + roll + (ELEVATION_DAMAGE * Math.max(0, elevationAdvantage));
+        
+        // Each step of cover takes off a third
+        return (damage * (COVER_STEPS - cover)) / COVER_STEPS;
+    }
+    
+    /**
+     * @return one bit per direction, set if that neighbor is below this tile,
+     * so the tile overlooks a drop that way
+     */
+    public int getLowerPattern(int tileIndex) {
+        return (entries[tileIndex] >>> LOWER_SHIFT) & TerrainPassability.ALL_DIRECTIONS;
+    }
+    
+    /**
+     * Sorts an offset into the closest of the eight directions.
+     * @param dx x offset, which must not be 0 along with dy
+     * @param dy y offset, where negative is north
+     * @return the direction, as in TacticalTileData
+     */
+    public static int getDirection(int dx, int dy) {
+        int adx = Math.abs(dx);
+        int ady = Math.abs(dy);
+        if ((long)ady * OCTANT_RUN <= (long)adx * OCTANT_RISE) {
+            return dx > 0 ? TacticalTileData.EAST : TacticalTileData.WEST;
+        }
+        if ((long)adx * OCTANT_RUN <= (long)ady * OCTANT_RISE) {
+            return dy < 0 ? TacticalTileData.NORTH : TacticalTileData.SOUTH;
+        }
+        if (dx > 0) {
+            return dy < 0 ? TacticalTileData.NORTHEAST : TacticalTileData.SOUTHEAST;
+        }
+        return dy < 0 ? TacticalTileData.NORTHWEST : TacticalTileData.SOUTHWEST;
+    }
+    
+    private void refresh(int x, int y) {
+        TacticalTileData[] tiles = map.getTiles();
+        byte terrainCode = tiles[(y * width) + x].getTerrainCode();
+        int level = TacticalTileData.getLevel(terrainCode);
+        
+        int higherPattern = 0;
+        int rampPattern = 0;
+        int lowerPattern = 0;
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+            int xo = x + TacticalTileData.getXOffsetFromDirection(d);
+            int yo = y + TacticalTileData.getYOffsetFromDirection(d);
+            if (!map.isInBounds(xo, yo)) continue;
+            
+            int neighborLevel = TacticalTileData.getLevel(tiles[(yo * width) + xo].getTerrainCode());
+            if (neighborLevel > level) {
+                higherPattern |= 1 << d;
+                if (neighborLevel == level + 1) {
+                    rampPattern |= 1 << d;
+                }
+            }
+            else if (neighborLevel < level) {
+                lowerPattern |= 1 << d;
+            }
+        }
+        
+        int entry = (level << LEVEL_SHIFT) | (lowerPattern << LOWER_SHIFT);
+        if (!TacticalTileData.isRampBase(terrainCode)) {
+            rampPattern = 0;
+        }
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+            int cover;
+            int sides = bitAt(higherPattern, d + 1) + bitAt(higherPattern, d + 7);
+            if (d % 2 == 0) {
+                if (bitAt(higherPattern, d) == 0) {
+                    cover = sides > 0 ? COVER_HALF : COVER_NONE;
+                }
+                else {
+                    // Orthogonal neighbors one level above a ramp base are ramps
+                    cover = bitAt(rampPattern, d) != 0 ? COVER_HALF : COVER_FULL;
+                }
+            }
+            else if (sides == 2) {
+                cover = COVER_FULL;
+            }
+            else {
+                cover = (sides > 0 || bitAt(higherPattern, d) != 0) ? COVER_HALF : COVER_NONE;
+            }
+            entry |= cover << (d * COVER_BITS);
+        }
+        entries[(y * width) + x] = entry;
+    }
+    
+    private static int bitAt(int pattern, int direction) {
+        return (pattern >>> (direction % TacticalTileData.DIR_LEN)) & 1;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.lang.management.ManagementFactory;
+import joeyproductions.kazhardcommand.generatorcore.TacticalMapGenerator;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Sources of large maps for benchmarks.
+ * @author Joseph Cramsey
+ */
+public class BenchmarkMaps {
+    
+    private BenchmarkMaps() {
+        //
+    }
+    
+    /**
+     * Repeats the testing map until it fills the requested size.
+     * @param width map width, in tiles
+     * @param height map height, in tiles
+     * @return one terrain code per tile
+     */
+    public static byte[] createTiledTerrain(int width, int height) {
+        TacticalMapData testMap = TacticalMapData.create();
+        int testWidth = testMap.getWidth();
+        int testHeight = testMap.getHeight();
+        
+        byte[] terrainCodes = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                TacticalTileData tile = testMap.getTile(x % testWidth, y % testHeight);
+                terrainCodes[y * width + x] = tile.getTerrainCode();
+            }
+        }
+        
+        return terrainCodes;
+    }
+    
+    public static TacticalMapData createTiledMap(int width, int height) {
+        return TacticalMapData.create(width, height, createTiledTerrain(width, height));
+    }
+    
+    /**
+     * Generates plateaus with cliffs and ramps across open ground. Unlike the
+     * tiled testing map, most of this map is open.
+     * @param width map width, in tiles
+     * @param height map height, in tiles
+     * @param seed generator seed
+     * @return one terrain code per tile
+     */
+    public static byte[] createPlateauTerrain(int width, int height, long seed) {
+        return TacticalMapGenerator.create(seed).generateTerrain(width, height);
+    }
+    
+    public static TacticalMapData createPlateauMap(int width, int height, long seed) {
+        return TacticalMapData.create(width, height, createPlateauTerrain(width, height, seed));
+    }
+    
+    static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+    
+    /**
+     * @return bytes allocated by this thread so far, or -1 if the JVM does
+     * not keep count
+     */
+    static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.pathcore.ConnectivityIndex;
+import joeyproductions.kazhardcommand.pathcore.TacticalPathfinder;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+
+/**
+ * Measures reachability checks against searching, then edits the map and
+ * checks that the incrementally updated regions match a fresh index and the
+ * pathfinder.<br>
+ * <br>
+ * Usage: ConnectivityBenchmark [map side length] [edits]
+ * @author Joseph Cramsey
+ */
+public class ConnectivityBenchmark {
+    
+    private static final int QUERIES = 1000000;
+    private static final int SEARCHES = 200;
+    private static final int CHECKS = 100000;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int editCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TerrainPassability passability = TerrainPassability.create(map);
+        TacticalPathfinder pathfinder = TacticalPathfinder.create(passability);
+        
+        long start = System.nanoTime();
+        ConnectivityIndex index = ConnectivityIndex.create(passability);
+        System.out.printf("Labeled %d regions in %.2f ms%n",
+                index.getRegionCount(), BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        Random random = new Random(4);
+        int tileCount = map.getTileCount();
+        start = System.nanoTime();
+        int reachable = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            if (index.canReach(random.nextInt(tileCount), random.nextInt(tileCount))) reachable++;
+        }
+        System.out.printf("Reachability checks: %.1f ns each (%d reachable)%n",
+                (double)(System.nanoTime() - start) / QUERIES, reachable);
+        
+        start = System.nanoTime();
+        for (int i = 0; i < SEARCHES; i++) {
+            int from = random.nextInt(tileCount);
+            int to = random.nextInt(tileCount);
+            boolean found = pathfinder.findPath(from % dim, from / dim, to % dim, to / dim) != null;
+            if (found != index.canReach(from, to)) {
+                throw new RuntimeException("Index and pathfinder disagree on " + from + " to " + to);
+            }
+        }
+        System.out.printf("Searching instead: %.1f us each%n",
+                (System.nanoTime() - start) / 1000.0 / SEARCHES);
+        
+        // Walls and ramps going up and down, so regions split and join
+        start = System.nanoTime();
+        for (int i = 0; i < editCount; i++) {
+            int x = random.nextInt(dim);
+            int y = random.nextInt(dim);
+            TacticalMapEdit edit = map.beginEdit();
+            if (random.nextBoolean()) {
+                for (int o = 0; o < 8 && x + o < dim; o++) {
+                    edit.setTerrainCode(x + o, y, (byte)random.nextInt(2));
+                }
+            }
+            else {
+                edit.setTerrainCode(x, y, (byte)random.nextInt(3));
+            }
+            edit.commit();
+        }
+        long editNanos = System.nanoTime() - start;
+        System.out.printf("Edits: %.1f us each, %d unioned in, %d rebuilt%n",
+                editNanos / 1000.0 / editCount, index.getUnionUpdateCount(), index.getRebuildCount() - 1);
+        
+        ConnectivityIndex fresh = ConnectivityIndex.create(passability);
+        if (fresh.getRegionCount() != index.getRegionCount()) {
+            throw new RuntimeException("Region count " + index.getRegionCount() + " should be " + fresh.getRegionCount());
+        }
+        for (int i = 0; i < CHECKS; i++) {
+            int from = random.nextInt(tileCount);
+            int to = (i % 2 == 0) ? random.nextInt(tileCount) : Math.min(tileCount - 1, from + random.nextInt(64));
+            if (index.canReach(from, to) != fresh.canReach(from, to)) {
+                throw new RuntimeException("Updated index differs on " + from + " to " + to);
+            }
+        }
+        for (int i = 0; i < SEARCHES; i++) {
+            int from = random.nextInt(tileCount);
+            int to = random.nextInt(tileCount);
+            boolean found = pathfinder.findPath(from % dim, from / dim, to % dim, to / dim) != null;
+            if (found != index.canReach(from, to)) {
+                throw new RuntimeException("Updated index and pathfinder disagree on " + from + " to " + to);
+            }
+        }
+        System.out.println("Updated index matches a fresh index and the pathfinder");
+    }
+}
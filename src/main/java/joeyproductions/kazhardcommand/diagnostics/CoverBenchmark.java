@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.combatcore.CoverTable;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Measures cover queries, checks that they allocate nothing, and checks the
+ * table against a fresh one after edits.<br>
+ * <br>
+ * Usage: CoverBenchmark [map side length] [edits]
+ * @author Joseph Cramsey
+ */
+public class CoverBenchmark {
+    
+    private static final int QUERIES = 10000000;
+    private static final int ATTACK_RANGE = 12;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int editCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        long start = System.nanoTime();
+        CoverTable table = CoverTable.create(map);
+        System.out.printf("Built %dx%d table in %.2f ms%n",
+                dim, dim, BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        // Random numbers come from a plain LCG, so only the table is measured
+        long seed = 6;
+        long checksum = 0;
+        long overhead = -BenchmarkMaps.getAllocatedBytes() + BenchmarkMaps.getAllocatedBytes();
+        for (int round = 0; round < 2; round++) {
+            long allocated = BenchmarkMaps.getAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                seed = (seed * 6364136223846793005L) + 1442695040888963407L;
+                int targetX = (int)((seed >>> 33) % (dim - 2 * ATTACK_RANGE)) + ATTACK_RANGE;
+                int targetY = (int)((seed >>> 13) & 0xFFFFF) % (dim - 2 * ATTACK_RANGE) + ATTACK_RANGE;
+                int dx = (int)(seed & 31) - 16;
+                int dy = (int)((seed >>> 5) & 31) - 16;
+                int attackerX = targetX + (dx % ATTACK_RANGE);
+                int attackerY = targetY + (dy % ATTACK_RANGE);
+                checksum += table.getCover(targetX, targetY, attackerX, attackerY)
+                        + table.getElevationAdvantage(map.getTileIndex(attackerX, attackerY), map.getTileIndex(targetX, targetY));
+            }
+            long nanos = System.nanoTime() - start;
+            allocated = BenchmarkMaps.getAllocatedBytes() - allocated - overhead;
+            System.out.printf("Cover queries: %.1f ns each, %d bytes allocated (%d)%n",
+                    (double)nanos / QUERIES, allocated, checksum);
+        }
+        
+        Random random = new Random(7);
+        start = System.nanoTime();
+        for (int i = 0; i < editCount; i++) {
+            int x = random.nextInt(dim);
+            int y = random.nextInt(dim);
+            TacticalMapEdit edit = map.beginEdit();
+            for (int o = 0; o < 4 && x + o < dim; o++) {
+                edit.setTerrainCode(x + o, y, (byte)random.nextInt(3));
+            }
+            edit.commit();
+        }
+        System.out.printf("Edits: %.1f us each%n", (System.nanoTime() - start) / 1000.0 / editCount);
+        
+        CoverTable fresh = CoverTable.create(map);
+        fresh.dispose();
+        int covered = 0;
+        for (int i = 0; i < map.getTileCount(); i++) {
+            if (table.getEntry(i) != fresh.getEntry(i)) {
+                throw new RuntimeException("Updated table differs at tile " + i);
+            }
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                if (table.getCover(i, d) == CoverTable.COVER_FULL) {
+                    covered++;
+                    break;
+                }
+            }
+        }
+        System.out.println("Updated table matches a fresh table, " + covered + " tiles with full cover somewhere");
+    }
+}
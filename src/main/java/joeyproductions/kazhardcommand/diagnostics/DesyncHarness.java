@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.simcore.TacticalSimulation;
+
+/**
+ * Runs two copies of the same simulation side by side on their own threads,
+ * and reports the first tick where their checksums differ. The first pass
+ * must never differ. The second pass nudges one copy on purpose, and must be
+ * caught on exactly that tick.<br>
+ * <br>
+ * Usage: DesyncHarness [map side length] [units] [ticks] [fault tick]
+ * @author Joseph Cramsey
+ */
+public class DesyncHarness {
+    
+    private static final long SEED = 14;
+    private static final int SCRATCH_CHECK_INTERVAL = 250;
+    private static final int CHECKSUM_CALLS = 1000000;
+    private static final int NO_FAULT = -1;
+    
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int unitCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int tickCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int faultTick = args.length > 3 ? Integer.parseInt(args[3]) : tickCount / 2;
+        
+        byte[] terrainCodes = BenchmarkMaps.createPlateauTerrain(dim, dim, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long start = System.nanoTime();
+            Future<long[]> first = executor.submit(() -> run(terrainCodes, dim, unitCount, tickCount, NO_FAULT));
+            Future<long[]> second = executor.submit(() -> run(terrainCodes, dim, unitCount, tickCount, NO_FAULT));
+            int divergence = findDivergence(first.get(), second.get());
+            System.out.printf("Clean pass: %d ticks of %d units in %.2f ms per copy%n",
+                    tickCount, unitCount, BenchmarkMaps.toMillis(System.nanoTime() - start) / 2);
+            if (divergence != NO_FAULT) {
+                throw new RuntimeException("Identical simulations diverged at tick " + divergence);
+            }
+            System.out.println("No divergence");
+            
+            first = executor.submit(() -> run(terrainCodes, dim, unitCount, tickCount, NO_FAULT));
+            second = executor.submit(() -> run(terrainCodes, dim, unitCount, tickCount, faultTick));
+            divergence = findDivergence(first.get(), second.get());
+            System.out.println("Fault injected at tick " + faultTick + ", first divergent tick: " + divergence);
+            if (divergence != faultTick) {
+                throw new RuntimeException("The fault was not caught where it happened");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        TacticalSimulation simulation = TacticalSimulation.create(
+                TacticalMapData.create(dim, dim, terrainCodes), SEED, unitCount);
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < CHECKSUM_CALLS; i++) {
+            checksum ^= simulation.getChecksum();
+        }
+        long incrementalNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        checksum ^= simulation.computeChecksumFromScratch();
+        System.out.printf("Checksum: %.1f ns incrementally, %.3f ms from scratch (%d)%n",
+                (double)incrementalNanos / CHECKSUM_CALLS,
+                BenchmarkMaps.toMillis(System.nanoTime() - start), checksum);
+    }
+    
+    /**
+     * Runs one copy, recording the checksum after every tick.
+     */
+    private static long[] run(byte[] terrainCodes, int dim, int unitCount, int tickCount, int faultTick) {
+        TacticalSimulation simulation = TacticalSimulation.create(
+                TacticalMapData.create(dim, dim, terrainCodes), SEED, unitCount);
+        long[] product = new long[tickCount];
+        for (int tick = 0; tick < tickCount; tick++) {
+            if (tick == faultTick) {
+                for (int id = 0; id < simulation.getUnitCount(); id++) {
+                    if (simulation.getHitPoints(id) > 0) {
+                        simulation.damageUnit(id, 1);
+                        break;
+                    }
+                }
+            }
+            simulation.step();
+            product[tick] = simulation.getChecksum();
+            
+            if (tick % SCRATCH_CHECK_INTERVAL == 0 && product[tick] != simulation.computeChecksumFromScratch()) {
+                throw new RuntimeException("Incremental checksum drifted at tick " + tick);
+            }
+        }
+        simulation.dispose();
+        return product;
+    }
+    
+    private static int findDivergence(long[] first, long[] second) {
+        for (int tick = 0; tick < first.length; tick++) {
+            if (first[tick] != second[tick]) return tick;
+        }
+        return NO_FAULT;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Arrays;
+import java.util.Random;
+import joeyproductions.kazhardcommand.pathcore.FlowField;
+import joeyproductions.kazhardcommand.pathcore.FlowFieldService;
+import joeyproductions.kazhardcommand.pathcore.TacticalPath;
+import joeyproductions.kazhardcommand.pathcore.TacticalPathfinder;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Sends many units to one goal, once with a search per unit and once with a
+ * shared flow field, and checks the field against the searches. Then runs
+ * through a handful of goals to show the cache at work.<br>
+ * <br>
+ * Usage: FlowFieldBenchmark [map side length] [units]
+ * @author Joseph Cramsey
+ */
+public class FlowFieldBenchmark {
+    
+    private static final int GOAL_COUNT = 6;
+    private static final int CACHE_SIZE = 4;
+    private static final int GOAL_REQUESTS = 40;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int unitCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TerrainPassability passability = TerrainPassability.create(map);
+        TacticalPathfinder pathfinder = TacticalPathfinder.create(passability);
+        FlowFieldService serialService = FlowFieldService.create(passability, CACHE_SIZE, false);
+        FlowFieldService service = FlowFieldService.create(passability, CACHE_SIZE);
+        
+        Random random = new Random(3);
+        int goalX = random.nextInt(dim);
+        int goalY = random.nextInt(dim);
+        int[] units = new int[unitCount * 2];
+        for (int i = 0; i < units.length; i++) {
+            units[i] = random.nextInt(dim);
+        }
+        
+        // Warm up
+        serialService.getFlowField(goalX, goalY);
+        service.getFlowField(goalX, goalY);
+        for (int i = 0; i < Math.min(20, unitCount); i++) {
+            pathfinder.findPath(units[i * 2], units[(i * 2) + 1], goalX, goalY);
+        }
+        serialService.clear();
+        service.clear();
+        long serialPassesBefore = serialService.getChunkPassCount();
+        
+        long start = System.nanoTime();
+        TacticalPath[] paths = new TacticalPath[unitCount];
+        for (int i = 0; i < unitCount; i++) {
+            paths[i] = pathfinder.findPath(units[i * 2], units[(i * 2) + 1], goalX, goalY);
+        }
+        long searchNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        FlowField serialField = serialService.getFlowField(goalX, goalY);
+        long serialNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        FlowField field = service.getFlowField(goalX, goalY);
+        long parallelNanos = System.nanoTime() - start;
+        
+        for (int i = 0; i < map.getTileCount(); i++) {
+            if (field.getCost(i) != serialField.getCost(i) || field.getDirection(i) != serialField.getDirection(i)) {
+                throw new RuntimeException("Parallel field differs at tile " + i);
+            }
+        }
+        
+        // Following the field must cost exactly what searching does
+        for (int i = 0; i < unitCount; i++) {
+            int tile = map.getTileIndex(units[i * 2], units[(i * 2) + 1]);
+            int expected = paths[i] == null ? FlowField.UNREACHABLE : paths[i].getCost();
+            if (field.getCost(tile) != expected) {
+                throw new RuntimeException("Unit " + i + " field cost " + field.getCost(tile) + ", search cost " + expected);
+            }
+            if (expected != FlowField.UNREACHABLE && follow(field, passability, tile, dim) != expected) {
+                throw new RuntimeException("Unit " + i + " could not follow the field");
+            }
+        }
+        System.out.println("Flow field matches every search");
+        
+        System.out.printf("Searching per unit: %.2f ms for %d units%n",
+                BenchmarkMaps.toMillis(searchNanos), unitCount);
+        System.out.printf("Flow field: %.2f ms serial, %.2f ms parallel, %d chunk passes for %d chunks%n",
+                BenchmarkMaps.toMillis(serialNanos), BenchmarkMaps.toMillis(parallelNanos),
+                serialService.getChunkPassCount() - serialPassesBefore,
+                map.getChunkColumns() * map.getChunkRows());
+        
+        // A few objectives, revisited in no particular order
+        int[] goals = new int[GOAL_COUNT * 2];
+        Arrays.setAll(goals, i -> random.nextInt(dim));
+        long computesBefore = service.getComputeCount();
+        long hitsBefore = service.getHitCount();
+        start = System.nanoTime();
+        for (int i = 0; i < GOAL_REQUESTS; i++) {
+            int g = (i % 3 == 0) ? random.nextInt(GOAL_COUNT) : random.nextInt(CACHE_SIZE - 1);
+            service.getFlowField(goals[g * 2], goals[(g * 2) + 1]);
+        }
+        System.out.printf("%d goal requests: %d hits, %d computed, %.2f ms%n",
+                GOAL_REQUESTS, service.getHitCount() - hitsBefore,
+                service.getComputeCount() - computesBefore,
+                BenchmarkMaps.toMillis(System.nanoTime() - start));
+    }
+    
+    /**
+     * @return the cost of walking the field from a tile to the goal
+     */
+    private static int follow(FlowField field, TerrainPassability passability, int tile, int dim) {
+        int cost = 0;
+        while (tile != field.getGoalTile()) {
+            int direction = field.getDirection(tile);
+            if (direction == FlowField.NO_DIRECTION || !passability.canStep(tile, direction)) return -1;
+            tile += TacticalTileData.getIndexOffset(direction, dim);
+            cost += (direction % 2 == 0) ? TacticalPathfinder.STRAIGHT_COST : TacticalPathfinder.DIAGONAL_COST;
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.visioncore.FogOfWar;
+
+/**
+ * Measures fog of war for many observers, moving a few of them and editing
+ * the map each tick, and checks the incremental fog against starting over.<br>
+ * <br>
+ * Usage: FogOfWarBenchmark [map side length] [observers] [sight radius]
+ * @author Joseph Cramsey
+ */
+public class FogOfWarBenchmark {
+    
+    private static final int TEAM_COUNT = 4;
+    private static final int TICKS = 500;
+    private static final int MOVES_PER_TICK = 12;
+    private static final int EDIT_INTERVAL = 5;
+    private static final int FULL_ROUNDS = 20;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int observerCount = args.length > 1 ? Integer.parseInt(args[1]) : 160;
+        int radius = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        FogOfWar fog = FogOfWar.create(map, TEAM_COUNT);
+        
+        // Teams start in their own corner quarter of the map
+        Random random = new Random(5);
+        int[] ids = new int[observerCount];
+        for (int i = 0; i < observerCount; i++) {
+            int team = i % TEAM_COUNT;
+            int x = ((team % 2) * dim / 2) + random.nextInt(dim / 2);
+            int y = ((team / 2) * dim / 2) + random.nextInt(dim / 2);
+            ids[i] = fog.addObserver(team, x, y, radius);
+        }
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < FULL_ROUNDS; i++) {
+            fog.invalidateAll();
+            fog.update();
+        }
+        long fullNanos = System.nanoTime() - start;
+        System.out.printf("Full recompute of %d observers: %.3f ms (%.1f us per observer)%n",
+                observerCount, BenchmarkMaps.toMillis(fullNanos / FULL_ROUNDS),
+                fullNanos / 1000.0 / FULL_ROUNDS / observerCount);
+        
+        long recomputeStart = fog.getRecomputeCount();
+        start = System.nanoTime();
+        for (int tick = 0; tick < TICKS; tick++) {
+            for (int m = 0; m < MOVES_PER_TICK; m++) {
+                int id = ids[random.nextInt(observerCount)];
+                int x = Math.max(0, Math.min(dim - 1, fog.getObserverX(id) + random.nextInt(3) - 1));
+                int y = Math.max(0, Math.min(dim - 1, fog.getObserverY(id) + random.nextInt(3) - 1));
+                fog.moveObserver(id, x, y);
+            }
+            if (tick % EDIT_INTERVAL == 0) {
+                // A short wall going up or coming down
+                int x = random.nextInt(dim);
+                int y = random.nextInt(dim);
+                byte code = (byte)random.nextInt(2);
+                TacticalMapEdit edit = map.beginEdit();
+                for (int o = 0; o < 6 && x + o < dim; o++) {
+                    edit.setTerrainCode(x + o, y, code);
+                }
+                edit.commit();
+            }
+            fog.update();
+        }
+        long tickNanos = System.nanoTime() - start;
+        System.out.printf("Incremental ticks: %.3f ms each, %.1f observers recomputed per tick%n",
+                BenchmarkMaps.toMillis(tickNanos / TICKS),
+                (double)(fog.getRecomputeCount() - recomputeStart) / TICKS);
+        
+        FogOfWar fresh = FogOfWar.create(map, TEAM_COUNT);
+        for (int id : ids) {
+            fresh.addObserver(fog.getObserverTeam(id), fog.getObserverX(id), fog.getObserverY(id), radius);
+        }
+        fresh.update();
+        fresh.dispose();
+        for (int team = 0; team < TEAM_COUNT; team++) {
+            for (int y = 0; y < dim; y++) {
+                for (int x = 0; x < dim; x++) {
+                    if (fog.isVisible(team, x, y) != fresh.isVisible(team, x, y)) {
+                        throw new RuntimeException("Team " + team + " fog differs at " + x + ", " + y);
+                    }
+                }
+            }
+            System.out.println("Team " + team + ": " + fog.getVisibleCount(team) + " visible, "
+                    + fog.getExploredCount(team) + " explored");
+        }
+        System.out.println("Incremental fog matches a full recompute");
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.pathcore.HierarchicalPathfinder;
+import joeyproductions.kazhardcommand.pathcore.TacticalPath;
+import joeyproductions.kazhardcommand.pathcore.TacticalPathfinder;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+
+/**
+ * Compares hierarchical paths against flat search for latency and path
+ * cost, then edits the map and checks that the incrementally updated
+ * entrance graph matches one built from scratch.<br>
+ * <br>
+ * Usage: HierarchicalPathBenchmark [map side length] [queries] [edits]
+ * @author Joseph Cramsey
+ */
+public class HierarchicalPathBenchmark {
+    
+    private static final int EDIT_RADIUS = 2;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int editCount = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TerrainPassability passability = TerrainPassability.create(map);
+        TacticalPathfinder flat = TacticalPathfinder.create(passability);
+        
+        long start = System.nanoTime();
+        HierarchicalPathfinder hierarchical = HierarchicalPathfinder.create(passability);
+        long buildNanos = System.nanoTime() - start;
+        System.out.printf("Built %d entrances in %.2f ms%n",
+                hierarchical.getEntranceCount(), BenchmarkMaps.toMillis(buildNanos));
+        
+        Random random = new Random(2);
+        int[] queries = new int[queryCount * 4];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextInt(dim);
+        }
+        
+        // Warm up both
+        for (int i = 0; i < Math.min(100, queryCount); i++) {
+            runFlat(flat, queries, i);
+            runHierarchical(hierarchical, queries, i);
+        }
+        
+        start = System.nanoTime();
+        TacticalPath[] flatPaths = new TacticalPath[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            flatPaths[i] = runFlat(flat, queries, i);
+        }
+        long flatNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        long plainExpanded = 0;
+        for (int i = 0; i < queryCount; i++) {
+            int q = i * 4;
+            TacticalPath path = flat.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], false);
+            if (path != null) plainExpanded += path.getExpandedNodeCount();
+        }
+        long plainNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        TacticalPath[] hierarchicalPaths = new TacticalPath[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            hierarchicalPaths[i] = runHierarchical(hierarchical, queries, i);
+        }
+        long hierarchicalNanos = System.nanoTime() - start;
+        
+        long flatExpanded = 0;
+        long hierarchicalExpanded = 0;
+        double costRatioSum = 0;
+        double worstCostRatio = 1;
+        int pathCount = 0;
+        for (int i = 0; i < queryCount; i++) {
+            if ((flatPaths[i] == null) != (hierarchicalPaths[i] == null)) {
+                throw new RuntimeException("Query " + i + " reachability differs");
+            }
+            if (flatPaths[i] == null || flatPaths[i].getCost() == 0) continue;
+            flatExpanded += flatPaths[i].getExpandedNodeCount();
+            hierarchicalExpanded += hierarchicalPaths[i].getExpandedNodeCount();
+            
+            PathfinderBenchmark.check(passability, hierarchicalPaths[i]);
+            double costRatio = (double)hierarchicalPaths[i].getCost() / flatPaths[i].getCost();
+            costRatioSum += costRatio;
+            worstCostRatio = Math.max(worstCostRatio, costRatio);
+            pathCount++;
+        }
+        System.out.printf("Flat A*: %.1f us per query, %d nodes expanded on average%n",
+                plainNanos / 1000.0 / queryCount, plainExpanded / queryCount);
+        System.out.printf("Flat jump points: %.1f us per query, %d nodes expanded on average%n",
+                flatNanos / 1000.0 / queryCount, flatExpanded / queryCount);
+        System.out.printf("Hierarchical: %.1f us per query, %d entrances expanded on average%n",
+                hierarchicalNanos / 1000.0 / queryCount, hierarchicalExpanded / queryCount);
+        System.out.printf("Hierarchical path cost: %.2f%% over best on average, %.2f%% at worst%n",
+                ((costRatioSum / pathCount) - 1) * 100, (worstCostRatio - 1) * 100);
+        
+        // Small edits only rebuild the chunks around them
+        long rebuiltBefore = hierarchical.getRebuiltChunkCount();
+        start = System.nanoTime();
+        for (int i = 0; i < editCount; i++) {
+            int centerX = random.nextInt(dim);
+            int centerY = random.nextInt(dim);
+            byte code = (byte)random.nextInt(3);
+            TacticalMapEdit edit = map.beginEdit();
+            for (int y = Math.max(0, centerY - EDIT_RADIUS); y <= Math.min(dim - 1, centerY + EDIT_RADIUS); y++) {
+                for (int x = Math.max(0, centerX - EDIT_RADIUS); x <= Math.min(dim - 1, centerX + EDIT_RADIUS); x++) {
+                    edit.setTerrainCode(x, y, code);
+                }
+            }
+            edit.commit();
+        }
+        long editNanos = System.nanoTime() - start;
+        System.out.printf("Edits: %.1f us each, %.1f chunks rebuilt each, full build: %.2f ms%n",
+                editNanos / 1000.0 / editCount,
+                (double)(hierarchical.getRebuiltChunkCount() - rebuiltBefore) / editCount,
+                BenchmarkMaps.toMillis(buildNanos));
+        
+        HierarchicalPathfinder rebuilt = HierarchicalPathfinder.create(passability);
+        for (int i = 0; i < queryCount; i++) {
+            TacticalPath updatedPath = runHierarchical(hierarchical, queries, i);
+            TacticalPath rebuiltPath = runHierarchical(rebuilt, queries, i);
+            TacticalPath flatPath = runFlat(flat, queries, i);
+            int updatedCost = updatedPath == null ? -1 : updatedPath.getCost();
+            int rebuiltCost = rebuiltPath == null ? -1 : rebuiltPath.getCost();
+            if (updatedCost != rebuiltCost || (flatPath == null) != (updatedPath == null)) {
+                throw new RuntimeException("Query " + i + " differs after edits");
+            }
+            if (updatedPath != null) {
+                PathfinderBenchmark.check(passability, updatedPath);
+            }
+        }
+        System.out.println("Updated entrance graph matches a fresh build");
+    }
+    
+    private static TacticalPath runFlat(TacticalPathfinder pathfinder, int[] queries, int query) {
+        int q = query * 4;
+        return pathfinder.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3]);
+    }
+    
+    private static TacticalPath runHierarchical(HierarchicalPathfinder pathfinder, int[] queries, int query) {
+        int q = query * 4;
+        return pathfinder.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3]);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Random;
+import joeyproductions.kazhardcommand.aicore.InfluenceMap;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.sessioncore.ui.InfluenceOverlay;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * Moves some units every tick, and now and then edits the terrain, then
+ * measures refreshing an influence map and its overlay against working the
+ * influence out from scratch. Checks that both agree.<br>
+ * <br>
+ * Usage: InfluenceMapBenchmark [map side length] [units] [percent moving per tick] [ticks]
+ * @author Joseph Cramsey
+ */
+public class InfluenceMapBenchmark {
+    
+    private static final int TEAM_COUNT = 2;
+    private static final int MAX_HP = 100;
+    private static final int EDIT_INTERVAL = 10;
+    private static final int EDIT_TILES = 4;
+    private static final int CHECK_INTERVAL = 25;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int unitCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int movingPercent = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int ticks = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TerrainPassability passability = TerrainPassability.create(map);
+        UnitStore store = UnitStore.create(map, unitCount);
+        Random random = new Random(10);
+        TacticalTileData[] tiles = map.getTiles();
+        for (int i = 0; i < unitCount; i++) {
+            int tileIndex;
+            do {
+                tileIndex = random.nextInt(tiles.length);
+            } while (tiles[tileIndex].isRaised());
+            store.addUnit(tileIndex, i % TEAM_COUNT, MAX_HP, random.nextInt(TacticalTileData.DIR_LEN));
+        }
+        
+        long start = System.nanoTime();
+        InfluenceMap influence = InfluenceMap.create(store, passability, TEAM_COUNT);
+        System.out.printf("Stamped %d units at radius %d in %.2f ms%n",
+                unitCount, influence.getRadius(), BenchmarkMaps.toMillis(System.nanoTime() - start));
+        start = System.nanoTime();
+        InfluenceOverlay overlay = InfluenceOverlay.create(influence, 0);
+        InfluenceOverlay otherOverlay = InfluenceOverlay.create(influence, 1);
+        System.out.printf("Colored the %dx%d overlay in %.2f ms%n",
+                dim, dim, BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        int[] directionOffsets = TacticalTileData.createIndexOffsets(dim);
+        int moversPerTick = Math.max(1, (unitCount * movingPercent) / 100);
+        long refreshNanos = 0;
+        long overlayNanos = 0;
+        long scratchNanos = 0;
+        long scratchCount = 0;
+        long startStamps = influence.getStampCount();
+        for (int tick = 0; tick < ticks; tick++) {
+            int[] tileIndices = store.getTileIndexColumn();
+            byte[] facings = store.getFacingColumn();
+            for (int i = 0; i < moversPerTick; i++) {
+                int row = random.nextInt(store.getCount());
+                if (passability.canStep(tileIndices[row], facings[row])) {
+                    tileIndices[row] += directionOffsets[facings[row]];
+                }
+                else {
+                    facings[row] = (byte)((facings[row] + 1) % TacticalTileData.DIR_LEN);
+                }
+            }
+            if (tick % EDIT_INTERVAL == EDIT_INTERVAL - 1) {
+                editTerrain(map, store, random);
+            }
+            
+            start = System.nanoTime();
+            influence.refresh();
+            long refreshed = System.nanoTime();
+            overlay.refresh();
+            long end = System.nanoTime();
+            otherOverlay.refresh();
+            refreshNanos += refreshed - start;
+            overlayNanos += end - refreshed;
+            
+            if (tick % CHECK_INTERVAL == CHECK_INTERVAL - 1 || tick == ticks - 1) {
+                for (int team = 0; team < TEAM_COUNT; team++) {
+                    start = System.nanoTime();
+                    short[] expected = influence.computeFromScratch(team);
+                    scratchNanos += System.nanoTime() - start;
+                    scratchCount++;
+                    for (int i = 0; i < expected.length; i++) {
+                        if (expected[i] != influence.getInfluence(team, i)) {
+                            throw new RuntimeException("Influence differs at tile " + i + " on tick " + tick);
+                        }
+                    }
+                }
+            }
+        }
+        
+        System.out.printf("Refresh with %d of %d units moving: %.3f ms per tick, %.1f stamps per tick%n",
+                moversPerTick, unitCount, BenchmarkMaps.toMillis(refreshNanos) / ticks,
+                (double)(influence.getStampCount() - startStamps) / ticks);
+        System.out.printf("Overlay: %.3f ms per tick, %.0f of %d tiles recolored per tick%n",
+                BenchmarkMaps.toMillis(overlayNanos) / ticks, (double)overlay.getRecolorCount() / ticks, dim * dim);
+        System.out.printf("From scratch: %.2f ms for every team%n",
+                BenchmarkMaps.toMillis(scratchNanos) / scratchCount * TEAM_COUNT);
+        System.out.println("Incremental influence matches working it out from scratch");
+        
+        // Overlays sharing one influence map each see every change
+        checkOverlay(overlay);
+        checkOverlay(otherOverlay);
+        System.out.println("Both overlays match coloring them from scratch");
+        influence.dispose();
+        passability.dispose();
+    }
+    
+    private static void checkOverlay(InfluenceOverlay overlay) {
+        int[] pixels = ((DataBufferInt)overlay.getImage().getRaster().getDataBuffer()).getData();
+        InfluenceOverlay expected = InfluenceOverlay.create(overlay.getInfluenceMap(), overlay.getTeam());
+        int[] expectedPixels = ((DataBufferInt)expected.getImage().getRaster().getDataBuffer()).getData();
+        if (!Arrays.equals(pixels, expectedPixels)) {
+            throw new RuntimeException("Overlay for team " + overlay.getTeam() + " differs");
+        }
+    }
+    
+    private static void editTerrain(TacticalMapData map, UnitStore store, Random random) {
+        // Leave tiles with units on them alone, so nobody ends up in a cliff
+        boolean[] isOccupied = new boolean[map.getTileCount()];
+        int[] tileIndices = store.getTileIndexColumn();
+        for (int row = 0; row < store.getCount(); row++) {
+            isOccupied[tileIndices[row]] = true;
+        }
+        
+        int x = random.nextInt(map.getWidth() - EDIT_TILES);
+        int y = random.nextInt(map.getHeight());
+        byte code = random.nextBoolean() ? TacticalTileData.TERRAIN_RAISED : TacticalTileData.TERRAIN_GROUND;
+        for (int o = 0; o < EDIT_TILES; o++) {
+            if (!isOccupied[map.getTileIndex(x + o, y)]) {
+                map.setTerrainCode(x + o, y, code);
+            }
+        }
+    }
+}
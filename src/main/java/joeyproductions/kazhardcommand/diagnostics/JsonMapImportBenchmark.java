@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import joeyproductions.kazhardcommand.sessioncore.data.InvalidMapFileException;
+import joeyproductions.kazhardcommand.sessioncore.data.JsonMapImporter;
+import joeyproductions.kazhardcommand.sessioncore.data.MapImportResult;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Compares importing a JSON map against loading its compiled cache.<br>
+ * <br>
+ * Usage: JsonMapImportBenchmark [map side length]
+ * @author Joseph Cramsey
+ */
+public class JsonMapImportBenchmark {
+    
+    public static void main(String[] args) throws IOException, InvalidMapFileException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        
+        byte[] terrainCodes = BenchmarkMaps.createTiledTerrain(dim, dim);
+        Path directory = Files.createTempDirectory("kazhard-json-bench");
+        Path jsonPath = directory.resolve("map.json");
+        
+        try {
+            writeJson(jsonPath, dim, dim, terrainCodes);
+            System.out.println("Map: " + dim + "x" + dim + ", JSON: " + Files.size(jsonPath) + " bytes");
+            
+            MapImportResult cold = JsonMapImporter.load(jsonPath);
+            checkTerrain(cold, terrainCodes);
+            System.out.println("First load  - " + cold);
+            
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                MapImportResult warm = JsonMapImporter.load(jsonPath);
+                checkTerrain(warm, terrainCodes);
+                System.out.println("Cached load - " + warm);
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+    
+    private static void writeJson(Path path, int width, int height, byte[] terrainCodes) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"width\": " + width + ",\n  \"height\": " + height + ",\n  \"rows\": [\n");
+            char[] row = new char[width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (char)('0' + terrainCodes[y * width + x]);
+                }
+                writer.write("    \"");
+                writer.write(row);
+                writer.write(y < height - 1 ? "\",\n" : "\"\n");
+            }
+            writer.write("  ]\n}\n");
+        }
+    }
+    
+    private static void checkTerrain(MapImportResult result, byte[] terrainCodes) {
+        TacticalTileData[] tiles = result.getMap().getTiles();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i].getTerrainCode() != terrainCodes[i]) {
+                throw new RuntimeException("Imported map differs at tile " + i);
+            }
+        }
+    }
+}
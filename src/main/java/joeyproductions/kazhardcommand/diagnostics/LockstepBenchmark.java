@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.netcore.LockstepSession;
+import joeyproductions.kazhardcommand.netcore.LoopbackTransport;
+import joeyproductions.kazhardcommand.netcore.MalformedPacketException;
+import joeyproductions.kazhardcommand.netcore.MapDeltaCodec;
+import joeyproductions.kazhardcommand.netcore.PacketReader;
+import joeyproductions.kazhardcommand.netcore.PacketWriter;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+
+/**
+ * Measures the map delta codec, then runs peers in lockstep over loopback
+ * transports, each editing its own copy of a map, and checks they all end
+ * up with the same map.<br>
+ * <br>
+ * Usage: LockstepBenchmark [map side length] [peers] [ticks]
+ * @author Joseph Cramsey
+ */
+public class LockstepBenchmark {
+    
+    private static final int CODEC_EDITS = 4096;
+    private static final int CODEC_ROUNDS = 500;
+    private static final int INPUT_DELAY = 2;
+    private static final int STROKE_CHANCE = 4;
+    private static final int STROKE_LENGTH = 8;
+    
+    public static void main(String[] args) throws MalformedPacketException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int peerCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int tickCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        
+        byte[] terrainCodes = BenchmarkMaps.createPlateauTerrain(dim, dim, 1);
+        Random random = new Random(13);
+        measureCodec("Scattered", createEdits(random, dim, false), dim, terrainCodes);
+        measureCodec("Strokes", createEdits(random, dim, true), dim, terrainCodes);
+        
+        TacticalMapData[] maps = new TacticalMapData[peerCount];
+        LockstepSession[] sessions = new LockstepSession[peerCount];
+        LoopbackTransport[] transports = LoopbackTransport.createGroup(peerCount);
+        for (int peer = 0; peer < peerCount; peer++) {
+            maps[peer] = TacticalMapData.create(dim, dim, terrainCodes);
+            sessions[peer] = LockstepSession.create(maps[peer], transports[peer], peer, peerCount, INPUT_DELAY);
+        }
+        
+        // Peers take turns, staging a brush stroke now and then
+        long start = System.nanoTime();
+        int rounds = 0;
+        while (sessions[peerCount - 1].getCurrentTick() < tickCount) {
+            for (LockstepSession session : sessions) {
+                if (session.getCurrentTick() >= tickCount) continue;
+                if (random.nextInt(STROKE_CHANCE) == 0) {
+                    int x = random.nextInt(dim - STROKE_LENGTH);
+                    int y = random.nextInt(dim);
+                    byte code = (byte)random.nextInt(3);
+                    for (int o = 0; o < STROKE_LENGTH; o++) {
+                        session.stageEdit(x + o, y, code);
+                    }
+                }
+                session.advance();
+            }
+            rounds++;
+        }
+        long nanos = System.nanoTime() - start;
+        
+        long sentBytes = 0;
+        long stalls = 0;
+        for (LockstepSession session : sessions) {
+            sentBytes += session.getSentByteCount();
+            stalls += session.getStallCount();
+        }
+        System.out.printf("%d peers, %d ticks in %d rounds: %.1f us per tick, %.1f bytes sent per tick per peer, %d stalls%n",
+                peerCount, tickCount, rounds, nanos / 1000.0 / tickCount,
+                (double)sentBytes / tickCount / peerCount, stalls);
+        
+        long hash = maps[0].getZobristHash();
+        for (TacticalMapData map : maps) {
+            if (map.getZobristHash() != hash) {
+                throw new RuntimeException("Peers ended up with different maps");
+            }
+        }
+        System.out.println("Every peer ended up with the same map");
+    }
+    
+    private static int[] createEdits(Random random, int dim, boolean isStrokes) {
+        int[] product = new int[CODEC_EDITS];
+        for (int i = 0; i < CODEC_EDITS; i++) {
+            if (isStrokes && i % STROKE_LENGTH != 0) {
+                product[i] = product[i - 1] + 1;
+            }
+            else {
+                product[i] = random.nextInt((dim * dim) - STROKE_LENGTH);
+            }
+        }
+        return product;
+    }
+    
+    private static void measureCodec(String label, int[] tileIndices, int dim, byte[] terrainCodes)
+            throws MalformedPacketException {
+        byte[] codes = new byte[tileIndices.length];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = (byte)(i % 3);
+        }
+        
+        PacketWriter writer = new PacketWriter();
+        long start = System.nanoTime();
+        for (int round = 0; round < CODEC_ROUNDS; round++) {
+            writer.reset();
+            MapDeltaCodec.encode(tileIndices, codes, tileIndices.length, writer);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        byte[] packet = writer.toByteArray();
+        
+        // Decoding stages edits, which is most of its cost
+        TacticalMapData map = TacticalMapData.create(dim, dim, terrainCodes);
+        PacketReader reader = new PacketReader();
+        start = System.nanoTime();
+        for (int round = 0; round < CODEC_ROUNDS; round++) {
+            TacticalMapEdit edit = map.beginEdit();
+            reader.reset(packet, 0, packet.length);
+            MapDeltaCodec.decode(reader, edit);
+            edit.rollback();
+        }
+        long decodeNanos = System.nanoTime() - start;
+        
+        long edits = (long)CODEC_EDITS * CODEC_ROUNDS;
+        System.out.printf("%s: %.2f bytes per edit, encode %.1f M edits/s, decode %.1f M edits/s%n",
+                label, (double)packet.length / CODEC_EDITS,
+                edits * 1000.0 / encodeNanos, edits * 1000.0 / decodeNanos);
+    }
+}
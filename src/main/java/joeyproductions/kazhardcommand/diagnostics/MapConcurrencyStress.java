@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Hammers a map with one writer and several readers, and fails if any reader
+ * ever sees half of an edit.<br>
+ * <br>
+ * The writer only ever flips whole square blocks between ground and raised,
+ * in one edit each, so a consistent read always finds a block all one way,
+ * with the patterns inside it to match. Unguarded readers do the same reads
+ * without stamps, to show the torn reads the stamps are there to catch.<br>
+ * <br>
+ * Usage: MapConcurrencyStress [seconds] [reader threads]
+ * @author Joseph Cramsey
+ */
+public class MapConcurrencyStress {
+    
+    private static final int MAP_DIM = 256;
+    private static final int BLOCK_DIM = 8;
+    private static final int BLOCK_SPACING = 16;
+    private static final int BLOCKS_PER_SIDE = MAP_DIM / BLOCK_SPACING;
+    private static final int ALL_DIRECTIONS = 0xFF;
+    
+    private static final AtomicBoolean isRunning = new AtomicBoolean(true);
+    private static final AtomicLong consistentReads = new AtomicLong();
+    private static final AtomicLong retries = new AtomicLong();
+    private static final AtomicLong violations = new AtomicLong();
+    private static final AtomicLong unguardedReads = new AtomicLong();
+    private static final AtomicLong unguardedTears = new AtomicLong();
+    
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int readerCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        
+        TacticalMapData map = TacticalMapData.create(MAP_DIM, MAP_DIM, new byte[MAP_DIM * MAP_DIM]);
+        
+        ArrayList<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> runWriter(map), "writer"));
+        for (int i = 0; i < readerCount; i++) {
+            long seed = i;
+            threads.add(new Thread(() -> runRegionReader(map, seed), "region reader " + i));
+            threads.add(new Thread(() -> runStampReader(map, seed), "stamp reader " + i));
+        }
+        threads.add(new Thread(() -> runUnguardedReader(map), "unguarded reader"));
+        
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        isRunning.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        System.out.println("Edits applied: " + map.getGeneration());
+        System.out.println("Consistent reads: " + consistentReads.get()
+                + ", optimistic retries: " + retries.get());
+        System.out.println("Unguarded reads: " + unguardedReads.get()
+                + ", torn: " + unguardedTears.get());
+        if (violations.get() > 0) {
+            throw new RuntimeException(violations.get() + " guarded reads saw half of an edit");
+        }
+        System.out.println("No guarded read saw half of an edit");
+    }
+    
+    private static void runWriter(TacticalMapData map) {
+        Random random = new Random(11);
+        while (isRunning.get()) {
+            int block = random.nextInt(BLOCKS_PER_SIDE * BLOCKS_PER_SIDE);
+            int left = getBlockLeft(block);
+            int top = getBlockTop(block);
+            byte code = map.getTile(left, top).isRaised()
+                    ? TacticalTileData.TERRAIN_GROUND : TacticalTileData.TERRAIN_RAISED;
+            
+            TacticalMapEdit edit = map.beginEdit();
+            for (int y = top; y < top + BLOCK_DIM; y++) {
+                for (int x = left; x < left + BLOCK_DIM; x++) {
+                    edit.setTerrainCode(x, y, code);
+                }
+            }
+            edit.commit();
+        }
+    }
+    
+    /**
+     * Reads whole blocks, as a renderer would.
+     */
+    private static void runRegionReader(TacticalMapData map, long seed) {
+        Random random = new Random(seed);
+        int[] states = new int[BLOCK_DIM * BLOCK_DIM];
+        while (isRunning.get()) {
+            int block = random.nextInt(BLOCKS_PER_SIDE * BLOCKS_PER_SIDE);
+            int left = getBlockLeft(block);
+            int top = getBlockTop(block);
+            map.readRegion(left, top, left + BLOCK_DIM - 1, top + BLOCK_DIM - 1, states);
+            
+            int code = states[0] & 0xFF;
+            for (int y = 0; y < BLOCK_DIM; y++) {
+                for (int x = 0; x < BLOCK_DIM; x++) {
+                    int state = states[(y * BLOCK_DIM) + x];
+                    boolean isInterior = x > 0 && y > 0 && x < BLOCK_DIM - 1 && y < BLOCK_DIM - 1;
+                    if ((state & 0xFF) != code || (isInterior && !isPatternConsistent(state))) {
+                        violations.incrementAndGet();
+                    }
+                }
+            }
+            consistentReads.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Reads opposite corners of a block under one optimistic stamp, as AI
+     * threads would, and single tiles through readTileState().
+     */
+    private static void runStampReader(TacticalMapData map, long seed) {
+        Random random = new Random(seed + 100);
+        TacticalTileData[] tiles = map.getTiles();
+        while (isRunning.get()) {
+            int block = random.nextInt(BLOCKS_PER_SIDE * BLOCKS_PER_SIDE);
+            int left = getBlockLeft(block);
+            int top = getBlockTop(block);
+            TacticalTileData first = tiles[(top * MAP_DIM) + left];
+            TacticalTileData last = tiles[((top + BLOCK_DIM - 1) * MAP_DIM) + left + BLOCK_DIM - 1];
+            
+            while (true) {
+                long stamp = map.tryOptimisticRead();
+                byte firstCode = first.getTerrainCode();
+                byte lastCode = last.getTerrainCode();
+                if (stamp != 0 && map.validate(stamp)) {
+                    if (firstCode != lastCode) {
+                        violations.incrementAndGet();
+                    }
+                    break;
+                }
+                retries.incrementAndGet();
+                Thread.onSpinWait();
+            }
+            
+            int state = map.readTileState(left + 1 + random.nextInt(BLOCK_DIM - 2), top + 1 + random.nextInt(BLOCK_DIM - 2));
+            if (!isPatternConsistent(state)) {
+                violations.incrementAndGet();
+            }
+            consistentReads.incrementAndGet();
+        }
+    }
+    
+    private static void runUnguardedReader(TacticalMapData map) {
+        Random random = new Random(200);
+        TacticalTileData[] tiles = map.getTiles();
+        while (isRunning.get()) {
+            int block = random.nextInt(BLOCKS_PER_SIDE * BLOCKS_PER_SIDE);
+            int left = getBlockLeft(block);
+            int top = getBlockTop(block);
+            byte firstCode = tiles[(top * MAP_DIM) + left].getTerrainCode();
+            byte lastCode = tiles[((top + BLOCK_DIM - 1) * MAP_DIM) + left + BLOCK_DIM - 1].getTerrainCode();
+            if (firstCode != lastCode) {
+                unguardedTears.incrementAndGet();
+            }
+            unguardedReads.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Inside a block, raised tiles see raised all around, and ground tiles
+     * see nothing raised.
+     */
+    private static boolean isPatternConsistent(int state) {
+        int pattern = (state >>> 8) & 0xFF;
+        if ((state & 0xFF) == TacticalTileData.TERRAIN_RAISED) return pattern == ALL_DIRECTIONS;
+        return pattern == 0;
+    }
+    
+    private static int getBlockLeft(int block) {
+        return ((block % BLOCKS_PER_SIDE) * BLOCK_SPACING) + ((BLOCK_SPACING - BLOCK_DIM) / 2);
+    }
+    
+    private static int getBlockTop(int block) {
+        return ((block / BLOCKS_PER_SIDE) * BLOCK_SPACING) + ((BLOCK_SPACING - BLOCK_DIM) / 2);
+    }
+}
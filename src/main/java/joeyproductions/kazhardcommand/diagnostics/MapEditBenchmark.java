@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+
+/**
+ * Compares painting brush strokes one tile at a time against painting them
+ * in a single edit, and checks that both leave the same map behind.<br>
+ * <br>
+ * Usage: MapEditBenchmark [map side length] [brush radius] [strokes]
+ * @author Joseph Cramsey
+ */
+public class MapEditBenchmark {
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int radius = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int strokes = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        
+        TacticalMapData singleMap = BenchmarkMaps.createTiledMap(dim, dim);
+        TacticalMapData batchMap = BenchmarkMaps.createTiledMap(dim, dim);
+        CountingListener singleCounter = new CountingListener();
+        CountingListener batchCounter = new CountingListener();
+        singleMap.addListener(singleCounter);
+        batchMap.addListener(batchCounter);
+        
+        Random random = new Random(1);
+        long singleNanos = 0;
+        long batchNanos = 0;
+        for (int s = 0; s < strokes; s++) {
+            int centerX = random.nextInt(dim);
+            int centerY = random.nextInt(dim);
+            byte code = (byte)random.nextInt(3);
+            
+            long start = System.nanoTime();
+            paintSingle(singleMap, centerX, centerY, radius, code);
+            singleNanos += System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            TacticalMapEdit edit = batchMap.beginEdit();
+            paintBatch(edit, centerX, centerY, radius, code);
+            edit.commit();
+            batchNanos += System.nanoTime() - start;
+        }
+        
+        for (int y = 0; y < dim; y++) {
+            for (int x = 0; x < dim; x++) {
+                if (singleMap.getTile(x, y).getTerrainCode() != batchMap.getTile(x, y).getTerrainCode()
+                        || singleMap.getTile(x, y).getNeighborRaisePattern() != batchMap.getTile(x, y).getNeighborRaisePattern()
+                        || singleMap.getTile(x, y).isRamp() != batchMap.getTile(x, y).isRamp()) {
+                    throw new RuntimeException("Batched edits differ at " + x + ", " + y);
+                }
+            }
+        }
+        System.out.println("Batched edits match single edits");
+        
+        System.out.printf("Single edits: %.2f ms, %d notifications, %d changed tiles%n",
+                BenchmarkMaps.toMillis(singleNanos), singleCounter.notifications, singleCounter.changedTiles);
+        System.out.printf("Batched edits: %.2f ms, %d notifications, %d changed tiles%n",
+                BenchmarkMaps.toMillis(batchNanos), batchCounter.notifications, batchCounter.changedTiles);
+        
+        // Rolling back must leave no trace
+        long generation = batchMap.getGeneration();
+        int notifications = batchCounter.notifications;
+        TacticalMapEdit edit = batchMap.beginEdit();
+        paintBatch(edit, dim / 2, dim / 2, radius, (byte)1);
+        edit.rollback();
+        if (batchMap.getGeneration() != generation || batchCounter.notifications != notifications) {
+            throw new RuntimeException("Rolled back edit changed the map");
+        }
+        System.out.println("Rollback left the map untouched");
+    }
+    
+    private static void paintSingle(TacticalMapData map, int centerX, int centerY, int radius, byte code) {
+        for (int y = centerY - radius; y <= centerY + radius; y++) {
+            for (int x = centerX - radius; x <= centerX + radius; x++) {
+                if (!map.isInBounds(x, y)) continue;
+                if (!isInBrush(x - centerX, y - centerY, radius)) continue;
+                map.setTerrainCode(x, y, code);
+            }
+        }
+    }
+    
+    private static void paintBatch(TacticalMapEdit edit, int centerX, int centerY, int radius, byte code) {
+        TacticalMapData map = edit.getMap();
+        for (int y = centerY - radius; y <= centerY + radius; y++) {
+            for (int x = centerX - radius; x <= centerX + radius; x++) {
+                if (!map.isInBounds(x, y)) continue;
+                if (!isInBrush(x - centerX, y - centerY, radius)) continue;
+                edit.setTerrainCode(x, y, code);
+            }
+        }
+    }
+    
+    private static boolean isInBrush(int dx, int dy, int radius) {
+        return (dx * dx) + (dy * dy) <= radius * radius;
+    }
+    
+    private static class CountingListener implements TacticalMapListener {
+        
+        private int notifications = 0;
+        private long changedTiles = 0;
+        
+        @Override
+        public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+            notifications++;
+            changedTiles += change.getChangedTiles().cardinality();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import joeyproductions.kazhardcommand.sessioncore.data.InvalidMapFileException;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapFile;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapFileWriter;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Measures how long it takes to open and load binary map files.<br>
+ * <br>
+ * Usage: MapFileBenchmark [map side length] [iterations]
+ * @author Joseph Cramsey
+ */
+public class MapFileBenchmark {
+    
+    public static void main(String[] args) throws IOException, InvalidMapFileException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        byte[] terrainCodes = BenchmarkMaps.createTiledTerrain(dim, dim);
+        
+        long start = System.nanoTime();
+        TacticalMapData sourceMap = TacticalMapData.create(dim, dim, terrainCodes);
+        long buildNanos = System.nanoTime() - start;
+        
+        Path plainPath = Files.createTempFile("kazhard-bench", ".kzmap");
+        Path patternPath = Files.createTempFile("kazhard-bench-patterns", ".kzmap");
+        
+        try {
+            TacticalMapFileWriter.write(sourceMap, plainPath, false);
+            TacticalMapFileWriter.write(sourceMap, patternPath, true);
+            
+            System.out.println("Map: " + dim + "x" + dim);
+            System.out.println("Plain file: " + Files.size(plainPath) + " bytes");
+            System.out.println("Pattern file: " + Files.size(patternPath) + " bytes");
+            System.out.printf("Build from terrain codes: %.2f ms%n", BenchmarkMaps.toMillis(buildNanos));
+            
+            long openNanos = Long.MAX_VALUE;
+            long verifyNanos = Long.MAX_VALUE;
+            long plainLoadNanos = Long.MAX_VALUE;
+            long patternLoadNanos = Long.MAX_VALUE;
+            
+            for (int i = 0; i < iterations; i++) {
+                start = System.nanoTime();
+                TacticalMapFile.open(plainPath, false);
+                openNanos = Math.min(openNanos, System.nanoTime() - start);
+                
+                start = System.nanoTime();
+                TacticalMapFile plainFile = TacticalMapFile.open(plainPath, true);
+                verifyNanos = Math.min(verifyNanos, System.nanoTime() - start);
+                
+                System.gc();
+                start = System.nanoTime();
+                TacticalMapData plainMap = plainFile.toMapData();
+                plainLoadNanos = Math.min(plainLoadNanos, System.nanoTime() - start);
+                checkSameMap(sourceMap, plainMap);
+                plainMap = null;
+                
+                TacticalMapFile patternFile = TacticalMapFile.open(patternPath, true);
+                System.gc();
+                start = System.nanoTime();
+                TacticalMapData patternMap = patternFile.toMapData();
+                patternLoadNanos = Math.min(patternLoadNanos, System.nanoTime() - start);
+                checkSameMap(sourceMap, patternMap);
+            }
+            
+            System.out.printf("Open (header only): %.3f ms%n", BenchmarkMaps.toMillis(openNanos));
+            System.out.printf("Open + checksum: %.3f ms%n", BenchmarkMaps.toMillis(verifyNanos));
+            System.out.printf("Load, computing patterns: %.2f ms%n", BenchmarkMaps.toMillis(plainLoadNanos));
+            System.out.printf("Load, precomputed patterns: %.2f ms%n", BenchmarkMaps.toMillis(patternLoadNanos));
+        } finally {
+            Files.deleteIfExists(plainPath);
+            Files.deleteIfExists(patternPath);
+        }
+    }
+    
+    private static void checkSameMap(TacticalMapData expected, TacticalMapData loaded) {
+        TacticalTileData[] expectedTiles = expected.getTiles();
+        TacticalTileData[] loadedTiles = loaded.getTiles();
+        if (expectedTiles.length != loadedTiles.length) {
+            throw new RuntimeException("Loaded map has the wrong size");
+        }
+        for (int i = 0; i < expectedTiles.length; i++) {
+            if (expectedTiles[i].getTerrainCode() != loadedTiles[i].getTerrainCode()
+                    || expectedTiles[i].isRamp() != loadedTiles[i].isRamp()
+                    || expectedTiles[i].getNeighborRaisePattern() != loadedTiles[i].getNeighborRaisePattern()) {
+                throw new RuntimeException("Loaded map differs at tile " + i);
+            }
+        }
+    }
+}
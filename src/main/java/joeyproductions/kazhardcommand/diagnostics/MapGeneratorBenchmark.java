@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import joeyproductions.kazhardcommand.generatorcore.TacticalMapGenerator;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Times map generation in parallel and on one thread, checks that both give
+ * the same map for a seed, and checks that every ramp base has ground one
+ * level up to lead onto.<br>
+ * <br>
+ * Usage: MapGeneratorBenchmark [map side length] [seed] [level count]
+ * @author Joseph Cramsey
+ */
+public class MapGeneratorBenchmark {
+    
+    public static void main(String[] args) throws IOException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int levelCount = args.length > 2 ? Integer.parseInt(args[2]) : TacticalMapGenerator.DEFAULT_LEVEL_COUNT;
+        TacticalMapGenerator generator = createGenerator(seed, levelCount);
+        
+        // Warm up on a smaller map first
+        generator.generateTerrain(Math.min(dim, 512), Math.min(dim, 512), true);
+        
+        long start = System.nanoTime();
+        byte[] parallel = generator.generateTerrain(dim, dim, true);
+        System.out.printf("Parallel %dx%d: %.2f ms (%d cores)%n", dim, dim,
+                BenchmarkMaps.toMillis(System.nanoTime() - start),
+                Runtime.getRuntime().availableProcessors());
+        
+        start = System.nanoTime();
+        byte[] sequential = generator.generateTerrain(dim, dim, false);
+        System.out.printf("Sequential %dx%d: %.2f ms%n", dim, dim,
+                BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        if (!Arrays.equals(parallel, sequential)) {
+            throw new RuntimeException("Parallel and sequential maps differ");
+        }
+        if (!Arrays.equals(parallel, createGenerator(seed, levelCount).generateTerrain(dim, dim, true))) {
+            throw new RuntimeException("Same seed gave a different map");
+        }
+        if (Arrays.equals(parallel, createGenerator(seed + 1, levelCount).generateTerrain(dim, dim, true))) {
+            throw new RuntimeException("Different seeds gave the same map");
+        }
+        System.out.println("Maps match for the same seed");
+        
+        long[] levelCounts = new long[levelCount];
+        long rampCount = 0;
+        for (int y = 0; y < dim; y++) {
+            for (int x = 0; x < dim; x++) {
+                byte code = parallel[(y * dim) + x];
+                levelCounts[TacticalTileData.getLevel(code)]++;
+                if (TacticalTileData.isRampBase(code)) {
+                    rampCount++;
+                    checkRampBase(parallel, dim, x, y);
+                }
+            }
+        }
+        StringBuilder levels = new StringBuilder();
+        for (int level = 0; level < levelCount; level++) {
+            levels.append(String.format(" %.1f%%", 100.0 * levelCounts[level] / parallel.length));
+        }
+        System.out.println("Levels:" + levels + ", ramp bases: " + rampCount + ", all lead one level up");
+        
+        Path path = Files.createTempFile("kazhard-generated", ".kzmap");
+        try {
+            start = System.nanoTime();
+            generator.generateFile(dim, dim, path);
+            System.out.printf("Generate and write file: %.2f ms, %d bytes%n",
+                    BenchmarkMaps.toMillis(System.nanoTime() - start), Files.size(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    private static TacticalMapGenerator createGenerator(long seed, int levelCount) {
+        return TacticalMapGenerator.create(seed,
+                TacticalMapGenerator.DEFAULT_RAISED_PERCENT,
+                TacticalMapGenerator.DEFAULT_RAMP_SPACING,
+                levelCount);
+    }
+    
+    private static void checkRampBase(byte[] terrainCodes, int dim, int x, int y) {
+        int level = TacticalTileData.getLevel(terrainCodes[(y * dim) + x]);
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d += 2) {
+            int xo = x + TacticalTileData.getXOffsetFromDirection(d);
+            int yo = y + TacticalTileData.getYOffsetFromDirection(d);
+            if (xo < 0 || yo < 0 || xo >= dim || yo >= dim) continue;
+            if (TacticalTileData.getLevel(terrainCodes[(yo * dim) + xo]) == level + 1) return;
+        }
+        throw new RuntimeException("Ramp base without a level above it at " + x + ", " + y);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapHistory;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Paints random brush strokes with undo recording, then checks that undo,
+ * redo and history jumps bring back exactly the right maps.<br>
+ * <br>
+ * Usage: MapHistoryBenchmark [map side length] [strokes] [budget in KiB]
+ * @author Joseph Cramsey
+ */
+public class MapHistoryBenchmark {
+    
+    private static final int BRUSH_RADIUS = 6;
+    private static final int JUMPS = 200;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int strokes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long budget = (args.length > 2 ? Long.parseLong(args[2]) : 4096) * 1024;
+        
+        TacticalMapData map = BenchmarkMaps.createTiledMap(dim, dim);
+        TacticalMapHistory history = TacticalMapHistory.create(map, budget);
+        
+        // Keep every state around by step, only for checking
+        byte[][] states = new byte[strokes + 1][];
+        states[0] = getTerrain(map);
+        
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int s = 1; s <= strokes; s++) {
+            int centerX = random.nextInt(dim);
+            int centerY = random.nextInt(dim);
+            byte code = (byte)random.nextInt(3);
+            TacticalMapEdit edit = map.beginEdit();
+            for (int y = Math.max(0, centerY - BRUSH_RADIUS); y <= Math.min(dim - 1, centerY + BRUSH_RADIUS); y++) {
+                for (int x = Math.max(0, centerX - BRUSH_RADIUS); x <= Math.min(dim - 1, centerX + BRUSH_RADIUS); x++) {
+                    edit.setTerrainCode(x, y, code);
+                }
+            }
+            edit.commit();
+            
+            // Strokes that change nothing do not make a step
+            states[(int)history.getCurrentStep()] = getTerrain(map);
+        }
+        long recordNanos = System.nanoTime() - start;
+        
+        long fullCopyBytes = (long)history.getUndoCount() * dim * dim;
+        System.out.printf("Recorded %d strokes in %.2f ms, %d undoable, %d forgotten%n",
+                strokes, BenchmarkMaps.toMillis(recordNanos),
+                history.getUndoCount(), history.getForgottenStepCount());
+        System.out.printf("History uses %d KiB with %d keyframes, full copies would use %d KiB%n",
+                history.getUsedBytes() / 1024, history.getKeyframeCount(), fullCopyBytes / 1024);
+        
+        int undoCount = history.getUndoCount();
+        start = System.nanoTime();
+        while (history.undo()) {
+            check(map, states[(int)history.getCurrentStep()]);
+        }
+        long undoNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        while (history.redo()) {
+            check(map, states[(int)history.getCurrentStep()]);
+        }
+        long redoNanos = System.nanoTime() - start;
+        System.out.printf("Undo: %.1f us per step, redo: %.1f us per step, including checks%n",
+                undoNanos / 1000.0 / undoCount, redoNanos / 1000.0 / undoCount);
+        
+        start = System.nanoTime();
+        for (int i = 0; i < JUMPS; i++) {
+            long step = history.getOldestStep() + random.nextInt(undoCount + 1);
+            history.jumpTo(step);
+            check(map, states[(int)step]);
+        }
+        System.out.printf("Random jumps: %.1f us each, including checks%n",
+                (System.nanoTime() - start) / 1000.0 / JUMPS);
+        
+        // Patterns left behind by replays must match a clean build
+        TacticalMapData rebuilt = TacticalMapData.create(dim, dim, getTerrain(map));
+        for (int i = 0; i < map.getTileCount(); i++) {
+            TacticalTileData tile = map.getTiles()[i];
+            TacticalTileData expected = rebuilt.getTiles()[i];
+            if (tile.getNeighborRaisePattern() != expected.getNeighborRaisePattern()
+                    || tile.isRamp() != expected.isRamp()) {
+                throw new RuntimeException("Replayed patterns differ at tile " + i);
+            }
+        }
+        System.out.println("Replayed maps match");
+    }
+    
+    private static byte[] getTerrain(TacticalMapData map) {
+        TacticalTileData[] tiles = map.getTiles();
+        byte[] terrainCodes = new byte[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            terrainCodes[i] = tiles[i].getTerrainCode();
+        }
+        return terrainCodes;
+    }
+    
+    private static void check(TacticalMapData map, byte[] expected) {
+        TacticalTileData[] tiles = map.getTiles();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i].getTerrainCode() != expected[i]) {
+                throw new RuntimeException("History state differs at tile " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.InvalidMapFileException;
+import joeyproductions.kazhardcommand.sessioncore.data.PagedTacticalMap;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapFile;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapFileWriter;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Checks paged maps against fully loaded maps under a small memory budget,
+ * and measures paging behavior for random and sequential access.<br>
+ * <br>
+ * Usage: PagedMapBenchmark [map side length] [resident regions]
+ * @author Joseph Cramsey
+ */
+public class PagedMapBenchmark {
+    
+    private static final int EDIT_COUNT = 20000;
+    private static final int VIEWPORT_READS = 2000000;
+    private static final int VIEWPORT_DIM = 96;
+    private static final int RANDOM_READS = 2000;
+    
+    public static void main(String[] args) throws IOException, InvalidMapFileException {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int residentRegions = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long budget = (long)residentRegions * PagedTacticalMap.REGION_MEMORY_BYTES;
+        
+        byte[] terrainCodes = BenchmarkMaps.createTiledTerrain(dim, dim);
+        Path mapPath = Files.createTempFile("kazhard-paged", ".kzmap");
+        Path regionPath = Files.createTempFile("kazhard-paged", ".kzregions");
+        
+        try {
+            TacticalMapFileWriter.write(dim, dim, terrainCodes, mapPath);
+            
+            long start = System.nanoTime();
+            try (PagedTacticalMap paged = PagedTacticalMap.create(regionPath, TacticalMapFile.open(mapPath, true), budget)) {
+                System.out.printf("Import %dx%d: %.2f ms%n", dim, dim, BenchmarkMaps.toMillis(System.nanoTime() - start));
+                
+                // Edit along seams as well as inside regions
+                Random random = new Random(1);
+                for (int i = 0; i < EDIT_COUNT; i++) {
+                    int x = random.nextInt(dim);
+                    int y = random.nextInt(dim);
+                    if (i % 2 == 0) {
+                        x -= x % PagedTacticalMap.REGION_DIM;
+                    }
+                    byte code = (byte)random.nextInt(3);
+                    paged.setTerrainCode(x, y, code);
+                    terrainCodes[(y * dim) + x] = code;
+                }
+                
+                check(paged, TacticalMapData.create(dim, dim, terrainCodes));
+                System.out.println("Edited map matches, resident regions: "
+                        + paged.getResidentRegionCount() + " / " + paged.getMaxResidentRegions());
+                
+                // A viewport drifting across the map, reading around itself
+                long startPageIns = paged.getPageInCount();
+                start = System.nanoTime();
+                long checksum = 0;
+                int viewX = 0;
+                int viewY = 0;
+                for (int i = 0; i < VIEWPORT_READS; i++) {
+                    if (i % 1000 == 0) {
+                        viewX = Math.max(0, Math.min(dim - VIEWPORT_DIM, viewX + random.nextInt(9) - 3));
+                        viewY = Math.max(0, Math.min(dim - VIEWPORT_DIM, viewY + random.nextInt(9) - 3));
+                    }
+                    checksum += paged.getRaisePattern(
+                            viewX + random.nextInt(VIEWPORT_DIM), viewY + random.nextInt(VIEWPORT_DIM)
+                    );
+                }
+                long viewportNanos = System.nanoTime() - start;
+                System.out.printf("Viewport pattern reads: %.1f ns each, %d page-ins (%d)%n",
+                        (double)viewportNanos / VIEWPORT_READS,
+                        paged.getPageInCount() - startPageIns, checksum);
+                
+                // Scattered reads page in a region nearly every time
+                startPageIns = paged.getPageInCount();
+                start = System.nanoTime();
+                for (int i = 0; i < RANDOM_READS; i++) {
+                    checksum += paged.getRaisePattern(random.nextInt(dim), random.nextInt(dim));
+                }
+                long randomNanos = System.nanoTime() - start;
+                System.out.printf("Scattered pattern reads: %.1f us each, %d page-ins (%d)%n",
+                        (double)randomNanos / RANDOM_READS / 1000.0,
+                        paged.getPageInCount() - startPageIns, checksum);
+                System.out.println("Total page-ins: " + paged.getPageInCount()
+                        + ", evictions: " + paged.getEvictionCount()
+                        + ", write-backs: " + paged.getWriteBackCount());
+            }
+            
+            // Everything written back must survive a reopen
+            try (PagedTacticalMap reopened = PagedTacticalMap.open(regionPath, budget)) {
+                check(reopened, TacticalMapData.create(dim, dim, terrainCodes));
+                System.out.println("Reopened map matches");
+            }
+        } finally {
+            Files.deleteIfExists(mapPath);
+            Files.deleteIfExists(regionPath);
+        }
+    }
+    
+    private static void check(PagedTacticalMap paged, TacticalMapData expected) {
+        // Walk in region order, so checking does not thrash
+        int dim = expected.getWidth();
+        for (int ry = 0; ry < dim; ry += PagedTacticalMap.REGION_DIM) {
+            for (int rx = 0; rx < dim; rx += PagedTacticalMap.REGION_DIM) {
+                for (int y = ry; y < Math.min(dim, ry + PagedTacticalMap.REGION_DIM); y++) {
+                    for (int x = rx; x < Math.min(dim, rx + PagedTacticalMap.REGION_DIM); x++) {
+                        TacticalTileData tile = expected.getTile(x, y);
+                        if (paged.getTerrainCode(x, y) != tile.getTerrainCode()
+                                || paged.getRaisePattern(x, y) != tile.getNeighborRaisePattern()
+                                || paged.isRamp(x, y) != tile.isRamp()) {
+                            throw new RuntimeException("Paged map differs at " + x + ", " + y);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
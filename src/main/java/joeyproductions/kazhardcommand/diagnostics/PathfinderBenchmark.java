@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import joeyproductions.kazhardcommand.pathcore.TacticalPath;
+import joeyproductions.kazhardcommand.pathcore.TacticalPathfinder;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Runs random path queries over a large map, with and without jump points,
+ * checks that both agree on every cost, and checks every step of every path
+ * against the movement rules.<br>
+ * <br>
+ * Usage: PathfinderBenchmark [map side length] [queries] [tiled|plateaus]
+ * @author Joseph Cramsey
+ */
+public class PathfinderBenchmark {
+    
+    private static final int WARMUP_QUERIES = 200;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        
+        boolean isTiled = args.length > 2 && args[2].equals("tiled");
+        TacticalMapData map = isTiled
+                ? BenchmarkMaps.createTiledMap(dim, dim)
+                : BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TacticalPathfinder pathfinder = TacticalPathfinder.create(map);
+        
+        Random random = new Random(1);
+        int[] queries = new int[queryCount * 4];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextInt(dim);
+        }
+        
+        for (int i = 0; i < Math.min(WARMUP_QUERIES, queryCount); i++) {
+            runQuery(pathfinder, queries, i, true);
+            runQuery(pathfinder, queries, i, false);
+        }
+        
+        long[] jumpStats = new long[3];
+        long start = System.nanoTime();
+        TacticalPath[] jumpPaths = new TacticalPath[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            jumpPaths[i] = runQuery(pathfinder, queries, i, true);
+            addStats(jumpStats, jumpPaths[i]);
+        }
+        long jumpNanos = System.nanoTime() - start;
+        
+        long[] plainStats = new long[3];
+        start = System.nanoTime();
+        for (int i = 0; i < queryCount; i++) {
+            TacticalPath path = runQuery(pathfinder, queries, i, false);
+            addStats(plainStats, path);
+            
+            int jumpCost = jumpPaths[i] == null ? -1 : jumpPaths[i].getCost();
+            int plainCost = path == null ? -1 : path.getCost();
+            if (jumpCost != plainCost) {
+                throw new RuntimeException("Query " + i + " costs " + jumpCost + " with jump points, but " + plainCost + " without");
+            }
+        }
+        long plainNanos = System.nanoTime() - start;
+        
+        for (TacticalPath path : jumpPaths) {
+            if (path != null) check(pathfinder.getPassability(), path);
+        }
+        System.out.println("All paths agree, " + jumpStats[0] + " of " + queryCount + " reachable");
+        
+        System.out.printf("A*: %.1f us per query, %d nodes expanded on average%n",
+                plainNanos / 1000.0 / queryCount, plainStats[1] / queryCount);
+        System.out.printf("Jump points: %.1f us per query, %d nodes expanded on average%n",
+                jumpNanos / 1000.0 / queryCount, jumpStats[1] / queryCount);
+        
+        // Every thread gets its own scratch memory
+        AtomicLong reachable = new AtomicLong();
+        start = System.nanoTime();
+        IntStream.range(0, queryCount).parallel().forEach(i -> {
+            if (runQuery(pathfinder, queries, i, true) != null) {
+                reachable.incrementAndGet();
+            }
+        });
+        long parallelNanos = System.nanoTime() - start;
+        if (reachable.get() != jumpStats[0]) {
+            throw new RuntimeException("Parallel queries found different paths");
+        }
+        System.out.printf("Parallel jump points: %.0f queries per second%n",
+                queryCount / (parallelNanos / 1000000000.0));
+    }
+    
+    private static TacticalPath runQuery(TacticalPathfinder pathfinder, int[] queries, int query, boolean useJumpPoints) {
+        int q = query * 4;
+        return pathfinder.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], useJumpPoints);
+    }
+    
+    private static void addStats(long[] stats, TacticalPath path) {
+        if (path == null) return;
+        stats[0]++;
+        stats[1] += path.getExpandedNodeCount();
+        stats[2] += path.getCost();
+    }
+    
+    static void check(TerrainPassability passability, TacticalPath path) {
+        int cost = 0;
+        for (int i = 1; i < path.getLength(); i++) {
+            int dx = path.getX(i) - path.getX(i - 1);
+            int dy = path.getY(i) - path.getY(i - 1);
+            int direction = -1;
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                if (TacticalTileData.getXOffsetFromDirection(d) == dx
+                        && TacticalTileData.getYOffsetFromDirection(d) == dy) {
+                    direction = d;
+                }
+            }
+            if (direction < 0 || !passability.canStep(path.getTileIndex(i - 1), direction)) {
+                throw new RuntimeException("Illegal step at " + path.getX(i - 1) + ", " + path.getY(i - 1));
+            }
+            cost += (direction % 2 == 0) ? TacticalPathfinder.STRAIGHT_COST : TacticalPathfinder.DIAGONAL_COST;
+        }
+        if (cost != path.getCost()) {
+            throw new RuntimeException("Path steps cost " + cost + ", not " + path.getCost());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Arrays;
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapBranch;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapSnapshot;
+
+/**
+ * Measures snapshots and branches against copying a whole map, checks that
+ * branches never leak into what they came from, and checks how much memory
+ * many branched snapshots actually take.<br>
+ * <br>
+ * Usage: SnapshotBenchmark [map side length] [kept snapshots]
+ * @author Joseph Cramsey
+ */
+public class SnapshotBenchmark {
+    
+    private static final int BRANCHES = 100000;
+    private static final int EDITS_PER_BRANCH = 8;
+    private static final int EDIT_SPREAD = 24;
+    private static final int MAP_EDITS = 100;
+    private static final int CHECKS = 20000;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int keptCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        
+        byte[] terrainCodes = BenchmarkMaps.createPlateauTerrain(dim, dim, 1);
+        TacticalMapData map = TacticalMapData.create(dim, dim, terrainCodes);
+        
+        long start = System.nanoTime();
+        TacticalMapData.create(dim, dim, terrainCodes);
+        System.out.printf("Copying the whole map: %.2f ms%n", BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        start = System.nanoTime();
+        TacticalMapSnapshot base = TacticalMapSnapshot.capture(map);
+        System.out.printf("First capture: %.2f ms%n", BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        Random random = new Random(10);
+        for (int i = 0; i < MAP_EDITS; i++) {
+            map.setTerrainCode(random.nextInt(dim), random.nextInt(dim), (byte)random.nextInt(3));
+        }
+        start = System.nanoTime();
+        TacticalMapSnapshot recaptured = TacticalMapSnapshot.capture(map, base);
+        System.out.printf("Capture after %d edits: %.3f ms, sharing %d of %d chunks%n",
+                MAP_EDITS, BenchmarkMaps.toMillis(System.nanoTime() - start),
+                recaptured.countSharedChunks(base), base.getChunkCount());
+        checkSnapshot(recaptured, map);
+        
+        // Branch, look a few moves ahead, and throw it all away
+        long checksum = 0;
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < BRANCHES; i++) {
+                TacticalMapBranch branch = recaptured.branch();
+                editNear(branch, random, dim);
+                checksum += branch.getCopiedChunkCount();
+            }
+            System.out.printf("Branch, %d edits, discard: %.2f us each (%d)%n",
+                    EDITS_PER_BRANCH, (System.nanoTime() - start) / 1000.0 / BRANCHES, checksum);
+        }
+        
+        // Branches must match a plain copy, and leave their snapshot alone
+        byte[] expected = recaptured.getTerrainCodes();
+        byte[] model = expected.clone();
+        TacticalMapBranch branch = recaptured.branch();
+        for (int i = 0; i < CHECKS; i++) {
+            int x = random.nextInt(dim);
+            int y = random.nextInt(dim);
+            byte code = (byte)random.nextInt(3);
+            branch.setTerrainCode(x, y, code);
+            model[(y * dim) + x] = code;
+            if (i == CHECKS / 2) {
+                // Freezing midway must not stop later writes from copying
+                TacticalMapSnapshot frozen = branch.snapshot();
+                if (!Arrays.equals(frozen.getTerrainCodes(), model)) {
+                    throw new RuntimeException("Frozen branch differs from a plain copy");
+                }
+            }
+        }
+        if (!Arrays.equals(branch.snapshot().getTerrainCodes(), model)) {
+            throw new RuntimeException("Branch differs from a plain copy");
+        }
+        if (!Arrays.equals(recaptured.getTerrainCodes(), expected)) {
+            throw new RuntimeException("Branch edits leaked into the snapshot");
+        }
+        System.out.println("Branches match plain copies, and leave snapshots alone");
+        
+        // Memory held by many snapshots, each a few edits from the same base
+        TacticalMapSnapshot[] kept = new TacticalMapSnapshot[keptCount];
+        long usedBefore = getUsedMemory();
+        for (int i = 0; i < keptCount; i++) {
+            TacticalMapBranch keptBranch = recaptured.branch();
+            editNear(keptBranch, random, dim);
+            kept[i] = keptBranch.snapshot();
+        }
+        long usedBytes = getUsedMemory() - usedBefore;
+        int leastShared = Integer.MAX_VALUE;
+        for (TacticalMapSnapshot snapshot : kept) {
+            leastShared = Math.min(leastShared, snapshot.countSharedChunks(recaptured));
+        }
+        long perSnapshot = usedBytes / keptCount;
+        System.out.printf("%d snapshots hold %.2f MB, %d bytes each, against %d bytes of terrain per copy%n",
+                keptCount, usedBytes / 1048576.0, perSnapshot, (long)dim * dim);
+        System.out.println("Every snapshot shares at least " + leastShared + " of " + recaptured.getChunkCount() + " chunks");
+        if (leastShared < recaptured.getChunkCount() - EDITS_PER_BRANCH || perSnapshot * 10 > (long)dim * dim) {
+            throw new RuntimeException("Snapshots are not sharing storage");
+        }
+    }
+    
+    private static void editNear(TacticalMapBranch branch, Random random, int dim) {
+        int centerX = random.nextInt(dim);
+        int centerY = random.nextInt(dim);
+        for (int e = 0; e < EDITS_PER_BRANCH; e++) {
+            int x = Math.max(0, Math.min(dim - 1, centerX + random.nextInt(EDIT_SPREAD) - EDIT_SPREAD / 2));
+            int y = Math.max(0, Math.min(dim - 1, centerY + random.nextInt(EDIT_SPREAD) - EDIT_SPREAD / 2));
+            branch.setTerrainCode(x, y, (byte)random.nextInt(3));
+        }
+    }
+    
+    private static void checkSnapshot(TacticalMapSnapshot snapshot, TacticalMapData map) {
+        for (int y = 0; y < map.getHeight(); y++) {
+            for (int x = 0; x < map.getWidth(); x++) {
+                if (snapshot.getTerrainCode(x, y) != map.getTile(x, y).getTerrainCode()) {
+                    throw new RuntimeException("Snapshot differs from its map at " + x + ", " + y);
+                }
+            }
+        }
+    }
+    
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
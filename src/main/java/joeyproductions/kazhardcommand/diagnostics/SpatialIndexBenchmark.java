@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Arrays;
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.unitcore.UnitSpatialIndex;
+
+/**
+ * Measures moving units around a spatial index and querying around them,
+ * against scanning every unit, and checks both give the same answers.<br>
+ * <br>
+ * Usage: SpatialIndexBenchmark [map side length] [units] [cell shift]
+ * @author Joseph Cramsey
+ */
+public class SpatialIndexBenchmark {
+    
+    private static final int TICKS = 20;
+    private static final int QUERY_RADIUS = 8;
+    private static final int SCAN_QUERIES = 2000;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int unitCount = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int cellShift = args.length > 2 ? Integer.parseInt(args[2]) : UnitSpatialIndex.DEFAULT_CELL_SHIFT;
+        
+        TacticalMapData map = TacticalMapData.create(dim, dim, new byte[dim * dim]);
+        UnitSpatialIndex index = UnitSpatialIndex.create(map, cellShift);
+        Random random = new Random(8);
+        int[] ids = new int[unitCount];
+        for (int i = 0; i < unitCount; i++) {
+            ids[i] = index.addUnit(random.nextInt(dim), random.nextInt(dim));
+        }
+        
+        int[] found = new int[unitCount];
+        long checksum = 0;
+        long overhead = -BenchmarkMaps.getAllocatedBytes() + BenchmarkMaps.getAllocatedBytes();
+        for (int tick = 0; tick < TICKS; tick++) {
+            // Every unit takes a step, then every unit looks around itself
+            long allocated = BenchmarkMaps.getAllocatedBytes();
+            long start = System.nanoTime();
+            for (int id : ids) {
+                int x = Math.max(0, Math.min(dim - 1, index.getUnitX(id) + random.nextInt(3) - 1));
+                int y = Math.max(0, Math.min(dim - 1, index.getUnitY(id) + random.nextInt(3) - 1));
+                index.moveUnit(id, x, y);
+            }
+            long moveNanos = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int id : ids) {
+                checksum += index.queryRadius(index.getUnitX(id), index.getUnitY(id), QUERY_RADIUS, found);
+            }
+            long queryNanos = System.nanoTime() - start;
+            allocated = BenchmarkMaps.getAllocatedBytes() - allocated - overhead;
+            if (tick % 5 == 4) {
+                System.out.printf("Tick %d: moves %.1f ns each, radius queries %.2f us each, %d bytes allocated (%d)%n",
+                        tick, (double)moveNanos / unitCount, queryNanos / 1000.0 / unitCount, allocated, checksum);
+            }
+        }
+        
+        // Scanning every unit, for comparison and for checking answers
+        int[] scanned = new int[unitCount];
+        long scanNanos = 0;
+        for (int q = 0; q < SCAN_QUERIES; q++) {
+            int centerX = random.nextInt(dim);
+            int centerY = random.nextInt(dim);
+            long start = System.nanoTime();
+            int scanCount = 0;
+            for (int id : ids) {
+                int dx = index.getUnitX(id) - centerX;
+                int dy = index.getUnitY(id) - centerY;
+                if ((dx * dx) + (dy * dy) <= QUERY_RADIUS * QUERY_RADIUS) {
+                    scanned[scanCount++] = id;
+                }
+            }
+            scanNanos += System.nanoTime() - start;
+            
+            int foundCount = index.queryRadius(centerX, centerY, QUERY_RADIUS, found);
+            check(found, foundCount, scanned, scanCount, "radius");
+            
+            scanCount = 0;
+            for (int id : ids) {
+                if (Math.abs(index.getUnitX(id) - centerX) <= QUERY_RADIUS
+                        && Math.abs(index.getUnitY(id) - centerY) <= QUERY_RADIUS / 2) {
+                    scanned[scanCount++] = id;
+                }
+            }
+            foundCount = index.queryRectangle(centerX - QUERY_RADIUS, centerY - QUERY_RADIUS / 2,
+                    centerX + QUERY_RADIUS, centerY + QUERY_RADIUS / 2, found);
+            check(found, foundCount, scanned, scanCount, "rectangle");
+        }
+        System.out.printf("Scanning every unit instead: %.2f us each%n", scanNanos / 1000.0 / SCAN_QUERIES);
+        
+        // Churn, so ids get reused
+        for (int i = 0; i < unitCount / 2; i++) {
+            index.removeUnit(ids[i]);
+        }
+        for (int i = 0; i < unitCount / 2; i++) {
+            ids[i] = index.addUnit(random.nextInt(dim), random.nextInt(dim));
+        }
+        int total = index.queryRectangle(0, 0, dim - 1, dim - 1, found);
+        if (total != unitCount || index.getUnitLimit() != unitCount) {
+            throw new RuntimeException("Index lost track of units: " + total + " of " + unitCount);
+        }
+        System.out.println("Index matches scanning every unit");
+    }
+    
+    private static void check(int[] found, int foundCount, int[] scanned, int scanCount, String query) {
+        if (foundCount != scanCount) {
+            throw new RuntimeException("The " + query + " query found " + foundCount + " units, not " + scanCount);
+        }
+        Arrays.sort(found, 0, foundCount);
+        Arrays.sort(scanned, 0, scanCount);
+        if (!Arrays.equals(found, 0, foundCount, scanned, 0, scanCount)) {
+            throw new RuntimeException("The " + query + " query found different units");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.aicore.SquadPlan;
+import joeyproductions.kazhardcommand.aicore.TacticalSearch;
+import joeyproductions.kazhardcommand.combatcore.CoverTable;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.simcore.TurnOrders;
+import joeyproductions.kazhardcommand.simcore.TurnResolver;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * Plays a searching team against one that always advances, then plays the
+ * same start with both teams always advancing, to compare. Reports playouts
+ * per search, and how far past the budget each search returned, and fails if
+ * any search returned later than a bound.<br>
+ * <br>
+ * Usage: TacticalSearchBenchmark [workers] [budget ms] [squad size] [turns] [max overshoot us]
+ * @author Joseph Cramsey
+ */
+public class TacticalSearchBenchmark {
+    
+    private static final int DIM = 128;
+    private static final int SQUAD_SPREAD = 8;
+    private static final int SQUAD_GAP = 24;
+    private static final int MAX_HP = 100;
+    private static final int SEARCH_TEAM = 0;
+    private static final int ENEMY_TEAM = 1;
+    
+    public static void main(String[] args) throws InterruptedException {
+        int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long budgetNanos = (args.length > 1 ? Long.parseLong(args[1]) : 100) * 1000000L;
+        int squadSize = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+        int turns = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        long maxOvershootNanos = (args.length > 4 ? Long.parseLong(args[4]) : 10000) * 1000L;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(DIM, DIM, 2);
+        TerrainPassability passability = TerrainPassability.create(map);
+        CoverTable cover = CoverTable.create(map);
+        UnitStore start = UnitStore.create(map);
+        Random random = new Random(6);
+        placeSquad(start, map, SEARCH_TEAM, (DIM - SQUAD_GAP) / 2, squadSize, random);
+        placeSquad(start, map, ENEMY_TEAM, (DIM + SQUAD_GAP) / 2, squadSize, random);
+        
+        TacticalSearch search = TacticalSearch.create(passability, cover, workerCount);
+        UnitStore store = UnitStore.create(map);
+        store.copyFrom(start);
+        TurnResolver resolver = TurnResolver.create(store, passability, cover, 1, false);
+        TurnOrders orders = new TurnOrders();
+        
+        long playouts = 0;
+        long searchNanos = 0;
+        long maxOvershoot = 0;
+        int lateSearches = 0;
+        int[] planCounts = new int[SquadPlan.PLAN_COUNT];
+        int turn = 0;
+        for (; turn < turns && !isOver(store); turn++) {
+            int plan = search.search(store, SEARCH_TEAM, budgetNanos);
+            planCounts[plan]++;
+            playouts += search.getLastPlayouts();
+            searchNanos += search.getLastNanos();
+            maxOvershoot = Math.max(maxOvershoot, search.getLastOvershootNanos());
+            if (search.getLastOvershootNanos() > 0) {
+                lateSearches++;
+            }
+            System.out.printf("Turn %d: %s, %d playouts, %d nodes, stopped %.1f us early, %.1f us over budget%n",
+                    turn, SquadPlan.getName(plan), search.getLastPlayouts(), search.getLastTreeSize(),
+                    search.getLastStopMarginNanos() / 1000.0, search.getLastOvershootNanos() / 1000.0);
+            
+            orders.clear();
+            SquadPlan.giveOrders(store, passability, SEARCH_TEAM, plan, orders);
+            SquadPlan.giveOrders(store, passability, ENEMY_TEAM, SquadPlan.ADVANCE, orders);
+            resolver.resolve(orders);
+        }
+        search.dispose();
+        System.out.printf("%d workers: %.0f playouts per second, %d of %d searches late, at most %.1f us over budget%n",
+                workerCount, playouts * 1000000000.0 / searchNanos, lateSearches, turn, maxOvershoot / 1000.0);
+        if (maxOvershoot > maxOvershootNanos) {
+            throw new RuntimeException("Search returned more than " + (maxOvershootNanos / 1000) + " us late");
+        }
+        StringBuilder plans = new StringBuilder("Plans picked:");
+        for (int plan = 0; plan < SquadPlan.PLAN_COUNT; plan++) {
+            plans.append(' ').append(SquadPlan.getName(plan)).append(' ').append(planCounts[plan]);
+        }
+        System.out.println(plans);
+        report("Searching team", store, turn);
+        
+        // The same start, without searching
+        store.copyFrom(start);
+        resolver = TurnResolver.create(store, passability, cover, 1, false);
+        turn = 0;
+        for (; turn < turns && !isOver(store); turn++) {
+            orders.clear();
+            SquadPlan.giveOrders(store, passability, SEARCH_TEAM, SquadPlan.ADVANCE, orders);
+            SquadPlan.giveOrders(store, passability, ENEMY_TEAM, SquadPlan.ADVANCE, orders);
+            resolver.resolve(orders);
+        }
+        report("Advancing team", store, turn);
+        
+        passability.dispose();
+        cover.dispose();
+    }
+    
+    private static void placeSquad(UnitStore store, TacticalMapData map, int team,
+            int centerX, int squadSize, Random random) {
+        TacticalTileData[] tiles = map.getTiles();
+        for (int i = 0; i < squadSize; i++) {
+            int tileIndex;
+            do {
+                int x = centerX + random.nextInt(SQUAD_SPREAD) - (SQUAD_SPREAD / 2);
+                int y = (DIM / 2) + random.nextInt(2 * SQUAD_SPREAD) - SQUAD_SPREAD;
+                tileIndex = map.getTileIndex(x, y);
+            } while (tiles[tileIndex].isRaised());
+            store.addUnit(tileIndex, team, MAX_HP, TacticalTileData.NORTH);
+        }
+    }
+    
+    private static boolean isOver(UnitStore store) {
+        byte[] teams = store.getTeamColumn();
+        for (int row = 1; row < store.getCount(); row++) {
+            if (teams[row] != teams[0]) return false;
+        }
+        return true;
+    }
+    
+    private static void report(String name, UnitStore store, int turns) {
+        int[] units = new int[2];
+        int[] hitPoints = new int[2];
+        for (int row = 0; row < store.getCount(); row++) {
+            int team = store.getTeamColumn()[row];
+            units[team]++;
+            hitPoints[team] += store.getHitPointColumn()[row];
+        }
+        System.out.printf("%s after %d turns: %d units with %d hit points, against %d units with %d%n",
+                name, turns, units[SEARCH_TEAM], hitPoints[SEARCH_TEAM],
+                units[ENEMY_TEAM], hitPoints[ENEMY_TEAM]);
+    }
+}
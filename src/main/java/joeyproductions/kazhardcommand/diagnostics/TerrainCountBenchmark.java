@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.sessioncore.data.TerrainCountTable;
+
+/**
+ * Measures rectangle counts, and what edits cost them, and checks counts
+ * against walking the tiles.<br>
+ * <br>
+ * Usage: TerrainCountBenchmark [map side length] [edits]
+ * @author Joseph Cramsey
+ */
+public class TerrainCountBenchmark {
+    
+    private static final int QUERIES = 10000000;
+    private static final int CHECKS = 2000;
+    private static final int MAX_RECT_DIM = 64;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int editCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        long start = System.nanoTime();
+        TerrainCountTable table = TerrainCountTable.create(map);
+        System.out.printf("Built %dx%d tables in %.2f ms%n",
+                dim, dim, BenchmarkMaps.toMillis(System.nanoTime() - start));
+        
+        Random random = new Random(9);
+        long checksum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            int x = random.nextInt(dim);
+            int y = random.nextInt(dim);
+            checksum += table.count(i % TerrainCountTable.FLAG_LEN,
+                    x, y, x + random.nextInt(MAX_RECT_DIM), y + random.nextInt(MAX_RECT_DIM));
+        }
+        System.out.printf("Rectangle counts: %.1f ns each (%d)%n",
+                (double)(System.nanoTime() - start) / QUERIES, checksum);
+        
+        // A brush preview: every stroke is followed by a count
+        start = System.nanoTime();
+        for (int i = 0; i < editCount; i++) {
+            paintStroke(map, random, dim);
+            checksum += table.count(TerrainCountTable.FLAG_RAISED, 0, 0, dim - 1, dim - 1);
+        }
+        System.out.printf("Stroke then count: %.1f us each (%d)%n",
+                (System.nanoTime() - start) / 1000.0 / editCount, checksum);
+        
+        // Many strokes before one count share one rebuild
+        long rowsBefore = table.getRebuiltRowCount();
+        start = System.nanoTime();
+        for (int i = 0; i < editCount; i++) {
+            paintStroke(map, random, dim);
+        }
+        checksum += table.count(TerrainCountTable.FLAG_RAISED, 0, 0, dim - 1, dim - 1);
+        System.out.printf("%d strokes then one count: %.2f ms, %d rows rebuilt (%d)%n",
+                editCount, BenchmarkMaps.toMillis(System.nanoTime() - start),
+                table.getRebuiltRowCount() - rowsBefore, checksum);
+        
+        for (int i = 0; i < CHECKS; i++) {
+            int minX = random.nextInt(dim + 8) - 8;
+            int minY = random.nextInt(dim + 8) - 8;
+            int maxX = minX + random.nextInt(MAX_RECT_DIM * 2);
+            int maxY = minY + random.nextInt(MAX_RECT_DIM * 2);
+            int[] expected = new int[TerrainCountTable.FLAG_LEN];
+            for (int y = minY; y <= maxY; y++) {
+                for (int x = minX; x <= maxX; x++) {
+                    if (!map.isInBounds(x, y)) {
+                        expected[TerrainCountTable.FLAG_BORDER]++;
+                        continue;
+                    }
+                    TacticalTileData tile = map.getTile(x, y);
+                    if (tile.isRaised()) expected[TerrainCountTable.FLAG_RAISED]++;
+                    if (tile.isRampBase()) expected[TerrainCountTable.FLAG_RAMP_BASE]++;
+                    if (tile.isRamp()) expected[TerrainCountTable.FLAG_RAMP]++;
+                }
+            }
+            for (int flag = 0; flag < TerrainCountTable.FLAG_LEN; flag++) {
+                int counted = table.count(flag, minX, minY, maxX, maxY);
+                if (counted != expected[flag]) {
+                    throw new RuntimeException("Flag " + flag + " counted " + counted + ", not " + expected[flag]
+                            + " in " + minX + ", " + minY + " to " + maxX + ", " + maxY);
+                }
+            }
+        }
+        System.out.println("Counts match walking the tiles");
+    }
+    
+    private static void paintStroke(TacticalMapData map, Random random, int dim) {
+        int x = random.nextInt(dim);
+        int y = random.nextInt(dim);
+        TacticalMapEdit edit = map.beginEdit();
+        for (int o = 0; o < 6 && x + o < dim; o++) {
+            edit.setTerrainCode(x + o, y, (byte)random.nextInt(3));
+        }
+        edit.commit();
+    }
+}
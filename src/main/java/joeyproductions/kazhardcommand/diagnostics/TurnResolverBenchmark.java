@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Arrays;
+import java.util.Random;
+import joeyproductions.kazhardcommand.combatcore.CoverTable;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.simcore.SplitMix64;
+import joeyproductions.kazhardcommand.simcore.TurnOrders;
+import joeyproductions.kazhardcommand.simcore.TurnResolver;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * Gives every unit an order each turn, attacking a neighboring enemy if it
+ * has one and stepping somewhere otherwise, and resolves the turns both in
+ * parallel and on one thread. Checks that both end every turn the same, and
+ * reports orders per second for each.<br>
+ * <br>
+ * Usage: TurnResolverBenchmark [map side length] [units] [turns]
+ * @author Joseph Cramsey
+ */
+public class TurnResolverBenchmark {
+    
+    private static final int TEAM_COUNT = 2;
+    private static final int MAX_HP = 100;
+    private static final long SEED = 7;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int unitCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int turns = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TerrainPassability passability = TerrainPassability.create(map);
+        CoverTable cover = CoverTable.create(map);
+        UnitStore parallelStore = UnitStore.create(map, unitCount);
+        UnitStore serialStore = UnitStore.create(map, unitCount);
+        
+        Random random = new Random(3);
+        TacticalTileData[] tiles = map.getTiles();
+        for (int i = 0; i < unitCount; i++) {
+            int tileIndex;
+            do {
+                tileIndex = random.nextInt(tiles.length);
+            } while (tiles[tileIndex].isRaised());
+            int facing = random.nextInt(TacticalTileData.DIR_LEN);
+            parallelStore.addUnit(tileIndex, i % TEAM_COUNT, MAX_HP, facing);
+            serialStore.addUnit(tileIndex, i % TEAM_COUNT, MAX_HP, facing);
+        }
+        
+        TurnResolver parallel = TurnResolver.create(parallelStore, passability, cover, SEED, true);
+        TurnResolver serial = TurnResolver.create(serialStore, passability, cover, SEED, false);
+        TurnOrders orders = new TurnOrders();
+        int[] occupants = new int[tiles.length];
+        
+        for (int turn = 0; turn < turns; turn++) {
+            giveOrders(parallelStore, orders, occupants, dim, random);
+            
+            // Alternate which goes first, so neither always runs warmer
+            if (turn % 2 == 0) {
+                parallel.resolve(orders);
+                serial.resolve(orders);
+            }
+            else {
+                serial.resolve(orders);
+                parallel.resolve(orders);
+            }
+            if (hashStore(parallelStore) != hashStore(serialStore)) {
+                throw new RuntimeException("Parallel and serial turns differ on turn " + turn);
+            }
+            if (turn % 10 == 9 || turn == turns - 1) {
+                System.out.printf("Turn %d: %d orders, %d moved, %d blocked, %d conflicts, "
+                        + "%d hits, %d kills, %d dropped, %d units left%n",
+                        turn, orders.getOrderCount(), parallel.getLastMoved(), parallel.getLastBlocked(),
+                        parallel.getLastConflicts(), parallel.getLastHits(), parallel.getLastKills(),
+                        parallel.getLastDropped(), parallelStore.getCount());
+            }
+            
+            // The first few turns warm things up
+            if (turn == Math.min(4, turns - 2)) {
+                parallel.resetStats();
+                serial.resetStats();
+            }
+        }
+        System.out.println("Parallel and serial turns matched every turn");
+        
+        report("Parallel", parallel);
+        report("Serial", serial);
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors());
+        passability.dispose();
+        cover.dispose();
+    }
+    
+    private static void giveOrders(UnitStore store, TurnOrders orders, int[] occupants, int dim, Random random) {
+        int count = store.getCount();
+        int[] tileIndices = store.getTileIndexColumn();
+        byte[] teams = store.getTeamColumn();
+        Arrays.fill(occupants, UnitStore.NO_UNIT);
+        for (int row = 0; row < count; row++) {
+            occupants[tileIndices[row]] = row;
+        }
+        
+        orders.clear();
+        for (int row = 0; row < count; row++) {
+            int x = tileIndices[row] % dim;
+            int y = tileIndices[row] / dim;
+            int target = UnitStore.NO_UNIT;
+            for (int d = 0; d < TacticalTileData.DIR_LEN && target == UnitStore.NO_UNIT; d++) {
+                int nx = x + TacticalTileData.getXOffsetFromDirection(d);
+                int ny = y + TacticalTileData.getYOffsetFromDirection(d);
+                if (nx < 0 || ny < 0 || nx >= dim || ny >= dim) continue;
+                int other = occupants[(ny * dim) + nx];
+                if (other != UnitStore.NO_UNIT && teams[other] != teams[row]) {
+                    target = other;
+                }
+            }
+            if (target != UnitStore.NO_UNIT) {
+                orders.addAttack(store.getHandle(row), store.getHandle(target));
+            }
+            else {
+                orders.addMove(store.getHandle(row), random.nextInt(TacticalTileData.DIR_LEN));
+            }
+        }
+    }
+    
+    private static long hashStore(UnitStore store) {
+        int[] tileIndices = store.getTileIndexColumn();
+        int[] hitPoints = store.getHitPointColumn();
+        long product = store.getCount();
+        for (int row = 0; row < store.getCount(); row++) {
+            product = SplitMix64.mix(product ^ store.getHandle(row));
+            product = SplitMix64.mix(product ^ ((long)tileIndices[row] << 32) ^ hitPoints[row]);
+        }
+        return product;
+    }
+    
+    private static void report(String name, TurnResolver resolver) {
+        System.out.printf("%s: %.0f orders per second; sort %.2f ms, chunks %.2f ms, merge %.2f ms in all%n",
+                name, resolver.getOrdersPerSecond(), BenchmarkMaps.toMillis(resolver.getSortNanos()),
+                BenchmarkMaps.toMillis(resolver.getParallelNanos()), BenchmarkMaps.toMillis(resolver.getMergeNanos()));
+    }
+}
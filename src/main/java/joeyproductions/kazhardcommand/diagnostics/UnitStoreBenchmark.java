@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Random;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.unitcore.UnitMovementSystem;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * Measures systems looping over units in a unit store, against the same
+ * work done on one object per unit, then churns units in and out of the
+ * store and checks that handles hold up.<br>
+ * <br>
+ * Usage: UnitStoreBenchmark [map side length] [units] [ticks]
+ * @author Joseph Cramsey
+ */
+public class UnitStoreBenchmark {
+    
+    private static final int TEAM_COUNT = 2;
+    private static final int MAX_HP = 100;
+    private static final int DAMAGE_ODDS = 64;
+    private static final int DAMAGE = 40;
+    private static final int WARMUP_TICKS = 20;
+    
+    // What a unit would look like as an object graph
+    private static class UnitObject {
+        int tileIndex;
+        int hitPoints;
+        int facing;
+        int team;
+    }
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int unitCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        
+        TacticalMapData map = BenchmarkMaps.createPlateauMap(dim, dim, 1);
+        TerrainPassability passability = TerrainPassability.create(map);
+        UnitStore store = UnitStore.create(map, unitCount);
+        UnitMovementSystem movement = UnitMovementSystem.create(store, passability);
+        ArrayList<UnitObject> objects = new ArrayList<>();
+        
+        Random random = new Random(4);
+        for (int i = 0; i < unitCount; i++) {
+            int tileIndex = pickOpenTile(map, random);
+            int facing = random.nextInt(TacticalTileData.DIR_LEN);
+            store.addUnit(tileIndex, i % TEAM_COUNT, MAX_HP, facing);
+            UnitObject unit = new UnitObject();
+            unit.tileIndex = tileIndex;
+            unit.hitPoints = MAX_HP;
+            unit.facing = facing;
+            unit.team = i % TEAM_COUNT;
+            objects.add(unit);
+        }
+        
+        // Same walk both ways, so the answers have to agree
+        int[] directionOffsets = TacticalTileData.createIndexOffsets(dim);
+        long storeNanos = 0;
+        long objectNanos = 0;
+        long overhead = -BenchmarkMaps.getAllocatedBytes() + BenchmarkMaps.getAllocatedBytes();
+        long allocated = 0;
+        for (int tick = 0; tick < WARMUP_TICKS + ticks; tick++) {
+            long allocatedBefore = BenchmarkMaps.getAllocatedBytes();
+            long start = System.nanoTime();
+            movement.step();
+            long nanos = System.nanoTime() - start;
+            long allocatedAfter = BenchmarkMaps.getAllocatedBytes();
+            
+            long objectStart = System.nanoTime();
+            for (UnitObject unit : objects) {
+                if (unit.hitPoints <= 0) continue;
+                if (passability.canStep(unit.tileIndex, unit.facing)) {
+                    unit.tileIndex += directionOffsets[unit.facing];
+                }
+                else {
+                    unit.facing = (unit.facing + 1) % TacticalTileData.DIR_LEN;
+                }
+            }
+            long objectTickNanos = System.nanoTime() - objectStart;
+            
+            if (tick >= WARMUP_TICKS) {
+                storeNanos += nanos;
+                objectNanos += objectTickNanos;
+                allocated += allocatedAfter - allocatedBefore - overhead;
+            }
+        }
+        for (int row = 0; row < unitCount; row++) {
+            UnitObject unit = objects.get(row);
+            if (store.getTileIndexColumn()[row] != unit.tileIndex
+                    || store.getFacingColumn()[row] != unit.facing) {
+                throw new RuntimeException("Store and objects disagree on unit " + row);
+            }
+        }
+        System.out.printf("Movement over %d units: store %.2f ms per tick (%.1f ns per unit), "
+                + "objects %.2f ms per tick, %d bytes allocated%n",
+                unitCount, BenchmarkMaps.toMillis(storeNanos) / ticks, (double)storeNanos / ticks / unitCount,
+                BenchmarkMaps.toMillis(objectNanos) / ticks, allocated);
+        
+        // Follow a few units by handle while the rest die and get replaced
+        int watchCount = Math.min(1000, unitCount);
+        int[] watched = new int[watchCount];
+        int[] watchedTeams = new int[watchCount];
+        for (int i = 0; i < watchCount; i++) {
+            watched[i] = store.getHandle(random.nextInt(unitCount));
+            watchedTeams[i] = store.getTeam(watched[i]);
+        }
+        
+        long churnNanos = 0;
+        long replaced = 0;
+        allocated = 0;
+        for (int tick = 0; tick < ticks; tick++) {
+            long allocatedBefore = BenchmarkMaps.getAllocatedBytes();
+            long start = System.nanoTime();
+            movement.step();
+            
+            int count = store.getCount();
+            int[] hitPoints = store.getHitPointColumn();
+            for (int row = 0; row < count; row++) {
+                if (random.nextInt(DAMAGE_ODDS) == 0) {
+                    hitPoints[row] -= DAMAGE;
+                }
+            }
+            
+            // Backwards, since removing moves the last row into the gap
+            int removed = 0;
+            int deadHandle = UnitStore.NO_UNIT;
+            for (int row = count - 1; row >= 0; row--) {
+                if (hitPoints[row] <= 0) {
+                    deadHandle = store.getHandle(row);
+                    store.removeUnit(deadHandle);
+                    removed++;
+                }
+            }
+            for (int i = 0; i < removed; i++) {
+                store.addUnit(pickOpenTile(map, random), i % TEAM_COUNT,
+                        MAX_HP, random.nextInt(TacticalTileData.DIR_LEN));
+            }
+            
+            // Its slot has just been handed out again
+            if (deadHandle != UnitStore.NO_UNIT && store.hasUnit(deadHandle)) {
+                throw new RuntimeException("Handle " + deadHandle + " outlived its unit");
+            }
+            churnNanos += System.nanoTime() - start;
+            allocated += BenchmarkMaps.getAllocatedBytes() - allocatedBefore - overhead;
+            replaced += removed;
+        }
+        System.out.printf("Movement, damage, and churn: %.2f ms per tick, %d units replaced, %d bytes allocated%n",
+                BenchmarkMaps.toMillis(churnNanos) / ticks, replaced, allocated);
+        
+        int survivors = 0;
+        for (int i = 0; i < watchCount; i++) {
+            if (!store.hasUnit(watched[i])) continue;
+            survivors++;
+            if (store.getHandle(store.getRow(watched[i])) != watched[i]
+                    || store.getTeam(watched[i]) != watchedTeams[i]) {
+                throw new RuntimeException("Handle " + watched[i] + " points at another unit");
+            }
+        }
+        if (store.getCount() != unitCount) {
+            throw new RuntimeException("Unit count drifted: " + store.getCount());
+        }
+        System.out.println("Handles hold up: " + survivors + " of " + watchCount
+                + " watched units alive");
+        passability.dispose();
+    }
+    
+    private static int pickOpenTile(TacticalMapData map, Random random) {
+        TacticalTileData[] tiles = map.getTiles();
+        int tileIndex;
+        do {
+            tileIndex = random.nextInt(tiles.length);
+        } while (tiles[tileIndex].isRaised());
+        return tileIndex;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.diagnostics;
+
+import java.util.Random;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapBranch;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapHistory;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapSnapshot;
+import joeyproductions.kazhardcommand.sessioncore.data.TranspositionCache;
+
+/**
+ * Checks that incremental Zobrist hashes match hashing from scratch, across
+ * edits, undo, and branches, then runs a search-like walk over map states
+ * through a transposition cache and reports its statistics.<br>
+ * <br>
+ * Usage: ZobristBenchmark [map side length] [walk steps] [cache capacity]
+ * @author Joseph Cramsey
+ */
+public class ZobristBenchmark {
+    
+    private static final int EDITS = 2000;
+    private static final int WALK_TILES = 10;
+    
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 32768;
+        
+        byte[] terrainCodes = BenchmarkMaps.createPlateauTerrain(dim, dim, 1);
+        long start = System.nanoTime();
+        TacticalMapData map = TacticalMapData.create(dim, dim, terrainCodes);
+        System.out.printf("Built and hashed %dx%d map in %.2f ms%n",
+                dim, dim, BenchmarkMaps.toMillis(System.nanoTime() - start));
+        long startHash = map.getZobristHash();
+        
+        TacticalMapHistory history = TacticalMapHistory.create(map, 1 << 20);
+        Random random = new Random(12);
+        for (int i = 0; i < EDITS; i++) {
+            int x = random.nextInt(dim);
+            int y = random.nextInt(dim);
+            byte code = (byte)random.nextInt(3);
+            TacticalMapEdit edit = map.beginEdit();
+            for (int o = 0; o < 4 && x + o < dim; o++) {
+                edit.setTerrainCode(x + o, y, code);
+                terrainCodes[(y * dim) + x + o] = code;
+            }
+            edit.commit();
+        }
+        long editedHash = map.getZobristHash();
+        if (editedHash != TacticalMapData.create(dim, dim, terrainCodes).getZobristHash()) {
+            throw new RuntimeException("Incremental hash differs from hashing from scratch");
+        }
+        while (history.canUndo()) {
+            history.undo();
+        }
+        if (map.getZobristHash() != startHash) {
+            throw new RuntimeException("Undoing every edit did not bring the hash back");
+        }
+        history.dispose();
+        System.out.println("Incremental hash matches hashing from scratch, and undo restores it");
+        
+        // Branches reaching the same terrain by different routes agree
+        TacticalMapSnapshot base = TacticalMapSnapshot.capture(map);
+        TacticalMapBranch first = base.branch();
+        TacticalMapBranch second = base.branch();
+        first.setTerrainCode(1, 1, (byte)1);
+        first.setTerrainCode(2, 2, (byte)2);
+        second.setTerrainCode(2, 2, (byte)1);
+        second.setTerrainCode(2, 2, (byte)2);
+        second.setTerrainCode(1, 1, (byte)1);
+        if (first.getZobristHash() != second.getZobristHash()
+                || first.snapshot().toMapData().getZobristHash() != first.getZobristHash()) {
+            throw new RuntimeException("Branch hashes depend on how they got there");
+        }
+        System.out.println("Branch hashes match the map they describe");
+        
+        // A walk that keeps coming back to states it has seen, as search does
+        TacticalMapBranch branch = base.branch();
+        int[] walkXs = new int[WALK_TILES];
+        int[] walkYs = new int[WALK_TILES];
+        long[] checkKeys = new long[WALK_TILES];
+        for (int i = 0; i < WALK_TILES; i++) {
+            walkXs[i] = random.nextInt(dim);
+            walkYs[i] = random.nextInt(dim);
+            checkKeys[i] = random.nextLong();
+        }
+        
+        // The check value is a second hash, kept with unrelated keys
+        TranspositionCache<Long> cache = TranspositionCache.create(capacity);
+        long check = 0;
+        long wrongResults = 0;
+        start = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            int tile = random.nextInt(WALK_TILES);
+            byte code = branch.getTerrainCode(walkXs[tile], walkYs[tile]);
+            byte nextCode = (byte)((code + 1) % 3);
+            branch.setTerrainCode(walkXs[tile], walkYs[tile], nextCode);
+            check ^= checkKeys[tile] * (code + 1) ^ checkKeys[tile] * (nextCode + 1);
+            
+            long hash = branch.getZobristHash();
+            Long cached = cache.get(hash, check);
+            if (cached == null) {
+                cache.put(hash, check, check);
+            }
+            else if (cached != check) {
+                wrongResults++;
+            }
+        }
+        long walkNanos = System.nanoTime() - start;
+        System.out.printf("Walk: %.1f ns per step, %d states of %d slots in use%n",
+                (double)walkNanos / steps, cache.getSize(), cache.getCapacity());
+        System.out.printf("Hits %d, misses %d, hit rate %.1f%%, stores %d, evictions %d, hash collisions %d%n",
+                cache.getHitCount(), cache.getMissCount(), cache.getHitRate() * 100.0,
+                cache.getStoreCount(), cache.getEvictionCount(), cache.getCollisionCount());
+        if (wrongResults > 0) {
+            throw new RuntimeException(wrongResults + " cache hits returned another state's result");
+        }
+    }
+}
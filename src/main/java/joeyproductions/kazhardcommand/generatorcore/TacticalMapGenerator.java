@@ -0,0 +1,305 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.generatorcore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapFileWriter;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.simcore.SplitMix64;
+
+/**
+ * Generates plateau maps from a seed: raised ground where layered value noise
+ * runs high, cliffs along its edges, and ramps up onto it here and there.
+ * With more than two levels, higher noise stacks plateaus on plateaus.<br>
+ * <br>
+ * Every pass works out each tile from the seed and the pass before it alone,
+ * using integer math, so bands of rows can be generated in parallel and the
+ * result is the same whichever order they finish in:<br>
+ * 1. Noise: a tile is raised if its noise is over the threshold, and goes
+ * up a level for each band of noise above that.<br>
+ * 2. Smoothing: tiles take the median level of their 3x3 block, twice,
+ * which clears specks and one-tile slivers.<br>
+ * 3. Ramps: a tile can be a ramp base if it has a neighbor one level up on
+ * one side, its own level on the opposite side to walk up from, and the
+ * upper level again past the ramp to walk onto. Only the candidate with the
+ * lowest hash in its neighborhood becomes one, which spaces ramps out.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapGenerator {
+    
+    public static final int DEFAULT_RAISED_PERCENT = 35;
+    public static final int DEFAULT_RAMP_SPACING = 12;
+    public static final int DEFAULT_LEVEL_COUNT = 2;
+    
+    // Noise octaves, from 32-tile cells down to 4-tile cells
+    private static final int[] OCTAVE_SHIFTS = {5, 4, 3, 2};
+    private static final int[] OCTAVE_WEIGHTS = {8, 4, 2, 1};
+    private static final int NOISE_BITS = 16;
+    private static final int NOISE_TOP = (3 << NOISE_BITS) / 4;
+    private static final int FADE_ONE = 256;
+    private static final int SMOOTHING_PASSES = 2;
+    private static final int BAND_ROWS = 64;
+    
+    private static final long NOISE_SALT = 0x4E4F495345L;
+    private static final long RAMP_SALT = 0x52414D50L;
+    
+    private final long seed;
+    private final int threshold;
+    private final int rampSpacing;
+    private final int levelCount;
+    
+    private TacticalMapGenerator(long seed, int threshold, int rampSpacing, int levelCount) {
+        this.seed = seed;
+        this.threshold = threshold;
+        this.rampSpacing = rampSpacing;
+        this.levelCount = levelCount;
+    }
+    
+    public static TacticalMapGenerator create(long seed) {
+        return create(seed, DEFAULT_RAISED_PERCENT, DEFAULT_RAMP_SPACING, DEFAULT_LEVEL_COUNT);
+    }
+    
+    /**
+     * @param seed where every tile comes from
+     * @param raisedPercent roughly how much of the map ends up raised
+     * @param rampSpacing roughly how many tiles apart ramps are, along a cliff
+     * @param levelCount how many levels there are, counting the ground
+     * @return the new generator
+     */
+    public static TacticalMapGenerator create(long seed, int raisedPercent, int rampSpacing, int levelCount) {
+        if (raisedPercent < 0 || raisedPercent > 100) {
+            throw new RuntimeException("Raised percent out of range: " + raisedPercent);
+        }
+        if (rampSpacing < 1) {
+            throw new RuntimeException("Ramp spacing out of range: " + rampSpacing);
+        }
+        if (levelCount < 2 || levelCount > TacticalTileData.MAX_LEVEL + 1) {
+            throw new RuntimeException("Level count out of range: " + levelCount);
+        }
+        
+        // Summed octaves bunch up in the middle, so the threshold is spread
+        // over the middle half of the noise range
+        int noiseMax = 1 << NOISE_BITS;
+        int threshold = (noiseMax / 4) + (int)((long)(noiseMax / 2) * (100 - raisedPercent) / 100);
+        return new TacticalMapGenerator(seed, threshold, rampSpacing, levelCount);
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    public TacticalMapData generate(int width, int height) {
+        return TacticalMapData.create(width, height, generateTerrain(width, height, true));
+    }
+    
+    /**
+     * Generates straight into a map file, without building the map itself.
+     */
+    public void generateFile(int width, int height, Path path) throws IOException {
+        TacticalMapFileWriter.write(width, height, generateTerrain(width, height, true), path);
+    }
+    
+    public byte[] generateTerrain(int width, int height) {
+        return generateTerrain(width, height, true);
+    }
+    
+    /**
+     * @param width map width, in tiles
+     * @param height map height, in tiles
+     * @param isParallel true to generate bands of rows on every core
+     * @return one terrain code per tile, the same either way
+     */
+    public byte[] generateTerrain(int width, int height, boolean isParallel) {
+        if (width <= 0 || width > TacticalMapData.MAX_DIM) {
+            throw new RuntimeException("Map width out of range: " + width);
+        }
+        if (height <= 0 || height > TacticalMapData.MAX_DIM) {
+            throw new RuntimeException("Map height out of range: " + height);
+        }
+        
+        byte[] current = new byte[width * height];
+        byte[] next = new byte[width * height];
+        
+        byte[] noiseOut = current;
+        forEachBand(height, isParallel, (minY, maxY) -> fillNoise(noiseOut, width, minY, maxY));
+        
+        for (int pass = 0; pass < SMOOTHING_PASSES; pass++) {
+            byte[] in = current;
+            byte[] out = next;
+            forEachBand(height, isParallel, (minY, maxY) -> smooth(in, out, width, height, minY, maxY));
+            next = current;
+            current = out;
+        }
+        
+        // Until now the buffers held levels, and now they become codes
+        byte[] in = current;
+        byte[] out = next;
+        forEachBand(height, isParallel, (minY, maxY) -> placeRamps(in, out, width, height, minY, maxY));
+        return out;
+    }
+    
+    private interface BandTask {
+        void run(int minY, int maxY);
+    }
+    
+    private static void forEachBand(int height, boolean isParallel, BandTask task) {
+        int bandCount = (height + BAND_ROWS - 1) / BAND_ROWS;
+        IntStream bands = IntStream.range(0, bandCount);
+        if (isParallel) {
+            bands = bands.parallel();
+        }
+        bands.forEach(band -> task.run(band * BAND_ROWS, Math.min(height, (band + 1) * BAND_ROWS)));
+    }
+    
+    private void fillNoise(byte[] out, int width, int minY, int maxY) {
+        int weightSum = 0;
+        for (int weight : OCTAVE_WEIGHTS) {
+            weightSum += weight;
+        }
+        int bandWidth = Math.max(1, NOISE_TOP - threshold);
+        
+        for (int y = minY; y < maxY; y++) {
+            for (int x = 0; x < width; x++) {
+                long sum = 0;
+                for (int o = 0; o < OCTAVE_SHIFTS.length; o++) {
+                    sum += (long)OCTAVE_WEIGHTS[o] * getValueNoise(x, y, OCTAVE_SHIFTS[o], o);
+                }
+                long noise = sum / weightSum;
+                if (noise > threshold) {
+                    long level = 1 + (((noise - threshold) * (levelCount - 1)) / bandWidth);
+                    out[(y * width) + x] = (byte)Math.min(levelCount - 1, level);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Value noise: random values on the corners of each cell, blended
+     * smoothly across it.
+     */
+    private int getValueNoise(int x, int y, int cellShift, int octave) {
+        int cellX = x >> cellShift;
+        int cellY = y >> cellShift;
+        int cellMask = (1 << cellShift) - 1;
+        int fadeX = fade(((x & cellMask) * FADE_ONE) >> cellShift);
+        int fadeY = fade(((y & cellMask) * FADE_ONE) >> cellShift);
+        
+        int topLeft = getLatticeValue(cellX, cellY, octave);
+        int topRight = getLatticeValue(cellX + 1, cellY, octave);
+        int bottomLeft = getLatticeValue(cellX, cellY + 1, octave);
+        int bottomRight = getLatticeValue(cellX + 1, cellY + 1, octave);
+        int top = topLeft + (((topRight - topLeft) * fadeX) / FADE_ONE);
+        int bottom = bottomLeft + (((bottomRight - bottomLeft) * fadeX) / FADE_ONE);
+        return top + (((bottom - top) * fadeY) / FADE_ONE);
+    }
+    
+    private int getLatticeValue(int cellX, int cellY, int octave) {
+        long key = ((long)cellX << 32) ^ (cellY & 0xFFFFFFFFL) ^ ((long)octave << 58);
+        return (int)(SplitMix64.mix(key ^ SplitMix64.mix(seed ^ NOISE_SALT)) >>> (64 - NOISE_BITS));
+    }
+    
+    /**
+     * Smoothstep, 3t^2 - 2t^3, on 0 to FADE_ONE.
+     */
+    private static int fade(int t) {
+        return ((3 * t * t) - ((2 * t * t * t) / FADE_ONE)) / FADE_ONE;
+    }
+    
+    private static void smooth(byte[] in, byte[] out, int width, int height, int minY, int maxY) {
+        for (int y = minY; y < maxY; y++) {
+            for (int x = 0; x < width; x++) {
+                // The median is the highest level that at least 5 of the 9
+                // tiles reach, where past the edge counts as ground
+                int median = 0;
+                while (countAtLeast(in, width, height, x, y, median + 1) >= 5) {
+                    median++;
+                }
+                out[(y * width) + x] = (byte)median;
+            }
+        }
+    }
+    
+    private static int countAtLeast(byte[] levels, int width, int height, int x, int y, int level) {
+        int count = 0;
+        for (int yo = Math.max(0, y - 1); yo <= Math.min(height - 1, y + 1); yo++) {
+            for (int xo = Math.max(0, x - 1); xo <= Math.min(width - 1, x + 1); xo++) {
+                if (levels[(yo * width) + xo] >= level) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    private void placeRamps(byte[] in, byte[] out, int width, int height, int minY, int maxY) {
+        int radius = rampSpacing / 2;
+        for (int y = minY; y < maxY; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = in[(y * width) + x];
+                long hash = getRampHash(in, width, height, x, y);
+                
+                // Only the lowest candidate nearby gets a ramp
+                boolean isLowest = hash != Long.MAX_VALUE;
+                for (int yo = Math.max(0, y - radius); yo <= Math.min(height - 1, y + radius) && isLowest; yo++) {
+                    for (int xo = Math.max(0, x - radius); xo <= Math.min(width - 1, x + radius); xo++) {
+                        if ((xo != x || yo != y) && getRampHash(in, width, height, xo, yo) <= hash) {
+                            isLowest = false;
+                            break;
+                        }
+                    }
+                }
+                out[(y * width) + x] = TacticalTileData.createTerrainCode(level, isLowest);
+            }
+        }
+    }
+    
+    /**
+     * @return a ramp candidate's hash, or Long.MAX_VALUE if the tile is not a
+     * candidate
+     */
+    private long getRampHash(byte[] levels, int width, int height, int x, int y) {
+        int level = levels[(y * width) + x];
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d += 2) {
+            int dx = TacticalTileData.getXOffsetFromDirection(d);
+            int dy = TacticalTileData.getYOffsetFromDirection(d);
+            if (getLevel(levels, width, height, x + dx, y + dy) == level + 1
+                    && getLevel(levels, width, height, x + (2 * dx), y + (2 * dy)) == level + 1
+                    && getLevel(levels, width, height, x - dx, y - dy) == level) {
+                return SplitMix64.mix(((long)y << 32) ^ x ^ SplitMix64.mix(seed ^ RAMP_SALT)) >>> 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * @return the level at a tile, or -1 past the edge of the map
+     */
+    private static int getLevel(byte[] levels, int width, int height, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return -1;
+        return levels[(y * width) + x];
+    }
+}
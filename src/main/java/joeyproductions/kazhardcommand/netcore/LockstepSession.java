@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.netcore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Keeps one peer's copy of a map in lockstep with every other peer's.<br>
+ * <br>
+ * Local edits are staged, not applied. Each tick, the staged edits go out as
+ * one batch for a tick inputDelay ticks ahead, so they have time to arrive.
+ * A tick only runs once the batch of every peer for it is in. All batches
+ * are then applied as one map edit, in peer order, which leaves every peer
+ * with the same map.<br>
+ * <br>
+ * A batch packet is the tick as a varlong, the peer as a varint, and the
+ * edits as written by MapDeltaCodec.
+ * @author Joseph Cramsey
+ */
+public class LockstepSession {
+    
+    private static final int INITIAL_STAGED_CAPACITY = 64;
+    
+    private final TacticalMapData map;
+    private final LockstepTransport transport;
+    private final int peerId;
+    private final int peerCount;
+    private final int inputDelay;
+    
+    private long currentTick = 0;
+    private long sentThroughTick = -1;
+    
+    private int[] stagedIndices = new int[INITIAL_STAGED_CAPACITY];
+    private byte[] stagedCodes = new byte[INITIAL_STAGED_CAPACITY];
+    private int stagedCount = 0;
+    
+    // Batches that arrived for ticks that have not run yet, by tick and peer
+    private final HashMap<Long, byte[]> pendingBatches = new HashMap<>();
+    private final PacketWriter writer = new PacketWriter();
+    private final PacketReader reader = new PacketReader();
+    
+    private long sentByteCount = 0;
+    private long stallCount = 0;
+    
+    private LockstepSession(TacticalMapData map, LockstepTransport transport, int peerId, int peerCount, int inputDelay) {
+        this.map = map;
+        this.transport = transport;
+        this.peerId = peerId;
+        this.peerCount = peerCount;
+        this.inputDelay = inputDelay;
+    }
+    
+    /**
+     * @param map this peer's copy of the map, which must start out the same
+     * as every other peer's
+     * @param transport how to reach the other peers
+     * @param peerId this peer's place in the batch order
+     * @param peerCount how many peers there are, this one included
+     * @param inputDelay how many ticks ahead local edits are scheduled
+     * @return the new session
+     */
+    public static LockstepSession create(TacticalMapData map, LockstepTransport transport,
+            int peerId, int peerCount, int inputDelay) {
+        if (peerCount < 1) {
+            throw new RuntimeException("Peer count out of range: " + peerCount);
+        }
+        if (peerId < 0 || peerId >= peerCount) {
+            throw new RuntimeException("Peer id out of range: " + peerId);
+        }
+        if (inputDelay < 0) {
+            throw new RuntimeException("Input delay out of range: " + inputDelay);
+        }
+        
+        LockstepSession product = new LockstepSession(map, transport, peerId, peerCount, inputDelay);
+        
+        // Nobody could have scheduled anything for the first few ticks
+        for (int tick = 0; tick < inputDelay; tick++) {
+            product.sendBatch(tick);
+        }
+        
+        return product;
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public int getPeerId() {
+        return peerId;
+    }
+    
+    /**
+     * @return the next tick to run
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+    
+    /**
+     * Stages an edit, to go out with the next batch.
+     */
+    public void stageEdit(int x, int y, byte terrainCode) {
+        int tileIndex = map.getTileIndex(x, y);
+        if (!TacticalTileData.isValidTerrainCode(terrainCode)) {
+            throw new RuntimeException("Terrain code out of range: " + terrainCode);
+        }
+        
+        if (stagedCount == stagedIndices.length) {
+            stagedIndices = Arrays.copyOf(stagedIndices, stagedCount * 2);
+            stagedCodes = Arrays.copyOf(stagedCodes, stagedCount * 2);
+        }
+        stagedIndices[stagedCount] = tileIndex;
+        stagedCodes[stagedCount] = terrainCode;
+        stagedCount++;
+    }
+    
+    /**
+     * Sends this tick's batch if it has not gone out yet, takes in whatever
+     * has arrived, and runs the current tick if every batch for it is in.
+     * @return true if a tick ran, or false if it is still waiting on a peer
+     * @throws MalformedPacketException if a peer sent something unreadable
+     */
+    public boolean advance() throws MalformedPacketException {
+        long sendTick = currentTick + inputDelay;
+        if (sentThroughTick < sendTick) {
+            sendBatch(sendTick);
+        }
+        
+        for (byte[] packet = transport.poll(); packet != null; packet = transport.poll()) {
+            receive(packet);
+        }
+        
+        for (int peer = 0; peer < peerCount; peer++) {
+            if (!pendingBatches.containsKey(getBatchKey(currentTick, peer))) {
+                stallCount++;
+                return false;
+            }
+        }
+        
+        TacticalMapEdit edit = map.beginEdit();
+        for (int peer = 0; peer < peerCount; peer++) {
+            byte[] packet = pendingBatches.remove(getBatchKey(currentTick, peer));
+            reader.reset(packet, 0, packet.length);
+            reader.readVarLong();
+            reader.readVarInt();
+            MapDeltaCodec.decode(reader, edit);
+        }
+        edit.commit();
+        currentTick++;
+        return true;
+    }
+    
+    public long getSentByteCount() {
+        return sentByteCount;
+    }
+    
+    /**
+     * @return how many times advance() had to wait on a peer
+     */
+    public long getStallCount() {
+        return stallCount;
+    }
+    
+    private void sendBatch(long tick) {
+        writer.reset();
+        writer.writeVarLong(tick);
+        writer.writeVarInt(peerId);
+        MapDeltaCodec.encode(stagedIndices, stagedCodes, stagedCount, writer);
+        stagedCount = 0;
+        
+        byte[] packet = writer.toByteArray();
+        pendingBatches.put(getBatchKey(tick, peerId), packet);
+        transport.send(packet);
+        sentByteCount += packet.length;
+        sentThroughTick = tick;
+    }
+    
+    private void receive(byte[] packet) throws MalformedPacketException {
+        reader.reset(packet, 0, packet.length);
+        long tick = reader.readVarLong();
+        int peer = reader.readVarInt();
+        if (peer < 0 || peer >= peerCount || peer == peerId) {
+            throw new MalformedPacketException("Peer out of range: " + peer);
+        }
+        // A peer can be at most one batch of ours ahead of this tick
+        if (tick < currentTick || tick > currentTick + (2 * inputDelay) + 1) {
+            throw new MalformedPacketException("Tick out of range: " + tick);
+        }
+        if (pendingBatches.putIfAbsent(getBatchKey(tick, peer), packet) != null) {
+            throw new MalformedPacketException("Second batch from peer " + peer + " for tick " + tick);
+        }
+    }
+    
+    private long getBatchKey(long tick, int peer) {
+        return (tick * peerCount) + peer;
+    }
+}
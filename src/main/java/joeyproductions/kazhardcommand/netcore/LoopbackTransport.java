@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.netcore;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A transport between peers in the same process, for tests and benchmarks.
+ * Peers in a group can live on different threads.
+ * @author Joseph Cramsey
+ */
+public class LoopbackTransport implements LockstepTransport {
+    
+    private final ConcurrentLinkedQueue<byte[]> inbox = new ConcurrentLinkedQueue<>();
+    private LoopbackTransport[] group;
+    private long sentPacketCount = 0;
+    private long sentByteCount = 0;
+    
+    private LoopbackTransport() {
+        //
+    }
+    
+    /**
+     * Creates connected transports, one per peer.
+     */
+    public static LoopbackTransport[] createGroup(int peerCount) {
+        if (peerCount < 1) {
+            throw new RuntimeException("Peer count out of range: " + peerCount);
+        }
+        
+        LoopbackTransport[] product = new LoopbackTransport[peerCount];
+        for (int i = 0; i < peerCount; i++) {
+            product[i] = new LoopbackTransport();
+        }
+        for (LoopbackTransport transport : product) {
+            transport.group = product;
+        }
+        return product;
+    }
+    
+    @Override
+    public void send(byte[] packet) {
+        for (LoopbackTransport peer : group) {
+            if (peer != this) {
+                peer.inbox.add(packet);
+            }
+        }
+        sentPacketCount++;
+        sentByteCount += packet.length;
+    }
+    
+    @Override
+    public byte[] poll() {
+        return inbox.poll();
+    }
+    
+    public long getSentPacketCount() {
+        return sentPacketCount;
+    }
+    
+    public long getSentByteCount() {
+        return sentByteCount;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.netcore;
+
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapEdit;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * A compact encoding of terrain edits.<br>
+ * <br>
+ * A varint edit count comes first. Each edit is then one varint, holding the
+ * zigzagged step in tile index from the edit before it, shifted up past the
+ * five bits of its new terrain code. Ramps and patterns are not sent, since
+ * every peer works them out from the codes. Edits along a row cost one byte
+ * each, and scattered edits on a 1024x1024 map three or four.
+ * @author Joseph Cramsey
+ */
+public class MapDeltaCodec {
+    
+    private static final int CODE_BITS = TacticalTileData.TERRAIN_CODE_BITS;
+    private static final int CODE_MASK = TacticalTileData.MAX_TERRAIN_CODE;
+    
+    private MapDeltaCodec() {
+        //
+    }
+    
+    /**
+     * Encodes every edit in a change, with the codes it left behind.
+     */
+    public static void encode(TacticalMapChange change, PacketWriter out) {
+        int count = change.getEditCount();
+        out.writeVarInt(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int tileIndex = change.getEditedTileIndex(i);
+            writeEdit(out, tileIndex - previous, change.getNewTerrainCode(i));
+            previous = tileIndex;
+        }
+    }
+    
+    /**
+     * Encodes edits in the order given, where later edits to the same tile
+     * win.
+     */
+    public static void encode(int[] tileIndices, byte[] terrainCodes, int count, PacketWriter out) {
+        out.writeVarInt(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            writeEdit(out, tileIndices[i] - previous, terrainCodes[i]);
+            previous = tileIndices[i];
+        }
+    }
+    
+    /**
+     * Stages encoded edits in a map edit, checking each one on the way.
+     * @return how many edits were read
+     * @throws MalformedPacketException if an edit is off the map
+     */
+    public static int decode(PacketReader in, TacticalMapEdit edit) throws MalformedPacketException {
+        int width = edit.getMap().getWidth();
+        int tileCount = edit.getMap().getTileCount();
+        
+        int count = in.readVarInt();
+        if (count < 0 || count > in.getRemaining()) {
+            throw new MalformedPacketException("Edit count out of range: " + count);
+        }
+        
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long packed = in.readVarLong();
+            int zigzag = (int)(packed >>> CODE_BITS);
+            long tileIndex = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+            byte terrainCode = (byte)(packed & CODE_MASK);
+            if (tileIndex < 0 || tileIndex >= tileCount) {
+                throw new MalformedPacketException("Tile index out of range: " + tileIndex);
+            }
+            
+            edit.setTerrainCode((int)tileIndex % width, (int)tileIndex / width, terrainCode);
+            previous = tileIndex;
+        }
+        return count;
+    }
+    
+    private static void writeEdit(PacketWriter out, int step, byte terrainCode) {
+        long zigzag = Integer.toUnsignedLong((step << 1) ^ (step >> 31));
+        out.writeVarLong((zigzag << CODE_BITS) | terrainCode);
+    }
+}
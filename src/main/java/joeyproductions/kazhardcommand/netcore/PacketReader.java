@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.netcore;
+
+/**
+ * Reads what a PacketWriter wrote. Running off the end, or a varint that
+ * never ends, throws a MalformedPacketException.
+ * @author Joseph Cramsey
+ */
+public class PacketReader {
+    
+    private byte[] bytes;
+    private int position;
+    private int limit;
+    
+    public PacketReader() {
+        this(new byte[0]);
+    }
+    
+    public PacketReader(byte[] bytes) {
+        reset(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Starts reading another packet, keeping this reader.
+     */
+    public void reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        position = offset;
+        limit = offset + length;
+    }
+    
+    public int readByte() throws MalformedPacketException {
+        if (position >= limit) {
+            throw new MalformedPacketException("Packet ended early at byte " + position);
+        }
+        return Byte.toUnsignedInt(bytes[position++]);
+    }
+    
+    public int readVarInt() throws MalformedPacketException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int next = readByte();
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) return value;
+        }
+        throw new MalformedPacketException("Varint too long at byte " + position);
+    }
+    
+    public long readVarLong() throws MalformedPacketException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int next = readByte();
+            value |= (long)(next & 0x7F) << shift;
+            if ((next & 0x80) == 0) return value;
+        }
+        throw new MalformedPacketException("Varint too long at byte " + position);
+    }
+    
+    public int readSignedVarInt() throws MalformedPacketException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    public long readLong() throws MalformedPacketException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+    
+    public int getRemaining() {
+        return limit - position;
+    }
+}
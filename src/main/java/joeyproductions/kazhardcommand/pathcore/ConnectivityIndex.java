@@ -0,0 +1,414 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Labels every tile with the region it belongs to, where a region is
+ * everything that can be walked to from there, ramps included. Checking if a
+ * tile can be reached from another is just a label compare.<br>
+ * <br>
+ * Each chunk labels its own pieces by flood fill, and a union-find over those
+ * pieces joins them across chunk borders into regions. Edits only flood the
+ * chunks around them again. When an edit can only have joined regions, the
+ * new links are simply unioned in. When it may have split one, the union-find
+ * is rebuilt, which only walks pieces and links, not tiles. Create this after
+ * the TerrainPassability it uses.
+ * @author Joseph Cramsey
+ */
+public class ConnectivityIndex implements TacticalMapListener {
+    
+    private static final int CHUNK_DIM = TacticalMapData.CHUNK_DIM;
+    private static final int CHUNK_TILES = CHUNK_DIM * CHUNK_DIM;
+    private static final int[] NO_LINKS = new int[0];
+    
+    private final TacticalMapData map;
+    private final TerrainPassability passability;
+    private final int width;
+    private final int height;
+    private final int chunkColumns;
+    private final int chunkRows;
+    
+    // Piece of its chunk each tile is in; pieces are numbered in tile order
+    private final byte[] pieceLabels;
+    private final int[] pieceCounts;
+    
+    // Pairs of linked pieces across the east and south border of each chunk,
+    // where a piece's node is chunk * CHUNK_TILES + its label
+    private final int[][] eastLinks;
+    private final int[][] southLinks;
+    
+    // Union-find over pieces, and the region of each piece
+    private final int[] parents;
+    private final int[] ranks;
+    private final int[] regionLabels;
+    private int regionCount = 0;
+    
+    private final int[] floodQueue = new int[CHUNK_TILES];
+    private final byte[] floodLabels = new byte[CHUNK_TILES];
+    private final boolean[] isFlooded = new boolean[CHUNK_TILES];
+    
+    private long unionUpdateCount = 0;
+    private long rebuildCount = 0;
+    
+    private ConnectivityIndex(TerrainPassability passability) {
+        this.passability = passability;
+        map = passability.getMap();
+        width = map.getWidth();
+        height = map.getHeight();
+        chunkColumns = map.getChunkColumns();
+        chunkRows = map.getChunkRows();
+        
+        int chunkCount = chunkColumns * chunkRows;
+        pieceLabels = new byte[map.getTileCount()];
+        pieceCounts = new int[chunkCount];
+        eastLinks = new int[chunkCount][];
+        southLinks = new int[chunkCount][];
+        parents = new int[chunkCount * CHUNK_TILES];
+        ranks = new int[chunkCount * CHUNK_TILES];
+        regionLabels = new int[chunkCount * CHUNK_TILES];
+    }
+    
+    public static ConnectivityIndex create(TacticalMapData map) {
+        return create(TerrainPassability.create(map));
+    }
+    
+    /**
+     * Labels a whole map, and keeps the labels up to date as it is edited.
+     * @param passability passability of the map, already listening to it
+     * @return the new index
+     */
+    public static ConnectivityIndex create(TerrainPassability passability) {
+        ConnectivityIndex product = new ConnectivityIndex(passability);
+        
+        int chunkCount = product.pieceCounts.length;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            product.labelChunk(chunk);
+        }
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            product.eastLinks[chunk] = product.findLinks(chunk, TacticalTileData.EAST);
+            product.southLinks[chunk] = product.findLinks(chunk, TacticalTileData.SOUTH);
+        }
+        product.rebuildRegions();
+        product.map.addListener(product);
+        
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map) return;
+        
+        // Moves only change up to one tile away from an edit
+        BitSet touchedChunks = new BitSet();
+        BitSet editedTiles = change.getEditedTiles();
+        for (int i = editedTiles.nextSetBit(0); i >= 0; i = editedTiles.nextSetBit(i + 1)) {
+            int x = i % width;
+            int y = i / width;
+            for (int cy = Math.max(0, y - 1) / CHUNK_DIM; cy <= Math.min(height - 1, y + 1) / CHUNK_DIM; cy++) {
+                for (int cx = Math.max(0, x - 1) / CHUNK_DIM; cx <= Math.min(width - 1, x + 1) / CHUNK_DIM; cx++) {
+                    touchedChunks.set((cy * chunkColumns) + cx);
+                }
+            }
+        }
+        
+        // Pieces are numbered in tile order, so the same split into pieces
+        // always gives the same labels
+        boolean mayHaveSplit = false;
+        for (int chunk = touchedChunks.nextSetBit(0); chunk >= 0; chunk = touchedChunks.nextSetBit(chunk + 1)) {
+            mayHaveSplit |= labelChunk(chunk);
+        }
+        
+        // Borders are shared with the chunks to the west and north
+        BitSet borderChunks = new BitSet();
+        for (int chunk = touchedChunks.nextSetBit(0); chunk >= 0; chunk = touchedChunks.nextSetBit(chunk + 1)) {
+            borderChunks.set(chunk);
+            if (chunk % chunkColumns > 0) borderChunks.set(chunk - 1);
+            if (chunk / chunkColumns > 0) borderChunks.set(chunk - chunkColumns);
+        }
+        
+        int[][] addedLinks = new int[borderChunks.cardinality() * 2][];
+        int addedCount = 0;
+        for (int chunk = borderChunks.nextSetBit(0); chunk >= 0; chunk = borderChunks.nextSetBit(chunk + 1)) {
+            int[] east = findLinks(chunk, TacticalTileData.EAST);
+            int[] south = findLinks(chunk, TacticalTileData.SOUTH);
+            if (!mayHaveSplit) {
+                mayHaveSplit = !containsAll(east, eastLinks[chunk]) || !containsAll(south, southLinks[chunk]);
+                addedLinks[addedCount++] = east;
+                addedLinks[addedCount++] = south;
+            }
+            eastLinks[chunk] = east;
+            southLinks[chunk] = south;
+        }
+        
+        if (mayHaveSplit) {
+            rebuildRegions();
+        }
+        else {
+            // Nothing was cut, so regions can only have joined
+            for (int i = 0; i < addedCount; i++) {
+                int[] links = addedLinks[i];
+                for (int l = 0; l < links.length; l += 2) {
+                    union(links[l], links[l + 1]);
+                }
+            }
+            updateRegionLabels();
+            unionUpdateCount++;
+        }
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * @return a label shared by every tile that can reach this one, and no
+     * others
+     */
+    public int getRegion(int tileIndex) {
+        return regionLabels[getNode(tileIndex)];
+    }
+    
+    public boolean canReach(int fromTile, int toTile) {
+        return regionLabels[getNode(fromTile)] == regionLabels[getNode(toTile)];
+    }
+    
+    public boolean canReach(int fromX, int fromY, int toX, int toY) {
+        return canReach(map.getTileIndex(fromX, fromY), map.getTileIndex(toX, toY));
+    }
+    
+    public int getRegionCount() {
+        return regionCount;
+    }
+    
+    /**
+     * @return how many edits were handled by unioning in new links
+     */
+    public long getUnionUpdateCount() {
+        return unionUpdateCount;
+    }
+    
+    /**
+     * @return how many edits needed the union-find rebuilt
+     */
+    public long getRebuildCount() {
+        return rebuildCount;
+    }
+    
+    private int getNode(int tileIndex) {
+        int x = tileIndex % width;
+        int y = tileIndex / width;
+        int chunk = ((y / CHUNK_DIM) * chunkColumns) + (x / CHUNK_DIM);
+        return (chunk * CHUNK_TILES) + Byte.toUnsignedInt(pieceLabels[tileIndex]);
+    }
+    
+    /**
+     * Flood fills the pieces of one chunk.
+     * @return true if any tile ended up with a different label
+     */
+    private boolean labelChunk(int chunk) {
+        int originX = (chunk % chunkColumns) * CHUNK_DIM;
+        int originY = (chunk / chunkColumns) * CHUNK_DIM;
+        int maxX = Math.min(width, originX + CHUNK_DIM) - 1;
+        int maxY = Math.min(height, originY + CHUNK_DIM) - 1;
+        
+        Arrays.fill(isFlooded, false);
+        int pieceCount = 0;
+        for (int y = originY; y <= maxY; y++) {
+            for (int x = originX; x <= maxX; x++) {
+                int local = ((y - originY) * CHUNK_DIM) + (x - originX);
+                if (isFlooded[local]) continue;
+                
+                byte label = (byte)pieceCount++;
+                int queueLength = 0;
+                floodQueue[queueLength++] = local;
+                isFlooded[local] = true;
+                for (int q = 0; q < queueLength; q++) {
+                    int current = floodQueue[q];
+                    floodLabels[current] = label;
+                    int currentX = originX + (current % CHUNK_DIM);
+                    int currentY = originY + (current / CHUNK_DIM);
+                    int passPattern = passability.getPassPattern((currentY * width) + currentX);
+                    for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                        if ((passPattern & (1 << d)) == 0) continue;
+                        int nextX = currentX + TacticalTileData.getXOffsetFromDirection(d);
+                        int nextY = currentY + TacticalTileData.getYOffsetFromDirection(d);
+                        if (nextX < originX || nextX > maxX || nextY < originY || nextY > maxY) continue;
+                        int next = ((nextY - originY) * CHUNK_DIM) + (nextX - originX);
+                        if (isFlooded[next]) continue;
+                        isFlooded[next] = true;
+                        floodQueue[queueLength++] = next;
+                    }
+                }
+            }
+        }
+        
+        boolean changed = pieceCount != pieceCounts[chunk];
+        pieceCounts[chunk] = pieceCount;
+        for (int y = originY; y <= maxY; y++) {
+            for (int x = originX; x <= maxX; x++) {
+                byte label = floodLabels[((y - originY) * CHUNK_DIM) + (x - originX)];
+                int tile = (y * width) + x;
+                changed |= pieceLabels[tile] != label;
+                pieceLabels[tile] = label;
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * @param direction EAST or SOUTH
+     * @return sorted, unique pairs of pieces linked across that border
+     */
+    private int[] findLinks(int chunk, int direction) {
+        int cx = chunk % chunkColumns;
+        int cy = chunk / chunkColumns;
+        int originX = cx * CHUNK_DIM;
+        int originY = cy * CHUNK_DIM;
+        
+        int firstTile;
+        int stride;
+        int length;
+        int neighborChunk;
+        if (direction == TacticalTileData.EAST) {
+            if (cx == chunkColumns - 1) return NO_LINKS;
+            firstTile = (originY * width) + originX + CHUNK_DIM - 1;
+            stride = width;
+            length = Math.min(height, originY + CHUNK_DIM) - originY;
+            neighborChunk = chunk + 1;
+        }
+        else {
+            if (cy == chunkRows - 1) return NO_LINKS;
+            firstTile = ((originY + CHUNK_DIM - 1) * width) + originX;
+            stride = 1;
+            length = Math.min(width, originX + CHUNK_DIM) - originX;
+            neighborChunk = chunk + chunkColumns;
+        }
+        int offset = TacticalTileData.getIndexOffset(direction, width);
+        
+        long[] pairs = new long[length];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            int tile = firstTile + (i * stride);
+            if (!passability.canStep(tile, direction)) continue;
+            long from = (chunk * (long)CHUNK_TILES) + Byte.toUnsignedInt(pieceLabels[tile]);
+            long to = (neighborChunk * (long)CHUNK_TILES) + Byte.toUnsignedInt(pieceLabels[tile + offset]);
+            pairs[count++] = (from << 32) | to;
+        }
+        Arrays.sort(pairs, 0, count);
+        
+        int[] links = new int[count * 2];
+        int linkCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && pairs[i] == pairs[i - 1]) continue;
+            links[linkCount++] = (int)(pairs[i] >>> 32);
+            links[linkCount++] = (int)pairs[i];
+        }
+        return Arrays.copyOf(links, linkCount);
+    }
+    
+    /**
+     * @return true if every link in the old list is also in the new one
+     */
+    private static boolean containsAll(int[] newLinks, int[] oldLinks) {
+        int n = 0;
+        for (int o = 0; o < oldLinks.length; o += 2) {
+            while (n < newLinks.length && (newLinks[n] < oldLinks[o]
+                    || (newLinks[n] == oldLinks[o] && newLinks[n + 1] < oldLinks[o + 1]))) {
+                n += 2;
+            }
+            if (n >= newLinks.length || newLinks[n] != oldLinks[o] || newLinks[n + 1] != oldLinks[o + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void rebuildRegions() {
+        for (int chunk = 0; chunk < pieceCounts.length; chunk++) {
+            int firstNode = chunk * CHUNK_TILES;
+            for (int node = firstNode; node < firstNode + pieceCounts[chunk]; node++) {
+                parents[node] = node;
+                ranks[node] = 0;
+            }
+        }
+        for (int chunk = 0; chunk < pieceCounts.length; chunk++) {
+            for (int[] links : new int[][] {eastLinks[chunk], southLinks[chunk]}) {
+                for (int l = 0; l < links.length; l += 2) {
+                    union(links[l], links[l + 1]);
+                }
+            }
+        }
+        updateRegionLabels();
+        rebuildCount++;
+    }
+    
+    private void updateRegionLabels() {
+        regionCount = 0;
+        for (int chunk = 0; chunk < pieceCounts.length; chunk++) {
+            int firstNode = chunk * CHUNK_TILES;
+            for (int node = firstNode; node < firstNode + pieceCounts[chunk]; node++) {
+                int root = find(node);
+                regionLabels[node] = root;
+                if (root == node) regionCount++;
+            }
+        }
+    }
+    
+    private int find(int node) {
+        // Path halving
+        while (parents[node] != node) {
+            parents[node] = parents[parents[node]];
+            node = parents[node];
+        }
+        return node;
+    }
+    
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return;
+        
+        if (ranks[rootA] < ranks[rootB]) {
+            parents[rootA] = rootB;
+        }
+        else if (ranks[rootA] > ranks[rootB]) {
+            parents[rootB] = rootA;
+        }
+        else {
+            parents[rootB] = rootA;
+            ranks[rootA]++;
+        }
+    }
+}
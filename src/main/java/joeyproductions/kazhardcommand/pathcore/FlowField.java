@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+/**
+ * The cost from every tile to one goal, and which way to step from each tile
+ * to get there. Any number of units can follow a flow field to the same goal
+ * without searching on their own.
+ * @author Joseph Cramsey
+ */
+public class FlowField {
+    
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    public static final byte NO_DIRECTION = -1;
+    
+    private final int mapWidth;
+    private final int goalTile;
+    private final long generation;
+    final int[] costs;
+    final byte[] directions;
+    
+    FlowField(int mapWidth, int tileCount, int goalTile, long generation) {
+        this.mapWidth = mapWidth;
+        this.goalTile = goalTile;
+        this.generation = generation;
+        costs = new int[tileCount];
+        directions = new byte[tileCount];
+    }
+    
+    public int getGoalTile() {
+        return goalTile;
+    }
+    
+    public int getGoalX() {
+        return goalTile % mapWidth;
+    }
+    
+    public int getGoalY() {
+        return goalTile / mapWidth;
+    }
+    
+    /**
+     * @return the map generation this field was worked out for
+     */
+    public long getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * @return the cost to reach the goal from a tile, or UNREACHABLE
+     */
+    public int getCost(int tileIndex) {
+        return costs[tileIndex];
+    }
+    
+    public boolean isReachable(int tileIndex) {
+        return costs[tileIndex] != UNREACHABLE;
+    }
+    
+    /**
+     * @return the direction to step in from a tile, or NO_DIRECTION at the
+     * goal and wherever the goal cannot be reached
+     */
+    public int getDirection(int tileIndex) {
+        return directions[tileIndex];
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.stream.IntStream;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Works out flow fields over a tactical map, and keeps the most recently used
+ * ones around by goal. Fields are thrown away once the map changes.<br>
+ * <br>
+ * Costs are worked out chunk by chunk. Each pass runs Dijkstra inside every
+ * chunk whose neighbors changed, starting from the costs along its border,
+ * and chunks in a pass never touch each other, so they can run in parallel.
+ * Passes follow the wave outward from the goal, and repeat until nothing
+ * changes, which always ends with the same costs a single Dijkstra would
+ * find.
+ * @author Joseph Cramsey
+ */
+public class FlowFieldService {
+    
+    private static final int CHUNK_DIM = TacticalMapData.CHUNK_DIM;
+    
+    // Chunks two apart never share a border or corner
+    private static final int PASS_COLORS = 4;
+    
+    // Roughly the cost of crossing one chunk
+    private static final int PASS_BAND = CHUNK_DIM * TacticalPathfinder.STRAIGHT_COST;
+    
+    private static final int[] X_OFFSETS = new int[TacticalTileData.DIR_LEN];
+    private static final int[] Y_OFFSETS = new int[TacticalTileData.DIR_LEN];
+    private static final int[] STEP_COSTS = new int[TacticalTileData.DIR_LEN];
+    
+    static {
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+            X_OFFSETS[d] = TacticalTileData.getXOffsetFromDirection(d);
+            Y_OFFSETS[d] = TacticalTileData.getYOffsetFromDirection(d);
+            STEP_COSTS[d] = (d % 2 == 0) ? TacticalPathfinder.STRAIGHT_COST : TacticalPathfinder.DIAGONAL_COST;
+        }
+    }
+    
+    private static final ThreadLocal<IntMinHeap> HEAPS = ThreadLocal.withInitial(IntMinHeap::new);
+    
+    private final TacticalMapData map;
+    private final TerrainPassability passability;
+    private final int width;
+    private final int height;
+    private final int chunkColumns;
+    private final int chunkRows;
+    private final int[] directionOffsets;
+    private final int maxCachedFields;
+    private final boolean isParallel;
+    private final LinkedHashMap<Integer, FlowField> cachedFields = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private long hitCount = 0;
+    private long computeCount = 0;
+    private long chunkPassCount = 0;
+    
+    private FlowFieldService(TerrainPassability passability, int maxCachedFields, boolean isParallel) {
+        this.passability = passability;
+        this.maxCachedFields = maxCachedFields;
+        this.isParallel = isParallel;
+        map = passability.getMap();
+        width = map.getWidth();
+        height = map.getHeight();
+        chunkColumns = map.getChunkColumns();
+        chunkRows = map.getChunkRows();
+        directionOffsets = TacticalTileData.createIndexOffsets(width);
+    }
+    
+    public static FlowFieldService create(TerrainPassability passability, int maxCachedFields) {
+        return create(passability, maxCachedFields, true);
+    }
+    
+    /**
+     * @param passability passability of the map, already listening to it
+     * @param maxCachedFields how many fields to keep around
+     * @param isParallel false to work out every chunk on the calling thread
+     * @return the new service
+     */
+    public static FlowFieldService create(TerrainPassability passability, int maxCachedFields, boolean isParallel) {
+        if (maxCachedFields < 1) {
+            throw new RuntimeException("Flow field cache size out of range: " + maxCachedFields);
+        }
+        return new FlowFieldService(passability, maxCachedFields, isParallel);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * Gets the flow field toward a goal, working it out if it is not cached,
+     * or if the map changed since.
+     * @return the field, which is never changed after this returns
+     */
+    public synchronized FlowField getFlowField(int goalX, int goalY) {
+        int goal = map.getTileIndex(goalX, goalY);
+        long generation = map.getGeneration();
+        
+        // Anything from before the last edit is useless
+        Iterator<FlowField> iterator = cachedFields.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getGeneration() != generation) {
+                iterator.remove();
+            }
+        }
+        
+        FlowField field = cachedFields.get(goal);
+        if (field != null) {
+            hitCount++;
+            return field;
+        }
+        
+        field = computeFlowField(goal);
+        cachedFields.put(goal, field);
+        if (cachedFields.size() > maxCachedFields) {
+            Iterator<Integer> eldest = cachedFields.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return field;
+    }
+    
+    /**
+     * Forgets every cached field.
+     */
+    public synchronized void clear() {
+        cachedFields.clear();
+    }
+    
+    public synchronized int getCachedFieldCount() {
+        return cachedFields.size();
+    }
+    
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    public synchronized long getComputeCount() {
+        return computeCount;
+    }
+    
+    /**
+     * @return how many times a chunk has been searched, over all fields
+     */
+    public synchronized long getChunkPassCount() {
+        return chunkPassCount;
+    }
+    
+    private FlowField computeFlowField(int goal) {
+        FlowField field = new FlowField(width, map.getTileCount(), goal, map.getGeneration());
+        int[] costs = field.costs;
+        Arrays.fill(costs, FlowField.UNREACHABLE);
+        costs[goal] = 0;
+        
+        int chunkCount = chunkColumns * chunkRows;
+        int[] pendingCosts = new int[chunkCount];
+        int[] borderCosts = new int[chunkCount * TacticalTileData.DIR_LEN];
+        Arrays.fill(pendingCosts, FlowField.UNREACHABLE);
+        pendingCosts[getChunk(goal)] = 0;
+        int[] seeds = {goal};
+        
+        ArrayList<Integer> passChunks = new ArrayList<>();
+        int threshold = 0;
+        while (true) {
+            int minPending = FlowField.UNREACHABLE;
+            for (int pendingCost : pendingCosts) {
+                minPending = Math.min(minPending, pendingCost);
+            }
+            if (minPending == FlowField.UNREACHABLE) break;
+            threshold = Math.max(threshold, minPending) + PASS_BAND;
+            
+            // Like delta-stepping, only run chunks the wave has nearly reached,
+            // so each chunk is only searched a few times
+            boolean anyPassed = true;
+            while (anyPassed) {
+                anyPassed = false;
+                for (int color = 0; color < PASS_COLORS; color++) {
+                    passChunks.clear();
+                    for (int chunk = 0; chunk < chunkCount; chunk++) {
+                        if (pendingCosts[chunk] < threshold && getColor(chunk) == color) {
+                            passChunks.add(chunk);
+                            pendingCosts[chunk] = FlowField.UNREACHABLE;
+                        }
+                    }
+                    if (passChunks.isEmpty()) continue;
+                    anyPassed = true;
+                    
+                    final int[] passSeeds = seeds;
+                    IntStream passes = IntStream.range(0, passChunks.size());
+                    if (isParallel) {
+                        passes = passes.parallel();
+                    }
+                    passes.forEach(i -> relaxChunk(passChunks.get(i), costs, passSeeds, borderCosts));
+                    seeds = null;
+                    chunkPassCount += passChunks.size();
+                    
+                    // Wake up the neighbors on each side that got cheaper
+                    for (int chunk : passChunks) {
+                        int cx = chunk % chunkColumns;
+                        int cy = chunk / chunkColumns;
+                        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                            int borderCost = borderCosts[(chunk * TacticalTileData.DIR_LEN) + d];
+                            if (borderCost == FlowField.UNREACHABLE) continue;
+                            int nx = cx + X_OFFSETS[d];
+                            int ny = cy + Y_OFFSETS[d];
+                            if (nx < 0 || ny < 0 || nx >= chunkColumns || ny >= chunkRows) continue;
+                            int neighbor = (ny * chunkColumns) + nx;
+                            pendingCosts[neighbor] = Math.min(pendingCosts[neighbor], borderCost);
+                        }
+                    }
+                }
+            }
+        }
+        
+        IntStream rows = IntStream.range(0, chunkRows);
+        if (isParallel) {
+            rows = rows.parallel();
+        }
+        rows.forEach(cy -> {
+            for (int cx = 0; cx < chunkColumns; cx++) {
+                pointChunk((cy * chunkColumns) + cx, field);
+            }
+        });
+        
+        computeCount++;
+        return field;
+    }
+    
+    private int getChunk(int tileIndex) {
+        return (((tileIndex / width) / CHUNK_DIM) * chunkColumns) + ((tileIndex % width) / CHUNK_DIM);
+    }
+    
+    private int getColor(int chunk) {
+        return ((chunk / chunkColumns) % 2 * 2) + ((chunk % chunkColumns) % 2);
+    }
+    
+    /**
+     * Runs Dijkstra inside one chunk, starting from whatever its neighbors
+     * offer across the border.
+     * @param seeds tiles to start from, besides the border, or null
+     * @param borderCosts receives, for each direction, the lowest cost of any
+     * tile facing that way along the chunk's edge that got cheaper, or
+     * UNREACHABLE if none did
+     */
+    private void relaxChunk(int chunk, int[] costs, int[] seeds, int[] borderCosts) {
+        int originX = (chunk % chunkColumns) * CHUNK_DIM;
+        int originY = (chunk / chunkColumns) * CHUNK_DIM;
+        int maxX = Math.min(width, originX + CHUNK_DIM) - 1;
+        int maxY = Math.min(height, originY + CHUNK_DIM) - 1;
+        
+        IntMinHeap heap = HEAPS.get();
+        heap.clear();
+        if (seeds != null) {
+            for (int seed : seeds) {
+                if (getChunk(seed) == chunk) heap.push(costs[seed], seed);
+            }
+        }
+        
+        // Pull costs in across the border
+        for (int y = originY; y <= maxY; y++) {
+            for (int x = originX; x <= maxX; x++) {
+                if (x != originX && x != maxX && y != originY && y != maxY) continue;
+                
+                int tile = (y * width) + x;
+                int passPattern = passability.getPassPattern(tile);
+                int best = costs[tile];
+                for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                    if ((passPattern & (1 << d)) == 0) continue;
+                    int nextX = x + X_OFFSETS[d];
+                    int nextY = y + Y_OFFSETS[d];
+                    if (nextX >= originX && nextX <= maxX && nextY >= originY && nextY <= maxY) continue;
+                    
+                    int neighborCost = costs[tile + directionOffsets[d]];
+                    if (neighborCost == FlowField.UNREACHABLE) continue;
+                    best = Math.min(best, neighborCost + STEP_COSTS[d]);
+                }
+                if (best < costs[tile]) {
+                    costs[tile] = best;
+                    heap.push(best, tile);
+                }
+            }
+        }
+        
+        int borderOffset = chunk * TacticalTileData.DIR_LEN;
+        Arrays.fill(borderCosts, borderOffset, borderOffset + TacticalTileData.DIR_LEN, FlowField.UNREACHABLE);
+        while (!heap.isEmpty()) {
+            int cost = heap.peekKey();
+            int tile = heap.pop();
+            if (cost > costs[tile]) continue; // Stale copy
+            
+            int x = tile % width;
+            int y = tile / width;
+            if (x == originX || x == maxX || y == originY || y == maxY) {
+                int xSide = (x == maxX) ? 1 : ((x == originX) ? -1 : 0);
+                int ySide = (y == maxY) ? 1 : ((y == originY) ? -1 : 0);
+                for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                    // Facing a side needs the matching edge, corners need both
+                    if ((X_OFFSETS[d] != 0 && X_OFFSETS[d] != xSide)
+                            || (Y_OFFSETS[d] != 0 && Y_OFFSETS[d] != ySide)) continue;
+                    borderCosts[borderOffset + d] = Math.min(borderCosts[borderOffset + d], cost);
+                }
+            }
+            
+            int passPattern = passability.getPassPattern(tile);
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                if ((passPattern & (1 << d)) == 0) continue;
+                int nextX = x + X_OFFSETS[d];
+                int nextY = y + Y_OFFSETS[d];
+                if (nextX < originX || nextX > maxX || nextY < originY || nextY > maxY) continue;
+                
+                int next = tile + directionOffsets[d];
+                int nextCost = cost + STEP_COSTS[d];
+                if (nextCost >= costs[next]) continue;
+                costs[next] = nextCost;
+                heap.push(nextCost, next);
+            }
+        }
+        
+    }
+    
+    /**
+     * Points every tile in a chunk at its cheapest neighbor, preferring lower
+     * directions on ties, so the same map always gives the same field.
+     */
+    private void pointChunk(int chunk, FlowField field) {
+        int originX = (chunk % chunkColumns) * CHUNK_DIM;
+        int originY = (chunk / chunkColumns) * CHUNK_DIM;
+        int maxX = Math.min(width, originX + CHUNK_DIM);
+        int maxY = Math.min(height, originY + CHUNK_DIM);
+        int[] costs = field.costs;
+        
+        for (int y = originY; y < maxY; y++) {
+            for (int x = originX; x < maxX; x++) {
+                int tile = (y * width) + x;
+                byte direction = FlowField.NO_DIRECTION;
+                if (tile != field.getGoalTile() && costs[tile] != FlowField.UNREACHABLE) {
+                    int passPattern = passability.getPassPattern(tile);
+                    int best = FlowField.UNREACHABLE;
+                    for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                        if ((passPattern & (1 << d)) == 0) continue;
+                        int neighborCost = costs[tile + directionOffsets[d]];
+                        if (neighborCost == FlowField.UNREACHABLE) continue;
+                        if (neighborCost + STEP_COSTS[d] < best) {
+                            best = neighborCost + STEP_COSTS[d];
+                            direction = (byte)d;
+                        }
+                    }
+                }
+                field.directions[tile] = direction;
+            }
+        }
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Hierarchical pathfinding (HPA*) over the chunks of a tactical map. Each
+ * stretch of passable chunk border gets one or two entrances, and the cost
+ * between every pair of entrances in a chunk is worked out ahead of time.
+ * Queries search that small graph of entrances first, then only fill in the
+ * tiles of chunks the path goes through.<br>
+ * <br>
+ * Paths can come out a little longer than the best possible path, because
+ * they have to pass through entrances. When the map is edited, only chunks
+ * next to the edit are worked out again. Create this after the
+ * TerrainPassability it uses, so the passability is already up to date when
+ * edits get here.
+ * @author Joseph Cramsey
+ */
+public class HierarchicalPathfinder implements TacticalMapListener {
+    
+    private static final int CHUNK_DIM = TacticalMapData.CHUNK_DIM;
+    private static final int CHUNK_TILES = CHUNK_DIM * CHUNK_DIM;
+    
+    // Stretches of border longer than this get an entrance at each end
+    private static final int SINGLE_ENTRANCE_MAX_LENGTH = 5;
+    
+    private static final int[] X_OFFSETS = new int[TacticalTileData.DIR_LEN];
+    private static final int[] Y_OFFSETS = new int[TacticalTileData.DIR_LEN];
+    private static final int[] STEP_COSTS = new int[TacticalTileData.DIR_LEN];
+    
+    static {
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+            X_OFFSETS[d] = TacticalTileData.getXOffsetFromDirection(d);
+            Y_OFFSETS[d] = TacticalTileData.getYOffsetFromDirection(d);
+            STEP_COSTS[d] = (d % 2 == 0) ? TacticalPathfinder.STRAIGHT_COST : TacticalPathfinder.DIAGONAL_COST;
+        }
+    }
+    
+    private static final ThreadLocal<PathScratch> SCRATCH = ThreadLocal.withInitial(PathScratch::new);
+    private static final ThreadLocal<ChunkScratch> CHUNK_SCRATCH = ThreadLocal.withInitial(ChunkScratch::new);
+    
+    private final TacticalMapData map;
+    private final TerrainPassability passability;
+    private final int width;
+    private final int height;
+    private final int chunkColumns;
+    private final int chunkRows;
+    private final int[] directionOffsets;
+    
+    // Pairs of tiles across the east and south border of each chunk
+    private final int[][] eastTransitions;
+    private final int[][] southTransitions;
+    private final ChunkGraph[] chunkGraphs;
+    
+    private long rebuiltChunkCount = 0;
+    
+    private HierarchicalPathfinder(TerrainPassability passability) {
+        this.passability = passability;
+        map = passability.getMap();
+        width = map.getWidth();
+        height = map.getHeight();
+        chunkColumns = map.getChunkColumns();
+        chunkRows = map.getChunkRows();
+        eastTransitions = new int[chunkColumns * chunkRows][];
+        southTransitions = new int[chunkColumns * chunkRows][];
+        chunkGraphs = new ChunkGraph[chunkColumns * chunkRows];
+        directionOffsets = TacticalTileData.createIndexOffsets(width);
+    }
+    
+    public static HierarchicalPathfinder create(TacticalMapData map) {
+        return create(TerrainPassability.create(map));
+    }
+    
+    /**
+     * Builds the entrance graph for a whole map, and keeps it up to date as
+     * the map is edited.
+     * @param passability passability of the map, already listening to it
+     * @return the new pathfinder
+     */
+    public static HierarchicalPathfinder create(TerrainPassability passability) {
+        HierarchicalPathfinder product = new HierarchicalPathfinder(passability);
+        
+        for (int chunk = 0; chunk < product.chunkGraphs.length; chunk++) {
+            product.findTransitions(chunk);
+        }
+        for (int chunk = 0; chunk < product.chunkGraphs.length; chunk++) {
+            product.buildChunkGraph(chunk);
+        }
+        product.map.addListener(product);
+        
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map) return;
+        
+        // Passability changes up to one tile away from an edit
+        BitSet touchedChunks = new BitSet();
+        BitSet editedTiles = change.getEditedTiles();
+        for (int i = editedTiles.nextSetBit(0); i >= 0; i = editedTiles.nextSetBit(i + 1)) {
+            int x = i % width;
+            int y = i / width;
+            int minChunkX = Math.max(0, x - 1) / CHUNK_DIM;
+            int maxChunkX = Math.min(width - 1, x + 1) / CHUNK_DIM;
+            int minChunkY = Math.max(0, y - 1) / CHUNK_DIM;
+            int maxChunkY = Math.min(height - 1, y + 1) / CHUNK_DIM;
+            for (int cy = minChunkY; cy <= maxChunkY; cy++) {
+                for (int cx = minChunkX; cx <= maxChunkX; cx++) {
+                    touchedChunks.set((cy * chunkColumns) + cx);
+                }
+            }
+        }
+        
+        // Borders are shared, so neighbors get new entrances too
+        BitSet rebuiltChunks = new BitSet();
+        for (int chunk = touchedChunks.nextSetBit(0); chunk >= 0; chunk = touchedChunks.nextSetBit(chunk + 1)) {
+            int cx = chunk % chunkColumns;
+            int cy = chunk / chunkColumns;
+            findTransitions(chunk);
+            if (cx > 0) findTransitions(chunk - 1);
+            if (cy > 0) findTransitions(chunk - chunkColumns);
+            
+            rebuiltChunks.set(chunk);
+            if (cx > 0) rebuiltChunks.set(chunk - 1);
+            if (cx < chunkColumns - 1) rebuiltChunks.set(chunk + 1);
+            if (cy > 0) rebuiltChunks.set(chunk - chunkColumns);
+            if (cy < chunkRows - 1) rebuiltChunks.set(chunk + chunkColumns);
+        }
+        for (int chunk = rebuiltChunks.nextSetBit(0); chunk >= 0; chunk = rebuiltChunks.nextSetBit(chunk + 1)) {
+            buildChunkGraph(chunk);
+        }
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * @return the number of entrances across the whole map
+     */
+    public int getEntranceCount() {
+        int count = 0;
+        for (ChunkGraph graph : chunkGraphs) {
+            count += graph.slotCount;
+        }
+        return count;
+    }
+    
+    /**
+     * @return how many times a chunk's entrance graph has been worked out
+     */
+    public long getRebuiltChunkCount() {
+        return rebuiltChunkCount;
+    }
+    
+    /**
+     * Finds a path between two tiles, through chunk entrances.
+     * @return the path, or null if the goal cannot be reached
+     */
+    public TacticalPath findPath(int startX, int startY, int goalX, int goalY) {
+        int start = map.getTileIndex(startX, startY);
+        int goal = map.getTileIndex(goalX, goalY);
+        int startChunk = getChunk(start);
+        int goalChunk = getChunk(goal);
+        
+        PathScratch scratch = SCRATCH.get();
+        ChunkScratch chunkScratch = CHUNK_SCRATCH.get();
+        
+        // Costs from the start to its chunk's entrances, and from the goal's
+        // chunk's entrances to the goal, since moves cost the same both ways
+        ChunkGraph startGraph = chunkGraphs[startChunk];
+        ChunkGraph goalGraph = chunkGraphs[goalChunk];
+        int[] startCosts = chunkScratch.getStartCosts(startGraph.slotCount);
+        int[] goalCosts = chunkScratch.getGoalCosts(goalGraph.slotCount);
+        searchChunk(startChunk, start, -1, chunkScratch);
+        for (int slot = 0; slot < startGraph.slotCount; slot++) {
+            startCosts[slot] = chunkScratch.getCost(startGraph.slotTiles[slot]);
+        }
+        int directCost = (startChunk == goalChunk) ? chunkScratch.getCost(goal) : -1;
+        searchChunk(goalChunk, goal, -1, chunkScratch);
+        for (int slot = 0; slot < goalGraph.slotCount; slot++) {
+            goalCosts[slot] = chunkScratch.getCost(goalGraph.slotTiles[slot]);
+        }
+        
+        int stamp = scratch.begin(map.getTileCount());
+        int[] costs = scratch.costs;
+        int[] parents = scratch.parents;
+        int[] seenStamps = scratch.seenStamps;
+        int[] closedStamps = scratch.closedStamps;
+        IntMinHeap heap = scratch.heap;
+        
+        costs[start] = 0;
+        parents[start] = -1;
+        seenStamps[start] = stamp;
+        heap.push(estimate(start, goal), start);
+        
+        int expandedNodeCount = 0;
+        while (!heap.isEmpty()) {
+            int node = heap.pop();
+            if (closedStamps[node] == stamp) continue; // Stale copy
+            closedStamps[node] = stamp;
+            expandedNodeCount++;
+            
+            if (node == goal) {
+                return refinePath(scratch, chunkScratch, start, goal, expandedNodeCount);
+            }
+            
+            int cost = costs[node];
+            if (node == start) {
+                for (int slot = 0; slot < startGraph.slotCount; slot++) {
+                    if (startCosts[slot] < 0) continue;
+                    relax(scratch, stamp, node, startGraph.slotTiles[slot], cost + startCosts[slot], goal);
+                }
+                if (directCost >= 0) {
+                    relax(scratch, stamp, node, goal, cost + directCost, goal);
+                }
+            }
+            
+            int chunk = getChunk(node);
+            ChunkGraph graph = chunkGraphs[chunk];
+            int slotCount = graph.slotCount;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (graph.slotTiles[slot] != node) continue;
+                
+                relax(scratch, stamp, node, graph.partnerTiles[slot], cost + TacticalPathfinder.STRAIGHT_COST, goal);
+                for (int other = 0; other < slotCount; other++) {
+                    int otherCost = graph.intraCosts[(slot * slotCount) + other];
+                    if (otherCost <= 0) continue;
+                    relax(scratch, stamp, node, graph.slotTiles[other], cost + otherCost, goal);
+                }
+                if (chunk == goalChunk && goalCosts[slot] >= 0) {
+                    relax(scratch, stamp, node, goal, cost + goalCosts[slot], goal);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    private void relax(PathScratch scratch, int stamp, int node, int next, int cost, int goal) {
+        if (scratch.closedStamps[next] == stamp) return;
+        if (scratch.seenStamps[next] == stamp && scratch.costs[next] <= cost) return;
+        
+        scratch.seenStamps[next] = stamp;
+        scratch.costs[next] = cost;
+        scratch.parents[next] = node;
+        scratch.heap.push(cost + estimate(next, goal), next);
+    }
+    
+    private int estimate(int from, int to) {
+        int dx = Math.abs((from % width) - (to % width));
+        int dy = Math.abs((from / width) - (to / width));
+        return (TacticalPathfinder.STRAIGHT_COST * Math.max(dx, dy))
+                + ((TacticalPathfinder.DIAGONAL_COST - TacticalPathfinder.STRAIGHT_COST) * Math.min(dx, dy));
+    }
+    
+    private int getChunk(int tileIndex) {
+        return (((tileIndex / width) / CHUNK_DIM) * chunkColumns) + ((tileIndex % width) / CHUNK_DIM);
+    }
+    
+    /**
+     * Fills in the tiles between the entrances on an abstract path, one
+     * chunk at a time.
+     */
+    private TacticalPath refinePath(PathScratch scratch, ChunkScratch chunkScratch, int start, int goal, int expandedNodeCount) {
+        // Abstract nodes come out goal first
+        int abstractLength = 0;
+        for (int node = goal; node >= 0; node = scratch.parents[node]) {
+            abstractLength++;
+        }
+        int[] abstractPath = chunkScratch.getAbstractPath(abstractLength);
+        int slot = abstractLength;
+        for (int node = goal; node >= 0; node = scratch.parents[node]) {
+            abstractPath[--slot] = node;
+        }
+        
+        int[] buffer = scratch.pathBuffer;
+        int length = 0;
+        buffer[length++] = start;
+        for (int i = 1; i < abstractLength; i++) {
+            int from = abstractPath[i - 1];
+            int to = abstractPath[i];
+            int chunk = getChunk(from);
+            if (chunk != getChunk(to)) {
+                // Across a border
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                buffer[length++] = to;
+                continue;
+            }
+            
+            searchChunk(chunk, from, to, chunkScratch);
+            int stepCount = chunkScratch.tracePath(to);
+            if (length + stepCount > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(length * 2, length + stepCount));
+            }
+            length = chunkScratch.copyPath(buffer, length);
+        }
+        scratch.pathBuffer = buffer;
+        
+        return new TacticalPath(width, Arrays.copyOf(buffer, length), scratch.costs[goal], expandedNodeCount);
+    }
+    
+    /**
+     * Dijkstra from one tile, without leaving its chunk.
+     * @param target tile to stop at, or -1 to reach everything
+     */
+    private void searchChunk(int chunk, int source, int target, ChunkScratch chunkScratch) {
+        int originX = (chunk % chunkColumns) * CHUNK_DIM;
+        int originY = (chunk / chunkColumns) * CHUNK_DIM;
+        int chunkWidth = Math.min(CHUNK_DIM, width - originX);
+        int chunkHeight = Math.min(CHUNK_DIM, height - originY);
+        chunkScratch.begin(originX, originY, width);
+        
+        int[] costs = chunkScratch.costs;
+        int[] parents = chunkScratch.parents;
+        IntMinHeap heap = chunkScratch.heap;
+        
+        int originTile = (originY * width) + originX;
+        int sourceLocal = chunkScratch.toLocal(source);
+        int targetLocal = (target < 0) ? -1 : chunkScratch.toLocal(target);
+        costs[sourceLocal] = 0;
+        parents[sourceLocal] = -1;
+        heap.push(0, sourceLocal);
+        while (!heap.isEmpty()) {
+            int cost = heap.peekKey();
+            int local = heap.pop();
+            if (cost > costs[local]) continue; // Stale copy
+            if (local == targetLocal) return;
+            
+            int localX = local % CHUNK_DIM;
+            int localY = local / CHUNK_DIM;
+            int passPattern = passability.getPassPattern(originTile + (localY * width) + localX);
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                if ((passPattern & (1 << d)) == 0) continue;
+                int nextX = localX + X_OFFSETS[d];
+                int nextY = localY + Y_OFFSETS[d];
+                if (nextX < 0 || nextY < 0 || nextX >= chunkWidth || nextY >= chunkHeight) continue;
+                
+                int next = (nextY * CHUNK_DIM) + nextX;
+                int nextCost = cost + STEP_COSTS[d];
+                if (costs[next] >= 0 && costs[next] <= nextCost) continue;
+                costs[next] = nextCost;
+                parents[next] = local;
+                heap.push(nextCost, next);
+            }
+        }
+    }
+    
+    /**
+     * Finds entrances along the east and south borders of a chunk. Each
+     * stretch of border tiles that can be crossed, with the same levels on
+     * both sides, gets entrances.
+     */
+    private void findTransitions(int chunk) {
+        int cx = chunk % chunkColumns;
+        int cy = chunk / chunkColumns;
+        int originX = cx * CHUNK_DIM;
+        int originY = cy * CHUNK_DIM;
+        
+        eastTransitions[chunk] = new int[0];
+        if (cx < chunkColumns - 1) {
+            int x = originX + CHUNK_DIM - 1;
+            int maxY = Math.min(height, originY + CHUNK_DIM);
+            eastTransitions[chunk] = findBorderTransitions(
+                    (originY * width) + x, width, maxY - originY, TacticalTileData.EAST
+            );
+        }
+        
+        southTransitions[chunk] = new int[0];
+        if (cy < chunkRows - 1) {
+            int y = originY + CHUNK_DIM - 1;
+            int maxX = Math.min(width, originX + CHUNK_DIM);
+            southTransitions[chunk] = findBorderTransitions(
+                    (y * width) + originX, 1, maxX - originX, TacticalTileData.SOUTH
+            );
+        }
+    }
+    
+    /**
+     * @param firstTile the first border tile on this side
+     * @param stride the step between border tiles
+     * @param length the number of border tiles
+     * @param direction the direction across the border
+     * @return pairs of tiles, this side first
+     */
+    private int[] findBorderTransitions(int firstTile, int stride, int length, int direction) {
+        int[] transitions = new int[length * 4];
+        int count = 0;
+        int offset = directionOffsets[direction];
+        
+        int runStart = -1;
+        int runKind = -1;
+        for (int i = 0; i <= length; i++) {
+            int tile = firstTile + (i * stride);
+            int kind = -1;
+            if (i < length && passability.canStep(tile, direction)) {
+                kind = getLevelKind(tile) | (getLevelKind(tile + offset) << 4);
+            }
+            
+            if (kind != runKind && runStart >= 0) {
+                // End of a stretch
+                int runLength = i - runStart;
+                int firstInRun = firstTile + (runStart * stride);
+                if (runLength <= SINGLE_ENTRANCE_MAX_LENGTH) {
+                    int middle = firstInRun + ((runLength / 2) * stride);
+                    transitions[count++] = middle;
+                    transitions[count++] = middle + offset;
+                }
+                else {
+                    int last = firstInRun + ((runLength - 1) * stride);
+                    transitions[count++] = firstInRun;
+                    transitions[count++] = firstInRun + offset;
+                    transitions[count++] = last;
+                    transitions[count++] = last + offset;
+                }
+                runStart = -1;
+            }
+            if (kind >= 0 && runStart < 0) {
+                runStart = i;
+            }
+            runKind = kind;
+        }
+        
+        return Arrays.copyOf(transitions, count);
+    }
+    
+    private int getLevelKind(int tileIndex) {
+        return TacticalTileData.getLevel(map.getTiles()[tileIndex].getTerrainCode());
+    }
+    
+    /**
+     * Gathers the entrances of a chunk from its four borders, and works out
+     * the cost between every pair of them.
+     */
+    private void buildChunkGraph(int chunk) {
+        int cx = chunk % chunkColumns;
+        int cy = chunk / chunkColumns;
+        int[] east = eastTransitions[chunk];
+        int[] south = southTransitions[chunk];
+        int[] west = (cx > 0) ? eastTransitions[chunk - 1] : new int[0];
+        int[] north = (cy > 0) ? southTransitions[chunk - chunkColumns] : new int[0];
+        
+        int slotCount = (east.length + south.length + west.length + north.length) / 2;
+        ChunkGraph graph = new ChunkGraph(slotCount);
+        int slot = 0;
+        for (int i = 0; i < east.length; i += 2) {
+            graph.slotTiles[slot] = east[i];
+            graph.partnerTiles[slot++] = east[i + 1];
+        }
+        for (int i = 0; i < south.length; i += 2) {
+            graph.slotTiles[slot] = south[i];
+            graph.partnerTiles[slot++] = south[i + 1];
+        }
+        for (int i = 0; i < west.length; i += 2) {
+            graph.slotTiles[slot] = west[i + 1];
+            graph.partnerTiles[slot++] = west[i];
+        }
+        for (int i = 0; i < north.length; i += 2) {
+            graph.slotTiles[slot] = north[i + 1];
+            graph.partnerTiles[slot++] = north[i];
+        }
+        
+        ChunkScratch chunkScratch = CHUNK_SCRATCH.get();
+        for (int from = 0; from < slotCount; from++) {
+            searchChunk(chunk, graph.slotTiles[from], -1, chunkScratch);
+            for (int to = 0; to < slotCount; to++) {
+                graph.intraCosts[(from * slotCount) + to] = chunkScratch.getCost(graph.slotTiles[to]);
+            }
+        }
+        
+        chunkGraphs[chunk] = graph;
+        rebuiltChunkCount++;
+    }
+    
+    private static class ChunkGraph {
+        
+        final int slotCount;
+        final int[] slotTiles;
+        // The tile across the border from each entrance
+        final int[] partnerTiles;
+        // Cost between each pair of entrances, or -1 if there is no way
+        // through this chunk
+        final int[] intraCosts;
+        
+        ChunkGraph(int slotCount) {
+            this.slotCount = slotCount;
+            slotTiles = new int[slotCount];
+            partnerTiles = new int[slotCount];
+            intraCosts = new int[slotCount * slotCount];
+        }
+    }
+    
+    /**
+     * Per-thread working memory for searches inside one chunk.
+     */
+    private static class ChunkScratch {
+        
+        final int[] costs = new int[CHUNK_TILES];
+        final int[] parents = new int[CHUNK_TILES];
+        final IntMinHeap heap = new IntMinHeap();
+        private int[] startCosts = new int[16];
+        private int[] goalCosts = new int[16];
+        private int[] abstractPath = new int[64];
+        private final int[] traceBuffer = new int[CHUNK_TILES];
+        private int traceLength = 0;
+        private int originX;
+        private int originY;
+        private int mapWidth;
+        
+        void begin(int originX, int originY, int mapWidth) {
+            this.originX = originX;
+            this.originY = originY;
+            this.mapWidth = mapWidth;
+            Arrays.fill(costs, -1);
+            heap.clear();
+        }
+        
+        int toLocal(int tileIndex) {
+            return (((tileIndex / mapWidth) - originY) * CHUNK_DIM) + ((tileIndex % mapWidth) - originX);
+        }
+        
+        int toTile(int local) {
+            return ((originY + (local / CHUNK_DIM)) * mapWidth) + originX + (local % CHUNK_DIM);
+        }
+        
+        /**
+         * @return the cost found to a tile in this chunk, or -1 for none
+         */
+        int getCost(int tileIndex) {
+            return costs[toLocal(tileIndex)];
+        }
+        
+        /**
+         * Walks back from a tile to the source of the last search.
+         * @return the number of tiles after the source
+         */
+        int tracePath(int tileIndex) {
+            traceLength = 0;
+            for (int local = toLocal(tileIndex); parents[local] >= 0; local = parents[local]) {
+                traceBuffer[traceLength++] = local;
+            }
+            return traceLength;
+        }
+        
+        /**
+         * Appends the traced path, source excluded, in walking order.
+         * @return the new length of the buffer
+         */
+        int copyPath(int[] buffer, int length) {
+            for (int i = traceLength - 1; i >= 0; i--) {
+                buffer[length++] = toTile(traceBuffer[i]);
+            }
+            return length;
+        }
+        
+        int[] getStartCosts(int slotCount) {
+            if (startCosts.length < slotCount) {
+                startCosts = new int[slotCount];
+            }
+            return startCosts;
+        }
+        
+        int[] getGoalCosts(int slotCount) {
+            if (goalCosts.length < slotCount) {
+                goalCosts = new int[slotCount];
+            }
+            return goalCosts;
+        }
+        
+        int[] getAbstractPath(int length) {
+            if (abstractPath.length < length) {
+                abstractPath = new int[length * 2];
+            }
+            return abstractPath;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread working memory for searches. Arrays are only reallocated when a
+ * larger map comes along, and search stamps mean they never need clearing.
+ * @author Joseph Cramsey
+ */
+class PathScratch {
+    
+    static final byte NO_DIRECTION = -1;
+    
+    int[] costs = new int[0];
+    int[] parents = new int[0];
+    byte[] arrivals = new byte[0];
+    int[] seenStamps = new int[0];
+    int[] closedStamps = new int[0];
+    int[] pathBuffer = new int[64];
+    final IntMinHeap heap = new IntMinHeap();
+    private int stamp = 0;
+    
+    /**
+     * Gets ready for another search.
+     * @param tileCount tiles in the map being searched
+     * @return the stamp marking tiles touched by this search
+     */
+    int begin(int tileCount) {
+        if (costs.length < tileCount) {
+            costs = new int[tileCount];
+            parents = new int[tileCount];
+            arrivals = new byte[tileCount];
+            seenStamps = new int[tileCount];
+            closedStamps = new int[tileCount];
+            stamp = 0;
+        }
+        
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            // Wrapped around, so old stamps could look current
+            Arrays.fill(seenStamps, 0);
+            Arrays.fill(closedStamps, 0);
+            stamp = 1;
+        }
+        
+        heap.clear();
+        return stamp;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+/**
+ * A path found over a tactical map, with every tile along the way.
+ * @author Joseph Cramsey
+ */
+public class TacticalPath {
+    
+    private final int mapWidth;
+    private final int[] tileIndices;
+    private final int cost;
+    private final int expandedNodeCount;
+    
+    TacticalPath(int mapWidth, int[] tileIndices, int cost, int expandedNodeCount) {
+        this.mapWidth = mapWidth;
+        this.tileIndices = tileIndices;
+        this.cost = cost;
+        this.expandedNodeCount = expandedNodeCount;
+    }
+    
+    /**
+     * @return the number of tiles, including the start and the goal
+     */
+    public int getLength() {
+        return tileIndices.length;
+    }
+    
+    public int getTileIndex(int step) {
+        return tileIndices[step];
+    }
+    
+    public int getX(int step) {
+        return tileIndices[step] % mapWidth;
+    }
+    
+    public int getY(int step) {
+        return tileIndices[step] / mapWidth;
+    }
+    
+    /**
+     * @return the movement cost, where straight steps cost
+     * TacticalPathfinder.STRAIGHT_COST and diagonal steps cost
+     * TacticalPathfinder.DIAGONAL_COST
+     */
+    public int getCost() {
+        return cost;
+    }
+    
+    /**
+     * @return how many nodes the search expanded to find this path
+     */
+    public int getExpandedNodeCount() {
+        return expandedNodeCount;
+    }
+}
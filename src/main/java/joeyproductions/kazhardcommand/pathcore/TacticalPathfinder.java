@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+import java.util.Arrays;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * A* over a tactical map, where elevation can only be crossed by ramps. By
+ * default, jump point search is used to skip across each level, treating
+ * other levels as walls, and every ramp crossing is stopped at and searched
+ * like plain A*.<br>
+ * <br>
+ * Searches keep their working memory per thread, so many threads can search
+ * the same map at once, as long as nobody is editing it.
+ * @author Joseph Cramsey
+ */
+public class TacticalPathfinder {
+    
+    public static final int STRAIGHT_COST = 10;
+    public static final int DIAGONAL_COST = 14;
+    
+    private static final ThreadLocal<PathScratch> SCRATCH = ThreadLocal.withInitial(PathScratch::new);
+    
+    private final TacticalMapData map;
+    private final TerrainPassability passability;
+    private final int width;
+    private final int[] directionOffsets;
+    
+    private TacticalPathfinder(TacticalMapData map, TerrainPassability passability) {
+        this.map = map;
+        this.passability = passability;
+        width = map.getWidth();
+        directionOffsets = TacticalTileData.createIndexOffsets(width);
+    }
+    
+    public static TacticalPathfinder create(TacticalMapData map) {
+        return create(TerrainPassability.create(map));
+    }
+    
+    public static TacticalPathfinder create(TerrainPassability passability) {
+        return new TacticalPathfinder(passability.getMap(), passability);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public TerrainPassability getPassability() {
+        return passability;
+    }
+    
+    public TacticalPath findPath(int startX, int startY, int goalX, int goalY) {
+        return findPath(startX, startY, goalX, goalY, true);
+    }
+    
+    /**
+     * Finds a cheapest path between two tiles.
+     * @param useJumpPoints false to expand every tile like plain A*
+     * @return the path, or null if the goal cannot be reached
+     */
+    public TacticalPath findPath(int startX, int startY, int goalX, int goalY, boolean useJumpPoints) {
+        int start = map.getTileIndex(startX, startY);
+        int goal = map.getTileIndex(goalX, goalY);
+        
+        PathScratch scratch = SCRATCH.get();
+        int stamp = scratch.begin(map.getTileCount());
+        int[] costs = scratch.costs;
+        int[] parents = scratch.parents;
+        byte[] arrivals = scratch.arrivals;
+        int[] seenStamps = scratch.seenStamps;
+        int[] closedStamps = scratch.closedStamps;
+        IntMinHeap heap = scratch.heap;
+        
+        costs[start] = 0;
+        parents[start] = -1;
+        arrivals[start] = PathScratch.NO_DIRECTION;
+        seenStamps[start] = stamp;
+        heap.push(estimate(start, goal), start);
+        
+        int expandedNodeCount = 0;
+        while (!heap.isEmpty()) {
+            int node = heap.pop();
+            if (closedStamps[node] == stamp) continue; // Stale copy
+            closedStamps[node] = stamp;
+            expandedNodeCount++;
+            
+            if (node == goal) {
+                return buildPath(scratch, goal, expandedNodeCount);
+            }
+            
+            int arrival = arrivals[node];
+            int directions = passability.getPassPattern(node);
+            if (useJumpPoints && arrival != PathScratch.NO_DIRECTION && !passability.isCrossing(node)) {
+                directions &= getPrunedDirections(arrival, passability.getLevelPattern(node));
+            }
+            
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                if ((directions & (1 << d)) == 0) continue;
+                
+                int next;
+                int stepCost;
+                if (useJumpPoints) {
+                    next = jump(node, d, goal);
+                    if (next < 0) continue;
+                    stepCost = getLineCost(node, next, d);
+                }
+                else {
+                    next = node + directionOffsets[d];
+                    stepCost = (d % 2 == 0) ? STRAIGHT_COST : DIAGONAL_COST;
+                }
+                if (closedStamps[next] == stamp) continue;
+                
+                int cost = costs[node] + stepCost;
+                if (seenStamps[next] == stamp && costs[next] <= cost) continue;
+                
+                seenStamps[next] = stamp;
+                costs[next] = cost;
+                parents[next] = node;
+                arrivals[next] = (byte)d;
+                heap.push(cost + estimate(next, goal), next);
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Octile distance, which never overestimates and stays consistent.
+     */
+    private int estimate(int from, int to) {
+        int dx = Math.abs((from % width) - (to % width));
+        int dy = Math.abs((from / width) - (to / width));
+        return (STRAIGHT_COST * Math.max(dx, dy))
+                + ((DIAGONAL_COST - STRAIGHT_COST) * Math.min(dx, dy));
+    }
+    
+    private int getLineCost(int from, int to, int direction) {
+        int steps = Math.max(
+                Math.abs((from % width) - (to % width)),
+                Math.abs((from / width) - (to / width))
+        );
+        return steps * ((direction % 2 == 0) ? STRAIGHT_COST : DIAGONAL_COST);
+    }
+    
+    private static int rotate(int direction, int turns) {
+        return (direction + turns + TacticalTileData.DIR_LEN) % TacticalTileData.DIR_LEN;
+    }
+    
+    /**
+     * Anything off to the side of a move can usually be reached at least as
+     * cheaply without going through this tile. Diagonal moves keep going
+     * along both of their sides. Straight moves only turn where a wall just
+     * ended beside them, since that is the first chance to go around it.
+     * @param arrival the direction this tile was reached in
+     * @param levelPattern neighbors on the same level as this tile
+     * @return directions worth searching
+     */
+    private static int getPrunedDirections(int arrival, int levelPattern) {
+        int directions = 1 << arrival;
+        if (arrival % 2 != 0) {
+            return directions | (1 << rotate(arrival, 1)) | (1 << rotate(arrival, -1));
+        }
+        
+        for (int turn = -1; turn <= 1; turn += 2) {
+            if (isForced(arrival, turn, levelPattern)) {
+                directions |= (1 << rotate(arrival, turn * 2)) | (1 << rotate(arrival, turn));
+            }
+        }
+        return directions;
+    }
+    
+    /**
+     * @return true if one side of a straight move is open, but was walled off
+     * just behind
+     */
+    private static boolean isForced(int direction, int turn, int levelPattern) {
+        return (levelPattern & (1 << rotate(direction, turn * 2))) != 0
+                && (levelPattern & (1 << rotate(direction, turn * 3))) == 0;
+    }
+    
+    /**
+     * Moves in a straight line until something interesting happens: the goal,
+     * a ramp crossing, a wall ending beside a straight move, or a diagonal
+     * step where a straight jump finds something.
+     * @return the tile stopped on, or -1 if the line ran into a wall
+     */
+    private int jump(int node, int direction, int goal) {
+        int offset = directionOffsets[direction];
+        boolean isDiagonal = direction % 2 != 0;
+        while (true) {
+            if (!passability.canStep(node, direction)) return -1;
+            node += offset;
+            if (node == goal || passability.isCrossing(node)) return node;
+            
+            if (isDiagonal) {
+                if (jump(node, rotate(direction, 1), goal) >= 0
+                        || jump(node, rotate(direction, -1), goal) >= 0) {
+                    return node;
+                }
+            }
+            else {
+                int levelPattern = passability.getLevelPattern(node);
+                if (isForced(direction, 1, levelPattern) || isForced(direction, -1, levelPattern)) {
+                    return node;
+                }
+            }
+        }
+    }
+    
+    private TacticalPath buildPath(PathScratch scratch, int goal, int expandedNodeCount) {
+        // Walk back from the goal, filling in the tiles that jumps skipped
+        int[] buffer = scratch.pathBuffer;
+        int length = 0;
+        int node = goal;
+        while (node >= 0) {
+            int parent = scratch.parents[node];
+            int step = 0;
+            if (parent >= 0) {
+                step = directionOffsets[rotate(scratch.arrivals[node], TacticalTileData.DIR_LEN / 2)];
+            }
+            
+            int tile = node;
+            do {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                buffer[length++] = tile;
+                tile += step;
+            } while (parent >= 0 && tile != parent);
+            
+            node = parent;
+        }
+        scratch.pathBuffer = buffer;
+        
+        int[] tileIndices = new int[length];
+        for (int i = 0; i < length; i++) {
+            tileIndices[i] = buffer[length - 1 - i];
+        }
+        return new TacticalPath(width, tileIndices, scratch.costs[goal], expandedNodeCount);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.pathcore;
+
+import java.util.BitSet;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Which moves are allowed out of each tile, kept in flat arrays so searches
+ * never have to touch TacticalTileData objects.<br>
+ * <br>
+ * Moving between tiles on the same level is always allowed, but diagonal
+ * moves cannot cut past a tile on another level. Moving between levels is
+ * only allowed orthogonally, between a ramp base and the ramp above it.<br>
+ * <br>
+ * Away from ramps, each level works like an ordinary grid where tiles on
+ * other levels are walls, which is what jump point search expects. Tiles
+ * with a move onto another level are crossings, where searches have to stop
+ * and look around.
+ * @author Joseph Cramsey
+ */
+public class TerrainPassability implements TacticalMapListener {
+    
+    public static final int ALL_DIRECTIONS = 0xFF;
+    
+    private final TacticalMapData map;
+    private final int width;
+    private final int height;
+    private final byte[] passPatterns;
+    private final byte[] levelPatterns;
+    private final long[] crossingTiles;
+    
+    private TerrainPassability(TacticalMapData map) {
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+        passPatterns = new byte[map.getTileCount()];
+        levelPatterns = new byte[map.getTileCount()];
+        crossingTiles = new long[(map.getTileCount() + 63) / 64];
+    }
+    
+    /**
+     * Works out passability for a whole map, and keeps it up to date as the
+     * map is edited.
+     * @param map the map to follow
+     * @return the new passability
+     */
+    public static TerrainPassability create(TacticalMapData map) {
+        TerrainPassability product = new TerrainPassability(map);
+        
+        for (int y = 0; y < product.height; y++) {
+            for (int x = 0; x < product.width; x++) {
+                product.refresh(x, y);
+            }
+        }
+        map.addListener(product);
+        
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map) return;
+        
+        // Moves only depend on the tiles one step away
+        BitSet editedTiles = change.getEditedTiles();
+        BitSet affectedTiles = new BitSet();
+        for (int i = editedTiles.nextSetBit(0); i >= 0; i = editedTiles.nextSetBit(i + 1)) {
+            int x = i % width;
+            int y = i / width;
+            int minX = Math.max(0, x - 1);
+            int maxX = Math.min(width - 1, x + 1);
+            for (int yo = Math.max(0, y - 1); yo <= Math.min(height - 1, y + 1); yo++) {
+                affectedTiles.set((yo * width) + minX, (yo * width) + maxX + 1);
+            }
+        }
+        
+        for (int i = affectedTiles.nextSetBit(0); i >= 0; i = affectedTiles.nextSetBit(i + 1)) {
+            refresh(i % width, i / width);
+        }
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * @return one bit per direction, set if that move is allowed
+     */
+    public int getPassPattern(int tileIndex) {
+        return Byte.toUnsignedInt(passPatterns[tileIndex]);
+    }
+    
+    public boolean canStep(int tileIndex, int direction) {
+        return (passPatterns[tileIndex] & (1 << direction)) != 0;
+    }
+    
+    /**
+     * @return one bit per direction, set if that neighbor is on the same
+     * level, whether or not the move is allowed
+     */
+    public int getLevelPattern(int tileIndex) {
+        return Byte.toUnsignedInt(levelPatterns[tileIndex]);
+    }
+    
+    /**
+     * @return true if a move out of this tile changes level
+     */
+    public boolean isCrossing(int tileIndex) {
+        return (crossingTiles[tileIndex >>> 6] & (1L << tileIndex)) != 0;
+    }
+    
+    /**
+     * Checks a move between two orthogonal neighbors.
+     */
+    public static boolean canStepOrthogonally(byte fromCode, byte toCode) {
+        int fromLevel = TacticalTileData.getLevel(fromCode);
+        int toLevel = TacticalTileData.getLevel(toCode);
+        if (fromLevel == toLevel) return true;
+        
+        // Ramp bases lead up onto the ramp, which is the tile one level up
+        if (toLevel == fromLevel + 1) return TacticalTileData.isRampBase(fromCode);
+        if (fromLevel == toLevel + 1) return TacticalTileData.isRampBase(toCode);
+        return false;
+    }
+    
+    private byte getTerrainCode(int x, int y) {
+        return map.getTiles()[(y * width) + x].getTerrainCode();
+    }
+    
+    private void refresh(int x, int y) {
+        int tileIndex = (y * width) + x;
+        byte terrainCode = getTerrainCode(x, y);
+        int level = TacticalTileData.getLevel(terrainCode);
+        
+        int pattern = 0;
+        int levelPattern = 0;
+        boolean isCrossing = false;
+        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+            int xo = x + TacticalTileData.getXOffsetFromDirection(d);
+            int yo = y + TacticalTileData.getYOffsetFromDirection(d);
+            if (!map.isInBounds(xo, yo)) continue;
+            
+            byte neighborCode = getTerrainCode(xo, yo);
+            boolean isLevel = TacticalTileData.getLevel(neighborCode) == level;
+            if (isLevel) {
+                levelPattern |= 1 << d;
+            }
+            
+            boolean canStep;
+            if (d % 2 == 0) {
+                canStep = canStepOrthogonally(terrainCode, neighborCode);
+                isCrossing |= canStep && !isLevel;
+            }
+            else {
+                // No cutting corners past another level
+                canStep = isLevel
+                        && TacticalTileData.getLevel(getTerrainCode(xo, y)) == level
+                        && TacticalTileData.getLevel(getTerrainCode(x, yo)) == level;
+            }
+            if (canStep) {
+                pattern |= 1 << d;
+            }
+        }
+        
+        passPatterns[tileIndex] = (byte)pattern;
+        levelPatterns[tileIndex] = (byte)levelPattern;
+        if (isCrossing) {
+            crossingTiles[tileIndex >>> 6] |= 1L << tileIndex;
+        }
+        else {
+            crossingTiles[tileIndex >>> 6] &= ~(1L << tileIndex);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Imports maps from JSON, and compiles them into a binary sidecar cache.<br>
+ * <br>
+ * Example of a JSON map:<br>
+ * { "width": 4, "height": 2, "rows": ["0110", [0, 2, 2, 0]] }<br>
+ * <br>
+ * Each row is either a String of terrain code digits, or an array of terrain
+ * codes (see TacticalTileData.TERRAIN_*); codes above 9 only fit in arrays.
+ * Rows are streamed out of the parser one value at a time, so no document
+ * tree is ever built.<br>
+ * <br>
+ * The compiled map is stored next to the JSON file, with the content hash in
+ * its name (e.g. "map.json" gets "map.json.1a2b3c4d5e6f7a8b.kzmap"). If the
+ * JSON is unchanged on the next load, then it is not parsed at all.
+ * @author Joseph Cramsey
+ */
+public class JsonMapImporter {
+    
+    static final String CACHE_EXTENSION = ".kzmap";
+    private static final int HASH_HEX_LENGTH = 16;
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+    
+    private JsonMapImporter() {
+        //
+    }
+    
+    /**
+     * Loads a JSON map, going through the binary cache whenever possible.
+     * @param jsonPath the JSON map file
+     * @return the map, along with timings for each step
+     * @throws IOException
+     * @throws InvalidMapFileException if the JSON does not describe a map
+     */
+    public static MapImportResult load(Path jsonPath) throws IOException, InvalidMapFileException {
+        long start = System.nanoTime();
+        String hash = hashContents(jsonPath);
+        long hashNanos = System.nanoTime() - start;
+        
+        Path cachePath = getCachePath(jsonPath, hash);
+        if (Files.exists(cachePath)) {
+            try {
+                start = System.nanoTime();
+                TacticalMapData map = TacticalMapFile.open(cachePath, true).toMapData();
+                long loadNanos = System.nanoTime() - start;
+                return new MapImportResult(map, true, hashNanos, 0, 0, loadNanos);
+            } catch (InvalidMapFileException ex) {
+                // A broken cache is not fatal; just rebuild it.
+                Logger.getLogger(JsonMapImporter.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        
+        start = System.nanoTime();
+        MapRowHandler handler = parse(jsonPath);
+        long parseNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        TacticalMapData map = TacticalMapData.create(
+                handler.width, handler.height, handler.getTerrainCodes()
+        );
+        long loadNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        deleteStaleCaches(jsonPath);
+        TacticalMapFileWriter.write(map, cachePath, true);
+        long compileNanos = System.nanoTime() - start;
+        
+        return new MapImportResult(map, false, hashNanos, parseNanos, compileNanos, loadNanos);
+    }
+    
+    /**
+     * Parses a JSON map without touching the cache.
+     * @param jsonPath the JSON map file
+     * @return the map
+     * @throws IOException
+     * @throws InvalidMapFileException if the JSON does not describe a map
+     */
+    public static TacticalMapData parseMap(Path jsonPath) throws IOException, InvalidMapFileException {
+        MapRowHandler handler = parse(jsonPath);
+        return TacticalMapData.create(handler.width, handler.height, handler.getTerrainCodes());
+    }
+    
+    private static MapRowHandler parse(Path jsonPath) throws IOException, InvalidMapFileException {
+        MapRowHandler handler = new MapRowHandler();
+        
+        try (Reader reader = Files.newBufferedReader(jsonPath, StandardCharsets.UTF_8)) {
+            new JSONParser().parse(reader, handler);
+        } catch (ParseException ex) {
+            throw new InvalidMapFileException(jsonPath, "malformed JSON at " + ex.getPosition());
+        }
+        
+        if (handler.error != null) {
+            throw new InvalidMapFileException(jsonPath, handler.error);
+        }
+        if (handler.width <= 0 || handler.height <= 0) {
+            throw new InvalidMapFileException(jsonPath, "missing width or height");
+        }
+        // Width may come after the rows, so row lengths are only checked now
+        String rowError = handler.checkRowLengths();
+        if (rowError != null) {
+            throw new InvalidMapFileException(jsonPath, rowError);
+        }
+        if (handler.rowCount != handler.height || handler.tileCount != handler.width * handler.height) {
+            throw new InvalidMapFileException(jsonPath,
+                    "expected " + handler.height + " rows of " + handler.width
+                    + " tiles, found " + handler.rowCount + " rows");
+        }
+        
+        return handler;
+    }
+    
+    public static Path getCachePath(Path jsonPath, String hash) {
+        return jsonPath.resolveSibling(jsonPath.getFileName() + "." + hash + CACHE_EXTENSION);
+    }
+    
+    private static void deleteStaleCaches(Path jsonPath) throws IOException {
+        // Plain prefix matching, since file names can hold glob characters
+        String prefix = jsonPath.getFileName() + ".";
+        Path directory = jsonPath.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory)) {
+            for (Path stalePath : stale) {
+                String name = stalePath.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(CACHE_EXTENSION)
+                        && name.length() > prefix.length() + CACHE_EXTENSION.length()) {
+                    Files.deleteIfExists(stalePath);
+                }
+            }
+        }
+    }
+    
+    static String hashContents(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to have SHA-256
+            throw new RuntimeException(ex);
+        }
+        
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+            if (hex.length() >= HASH_HEX_LENGTH) break;
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Collects terrain codes as the parser streams them past.
+     */
+    private static class MapRowHandler implements ContentHandler {
+        
+        private int width = 0;
+        private int height = 0;
+        private String error = null;
+        
+        private byte[] terrainCodes = new byte[1024];
+        private int tileCount = 0;
+        private int rowCount = 0;
+        private int rowStart = 0;
+        private int firstRowLength = -1;
+        private int mismatchedRow = -1;
+        private int mismatchedRowLength = 0;
+        
+        private int objectDepth = 0;
+        private int arrayDepth = 0;
+        private String topLevelKey = null;
+        
+        byte[] getTerrainCodes() {
+            return Arrays.copyOf(terrainCodes, tileCount);
+        }
+        
+        private boolean fail(String message) {
+            error = message;
+            return false;
+        }
+        
+        private boolean addCode(long code) {
+            if (!TacticalTileData.isValidTerrainCode(code)) {
+                return fail("terrain code out of range in row " + rowCount + ": " + code);
+            }
+            if (tileCount == terrainCodes.length) {
+                terrainCodes = Arrays.copyOf(terrainCodes, terrainCodes.length * 2);
+            }
+            terrainCodes[tileCount++] = (byte)code;
+            return true;
+        }
+        
+        private boolean endRow() {
+            int rowLength = tileCount - rowStart;
+            if (width > 0 && rowLength != width) {
+                return fail("row " + rowCount + " has " + rowLength + " tiles, expected " + width);
+            }
+            if (firstRowLength < 0) {
+                firstRowLength = rowLength;
+            }
+            else if (mismatchedRow < 0 && rowLength != firstRowLength) {
+                mismatchedRow = rowCount;
+                mismatchedRowLength = rowLength;
+            }
+            rowCount++;
+            return true;
+        }
+        
+        String checkRowLengths() {
+            if (firstRowLength >= 0 && firstRowLength != width) {
+                return "row 0 has " + firstRowLength + " tiles, expected " + width;
+            }
+            if (mismatchedRow >= 0) {
+                return "row " + mismatchedRow + " has " + mismatchedRowLength + " tiles, expected " + width;
+            }
+            return null;
+        }
+        
+        private boolean isInRows() {
+            return objectDepth == 1 && arrayDepth > 0 && "rows".equals(topLevelKey);
+        }
+        
+        @Override
+        public void startJSON() {
+            //
+        }
+        
+        @Override
+        public void endJSON() {
+            //
+        }
+        
+        @Override
+        public boolean startObject() {
+            if (isInRows()) {
+                return fail("unexpected object in row " + rowCount);
+            }
+            objectDepth++;
+            return true;
+        }
+        
+        @Override
+        public boolean endObject() {
+            objectDepth--;
+            return true;
+        }
+        
+        @Override
+        public boolean startObjectEntry(String key) {
+            if (objectDepth == 1) {
+                topLevelKey = key;
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean endObjectEntry() {
+            if (objectDepth == 1) {
+                topLevelKey = null;
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean startArray() {
+            arrayDepth++;
+            if (isInRows()) {
+                if (arrayDepth > 2) {
+                    return fail("unexpected array in row " + rowCount);
+                }
+                if (arrayDepth == 2) {
+                    rowStart = tileCount;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean endArray() {
+            arrayDepth--;
+            if (isInRows() && arrayDepth == 1) {
+                return endRow();
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean primitive(Object value) {
+            if (!isInRows()) {
+                if (objectDepth == 1 && arrayDepth == 0) {
+                    return readDimension(value);
+                }
+                // Anything else is metadata we do not care about
+                return true;
+            }
+            
+            if (arrayDepth == 1) {
+                if (!(value instanceof String)) {
+                    return fail("row " + rowCount + " must be a String or an array");
+                }
+                rowStart = tileCount;
+                String row = (String)value;
+                for (int i = 0; i < row.length(); i++) {
+                    char digit = row.charAt(i);
+                    if (digit < '0' || digit > '9') {
+                        return fail("row " + rowCount + " has a non-digit: '" + digit + "'");
+                    }
+                    if (!addCode(digit - '0')) return false;
+                }
+                return endRow();
+            }
+            
+            if (!(value instanceof Long)) {
+                return fail("row " + rowCount + " contains a non-number");
+            }
+            return addCode((Long)value);
+        }
+        
+        private boolean readDimension(Object value) {
+            boolean isWidth = "width".equals(topLevelKey);
+            if (!isWidth && !"height".equals(topLevelKey)) return true;
+            
+            if (!(value instanceof Long)) {
+                return fail(topLevelKey + " must be a whole number");
+            }
+            long dim = (Long)value;
+            if (dim <= 0 || dim > TacticalMapData.MAX_DIM) {
+                return fail(topLevelKey + " out of range: " + dim);
+            }
+            if (isWidth) {
+                width = (int)dim;
+            }
+            else {
+                height = (int)dim;
+            }
+            return true;
+        }
+    }
+}
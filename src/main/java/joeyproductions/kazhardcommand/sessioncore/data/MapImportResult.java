@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+/**
+ * A loaded map, along with how it was loaded and how long each step took.
+ * @author Joseph Cramsey
+ */
+public class MapImportResult {
+    
+    private final TacticalMapData map;
+    private final boolean fromCache;
+    private final long hashNanos;
+    private final long parseNanos;
+    private final long compileNanos;
+    private final long loadNanos;
+    
+    MapImportResult(TacticalMapData map, boolean fromCache,
+            long hashNanos, long parseNanos, long compileNanos, long loadNanos) {
+        this.map = map;
+        this.fromCache = fromCache;
+        this.hashNanos = hashNanos;
+        this.parseNanos = parseNanos;
+        this.compileNanos = compileNanos;
+        this.loadNanos = loadNanos;
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * @return true if the JSON was skipped in favor of the binary cache
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+    
+    public long getHashNanos() {
+        return hashNanos;
+    }
+    
+    /**
+     * @return time spent parsing JSON, which is zero for cached loads
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+    
+    /**
+     * @return time spent writing the binary cache, which is zero for cached
+     * loads
+     */
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+    
+    /**
+     * @return time spent building the map data, including the pattern passes
+     * when they were not cached
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: hash %.2f ms, parse %.2f ms, compile %.2f ms, load %.2f ms",
+                fromCache ? "cache" : "json",
+                hashNanos / 1000000.0,
+                parseNanos / 1000000.0,
+                compileNanos / 1000000.0,
+                loadNanos / 1000000.0
+        );
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Terrain codes packed the way map files, region files and history keyframes
+ * store them: every tile's level as a 4-bit nibble, two to a byte with the
+ * even tile in the low nibble, followed by the ramp base flags, one bit per
+ * tile. That comes to five bits per tile, whatever the levels.
+ * @author Joseph Cramsey
+ */
+final class PackedTerrainCodes {
+    
+    private static final int LEVEL_BITS = 4;
+    private static final int LEVEL_MASK = 0b1111;
+    
+    private PackedTerrainCodes() {
+        //
+    }
+    
+    /**
+     * @return bytes taken up by this many tiles
+     */
+    static int getLength(int tileCount) {
+        return getFlagOffset(tileCount) + ((tileCount + 7) / 8);
+    }
+    
+    private static int getFlagOffset(int tileCount) {
+        return (tileCount + 1) / 2;
+    }
+    
+    static byte get(byte[] packed, int offset, int tileCount, int tileIndex) {
+        int levels = packed[offset + (tileIndex >>> 1)] >>> ((tileIndex & 1) * LEVEL_BITS);
+        int flags = packed[offset + getFlagOffset(tileCount) + (tileIndex >>> 3)] >>> (tileIndex & 7);
+        return TacticalTileData.createTerrainCode(levels & LEVEL_MASK, (flags & 1) != 0);
+    }
+    
+    static byte get(ByteBuffer packed, int offset, int tileCount, int tileIndex) {
+        int levels = packed.get(offset + (tileIndex >>> 1)) >>> ((tileIndex & 1) * LEVEL_BITS);
+        int flags = packed.get(offset + getFlagOffset(tileCount) + (tileIndex >>> 3)) >>> (tileIndex & 7);
+        return TacticalTileData.createTerrainCode(levels & LEVEL_MASK, (flags & 1) != 0);
+    }
+    
+    /**
+     * Packs a tile into space that has been cleared to zero.
+     */
+    static void put(byte[] packed, int offset, int tileCount, int tileIndex, byte terrainCode) {
+        int levelIndex = offset + (tileIndex >>> 1);
+        packed[levelIndex] |= (byte)(TacticalTileData.getLevel(terrainCode) << ((tileIndex & 1) * LEVEL_BITS));
+        if (TacticalTileData.isRampBase(terrainCode)) {
+            packed[offset + getFlagOffset(tileCount) + (tileIndex >>> 3)] |= (byte)(1 << (tileIndex & 7));
+        }
+    }
+    
+    /**
+     * Packs a tile into space that has been cleared to zero.
+     */
+    static void put(ByteBuffer packed, int offset, int tileCount, int tileIndex, byte terrainCode) {
+        int levelIndex = offset + (tileIndex >>> 1);
+        int level = TacticalTileData.getLevel(terrainCode);
+        packed.put(levelIndex, (byte)(packed.get(levelIndex) | (level << ((tileIndex & 1) * LEVEL_BITS))));
+        if (TacticalTileData.isRampBase(terrainCode)) {
+            int flagIndex = offset + getFlagOffset(tileCount) + (tileIndex >>> 3);
+            packed.put(flagIndex, (byte)(packed.get(flagIndex) | (1 << (tileIndex & 7))));
+        }
+    }
+}
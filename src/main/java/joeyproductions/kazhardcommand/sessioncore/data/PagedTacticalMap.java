@@ -0,0 +1,612 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Tactical map terrain for maps too large to keep in memory. The map is cut
+ * into square regions, which are stored in a region file on disk and paged
+ * in whenever a tile inside them is read or written. Once more regions are
+ * resident than the memory budget allows, the least recently used region is
+ * evicted, and written back first if it was changed.<br>
+ * <br>
+ * Neighbor patterns are never stored on disk. Each tile's are worked out the
+ * first time they are read, so a scattered read only costs its own region.
+ * Tiles along a seam read across it into the neighboring region, which is
+ * peeked at straight from disk if it is not resident, rather than paged in.
+ * Regions only keep the pattern cliffs are drawn from. The higher and lower
+ * patterns are worked out on the way into toMapData().<br>
+ * <br>
+ * Paging only covers storage. Passability, cover, and the pathfinder keep
+ * tables across the whole map they are given, so they are built over windows
+ * copied out with toMapData(), never over the paged map itself.<br>
+ * <br>
+ * Region files from version 1, which packed terrain codes 2 bits per tile,
+ * are not read; recreate them from the map file instead.<br>
+ * <br>
+ * This is not thread-safe.
+ * @author Joseph Cramsey
+ */
+public class PagedTacticalMap implements Closeable {
+    
+    public static final int REGION_DIM = 64;
+    private static final int REGION_TILES = REGION_DIM * REGION_DIM;
+    private static final int REGION_FILE_BYTES = PackedTerrainCodes.getLength(REGION_TILES);
+    private static final int PEEK_SLOTS = 8;
+    
+    /**
+     * The memory cost of one resident region: codes, patterns, ramp flags,
+     * and which patterns are known.
+     */
+    public static final int REGION_MEMORY_BYTES = (REGION_TILES * 2) + (REGION_TILES / 4);
+    
+    /**
+     * A viewport or search touching a region usually touches its neighbors,
+     * so fewer resident regions than this would thrash.
+     */
+    public static final int MIN_RESIDENT_REGIONS = 9;
+    
+    private static final int MAGIC = 0x4B5A5247; // "KZRG"
+    private static final short VERSION = 2;
+    private static final int HEADER_LENGTH = 32;
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int regionsX;
+    private final int regionsY;
+    private final int maxResidentRegions;
+    
+    // Access-ordered, so the eldest entry is always the least recently used
+    private final LinkedHashMap<Integer, Region> residentRegions = new LinkedHashMap<>(16, 0.75f, true);
+    private final Region[] residentByIndex;
+    private Region lastRegion = null;
+    
+    private final ByteBuffer ioBuffer = ByteBuffer.allocate(REGION_FILE_BYTES);
+    private final byte[] neighborScratch = new byte[TacticalTileData.DIR_LEN];
+    private final int[] localOffsets = TacticalTileData.createIndexOffsets(REGION_DIM);
+    
+    // Regions read across seams without paging them in, by region index
+    private final int[] peekIndices = new int[PEEK_SLOTS];
+    private final byte[][] peekCodes = new byte[PEEK_SLOTS][REGION_TILES];
+    private int nextPeekSlot = 0;
+    
+    private long pageInCount = 0;
+    private long evictionCount = 0;
+    private long writeBackCount = 0;
+    
+    private PagedTacticalMap(Path path, FileChannel channel, int width, int height, long memoryBudget) {
+        this.path = path;
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        regionsX = (width + REGION_DIM - 1) / REGION_DIM;
+        regionsY = (height + REGION_DIM - 1) / REGION_DIM;
+        residentByIndex = new Region[regionsX * regionsY];
+        maxResidentRegions = (int)Math.max(
+                MIN_RESIDENT_REGIONS,
+                Math.min(Integer.MAX_VALUE, memoryBudget / REGION_MEMORY_BYTES)
+        );
+        Arrays.fill(peekIndices, -1);
+    }
+    
+    /**
+     * Creates a new region file, with every tile on the ground.
+     * @param path the region file, which is replaced if it exists
+     * @param width map width, in tiles
+     * @param height map height, in tiles
+     * @param memoryBudget bytes of region data to keep resident
+     * @return the paged map
+     * @throws IOException
+     */
+    public static PagedTacticalMap create(Path path, int width, int height, long memoryBudget) throws IOException {
+        if (width <= 0 || width > TacticalMapData.MAX_DIM) {
+            throw new RuntimeException("Map width out of range: " + width);
+        }
+        if (height <= 0 || height > TacticalMapData.MAX_DIM) {
+            throw new RuntimeException("Map height out of range: " + height);
+        }
+        
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        PagedTacticalMap product = new PagedTacticalMap(path, channel, width, height, memoryBudget);
+        
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short)0);
+            header.putInt(REGION_DIM);
+            header.putInt(width);
+            header.putInt(height);
+            header.position(0);
+            product.writeFully(header, 0);
+            
+            // Extend the file to full size; unwritten regions read as ground
+            long length = HEADER_LENGTH + ((long)product.residentByIndex.length * REGION_FILE_BYTES);
+            product.writeFully(ByteBuffer.allocate(1), length - 1);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        
+        return product;
+    }
+    
+    /**
+     * Creates a new region file out of a binary map file, one region at a
+     * time, so the source never has to be loaded as a whole.
+     * @param path the region file, which is replaced if it exists
+     * @param source the map to copy
+     * @param memoryBudget bytes of region data to keep resident
+     * @return the paged map
+     * @throws IOException
+     */
+    public static PagedTacticalMap create(Path path, TacticalMapFile source, long memoryBudget) throws IOException {
+        PagedTacticalMap product = create(path, source.getWidth(), source.getHeight(), memoryBudget);
+        
+        for (int i = 0; i < product.residentByIndex.length; i++) {
+            Region region = product.createRegion(i);
+            int maxX = Math.min(REGION_DIM, product.width - region.originX);
+            int maxY = Math.min(REGION_DIM, product.height - region.originY);
+            for (int ly = 0; ly < maxY; ly++) {
+                for (int lx = 0; lx < maxX; lx++) {
+                    region.codes[(ly * REGION_DIM) + lx] = source.getTerrainCode(
+                            region.originX + lx, region.originY + ly
+                    );
+                }
+            }
+            product.writeRegion(region);
+        }
+        
+        return product;
+    }
+    
+    /**
+     * Opens an existing region file.
+     * @param path the region file
+     * @param memoryBudget bytes of region data to keep resident
+     * @return the paged map
+     * @throws IOException
+     * @throws InvalidMapFileException if the header or size are not valid
+     */
+    public static PagedTacticalMap open(Path path, long memoryBudget) throws IOException, InvalidMapFileException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new InvalidMapFileException(path, "missing header");
+                }
+            }
+            
+            if (header.getInt(0) != MAGIC) {
+                throw new InvalidMapFileException(path, "not a region file");
+            }
+            short version = header.getShort(4);
+            if (version != VERSION) {
+                throw new InvalidMapFileException(path, "unsupported version " + version);
+            }
+            if (header.getInt(8) != REGION_DIM) {
+                throw new InvalidMapFileException(path, "unsupported region size " + header.getInt(8));
+            }
+            int width = header.getInt(12);
+            int height = header.getInt(16);
+            if (width <= 0 || width > TacticalMapData.MAX_DIM
+                    || height <= 0 || height > TacticalMapData.MAX_DIM) {
+                throw new InvalidMapFileException(path, "bad dimensions " + width + "x" + height);
+            }
+            
+            PagedTacticalMap product = new PagedTacticalMap(path, channel, width, height, memoryBudget);
+            long expectedSize = HEADER_LENGTH + ((long)product.residentByIndex.length * REGION_FILE_BYTES);
+            if (channel.size() != expectedSize) {
+                throw new InvalidMapFileException(path,
+                        "expected " + expectedSize + " bytes, found " + channel.size());
+            }
+            
+            return product;
+        } catch (IOException | InvalidMapFileException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    public boolean isInBounds(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+    
+    public byte getTerrainCode(int x, int y) {
+        checkBounds(x, y);
+        return getRegionAt(x, y).codes[getLocalIndex(x, y)];
+    }
+    
+    public void setTerrainCode(int x, int y, byte terrainCode) {
+        checkBounds(x, y);
+        if (!TacticalTileData.isValidTerrainCode(terrainCode)) {
+            throw new RuntimeException("Terrain code out of range: " + terrainCode);
+        }
+        
+        Region region = getRegionAt(x, y);
+        int localIndex = getLocalIndex(x, y);
+        if (region.codes[localIndex] == terrainCode) return;
+        
+        region.codes[localIndex] = terrainCode;
+        region.dirty = true;
+        
+        // Anything within one tile can see this change, even across a seam.
+        // Regions that are not resident will work out their patterns fresh.
+        for (int yo = Math.max(0, y - 1); yo <= Math.min(height - 1, y + 1); yo++) {
+            for (int xo = Math.max(0, x - 1); xo <= Math.min(width - 1, x + 1); xo++) {
+                Region neighbor = residentByIndex[getRegionIndex(xo, yo)];
+                if (neighbor != null) {
+                    int neighborIndex = getLocalIndex(xo, yo);
+                    neighbor.knownPatterns[neighborIndex >> 6] &= ~(1L << neighborIndex);
+                }
+            }
+        }
+    }
+    
+    public byte getRaisePattern(int x, int y) {
+        checkBounds(x, y);
+        Region region = getRegionAt(x, y);
+        int localIndex = getLocalIndex(x, y);
+        ensurePattern(region, localIndex);
+        return region.patterns[localIndex];
+    }
+    
+    public boolean isRamp(int x, int y) {
+        checkBounds(x, y);
+        Region region = getRegionAt(x, y);
+        int localIndex = getLocalIndex(x, y);
+        ensurePattern(region, localIndex);
+        return (region.ramps[localIndex >> 6] & (1L << localIndex)) != 0;
+    }
+    
+    /**
+     * Copies a window of the map into regular map data, such as for a
+     * viewport. The copied patterns match the full map, including along the
+     * window's edges.
+     * @param x left edge of the window
+     * @param y top edge of the window
+     * @param windowWidth window width, in tiles
+     * @param windowHeight window height, in tiles
+     * @return the window as map data
+     */
+    public TacticalMapData toMapData(int x, int y, int windowWidth, int windowHeight) {
+        checkBounds(x, y);
+        checkBounds(x + windowWidth - 1, y + windowHeight - 1);
+        
+        TacticalMapData product = TacticalMapData.allocate(windowWidth, windowHeight);
+        
+        // Go one region at a time, so small budgets do not thrash
+        int endX = x + windowWidth;
+        int endY = y + windowHeight;
+        for (int regionY = y - (y % REGION_DIM); regionY < endY; regionY += REGION_DIM) {
+            for (int regionX = x - (x % REGION_DIM); regionX < endX; regionX += REGION_DIM) {
+                int minX = Math.max(x, regionX);
+                int maxX = Math.min(endX, regionX + REGION_DIM);
+                int minY = Math.max(y, regionY);
+                int maxY = Math.min(endY, regionY + REGION_DIM);
+                for (int ty = minY; ty < maxY; ty++) {
+                    for (int tx = minX; tx < maxX; tx++) {
+                        TacticalTileData tile = product.getTile(tx - x, ty - y);
+                        byte terrainCode = getTerrainCode(tx, ty);
+                        for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                            neighborScratch[d] = getTerrainCodeOrBorder(
+                                    tx + TacticalTileData.getXOffsetFromDirection(d),
+                                    ty + TacticalTileData.getYOffsetFromDirection(d)
+                            );
+                        }
+                        tile.setTerrainCode(terrainCode);
+                        tile.setNeighborPatterns(
+                                TacticalTileData.computeHigherPattern(terrainCode, neighborScratch),
+                                TacticalTileData.computeLowerPattern(terrainCode, neighborScratch)
+                        );
+                        tile.setRamp(TacticalTileData.computeRamp(terrainCode, neighborScratch));
+                    }
+                }
+            }
+        }
+        product.rehashZobrist();
+        
+        return product;
+    }
+    
+    /**
+     * Writes every changed region back to disk, without evicting anything.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        for (Region region : residentRegions.values()) {
+            if (region.dirty) {
+                writeRegion(region);
+            }
+        }
+        channel.force(false);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    public int getResidentRegionCount() {
+        return residentRegions.size();
+    }
+    
+    public int getMaxResidentRegions() {
+        return maxResidentRegions;
+    }
+    
+    public long getPageInCount() {
+        return pageInCount;
+    }
+    
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    public long getWriteBackCount() {
+        return writeBackCount;
+    }
+    
+    private byte getTerrainCodeOrBorder(int x, int y) {
+        if (!isInBounds(x, y)) return TacticalTileData.TERRAIN_BORDER;
+        return getTerrainCode(x, y);
+    }
+    
+    private void checkBounds(int x, int y) {
+        if (!isInBounds(x, y)) {
+            throw new RuntimeException("Tile coordinates out of range: " + x + ", " + y);
+        }
+    }
+    
+    private static int getLocalIndex(int x, int y) {
+        return ((y % REGION_DIM) * REGION_DIM) + (x % REGION_DIM);
+    }
+    
+    private int getRegionIndex(int x, int y) {
+        return ((y / REGION_DIM) * regionsX) + (x / REGION_DIM);
+    }
+    
+    private Region getRegionAt(int x, int y) {
+        int regionIndex = getRegionIndex(x, y);
+        
+        Region region = lastRegion;
+        if (region != null && region.index == regionIndex) return region;
+        
+        region = residentRegions.get(regionIndex);
+        if (region == null) {
+            region = pageIn(regionIndex);
+        }
+        lastRegion = region;
+        return region;
+    }
+    
+    private void ensurePattern(Region region, int localIndex) {
+        int word = localIndex >> 6;
+        long bit = 1L << localIndex;
+        if ((region.knownPatterns[word] & bit) != 0) return;
+        
+        int lx = localIndex % REGION_DIM;
+        int ly = localIndex / REGION_DIM;
+        int x = region.originX + lx;
+        int y = region.originY + ly;
+        if (lx > 0 && ly > 0 && lx < REGION_DIM - 1 && ly < REGION_DIM - 1 && x + 1 < width && y + 1 < height) {
+            // Every neighbor is in this region
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                neighborScratch[d] = region.codes[localIndex + localOffsets[d]];
+            }
+        }
+        else {
+            for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
+                neighborScratch[d] = getSeamCode(region,
+                        x + TacticalTileData.getXOffsetFromDirection(d),
+                        y + TacticalTileData.getYOffsetFromDirection(d)
+                );
+            }
+        }
+        
+        byte terrainCode = region.codes[localIndex];
+        region.patterns[localIndex] = TacticalTileData.computeRaisePattern(terrainCode, neighborScratch);
+        if (TacticalTileData.computeRamp(terrainCode, neighborScratch)) {
+            region.ramps[word] |= bit;
+        }
+        else {
+            region.ramps[word] &= ~bit;
+        }
+        region.knownPatterns[word] |= bit;
+    }
+    
+    private byte getSeamCode(Region region, int x, int y) {
+        if (!isInBounds(x, y)) return TacticalTileData.TERRAIN_BORDER;
+        
+        int regionIndex = getRegionIndex(x, y);
+        if (regionIndex == region.index) return region.codes[getLocalIndex(x, y)];
+        
+        Region resident = residentByIndex[regionIndex];
+        if (resident != null) return resident.codes[getLocalIndex(x, y)];
+        
+        // Neighbors that are not resident are only peeked at, so this never
+        // evicts anything
+        return peekRegion(regionIndex)[getLocalIndex(x, y)];
+    }
+    
+    private byte[] peekRegion(int regionIndex) {
+        for (int i = 0; i < PEEK_SLOTS; i++) {
+            if (peekIndices[i] == regionIndex) return peekCodes[i];
+        }
+        
+        // Evicted regions were written back, so the file is up to date
+        int slot = nextPeekSlot;
+        nextPeekSlot = (nextPeekSlot + 1) % PEEK_SLOTS;
+        readRegionCodes(regionIndex, peekCodes[slot]);
+        peekIndices[slot] = regionIndex;
+        return peekCodes[slot];
+    }
+    
+    private Region createRegion(int regionIndex) {
+        return new Region(
+                regionIndex,
+                (regionIndex % regionsX) * REGION_DIM,
+                (regionIndex / regionsX) * REGION_DIM
+        );
+    }
+    
+    private long getRegionPosition(int regionIndex) {
+        return HEADER_LENGTH + ((long)regionIndex * REGION_FILE_BYTES);
+    }
+    
+    private Region pageIn(int regionIndex) {
+        Region region = createRegion(regionIndex);
+        readRegionCodes(regionIndex, region.codes);
+        
+        pageInCount++;
+        residentRegions.put(regionIndex, region);
+        residentByIndex[regionIndex] = region;
+        evictExcess();
+        
+        return region;
+    }
+    
+    private void readRegionCodes(int regionIndex, byte[] codes) {
+        try {
+            ioBuffer.clear();
+            long position = getRegionPosition(regionIndex);
+            while (ioBuffer.hasRemaining()) {
+                int count = channel.read(ioBuffer, position + ioBuffer.position());
+                if (count < 0) {
+                    throw new IOException("Region file is truncated: " + path);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        
+        for (int i = 0; i < REGION_TILES; i++) {
+            codes[i] = PackedTerrainCodes.get(ioBuffer, 0, REGION_TILES, i);
+        }
+    }
+    
+    private void evictExcess() {
+        Iterator<Region> eldest = residentRegions.values().iterator();
+        while (residentRegions.size() > maxResidentRegions) {
+            Region region = eldest.next();
+            if (region.dirty) {
+                try {
+                    writeRegion(region);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            eldest.remove();
+            residentByIndex[region.index] = null;
+            if (lastRegion == region) {
+                lastRegion = null;
+            }
+            evictionCount++;
+        }
+    }
+    
+    private void writeRegion(Region region) throws IOException {
+        ioBuffer.clear();
+        for (int i = 0; i < REGION_FILE_BYTES; i++) {
+            ioBuffer.put(i, (byte)0);
+        }
+        for (int i = 0; i < REGION_TILES; i++) {
+            PackedTerrainCodes.put(ioBuffer, 0, REGION_TILES, i, region.codes[i]);
+        }
+        writeFully(ioBuffer, getRegionPosition(region.index));
+        region.dirty = false;
+        writeBackCount++;
+        
+        // Anything peeked at before this is stale now
+        for (int i = 0; i < PEEK_SLOTS; i++) {
+            if (peekIndices[i] == region.index) {
+                peekIndices[i] = -1;
+            }
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + (buffer.position() - start));
+        }
+    }
+    
+    /**
+     * One resident square of the map.
+     */
+    private static class Region {
+        
+        final int index;
+        final int originX;
+        final int originY;
+        final byte[] codes = new byte[REGION_TILES];
+        final byte[] patterns = new byte[REGION_TILES];
+        final long[] ramps = new long[REGION_TILES / 64];
+        final long[] knownPatterns = new long[REGION_TILES / 64];
+        boolean dirty = false;
+        
+        Region(int index, int originX, int originY) {
+            this.index = index;
+            this.originX = originX;
+            this.originY = originY;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.util.Arrays;
+
+/**
+ * An editable copy of a snapshot's terrain, which copies pages and chunks
+ * only as it writes to them. Terrain codes are stored as they are set; ramps
+ * and patterns are left for whoever reads them, as in TacticalMapFile.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapBranch {
+    
+    private static final int CHUNK_DIM = TacticalMapSnapshot.CHUNK_DIM;
+    private static final int PAGE_SHIFT = TacticalMapSnapshot.PAGE_SHIFT;
+    private static final int PAGE_CHUNKS = TacticalMapSnapshot.PAGE_CHUNKS;
+    
+    private final int width;
+    private final int height;
+    private final int chunkColumns;
+    private final byte[][][] pages;
+    private long zobristHash;
+    
+    // Pages this branch has copied, and the chunks it has copied per page
+    private final long[] ownedPages;
+    private final long[] ownedChunks;
+    private int copiedChunkCount = 0;
+    
+    TacticalMapBranch(TacticalMapSnapshot base) {
+        width = base.width;
+        height = base.height;
+        chunkColumns = base.chunkColumns;
+        pages = base.pages.clone();
+        zobristHash = base.getZobristHash();
+        ownedPages = new long[(pages.length + 63) >>> 6];
+        ownedChunks = new long[pages.length];
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public long getZobristHash() {
+        return zobristHash;
+    }
+    
+    public byte getTerrainCode(int x, int y) {
+        checkPosition(x, y);
+        int chunk = ((y / CHUNK_DIM) * chunkColumns) + (x / CHUNK_DIM);
+        return pages[chunk >>> PAGE_SHIFT][chunk & (PAGE_CHUNKS - 1)][((y % CHUNK_DIM) * CHUNK_DIM) + (x % CHUNK_DIM)];
+    }
+    
+    public void setTerrainCode(int x, int y, byte terrainCode) {
+        checkPosition(x, y);
+        if (!TacticalTileData.isValidTerrainCode(terrainCode)) {
+            throw new RuntimeException("Terrain code out of range: " + terrainCode);
+        }
+        
+        int chunk = ((y / CHUNK_DIM) * chunkColumns) + (x / CHUNK_DIM);
+        int page = chunk >>> PAGE_SHIFT;
+        int slot = chunk & (PAGE_CHUNKS - 1);
+        int tile = ((y % CHUNK_DIM) * CHUNK_DIM) + (x % CHUNK_DIM);
+        byte oldCode = pages[page][slot][tile];
+        if (oldCode == terrainCode) return;
+        
+        if ((ownedPages[page >>> 6] & (1L << page)) == 0) {
+            pages[page] = pages[page].clone();
+            ownedPages[page >>> 6] |= 1L << page;
+        }
+        if ((ownedChunks[page] & (1L << slot)) == 0) {
+            pages[page][slot] = pages[page][slot].clone();
+            ownedChunks[page] |= 1L << slot;
+            copiedChunkCount++;
+        }
+        pages[page][slot][tile] = terrainCode;
+        
+        int tileIndex = (y * width) + x;
+        zobristHash ^= TacticalMapData.getZobristKey(tileIndex, oldCode)
+                ^ TacticalMapData.getZobristKey(tileIndex, terrainCode);
+    }
+    
+    /**
+     * Freezes what the branch holds now. The branch can go on being edited,
+     * and will copy again whatever it writes to next.
+     */
+    public TacticalMapSnapshot snapshot() {
+        Arrays.fill(ownedPages, 0L);
+        Arrays.fill(ownedChunks, 0L);
+        return new TacticalMapSnapshot(width, height, pages.clone(), zobristHash, null, 0);
+    }
+    
+    /**
+     * @return how many chunks this branch has copied so far
+     */
+    public int getCopiedChunkCount() {
+        return copiedChunkCount;
+    }
+    
+    private void checkPosition(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new RuntimeException("Tile coordinates out of range: " + x + ", " + y);
+        }
+    }
+}
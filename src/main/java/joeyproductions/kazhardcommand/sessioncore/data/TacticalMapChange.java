@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.util.BitSet;
+
+/**
+ * One batch of map edits, as seen by listeners. Tile sets are indexed the
+ * same way as TacticalMapData.getTiles(), and must not be modified.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapChange {
+    
+    private final long previousGeneration;
+    private final long generation;
+    private final int[] editedIndices;
+    private final byte[] oldCodes;
+    private final byte[] newCodes;
+    private final BitSet editedTiles;
+    private final BitSet changedTiles;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    
+    TacticalMapChange(long previousGeneration, long generation,
+            int[] editedIndices, byte[] oldCodes, byte[] newCodes,
+            BitSet editedTiles, BitSet changedTiles,
+            int minX, int minY, int maxX, int maxY) {
+        this.previousGeneration = previousGeneration;
+        this.generation = generation;
+        this.editedIndices = editedIndices;
+        this.oldCodes = oldCodes;
+        this.newCodes = newCodes;
+        this.editedTiles = editedTiles;
+        this.changedTiles = changedTiles;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+    
+    /**
+     * @return the map generation before this change
+     */
+    public long getPreviousGeneration() {
+        return previousGeneration;
+    }
+    
+    /**
+     * @return the map generation after this change
+     */
+    public long getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * @return the number of tiles whose terrain code was edited
+     */
+    public int getEditCount() {
+        return editedIndices.length;
+    }
+    
+    /**
+     * @param edit which edit, from zero to getEditCount() - 1, in tile order
+     * @return the tile index of that edit
+     */
+    public int getEditedTileIndex(int edit) {
+        return editedIndices[edit];
+    }
+    
+    public byte getOldTerrainCode(int edit) {
+        return oldCodes[edit];
+    }
+    
+    public byte getNewTerrainCode(int edit) {
+        return newCodes[edit];
+    }
+    
+    /**
+     * @return tiles whose terrain code was edited
+     */
+    public BitSet getEditedTiles() {
+        return editedTiles;
+    }
+    
+    /**
+     * @return edited tiles, plus neighbors whose pattern or ramp flag changed
+     */
+    public BitSet getChangedTiles() {
+        return changedTiles;
+    }
+    
+    public boolean isEmpty() {
+        return changedTiles.isEmpty();
+    }
+    
+    // Bounds of the changed tiles, inclusive
+    
+    public int getMinX() {
+        return minX;
+    }
+    
+    public int getMinY() {
+        return minY;
+    }
+    
+    public int getMaxX() {
+        return maxX;
+    }
+    
+    public int getMaxY() {
+        return maxY;
+    }
+}
@@ -23,16 +23,37 @@
  */
 package joeyproductions.kazhardcommand.sessioncore.data;
 
+import java.util.BitSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+
 /**
  * Tactical-level map data, which can be generated at game start, and loaded
  * into a map viewer. Multiple references to such data can exist in one
  * strategic-level map, and for this reason we do not store unit data on a
- * TacticalMapData object.
+ * TacticalMapData object.<br>
+ * <br>
+ * Every applied edit bumps the map generation, and stamps the new generation
+ * on each tile and chunk it changed. Caches can remember the generation they
+ * last saw, and ask for only what changed since then, or they can register a
+ * TacticalMapListener to hear about each change as it happens.<br>
+ * <br>
+ * Edits are applied by one writer at a time, under the write side of a
+ * StampedLock. Other threads can read tiles optimistically, by getting a stamp
+ * from tryOptimisticRead(), reading, and keeping what they read only if
+ * validate() still accepts the stamp. Readers that must not retry, like
+ * renderers, take readLock() instead. readTileState() and readRegion() do
+ * all of this already. Listeners are called after the lock is released.<br>
+ * <br>
+ * The map also keeps a 64-bit Zobrist hash of its terrain, XORed with one key
+ * per edited tile as edits are applied, for caches keyed on exactly what the
+ * map looks like. Ramps and patterns follow from terrain codes, so hashing
+ * the codes covers them too.
  * @author Joseph Cramsey
  */
 public class TacticalMapData {
     
-    private static byte[][] TEST_GRID = {
+    private static final byte[][] TEST_GRID = {
         {1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1},
         {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,1},
         {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,1},
@@ -53,66 +74,506 @@ public class TacticalMapData {
         {1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1}
     };
     
-    public static final int MAX_DIM = 16;
-    public static final int TILE_LENGTH = MAX_DIM * MAX_DIM;
+    public static final int TEST_DIM = 16;
+    public static final int MAX_DIM = 0x8000;
+    public static final int CHUNK_DIM = 16;
     
+    private final int width;
+    private final int height;
     private final TacticalTileData[] tiles;
+    private final TacticalTileData borderTile;
+    
+    private final int chunkColumns;
+    private final int chunkRows;
+    private final StampedLock lock = new StampedLock();
+    private volatile long generation = 0;
+    private long zobristHash;
+    private final long[] tileGenerations;
+    private final long[] chunkGenerations;
+    private final CopyOnWriteArrayList<TacticalMapListener> listeners = new CopyOnWriteArrayList<>();
     
-    private TacticalMapData() {
-        tiles = new TacticalTileData[TILE_LENGTH];
+    private TacticalMapData(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tiles = new TacticalTileData[width * height];
+        
+        chunkColumns = (width + CHUNK_DIM - 1) / CHUNK_DIM;
+        chunkRows = (height + CHUNK_DIM - 1) / CHUNK_DIM;
+        tileGenerations = new long[tiles.length];
+        chunkGenerations = new long[chunkColumns * chunkRows];
+        
+        // Everything past the edge of the map reads as one border tile, which
+        // stands as high as a tile can
+        borderTile = new TacticalTileData();
+        borderTile.setBorderTile(true);
+        borderTile.setTerrainCode(TacticalTileData.TERRAIN_BORDER);
+        
+        // Every tile starts out as ground, which hashes to nothing
+        zobristHash = getZobristBase(width, height);
     }
     
+    /**
+     * Creates the hand-made testing map.
+     * @return the testing map
+     */
     public static TacticalMapData create() {
-        TacticalMapData product = new TacticalMapData();
+        byte[] terrainCodes = new byte[TEST_DIM * TEST_DIM];
         
-        int withBorderLen = MAX_DIM+2;
-        TacticalTileData[][] tileBuffer = new TacticalTileData[withBorderLen][withBorderLen];
+        // The test grid includes its border, which we generate ourselves
+        for (int y = 0; y < TEST_DIM; y++) {
+            for (int x = 0; x < TEST_DIM; x++) {
+                terrainCodes[y * TEST_DIM + x] = TEST_GRID[y + 1][x + 1];
+            }
+        }
         
-        // Create from map data
-        for (int y = 0; y < withBorderLen; y++) {
-            for (int x = 0; x < withBorderLen; x++) {
+        return create(TEST_DIM, TEST_DIM, terrainCodes);
+    }
+    
+    /**
+     * Creates a map from a row-major array of terrain codes.
+     * @param width map width, in tiles
+     * @param height map height, in tiles
+     * @param terrainCodes one TacticalTileData.TERRAIN_* code per tile
+     * @return the new map, with all patterns up to date
+     */
+    public static TacticalMapData create(int width, int height, byte[] terrainCodes) {
+        TacticalMapData product = allocate(width, height);
+        
+        if (terrainCodes.length != product.tiles.length) {
+            throw new RuntimeException("Terrain length does not match map size: " + terrainCodes.length);
+        }
+        
+        for (int i = 0; i < product.tiles.length; i++) {
+            product.tiles[i].setTerrainCode(terrainCodes[i]);
+        }
+        
+        product.updatePatterns();
+        product.rehashZobrist();
+        
+        return product;
+    }
+    
+    /**
+     * Creates a flat map with all neighbors linked, but no patterns.
+     */
+    static TacticalMapData allocate(int width, int height) {
+        if (width <= 0 || width > MAX_DIM) {
+            throw new RuntimeException("Map width out of range: " + width);
+        }
+        if (height <= 0 || height > MAX_DIM) {
+            throw new RuntimeException("Map height out of range: " + height);
+        }
+        
+        TacticalMapData product = new TacticalMapData(width, height);
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
                 TacticalTileData tile = new TacticalTileData();
-                tile.setBorderTile(!(
-                        x > 0 && x < withBorderLen - 1 && 
-                        y > 0 && y < withBorderLen - 1
-                ));
-                switch (TEST_GRID[y][x]) {
-                    case 1:
-                        tile.setRaised(true);
-                        break;
-                    case 2:
-                        tile.setRampBase(true);
-                        break;
-                }
-                tile.setCoordinates(x - 1, y - 1);
-                tileBuffer[y][x] = tile;
+                tile.setCoordinates(x, y);
+                product.tiles[y * width + x] = tile;
             }
         }
         
         // Find neighbors
-        for (int y = 1; y < withBorderLen - 1; y++) {
-            for (int x = 1; x < withBorderLen - 1; x++) {
-                TacticalTileData dataTile = tileBuffer[y][x];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                TacticalTileData dataTile = product.tiles[y * width + x];
                 for (int d = 0; d < TacticalTileData.DIR_LEN; d++) {
                     int xo = x + TacticalTileData.getXOffsetFromDirection(d);
                     int yo = y + TacticalTileData.getYOffsetFromDirection(d);
-                    dataTile.neighbors[d] = tileBuffer[yo][xo];
+                    dataTile.setNeighbor(d, product.getTileOrBorder(xo, yo));
                 }
-                product.tiles[Byte.toUnsignedInt(dataTile.coordinates)] = dataTile;
             }
         }
         
+        return product;
+    }
+    
+    void updatePatterns() {
         // Update patterns
-        for (TacticalTileData dataTile : product.tiles) {
+        for (TacticalTileData dataTile : tiles) {
             dataTile.updatePatterns();
         }
         
         // Update secondary patterns
-        for (TacticalTileData dataTile : product.tiles) {
+        for (TacticalTileData dataTile : tiles) {
             dataTile.updateSecondaryPatterns();
         }
+    }
+    
+    /**
+     * Starts a batch of edits, which are applied together on commit.
+     * @return the new edit
+     */
+    public TacticalMapEdit beginEdit() {
+        return new TacticalMapEdit(this);
+    }
+    
+    /**
+     * Changes the terrain of one tile, and brings the tiles around it up to
+     * date. For more than a handful of tiles, use beginEdit() instead.
+     * @param x tile x coordinate
+     * @param y tile y coordinate
+     * @param terrainCode one of TacticalTileData.TERRAIN_*
+     */
+    public void setTerrainCode(int x, int y, byte terrainCode) {
+        TacticalMapEdit edit = beginEdit();
+        edit.setTerrainCode(x, y, terrainCode);
+        edit.commit();
+    }
+    
+    /**
+     * Refreshes the patterns around tiles whose terrain has already been
+     * changed, and stamps a new generation on everything that changed. The
+     * caller must hold the write lock, and tell the listeners once it has let
+     * go of it.
+     * @param editedIndices the tiles whose terrain changed, in order
+     * @param oldCodes terrain codes before the change
+     * @param newCodes terrain codes after the change
+     * @return the change, as given to the listeners
+     */
+    TacticalMapChange applyEdits(int[] editedIndices, byte[] oldCodes, byte[] newCodes) {
+        BitSet editedTiles = new BitSet();
+        for (int i : editedIndices) {
+            editedTiles.set(i);
+        }
         
-        return product;
+        // Patterns and ramp flags only look one tile away
+        BitSet affectedTiles = new BitSet();
+        for (int i = editedTiles.nextSetBit(0); i >= 0; i = editedTiles.nextSetBit(i + 1)) {
+            int x = i % width;
+            int y = i / width;
+            int minX = Math.max(0, x - 1);
+            int maxX = Math.min(width - 1, x + 1);
+            for (int yo = Math.max(0, y - 1); yo <= Math.min(height - 1, y + 1); yo++) {
+                affectedTiles.set((yo * width) + minX, (yo * width) + maxX + 1);
+            }
+        }
+        
+        long previousGeneration = generation;
+        generation++;
+        
+        for (int i = 0; i < editedIndices.length; i++) {
+            zobristHash ^= getZobristKey(editedIndices[i], oldCodes[i])
+                    ^ getZobristKey(editedIndices[i], newCodes[i]);
+        }
+        
+        BitSet changedTiles = new BitSet();
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+        for (int i = affectedTiles.nextSetBit(0); i >= 0; i = affectedTiles.nextSetBit(i + 1)) {
+            boolean changed = tiles[i].refreshPatterns();
+            if (!changed && !editedTiles.get(i)) continue;
+            
+            int x = i % width;
+            int y = i / width;
+            changedTiles.set(i);
+            tileGenerations[i] = generation;
+            chunkGenerations[((y / CHUNK_DIM) * chunkColumns) + (x / CHUNK_DIM)] = generation;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        
+        TacticalMapChange change = new TacticalMapChange(
+                previousGeneration, generation,
+                editedIndices, oldCodes, newCodes,
+                editedTiles, changedTiles,
+                minX, minY, maxX, maxY
+        );
+        
+        return change;
+    }
+    
+    void fireMapChanged(TacticalMapChange change) {
+        // Listeners may come and go from any thread, even while we go
+        for (TacticalMapListener listener : listeners) {
+            listener.mapChanged(this, change);
+        }
+    }
+    
+    long lockForWriting() {
+        return lock.writeLock();
+    }
+    
+    void unlockWriting(long stamp) {
+        lock.unlockWrite(stamp);
+    }
+    
+    /**
+     * @return a stamp for reading without a lock, or zero if an edit is
+     * being applied right now
+     */
+    public long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+    
+    /**
+     * @return true if no edit has been applied since the stamp was handed out,
+     * so everything read since then is consistent
+     */
+    public boolean validate(long stamp) {
+        return lock.validate(stamp);
+    }
+    
+    /**
+     * Blocks edits until unlockRead() is called with the returned stamp.
+     */
+    public long readLock() {
+        return lock.readLock();
+    }
+    
+    public void unlockRead(long stamp) {
+        lock.unlockRead(stamp);
+    }
+    
+    /**
+     * Reads one tile consistently, from any thread.
+     * @return the terrain code in bits 0-7, the raise pattern in bits 8-15,
+     * and the ramp flag in bit 16
+     */
+    public int readTileState(int x, int y) {
+        TacticalTileData tile = tiles[getTileIndex(x, y)];
+        long stamp = lock.tryOptimisticRead();
+        int state = packTileState(tile);
+        if (lock.validate(stamp)) return state;
+        
+        stamp = lock.readLock();
+        try {
+            return packTileState(tile);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Copies the states of a rectangle of tiles, all from the same
+     * generation, from any thread. States are packed as in readTileState().
+     * @param out receives states row by row, and must fit the rectangle
+     * @return the generation the states were read from
+     */
+    public long readRegion(int minX, int minY, int maxX, int maxY, int[] out) {
+        getTileIndex(minX, minY);
+        getTileIndex(maxX, maxY);
+        if ((long)(maxX - minX + 1) * (maxY - minY + 1) > out.length) {
+            throw new RuntimeException("Region does not fit in " + out.length + " states");
+        }
+        
+        // Small regions are worth one optimistic try before locking
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            long readGeneration = copyRegion(minX, minY, maxX, maxY, out);
+            if (lock.validate(stamp)) return readGeneration;
+        }
+        
+        stamp = lock.readLock();
+        try {
+            return copyRegion(minX, minY, maxX, maxY, out);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Gets the Zobrist hash of the map's terrain, from any thread. Edits keep
+     * it up to date, so this never has to look at the tiles.
+     */
+    public long getZobristHash() {
+        long stamp = lock.tryOptimisticRead();
+        long hash = zobristHash;
+        if (lock.validate(stamp)) return hash;
+        
+        stamp = lock.readLock();
+        try {
+            return zobristHash;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Gets the Zobrist hash without taking the lock, for callers that
+     * already hold it.
+     */
+    long getZobristHashLocked() {
+        return zobristHash;
+    }
+    
+    /**
+     * Works the Zobrist hash out from every tile, for code that fills in
+     * tiles directly instead of editing them.
+     */
+    void rehashZobrist() {
+        long hash = getZobristBase(width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            hash ^= getZobristKey(i, tiles[i].getTerrainCode());
+        }
+        zobristHash = hash;
+    }
+    
+    /**
+     * @return what every Zobrist hash of a map this size starts from
+     */
+    public static long getZobristBase(int width, int height) {
+        return mixZobrist(~(((long)width << 32) | height));
+    }
+    
+    /**
+     * @return the key XORed into the Zobrist hash for one tile's terrain,
+     * which is zero for ground so flat maps are cheap to hash
+     */
+    public static long getZobristKey(int tileIndex, byte terrainCode) {
+        if (terrainCode == TacticalTileData.TERRAIN_GROUND) return 0;
+        return mixZobrist(((long)tileIndex << TacticalTileData.TERRAIN_CODE_BITS) | terrainCode);
+    }
+    
+    private static long mixZobrist(long value) {
+        // The SplitMix64 finalizer, so keys need no table
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    private long copyRegion(int minX, int minY, int maxX, int maxY, int[] out) {
+        long readGeneration = generation;
+        int slot = 0;
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                out[slot++] = packTileState(tiles[(y * width) + x]);
+            }
+        }
+        return readGeneration;
+    }
+    
+    private static int packTileState(TacticalTileData tile) {
+        return Byte.toUnsignedInt(tile.getTerrainCode())
+                | (Byte.toUnsignedInt(tile.getNeighborRaisePattern()) << 8)
+                | (tile.isRamp() ? 1 << 16 : 0);
+    }
+    
+    public void addListener(TacticalMapListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+    
+    public void removeListener(TacticalMapListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * @return the number of changes applied to this map so far
+     */
+    public long getGeneration() {
+        return generation;
+    }
+    
+    public boolean hasChangedSince(long sinceGeneration) {
+        return generation > sinceGeneration;
+    }
+    
+    /**
+     * @return the generation of the last change to touch this tile, or zero
+     */
+    public long getTileGeneration(int tileIndex) {
+        return tileGenerations[tileIndex];
+    }
+    
+    public int getChunkColumns() {
+        return chunkColumns;
+    }
+    
+    public int getChunkRows() {
+        return chunkRows;
+    }
+    
+    /**
+     * @return the generation of the last change inside this chunk, or zero
+     */
+    public long getChunkGeneration(int chunkX, int chunkY) {
+        return chunkGenerations[(chunkY * chunkColumns) + chunkX];
+    }
+    
+    /**
+     * Finds every chunk that changed after a given generation.
+     * @param sinceGeneration the last generation the caller has seen
+     * @param out receives chunk indices (chunkY * chunkColumns + chunkX)
+     * @return the number of chunks found
+     */
+    public int collectChangedChunks(long sinceGeneration, BitSet out) {
+        int count = 0;
+        if (!hasChangedSince(sinceGeneration)) return count;
+        for (int i = 0; i < chunkGenerations.length; i++) {
+            if (chunkGenerations[i] > sinceGeneration) {
+                out.set(i);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Finds every tile that changed after a given generation, only looking
+     * inside chunks that changed.
+     * @param sinceGeneration the last generation the caller has seen
+     * @param out receives tile indices
+     * @return the number of tiles found
+     */
+    public int collectChangedTiles(long sinceGeneration, BitSet out) {
+        int count = 0;
+        if (!hasChangedSince(sinceGeneration)) return count;
+        for (int chunkY = 0; chunkY < chunkRows; chunkY++) {
+            for (int chunkX = 0; chunkX < chunkColumns; chunkX++) {
+                if (chunkGenerations[(chunkY * chunkColumns) + chunkX] <= sinceGeneration) continue;
+                
+                int maxX = Math.min(width, (chunkX + 1) * CHUNK_DIM);
+                int maxY = Math.min(height, (chunkY + 1) * CHUNK_DIM);
+                for (int y = chunkY * CHUNK_DIM; y < maxY; y++) {
+                    for (int x = chunkX * CHUNK_DIM; x < maxX; x++) {
+                        int i = (y * width) + x;
+                        if (tileGenerations[i] > sinceGeneration) {
+                            out.set(i);
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getTileCount() {
+        return tiles.length;
+    }
+    
+    public boolean isInBounds(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+    
+    public int getTileIndex(int x, int y) {
+        if (!isInBounds(x, y)) {
+            throw new RuntimeException("Tile coordinates out of range: " + x + ", " + y);
+        }
+        return y * width + x;
+    }
+    
+    public TacticalTileData getTile(int x, int y) {
+        return tiles[getTileIndex(x, y)];
+    }
+    
+    private TacticalTileData getTileOrBorder(int x, int y) {
+        if (!isInBounds(x, y)) return borderTile;
+        return tiles[y * width + x];
     }
     
     public TacticalTileData[] getTiles() {
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A batch of terrain edits, which are only applied to the map on commit.
+ * Committing refreshes patterns once over every edited neighborhood, and
+ * listeners hear about the whole batch as a single change, so the grid view
+ * only repaints once. Rolling back just throws the staged edits away.<br>
+ * <br>
+ * Reads through the edit see staged terrain, so brushes can build on their
+ * own strokes.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapEdit {
+    
+    private final TacticalMapData map;
+    private boolean isFinished = false;
+    
+    // Staged edits, in order; later edits to the same tile win
+    private int[] stagedIndices = new int[16];
+    private byte[] stagedCodes = new byte[16];
+    private int stagedCount = 0;
+    private final BitSet stagedTiles = new BitSet();
+    
+    TacticalMapEdit(TacticalMapData map) {
+        this.map = map;
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public void setTerrainCode(int x, int y, byte terrainCode) {
+        setTerrainCode(map.getTileIndex(x, y), terrainCode);
+    }
+    
+    void setTerrainCode(int tileIndex, byte terrainCode) {
+        checkOpen();
+        if (!TacticalTileData.isValidTerrainCode(terrainCode)) {
+            throw new RuntimeException("Terrain code out of range: " + terrainCode);
+        }
+        
+        if (stagedCount == stagedIndices.length) {
+            stagedIndices = Arrays.copyOf(stagedIndices, stagedCount * 2);
+            stagedCodes = Arrays.copyOf(stagedCodes, stagedCount * 2);
+        }
+        stagedIndices[stagedCount] = tileIndex;
+        stagedCodes[stagedCount] = terrainCode;
+        stagedCount++;
+        stagedTiles.set(tileIndex);
+    }
+    
+    /**
+     * @return the staged terrain code of a tile, or the map's if it has no
+     * staged edits
+     */
+    public byte getTerrainCode(int x, int y) {
+        int tileIndex = map.getTileIndex(x, y);
+        if (stagedTiles.get(tileIndex)) {
+            for (int i = stagedCount - 1; i >= 0; i--) {
+                if (stagedIndices[i] == tileIndex) return stagedCodes[i];
+            }
+        }
+        return map.getTiles()[tileIndex].getTerrainCode();
+    }
+    
+    public int getStagedCount() {
+        return stagedCount;
+    }
+    
+    public boolean isFinished() {
+        return isFinished;
+    }
+    
+    /**
+     * Applies every staged edit to the map.
+     * @return the change given to listeners, or null if no tile ended up
+     * different from before
+     */
+    public TacticalMapChange commit() {
+        checkOpen();
+        isFinished = true;
+        
+        TacticalMapChange change;
+        long stamp = map.lockForWriting();
+        try {
+            change = applyStaged();
+        } finally {
+            map.unlockWriting(stamp);
+        }
+        
+        if (change != null) {
+            map.fireMapChanged(change);
+        }
+        return change;
+    }
+    
+    private TacticalMapChange applyStaged() {
+        TacticalTileData[] tiles = map.getTiles();
+        
+        // Remember what each tile was before its first staged edit
+        int touchedCount = stagedTiles.cardinality();
+        int[] editedIndices = new int[touchedCount];
+        byte[] oldCodes = new byte[touchedCount];
+        int slot = 0;
+        for (int i = stagedTiles.nextSetBit(0); i >= 0; i = stagedTiles.nextSetBit(i + 1)) {
+            editedIndices[slot] = i;
+            oldCodes[slot] = tiles[i].getTerrainCode();
+            slot++;
+        }
+        
+        for (int i = 0; i < stagedCount; i++) {
+            tiles[stagedIndices[i]].setTerrainCode(stagedCodes[i]);
+        }
+        
+        // Tiles that were put back how they were are not edits
+        int editCount = 0;
+        byte[] newCodes = new byte[touchedCount];
+        for (int i = 0; i < touchedCount; i++) {
+            byte newCode = tiles[editedIndices[i]].getTerrainCode();
+            if (newCode == oldCodes[i]) continue;
+            editedIndices[editCount] = editedIndices[i];
+            oldCodes[editCount] = oldCodes[i];
+            newCodes[editCount] = newCode;
+            editCount++;
+        }
+        
+        if (editCount == 0) return null;
+        
+        return map.applyEdits(
+                Arrays.copyOf(editedIndices, editCount),
+                Arrays.copyOf(oldCodes, editCount),
+                Arrays.copyOf(newCodes, editCount)
+        );
+    }
+    
+    /**
+     * Throws away every staged edit. The map is never touched.
+     */
+    public void rollback() {
+        checkOpen();
+        isFinished = true;
+        stagedCount = 0;
+        stagedTiles.clear();
+    }
+    
+    private void checkOpen() {
+        if (isFinished) {
+            throw new RuntimeException("Map edit was already committed or rolled back");
+        }
+    }
+}
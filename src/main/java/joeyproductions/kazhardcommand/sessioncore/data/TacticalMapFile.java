@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only view of a binary map file, mapped straight into memory.
+ * Opening a file only validates the header; tiles are read directly out of
+ * the mapped buffer, so large maps do not need to be parsed or copied before
+ * they can be queried.<br>
+ * <br>
+ * File layout (big-endian):<br>
+ * header: magic, version, flags, width, height, terrain offset,
+ * pattern offset, CRC32 of everything after the header<br>
+ * terrain: levels and ramp base flags, as packed by PackedTerrainCodes<br>
+ * patterns (optional): one higher pattern byte per tile, then one lower
+ * pattern byte per tile, followed by the ramp flags, packed 1 bit per tile
+ * @author Joseph Cramsey
+ */
+public class TacticalMapFile {
+    
+    static final int MAGIC = 0x4B5A4D50; // "KZMP"
+    static final short VERSION = 2;
+    static final int HEADER_LENGTH = 32;
+    
+    static final int FLAG_HAS_PATTERNS = 0b00000001;
+    
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_FLAGS = 6;
+    private static final int OFFSET_WIDTH = 8;
+    private static final int OFFSET_HEIGHT = 12;
+    private static final int OFFSET_TERRAIN = 16;
+    private static final int OFFSET_PATTERNS = 20;
+    static final int OFFSET_CHECKSUM = 24;
+    
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int terrainOffset;
+    private final int patternOffset;
+    private final int rampOffset;
+    
+    private TacticalMapFile(Path path, MappedByteBuffer buffer,
+            int width, int height, int terrainOffset, int patternOffset) {
+        this.path = path;
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.terrainOffset = terrainOffset;
+        this.patternOffset = patternOffset;
+        this.rampOffset = patternOffset + (2 * width * height);
+    }
+    
+    /**
+     * Maps a map file into memory.
+     * @param path the map file
+     * @param verifyChecksum true to read the whole file once and compare it
+     * against the stored checksum
+     * @return the mapped view
+     * @throws IOException
+     * @throws InvalidMapFileException if the header, size or checksum are
+     * not valid
+     */
+    public static TacticalMapFile open(Path path, boolean verifyChecksum)
+            throws IOException, InvalidMapFileException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH) {
+                throw new InvalidMapFileException(path, "missing header");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new InvalidMapFileException(path, "file too large");
+            }
+            // The mapping stays valid after the channel closes
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new InvalidMapFileException(path, "not a map file");
+        }
+        short version = buffer.getShort(OFFSET_VERSION);
+        if (version != VERSION) {
+            throw new InvalidMapFileException(path, "unsupported version " + version);
+        }
+        
+        int flags = Short.toUnsignedInt(buffer.getShort(OFFSET_FLAGS));
+        int width = buffer.getInt(OFFSET_WIDTH);
+        int height = buffer.getInt(OFFSET_HEIGHT);
+        if (width <= 0 || width > TacticalMapData.MAX_DIM
+                || height <= 0 || height > TacticalMapData.MAX_DIM) {
+            throw new InvalidMapFileException(path, "bad dimensions " + width + "x" + height);
+        }
+        
+        int terrainOffset = buffer.getInt(OFFSET_TERRAIN);
+        int patternOffset = buffer.getInt(OFFSET_PATTERNS);
+        boolean hasPatterns = (flags & FLAG_HAS_PATTERNS) != 0;
+        long expectedSize = getFileLength(width, height, hasPatterns);
+        if (terrainOffset != HEADER_LENGTH
+                || (hasPatterns && patternOffset != terrainOffset + getTerrainLength(width, height))
+                || (!hasPatterns && patternOffset != 0)) {
+            throw new InvalidMapFileException(path, "bad section offsets");
+        }
+        if (buffer.capacity() != expectedSize) {
+            throw new InvalidMapFileException(path,
+                    "expected " + expectedSize + " bytes, found " + buffer.capacity());
+        }
+        
+        TacticalMapFile product = new TacticalMapFile(
+                path, buffer, width, height, terrainOffset, patternOffset
+        );
+        
+        if (verifyChecksum) {
+            product.verifyChecksum();
+        }
+        
+        return product;
+    }
+    
+    static int getTerrainLength(int width, int height) {
+        return PackedTerrainCodes.getLength(width * height);
+    }
+    
+    static int getRampLength(int width, int height) {
+        return ((width * height) + 7) / 8;
+    }
+    
+    static long getFileLength(int width, int height, boolean hasPatterns) {
+        long length = HEADER_LENGTH + getTerrainLength(width, height);
+        if (hasPatterns) {
+            // Higher and lower pattern planes, then the ramp flags
+            length += (2L * width * height) + getRampLength(width, height);
+        }
+        return length;
+    }
+    
+    static int computeChecksum(ByteBuffer fileBuffer) {
+        CRC32 crc = new CRC32();
+        crc.update(fileBuffer.duplicate().position(HEADER_LENGTH));
+        return (int)crc.getValue();
+    }
+    
+    public void verifyChecksum() throws InvalidMapFileException {
+        if (computeChecksum(buffer) != buffer.getInt(OFFSET_CHECKSUM)) {
+            throw new InvalidMapFileException(path, "checksum mismatch");
+        }
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public boolean hasPrecomputedPatterns() {
+        return patternOffset != 0;
+    }
+    
+    public byte getTerrainCode(int x, int y) {
+        checkBounds(x, y);
+        return getTerrainCode(y * width + x);
+    }
+    
+    private byte getTerrainCode(int tileIndex) {
+        return PackedTerrainCodes.get(buffer, terrainOffset, width * height, tileIndex);
+    }
+    
+    /**
+     * The pattern cliffs are drawn from, as in
+     * TacticalTileData.getNeighborRaisePattern(). Only available if the file
+     * was written with precomputed patterns.
+     */
+    public byte getRaisePattern(int x, int y) {
+        checkBounds(x, y);
+        if (!hasPrecomputedPatterns()) {
+            throw new RuntimeException("Map file has no precomputed patterns");
+        }
+        int tileIndex = (y * width) + x;
+        return TacticalTileData.toRaisePattern(
+                getTerrainCode(tileIndex),
+                buffer.get(patternOffset + tileIndex),
+                buffer.get(patternOffset + (width * height) + tileIndex)
+        );
+    }
+    
+    private boolean isRamp(int tileIndex) {
+        int packed = buffer.get(rampOffset + (tileIndex >> 3));
+        return (packed & (1 << (tileIndex & 7))) != 0;
+    }
+    
+    private void checkBounds(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new RuntimeException("Tile coordinates out of range: " + x + ", " + y);
+        }
+    }
+    
+    /**
+     * Builds full map data out of the file. If the file carries precomputed
+     * patterns, then the pattern passes are skipped.
+     * @return the loaded map
+     */
+    public TacticalMapData toMapData() {
+        TacticalMapData product = TacticalMapData.allocate(width, height);
+        TacticalTileData[] tiles = product.getTiles();
+        
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i].setTerrainCode(getTerrainCode(i));
+        }
+        
+        if (hasPrecomputedPatterns()) {
+            int lowerOffset = patternOffset + tiles.length;
+            for (int i = 0; i < tiles.length; i++) {
+                tiles[i].setNeighborPatterns(buffer.get(patternOffset + i), buffer.get(lowerOffset + i));
+                tiles[i].setRamp(isRamp(i));
+            }
+        }
+        else {
+            product.updatePatterns();
+        }
+        product.rehashZobrist();
+        
+        return product;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes map data into the binary format read by TacticalMapFile.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapFileWriter {
+    
+    private TacticalMapFileWriter() {
+        //
+    }
+    
+    /**
+     * Writes a map file.
+     * @param map the map to write
+     * @param path the destination, which is replaced if it exists
+     * @param includePatterns true to store the neighbor patterns and ramp
+     * flags, so loading can skip the pattern passes
+     * @throws IOException
+     */
+    public static void write(TacticalMapData map, Path path, boolean includePatterns) throws IOException {
+        int width = map.getWidth();
+        int height = map.getHeight();
+        TacticalTileData[] tiles = map.getTiles();
+        
+        ByteBuffer fileBuffer = createFileBuffer(width, height, includePatterns);
+        
+        // Edits wait until every tile is copied, so the file is never torn
+        long stamp = map.readLock();
+        try {
+            fillFileBuffer(fileBuffer, tiles, width, height, includePatterns);
+        } finally {
+            map.unlockRead(stamp);
+        }
+        
+        finishAndWrite(fileBuffer, path);
+    }
+    
+    private static void fillFileBuffer(ByteBuffer fileBuffer, TacticalTileData[] tiles,
+            int width, int height, boolean includePatterns) {
+        int terrainOffset = TacticalMapFile.HEADER_LENGTH;
+        for (int i = 0; i < tiles.length; i++) {
+            PackedTerrainCodes.put(fileBuffer, terrainOffset, tiles.length, i, tiles[i].getTerrainCode());
+        }
+        
+        if (includePatterns) {
+            int patternOffset = terrainOffset + getTerrainLength(width, height);
+            int lowerOffset = patternOffset + tiles.length;
+            int rampOffset = lowerOffset + tiles.length;
+            for (int i = 0; i < tiles.length; i++) {
+                fileBuffer.put(patternOffset + i, tiles[i].getNeighborHigherPattern());
+                fileBuffer.put(lowerOffset + i, tiles[i].getNeighborLowerPattern());
+                if (tiles[i].isRamp()) {
+                    int rampIndex = rampOffset + (i >> 3);
+                    fileBuffer.put(rampIndex, (byte)(fileBuffer.get(rampIndex) | (1 << (i & 7))));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes a map file straight from terrain codes, without patterns.
+     * @param width map width, in tiles
+     * @param height map height, in tiles
+     * @param terrainCodes one TacticalTileData.TERRAIN_* code per tile
+     * @param path the destination, which is replaced if it exists
+     * @throws IOException
+     */
+    public static void write(int width, int height, byte[] terrainCodes, Path path) throws IOException {
+        if (terrainCodes.length != width * height) {
+            throw new RuntimeException("Terrain length does not match map size: " + terrainCodes.length);
+        }
+        
+        ByteBuffer fileBuffer = createFileBuffer(width, height, false);
+        
+        for (int i = 0; i < terrainCodes.length; i++) {
+            if (!TacticalTileData.isValidTerrainCode(terrainCodes[i])) {
+                throw new RuntimeException("Terrain code out of range: " + terrainCodes[i]);
+            }
+            PackedTerrainCodes.put(fileBuffer, TacticalMapFile.HEADER_LENGTH, terrainCodes.length, i, terrainCodes[i]);
+        }
+        
+        finishAndWrite(fileBuffer, path);
+    }
+    
+    private static ByteBuffer createFileBuffer(int width, int height, boolean includePatterns) {
+        long length = TacticalMapFile.getFileLength(width, height, includePatterns);
+        if (length > Integer.MAX_VALUE) {
+            throw new RuntimeException("Map too large to write: " + width + "x" + height);
+        }
+        
+        ByteBuffer fileBuffer = ByteBuffer.allocate((int)length);
+        int terrainOffset = TacticalMapFile.HEADER_LENGTH;
+        int patternOffset = includePatterns
+                ? terrainOffset + getTerrainLength(width, height)
+                : 0;
+        
+        fileBuffer.putInt(TacticalMapFile.MAGIC);
+        fileBuffer.putShort(TacticalMapFile.VERSION);
+        fileBuffer.putShort((short)(includePatterns ? TacticalMapFile.FLAG_HAS_PATTERNS : 0));
+        fileBuffer.putInt(width);
+        fileBuffer.putInt(height);
+        fileBuffer.putInt(terrainOffset);
+        fileBuffer.putInt(patternOffset);
+        // Checksum and reserved space are filled in later
+        
+        return fileBuffer;
+    }
+    
+    private static int getTerrainLength(int width, int height) {
+        return TacticalMapFile.getTerrainLength(width, height);
+    }
+    
+    private static void finishAndWrite(ByteBuffer fileBuffer, Path path) throws IOException {
+        fileBuffer.putInt(TacticalMapFile.OFFSET_CHECKSUM, TacticalMapFile.computeChecksum(fileBuffer));
+        fileBuffer.position(0);
+        
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (fileBuffer.hasRemaining()) {
+                channel.write(fileBuffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Undo and redo for map edits. Every change is kept as packed terrain deltas
+ * in a ring buffer, so one step only costs as much as the tiles it edited.
+ * Undoing and redoing goes back through TacticalMapEdit, which means patterns
+ * are refreshed incrementally, and listeners hear about it like any other
+ * edit.<br>
+ * <br>
+ * Every so many steps, a packed copy of the terrain is kept as a keyframe, so
+ * long jumps through history do not have to replay every step in between.
+ * When the deltas and keyframes grow past the byte budget, the oldest steps
+ * are forgotten.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapHistory implements TacticalMapListener {
+    
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+    public static final int ENTRY_BYTES = Long.BYTES;
+    private static final int MIN_ENTRIES = 64;
+    
+    // Entry layout: tile index, old code, new code, and a mark on the first
+    // entry of every step
+    private static final long INDEX_MASK = 0x3FFFFFFFL;
+    private static final int OLD_CODE_SHIFT = 32;
+    private static final int NEW_CODE_SHIFT = 40;
+    private static final long CODE_MASK = 0xFF;
+    private static final long STEP_START_BIT = 1L << 63;
+    
+    // Keyframes may only take up this share of the budget
+    private static final int KEYFRAME_BUDGET_DIVISOR = 4;
+    
+    private final TacticalMapData map;
+    private final long byteBudget;
+    private final int keyframeInterval;
+    private final long[] entries;
+    
+    // Absolute entry positions; an entry lives at position % entries.length
+    private long oldestEntry = 0;
+    private long cursorEntry = 0;
+    private long newestEntry = 0;
+    
+    // Step numbers; the map currently shows the state after cursorStep
+    private long oldestStep = 0;
+    private long cursorStep = 0;
+    private long newestStep = 0;
+    
+    private final TreeMap<Long, Keyframe> keyframes = new TreeMap<>();
+    private long keyframeBytes = 0;
+    private boolean isReplaying = false;
+    private long forgottenStepCount = 0;
+    
+    private TacticalMapHistory(TacticalMapData map, long byteBudget, int keyframeInterval) {
+        this.map = map;
+        this.byteBudget = byteBudget;
+        
+        // Skip keyframes for maps too large to keep a few of them around
+        if (getKeyframeLength(map) > byteBudget / KEYFRAME_BUDGET_DIVISOR) {
+            this.keyframeInterval = 0;
+        }
+        else {
+            this.keyframeInterval = keyframeInterval;
+        }
+        
+        // Deltas get whatever the keyframes' share leaves over
+        long entryBudget = byteBudget;
+        if (this.keyframeInterval > 0) {
+            entryBudget -= byteBudget / KEYFRAME_BUDGET_DIVISOR;
+        }
+        entries = new long[(int)Math.min(Integer.MAX_VALUE - 8, entryBudget / ENTRY_BYTES)];
+    }
+    
+    public static TacticalMapHistory create(TacticalMapData map, long byteBudget) {
+        return create(map, byteBudget, DEFAULT_KEYFRAME_INTERVAL);
+    }
+    
+    /**
+     * Starts recording every change to a map.
+     * @param map the map to follow
+     * @param byteBudget how much memory deltas and keyframes may use together
+     * @param keyframeInterval steps between keyframes, or zero for none
+     * @return the new history, already listening to the map
+     */
+    public static TacticalMapHistory create(TacticalMapData map, long byteBudget, int keyframeInterval) {
+        if (byteBudget < MIN_ENTRIES * ENTRY_BYTES) {
+            throw new RuntimeException("Undo budget out of range: " + byteBudget);
+        }
+        if (keyframeInterval < 0) {
+            throw new RuntimeException("Keyframe interval out of range: " + keyframeInterval);
+        }
+        
+        TacticalMapHistory product = new TacticalMapHistory(map, byteBudget, keyframeInterval);
+        
+        if (product.keyframeInterval > 0) {
+            product.addKeyframe();
+        }
+        map.addListener(product);
+        
+        return product;
+    }
+    
+    /**
+     * Stops recording. Steps already recorded can still be undone.
+     */
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (isReplaying || map != this.map) return;
+        
+        int editCount = change.getEditCount();
+        if (editCount == 0) return;
+        
+        // A new step makes everything after the cursor unreachable
+        newestEntry = cursorEntry;
+        newestStep = cursorStep;
+        keyframeBytes -= removeKeyframes(keyframes.tailMap(cursorStep, false));
+        
+        if (editCount > entries.length) {
+            // Too large to ever undo, so nothing before it can be undone
+            forgottenStepCount += cursorStep - oldestStep + 1;
+            cursorEntry = newestEntry;
+            cursorStep++;
+            newestStep = cursorStep;
+            oldestEntry = cursorEntry;
+            oldestStep = cursorStep;
+            keyframeBytes -= removeKeyframes(keyframes);
+            return;
+        }
+        
+        while (newestEntry - oldestEntry + editCount > entries.length) {
+            forgetOldestStep();
+        }
+        
+        for (int i = 0; i < editCount; i++) {
+            long entry = change.getEditedTileIndex(i)
+                    | ((change.getOldTerrainCode(i) & CODE_MASK) << OLD_CODE_SHIFT)
+                    | ((change.getNewTerrainCode(i) & CODE_MASK) << NEW_CODE_SHIFT);
+            if (i == 0) {
+                entry |= STEP_START_BIT;
+            }
+            entries[getSlot(newestEntry)] = entry;
+            newestEntry++;
+        }
+        cursorEntry = newestEntry;
+        cursorStep++;
+        newestStep = cursorStep;
+        
+        if (keyframeInterval > 0 && cursorStep % keyframeInterval == 0) {
+            addKeyframe();
+        }
+        
+        while (getUsedBytes() > byteBudget && oldestStep < cursorStep) {
+            forgetOldestStep();
+        }
+    }
+    
+    /**
+     * Reverts the map by one step.
+     * @return false if there was nothing left to undo
+     */
+    public boolean undo() {
+        if (!canUndo()) return false;
+        
+        long start = findStepStart(cursorEntry - 1);
+        TacticalMapEdit edit = map.beginEdit();
+        for (long p = cursorEntry - 1; p >= start; p--) {
+            long entry = entries[getSlot(p)];
+            edit.setTerrainCode(getTileIndex(entry), getOldCode(entry));
+        }
+        replay(edit);
+        
+        cursorEntry = start;
+        cursorStep--;
+        return true;
+    }
+    
+    /**
+     * Reapplies the last step that was undone.
+     * @return false if there was nothing left to redo
+     */
+    public boolean redo() {
+        if (!canRedo()) return false;
+        
+        long end = findStepEnd(cursorEntry);
+        TacticalMapEdit edit = map.beginEdit();
+        for (long p = cursorEntry; p < end; p++) {
+            long entry = entries[getSlot(p)];
+            edit.setTerrainCode(getTileIndex(entry), getNewCode(entry));
+        }
+        replay(edit);
+        
+        cursorEntry = end;
+        cursorStep++;
+        return true;
+    }
+    
+    /**
+     * Moves the map to the state after a given step, as a single edit. Long
+     * jumps start from the nearest keyframe, if that means less work than
+     * replaying every step on the way.
+     * @param step a step between getOldestStep() and getNewestStep()
+     */
+    public void jumpTo(long step) {
+        if (step < oldestStep || step > newestStep) {
+            throw new RuntimeException("History step out of range: " + step);
+        }
+        if (step == cursorStep) return;
+        
+        long targetEntry = findStepPosition(cursorStep, cursorEntry, step);
+        long deltaCost = Math.abs(targetEntry - cursorEntry);
+        
+        TacticalMapEdit edit = map.beginEdit();
+        Map.Entry<Long, Keyframe> nearest = keyframes.floorEntry(step);
+        if (nearest != null
+                && getKeyframeCost(nearest.getValue(), targetEntry) < deltaCost) {
+            Keyframe keyframe = nearest.getValue();
+            TacticalTileData[] tiles = map.getTiles();
+            for (int i = 0; i < tiles.length; i++) {
+                byte terrainCode = getKeyframeCode(keyframe.codes, i);
+                if (tiles[i].getTerrainCode() != terrainCode) {
+                    edit.setTerrainCode(i, terrainCode);
+                }
+            }
+            for (long p = keyframe.entryPosition; p < targetEntry; p++) {
+                long entry = entries[getSlot(p)];
+                edit.setTerrainCode(getTileIndex(entry), getNewCode(entry));
+            }
+        }
+        else if (targetEntry > cursorEntry) {
+            for (long p = cursorEntry; p < targetEntry; p++) {
+                long entry = entries[getSlot(p)];
+                edit.setTerrainCode(getTileIndex(entry), getNewCode(entry));
+            }
+        }
+        else {
+            for (long p = cursorEntry - 1; p >= targetEntry; p--) {
+                long entry = entries[getSlot(p)];
+                edit.setTerrainCode(getTileIndex(entry), getOldCode(entry));
+            }
+        }
+        replay(edit);
+        
+        cursorEntry = targetEntry;
+        cursorStep = step;
+    }
+    
+    /**
+     * Forgets every step, keeping the map as it is.
+     */
+    public void clear() {
+        forgottenStepCount += newestStep - oldestStep;
+        oldestEntry = cursorEntry;
+        newestEntry = cursorEntry;
+        oldestStep = cursorStep;
+        newestStep = cursorStep;
+        keyframeBytes -= removeKeyframes(keyframes);
+        if (keyframeInterval > 0) {
+            addKeyframe();
+        }
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public boolean canUndo() {
+        return cursorStep > oldestStep;
+    }
+    
+    public boolean canRedo() {
+        return cursorStep < newestStep;
+    }
+    
+    public int getUndoCount() {
+        return (int)(cursorStep - oldestStep);
+    }
+    
+    public int getRedoCount() {
+        return (int)(newestStep - cursorStep);
+    }
+    
+    public long getOldestStep() {
+        return oldestStep;
+    }
+    
+    public long getCurrentStep() {
+        return cursorStep;
+    }
+    
+    public long getNewestStep() {
+        return newestStep;
+    }
+    
+    /**
+     * @return the number of steps dropped to stay inside the budget
+     */
+    public long getForgottenStepCount() {
+        return forgottenStepCount;
+    }
+    
+    public int getKeyframeCount() {
+        return keyframes.size();
+    }
+    
+    public long getByteBudget() {
+        return byteBudget;
+    }
+    
+    /**
+     * @return bytes used by recorded deltas and keyframes
+     */
+    public long getUsedBytes() {
+        return ((newestEntry - oldestEntry) * ENTRY_BYTES) + keyframeBytes;
+    }
+    
+    private void replay(TacticalMapEdit edit) {
+        isReplaying = true;
+        try {
+            edit.commit();
+        } finally {
+            isReplaying = false;
+        }
+    }
+    
+    private void forgetOldestStep() {
+        oldestEntry = findStepEnd(oldestEntry);
+        oldestStep++;
+        forgottenStepCount++;
+        keyframeBytes -= removeKeyframes(keyframes.headMap(oldestStep, false));
+    }
+    
+    private int getSlot(long position) {
+        return (int)(position % entries.length);
+    }
+    
+    /**
+     * @return the position of the first entry in the step holding an entry
+     */
+    private long findStepStart(long position) {
+        while ((entries[getSlot(position)] & STEP_START_BIT) == 0) {
+            position--;
+        }
+        return position;
+    }
+    
+    /**
+     * @return the position just past the step starting at an entry
+     */
+    private long findStepEnd(long position) {
+        position++;
+        while (position < newestEntry && (entries[getSlot(position)] & STEP_START_BIT) == 0) {
+            position++;
+        }
+        return position;
+    }
+    
+    /**
+     * @return the position just past a step, found by walking from a step
+     * whose position is known
+     */
+    private long findStepPosition(long fromStep, long fromEntry, long step) {
+        long position = fromEntry;
+        for (long s = fromStep; s < step; s++) {
+            position = findStepEnd(position);
+        }
+        for (long s = fromStep; s > step; s--) {
+            position = findStepStart(position - 1);
+        }
+        return position;
+    }
+    
+    private long getKeyframeCost(Keyframe keyframe, long targetEntry) {
+        // Comparing against a keyframe touches every tile, but cheaply
+        return keyframe.codes.length + (targetEntry - keyframe.entryPosition);
+    }
+    
+    private static int getTileIndex(long entry) {
+        return (int)(entry & INDEX_MASK);
+    }
+    
+    private static byte getOldCode(long entry) {
+        return (byte)((entry >>> OLD_CODE_SHIFT) & CODE_MASK);
+    }
+    
+    private static byte getNewCode(long entry) {
+        return (byte)((entry >>> NEW_CODE_SHIFT) & CODE_MASK);
+    }
+    
+    private static int getKeyframeLength(TacticalMapData map) {
+        return PackedTerrainCodes.getLength(map.getTileCount());
+    }
+    
+    private void addKeyframe() {
+        TacticalTileData[] tiles = map.getTiles();
+        byte[] codes = new byte[getKeyframeLength(map)];
+        for (int i = 0; i < tiles.length; i++) {
+            PackedTerrainCodes.put(codes, 0, tiles.length, i, tiles[i].getTerrainCode());
+        }
+        
+        Keyframe previous = keyframes.put(cursorStep, new Keyframe(cursorEntry, codes));
+        if (previous != null) {
+            keyframeBytes -= previous.codes.length;
+        }
+        keyframeBytes += codes.length;
+        
+        // Old keyframes go first, so new ones always fit
+        while (keyframeBytes > byteBudget / KEYFRAME_BUDGET_DIVISOR) {
+            keyframeBytes -= keyframes.pollFirstEntry().getValue().codes.length;
+        }
+    }
+    
+    private byte getKeyframeCode(byte[] codes, int tileIndex) {
+        return PackedTerrainCodes.get(codes, 0, map.getTileCount(), tileIndex);
+    }
+    
+    /**
+     * Drops some keyframes.
+     * @return the bytes freed
+     */
+    private static long removeKeyframes(Map<Long, Keyframe> removed) {
+        long freed = 0;
+        for (Keyframe keyframe : removed.values()) {
+            freed += keyframe.codes.length;
+        }
+        removed.clear();
+        return freed;
+    }
+    
+    private static class Keyframe {
+        
+        // Where the deltas after this keyframe start
+        final long entryPosition;
+        final byte[] codes;
+        
+        Keyframe(long entryPosition, byte[] codes) {
+            this.entryPosition = entryPosition;
+            this.codes = codes;
+        }
+    }
+}
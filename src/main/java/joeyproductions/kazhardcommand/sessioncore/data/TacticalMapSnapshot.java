@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+/**
+ * A frozen copy of a map's terrain, which shares storage with the snapshots
+ * and branches made from it.<br>
+ * <br>
+ * Terrain codes live in one small array per chunk, and chunk arrays are
+ * grouped into pages of PAGE_CHUNKS. Nothing reachable from a snapshot is
+ * ever written again, so branching copies only the page table, and a branch
+ * copies a page and a chunk the first time it writes inside them. Throwing a
+ * snapshot or branch away is just dropping it.<br>
+ * <br>
+ * Snapshots carry the same Zobrist hash as TacticalMapData, so equal terrain
+ * gives equal hashes however it was reached.
+ * @author Joseph Cramsey
+ */
+public class TacticalMapSnapshot {
+    
+    static final int CHUNK_DIM = TacticalMapData.CHUNK_DIM;
+    static final int CHUNK_TILES = CHUNK_DIM * CHUNK_DIM;
+    static final int PAGE_SHIFT = 6;
+    static final int PAGE_CHUNKS = 1 << PAGE_SHIFT;
+    
+    final int width;
+    final int height;
+    final int chunkColumns;
+    final int chunkCount;
+    final byte[][][] pages;
+    private final long zobristHash;
+    
+    // The map and generation this was captured from, if it was captured
+    private final TacticalMapData source;
+    private final long sourceGeneration;
+    
+    TacticalMapSnapshot(int width, int height, byte[][][] pages, long zobristHash,
+            TacticalMapData source, long sourceGeneration) {
+        this.width = width;
+        this.height = height;
+        chunkColumns = (width + CHUNK_DIM - 1) / CHUNK_DIM;
+        chunkCount = chunkColumns * ((height + CHUNK_DIM - 1) / CHUNK_DIM);
+        this.pages = pages;
+        this.zobristHash = zobristHash;
+        this.source = source;
+        this.sourceGeneration = sourceGeneration;
+    }
+    
+    /**
+     * Copies the terrain of a whole map.
+     */
+    public static TacticalMapSnapshot capture(TacticalMapData map) {
+        return capture(map, null);
+    }
+    
+    /**
+     * Copies the terrain of a map, sharing every chunk that has not changed
+     * since an earlier capture of the same map.
+     * @param map the map to copy
+     * @param previous an earlier capture of the map, or null
+     * @return the new snapshot
+     */
+    public static TacticalMapSnapshot capture(TacticalMapData map, TacticalMapSnapshot previous) {
+        if (previous != null && previous.source != map) {
+            previous = null;
+        }
+        
+        // Edits wait until the copy is done, so the tiles, hash and
+        // generation all belong to the same moment
+        long stamp = map.readLock();
+        try {
+            int width = map.getWidth();
+            int height = map.getHeight();
+            int chunkColumns = map.getChunkColumns();
+            int chunkCount = chunkColumns * map.getChunkRows();
+            byte[][][] pages = new byte[(chunkCount + PAGE_CHUNKS - 1) >>> PAGE_SHIFT][][];
+            TacticalTileData[] tiles = map.getTiles();
+            for (int p = 0; p < pages.length; p++) {
+                byte[][] page = new byte[Math.min(PAGE_CHUNKS, chunkCount - (p << PAGE_SHIFT))][];
+                boolean isShared = previous != null;
+                for (int c = 0; c < page.length; c++) {
+                    int chunk = (p << PAGE_SHIFT) + c;
+                    int chunkX = chunk % chunkColumns;
+                    int chunkY = chunk / chunkColumns;
+                    if (previous != null && map.getChunkGeneration(chunkX, chunkY) <= previous.sourceGeneration) {
+                        page[c] = previous.pages[p][c];
+                        continue;
+                    }
+                    
+                    isShared = false;
+                    byte[] codes = new byte[CHUNK_TILES];
+                    int maxX = Math.min(width, (chunkX + 1) * CHUNK_DIM);
+                    int maxY = Math.min(height, (chunkY + 1) * CHUNK_DIM);
+                    for (int y = chunkY * CHUNK_DIM; y < maxY; y++) {
+                        for (int x = chunkX * CHUNK_DIM; x < maxX; x++) {
+                            codes[((y % CHUNK_DIM) * CHUNK_DIM) + (x % CHUNK_DIM)] = tiles[(y * width) + x].getTerrainCode();
+                        }
+                    }
+                    page[c] = codes;
+                }
+                
+                // Unchanged pages can be shared whole
+                pages[p] = isShared ? previous.pages[p] : page;
+            }
+            
+            return new TacticalMapSnapshot(width, height, pages, map.getZobristHashLocked(), map, map.getGeneration());
+        } finally {
+            map.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Starts a branch, which can be edited without touching this snapshot.
+     */
+    public TacticalMapBranch branch() {
+        return new TacticalMapBranch(this);
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public long getZobristHash() {
+        return zobristHash;
+    }
+    
+    public int getChunkCount() {
+        return chunkCount;
+    }
+    
+    public byte getTerrainCode(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new RuntimeException("Tile coordinates out of range: " + x + ", " + y);
+        }
+        int chunk = ((y / CHUNK_DIM) * chunkColumns) + (x / CHUNK_DIM);
+        return pages[chunk >>> PAGE_SHIFT][chunk & (PAGE_CHUNKS - 1)][((y % CHUNK_DIM) * CHUNK_DIM) + (x % CHUNK_DIM)];
+    }
+    
+    /**
+     * Copies the terrain out, in the order TacticalMapData.create() takes.
+     */
+    public byte[] getTerrainCodes() {
+        byte[] product = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                product[(y * width) + x] = getTerrainCode(x, y);
+            }
+        }
+        return product;
+    }
+    
+    public TacticalMapData toMapData() {
+        return TacticalMapData.create(width, height, getTerrainCodes());
+    }
+    
+    /**
+     * @return how many chunks this shares with another snapshot, by identity
+     */
+    public int countSharedChunks(TacticalMapSnapshot other) {
+        if (other.width != width || other.height != height) return 0;
+        
+        int count = 0;
+        for (int p = 0; p < pages.length; p++) {
+            if (pages[p] == other.pages[p]) {
+                count += pages[p].length;
+                continue;
+            }
+            for (int c = 0; c < pages[p].length; c++) {
+                if (pages[p][c] == other.pages[p][c]) count++;
+            }
+        }
+        return count;
+    }
+}
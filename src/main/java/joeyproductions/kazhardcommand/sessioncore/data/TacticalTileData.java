@@ -41,27 +41,61 @@ public class TacticalTileData {
     public static final int SOUTHEAST = 7;
     public static final int DIR_LEN = 8;
     
-    private static final int X_COORD_MASK = 0x0F;
+    private static final int X_COORD_MASK = 0xFFFF;
+    private static final int Y_COORD_SHIFT = 16;
     private static final int[] TRUE_BY_DIR_ARRAY = {
         0b00000001, 0b00000010, 0b00000100, 0b00001000,
         0b00010000, 0b00100000, 0b01000000, 0b10000000
     };
     
+    // Step direction for each sign of dx and dy, as (dy + 1) * 3 + (dx + 1)
+    private static final int[] DIRECTIONS_BY_SIGN = {
+        NORTHWEST, NORTH, NORTHEAST,
+        WEST, -1, EAST,
+        SOUTHWEST, SOUTH, SOUTHEAST
+    };
+    
+    // Straight ahead, then a turn either way
+    private static final int[] STEP_TURNS = {0, 1, DIR_LEN - 1};
+    public static final int STEP_TRIES = 3;
+    
     private static final int B_TRAIT_MASK = 0xFF;
     
+    // Ramp bases only keep the diagonal bits of their higher pattern
+    private static final int RAMP_BASE_PATTERN_MASK = 0b10101010;
+    
+    // Flags in the low nibble, and the elevation level in the high nibble
     private byte terrainShapeBits = 0;
     private static final int B_IS_BORDER =          0b00000001;
-    private static final int B_IS_RAISED =          0b00000010;
     private static final int B_IS_RAMP_BASE =       0b00000100;
     private static final int B_IS_RAMP =            0b00001000;
+    private static final int B_LEVEL_SHIFT = 4;
+    private static final int B_FLAGS_MASK =         0b00001111;
+    
+    public static final int MAX_LEVEL = 15;
+    
+    // Terrain codes, as used in TacticalMapData and map files. Bit 0 is the
+    // lowest bit of the level, bit 1 marks a ramp base, and bits 2-4 are the
+    // rest of the level, so codes 0-2 mean what they did before levels.
+    public static final byte TERRAIN_GROUND = 0;
+    public static final byte TERRAIN_RAISED = 1;
+    public static final byte TERRAIN_RAMP_BASE = 2;
+    public static final int TERRAIN_CODE_BITS = 5;
+    public static final byte MAX_TERRAIN_CODE = (1 << TERRAIN_CODE_BITS) - 1;
+    private static final int CODE_RAMP_BASE_BIT = 0b10;
     
-    public TacticalTileData[] neighbors = new TacticalTileData[8];
+    // What past the edge of the map reads as, so raised ground runs up to the
+    // edge without a cliff, and the ground below it sees a cliff side
+    static final byte TERRAIN_BORDER = createTerrainCode(MAX_LEVEL, false);
     
-    public byte coordinates = 0;
+    private final TacticalTileData[] neighbors = new TacticalTileData[DIR_LEN];
     
-    public byte neighborRaisePattern = 0;
+    private int coordinates = 0;
     
-    public TacticalTileData() {
+    private byte neighborHigherPattern = 0;
+    private byte neighborLowerPattern = 0;
+    
+    TacticalTileData() {
         //
     }
     
@@ -81,23 +115,33 @@ public class TacticalTileData {
         return checkBit(terrainShapeBits, B_IS_BORDER);
     }
     
-    public void setBorderTile(boolean state) {
+    void setBorderTile(boolean state) {
         terrainShapeBits = setBit(terrainShapeBits, B_IS_BORDER, state);
     }
     
+    /**
+     * @return true for anything above ground level
+     */
     public boolean isRaised() {
-        return checkBit(terrainShapeBits, B_IS_RAISED);
+        return getLevel() > 0;
     }
     
-    public void setRaised(boolean state) {
-        terrainShapeBits = setBit(terrainShapeBits, B_IS_RAISED, state);
+    public int getLevel() {
+        return Byte.toUnsignedInt(terrainShapeBits) >>> B_LEVEL_SHIFT;
+    }
+    
+    void setLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new RuntimeException("Level out of range: " + level);
+        }
+        terrainShapeBits = (byte)((terrainShapeBits & B_FLAGS_MASK) | (level << B_LEVEL_SHIFT));
     }
     
     public boolean isRampBase() {
         return checkBit(terrainShapeBits, B_IS_RAMP_BASE);
     }
     
-    public void setRampBase(boolean state) {
+    void setRampBase(boolean state) {
         terrainShapeBits = setBit(terrainShapeBits, B_IS_RAMP_BASE, state);
     }
     
@@ -105,59 +149,270 @@ public class TacticalTileData {
         return checkBit(terrainShapeBits, B_IS_RAMP);
     }
     
-    public void setRamp(boolean state) {
+    void setRamp(boolean state) {
         terrainShapeBits = setBit(terrainShapeBits, B_IS_RAMP, state);
     }
     
+    public byte getTerrainCode() {
+        return createTerrainCode(getLevel(), isRampBase());
+    }
+    
+    void setTerrainCode(byte terrainCode) {
+        if (!isValidTerrainCode(terrainCode)) {
+            throw new RuntimeException("Terrain code out of range: " + terrainCode);
+        }
+        setLevel(getLevel(terrainCode));
+        setRampBase(isRampBase(terrainCode));
+    }
+    
+    /**
+     * @param level elevation, from 0 for ground up to MAX_LEVEL
+     * @param isRampBase true if the tile leads up onto the orthogonal
+     * neighbors one level above it
+     * @return the terrain code
+     */
+    public static byte createTerrainCode(int level, boolean isRampBase) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new RuntimeException("Level out of range: " + level);
+        }
+        return (byte)((level & 1) | (isRampBase ? CODE_RAMP_BASE_BIT : 0) | ((level >>> 1) << 2));
+    }
+    
+    public static int getLevel(byte terrainCode) {
+        return (terrainCode & 1) | ((terrainCode >>> 2) << 1);
+    }
+    
+    public static boolean isRampBase(byte terrainCode) {
+        return (terrainCode & CODE_RAMP_BASE_BIT) != 0;
+    }
+    
+    public static boolean isValidTerrainCode(long terrainCode) {
+        return terrainCode >= 0 && terrainCode <= MAX_TERRAIN_CODE;
+    }
+    
     public static byte setDirectionFlag(byte original, int direction, boolean flagValue) {
         if (!flagValue) return original;
         return (byte)(Byte.toUnsignedInt(original) | TRUE_BY_DIR_ARRAY[direction]);
     }
     
-    public void updatePatterns() {
+    void updatePatterns() {
         if (isBorderTile()) return; // Don't care about border tiles
         
-        neighborRaisePattern = 0;
+        byte terrainCode = getTerrainCode();
+        neighborHigherPattern = 0;
+        neighborLowerPattern = 0;
         for (int i = 0; i < DIR_LEN; i++) {
-            TacticalTileData neighbor = neighbors[i];
-            
-            boolean raiseState = neighbor.isRaised();
-            if (isRaised()) {
-                raiseState = raiseState || neighbor.isRampBase();
-            }
-            
-            // isRaised
-            neighborRaisePattern = setDirectionFlag(
-                    neighborRaisePattern, i, raiseState
+            byte neighborCode = neighbors[i].getTerrainCode();
+            neighborHigherPattern = setDirectionFlag(
+                    neighborHigherPattern, i, isHigher(terrainCode, neighborCode)
+            );
+            neighborLowerPattern = setDirectionFlag(
+                    neighborLowerPattern, i, isLower(terrainCode, neighborCode)
             );
         }
     }
     
-    public void updateSecondaryPatterns() {
+    void updateSecondaryPatterns() {
         if (isBorderTile()) return; // Don't care about border tiles
         
         if (isRampBase()) {
             // Orthogonal neighbors are always connected to ramp bases
-            neighborRaisePattern = (byte)(Byte.toUnsignedInt(neighborRaisePattern) & 0b10101010);
+            neighborHigherPattern = (byte)(Byte.toUnsignedInt(neighborHigherPattern) & RAMP_BASE_PATTERN_MASK);
             for (int i = 0; i < DIR_LEN; i += 2) {
                 TacticalTileData neighbor = neighbors[i];
                 
-                if (neighbor.isRaised()) {
+                if (neighbor.getLevel() == getLevel() + 1 && !neighbor.isBorderTile()) {
                     neighbor.setRamp(true);
                 }
             }
         }
     }
     
+    /**
+     * Checks if a neighbor shows up in a tile's higher pattern.
+     * @param terrainCode the terrain code of the tile
+     * @param neighborCode the terrain code of the neighbor
+     * @return true if the neighbor stands above the tile
+     */
+    public static boolean isHigher(byte terrainCode, byte neighborCode) {
+        return getLevel(neighborCode) > getLevel(terrainCode);
+    }
+    
+    /**
+     * Checks if a neighbor shows up in a tile's lower pattern. Ramp bases one
+     * level down are not lower, because the ramp connects them.
+     * @param terrainCode the terrain code of the tile
+     * @param neighborCode the terrain code of the neighbor
+     * @return true if there is a drop down to the neighbor
+     */
+    public static boolean isLower(byte terrainCode, byte neighborCode) {
+        int level = getLevel(terrainCode);
+        int neighborLevel = getLevel(neighborCode);
+        if (neighborLevel >= level) return false;
+        return !(isRampBase(neighborCode) && neighborLevel == level - 1);
+    }
+    
+    /**
+     * Works out the higher pattern from terrain codes alone, for storage
+     * that does not keep TacticalTileData objects around.
+     * @param terrainCode the terrain code of the tile
+     * @param neighborCodes the terrain codes of the neighbors, by direction
+     * @return the same pattern that both pattern passes would leave behind
+     */
+    public static byte computeHigherPattern(byte terrainCode, byte[] neighborCodes) {
+        byte pattern = 0;
+        for (int i = 0; i < DIR_LEN; i++) {
+            pattern = setDirectionFlag(
+                    pattern, i, isHigher(terrainCode, neighborCodes[i])
+            );
+        }
+        return maskRampBasePattern(terrainCode, pattern);
+    }
+    
+    /**
+     * Works out the lower pattern from terrain codes alone.
+     * @param terrainCode the terrain code of the tile
+     * @param neighborCodes the terrain codes of the neighbors, by direction
+     * @return the same pattern that both pattern passes would leave behind
+     */
+    public static byte computeLowerPattern(byte terrainCode, byte[] neighborCodes) {
+        byte pattern = 0;
+        for (int i = 0; i < DIR_LEN; i++) {
+            pattern = setDirectionFlag(
+                    pattern, i, isLower(terrainCode, neighborCodes[i])
+            );
+        }
+        return pattern;
+    }
+    
+    /**
+     * Works out the pattern cliffs are drawn from, from terrain codes alone.
+     * @param terrainCode the terrain code of the tile
+     * @param neighborCodes the terrain codes of the neighbors, by direction
+     * @return the same pattern as getNeighborRaisePattern()
+     */
+    public static byte computeRaisePattern(byte terrainCode, byte[] neighborCodes) {
+        return toRaisePattern(
+                terrainCode,
+                computeHigherPattern(terrainCode, neighborCodes),
+                computeLowerPattern(terrainCode, neighborCodes)
+        );
+    }
+    
+    static byte toRaisePattern(byte terrainCode, byte higherPattern, byte lowerPattern) {
+        if (getLevel(terrainCode) > 0) return (byte)~lowerPattern;
+        return higherPattern;
+    }
+    
+    private static byte maskRampBasePattern(byte terrainCode, byte pattern) {
+        if (!isRampBase(terrainCode)) return pattern;
+        return (byte)(Byte.toUnsignedInt(pattern) & RAMP_BASE_PATTERN_MASK);
+    }
+    
+    /**
+     * Works out the ramp flag from terrain codes alone.
+     * @param terrainCode the terrain code of the tile
+     * @param neighborCodes the terrain codes of the neighbors, by direction
+     * @return true if an orthogonal neighbor is a ramp base one level below
+     */
+    public static boolean computeRamp(byte terrainCode, byte[] neighborCodes) {
+        for (int i = 0; i < DIR_LEN; i += 2) {
+            if (isRampUpFrom(terrainCode, neighborCodes[i])) return true;
+        }
+        return false;
+    }
+    
+    private static boolean isRampUpFrom(byte terrainCode, byte neighborCode) {
+        return isRampBase(neighborCode) && getLevel(neighborCode) == getLevel(terrainCode) - 1;
+    }
+    
+    /**
+     * Brings the patterns and ramp flag of just this tile up to date, with
+     * the same results as both pattern passes. This is for edits, where only
+     * the tiles around a change need another look.
+     * @return true if a pattern or the ramp flag changed
+     */
+    boolean refreshPatterns() {
+        if (isBorderTile()) return false; // Don't care about border tiles
+        
+        byte terrainCode = getTerrainCode();
+        byte higherPattern = 0;
+        byte lowerPattern = 0;
+        boolean ramp = false;
+        for (int i = 0; i < DIR_LEN; i++) {
+            byte neighborCode = neighbors[i].getTerrainCode();
+            higherPattern = setDirectionFlag(
+                    higherPattern, i, isHigher(terrainCode, neighborCode)
+            );
+            lowerPattern = setDirectionFlag(
+                    lowerPattern, i, isLower(terrainCode, neighborCode)
+            );
+            if (i % 2 == 0 && isRampUpFrom(terrainCode, neighborCode)) {
+                ramp = true;
+            }
+        }
+        higherPattern = maskRampBasePattern(terrainCode, higherPattern);
+        
+        boolean changed = higherPattern != neighborHigherPattern
+                || lowerPattern != neighborLowerPattern
+                || ramp != isRamp();
+        neighborHigherPattern = higherPattern;
+        neighborLowerPattern = lowerPattern;
+        setRamp(ramp);
+        return changed;
+    }
+    
+    public TacticalTileData getNeighbor(int direction) {
+        return neighbors[direction];
+    }
+    
+    void setNeighbor(int direction, TacticalTileData neighbor) {
+        neighbors[direction] = neighbor;
+    }
+    
+    /**
+     * @return one bit per direction, set if that neighbor stands above this
+     * tile. Ramp bases leave out their orthogonal neighbors.
+     */
+    public byte getNeighborHigherPattern() {
+        return neighborHigherPattern;
+    }
+    
+    /**
+     * @return one bit per direction, set if there is a drop down to that
+     * neighbor
+     */
+    public byte getNeighborLowerPattern() {
+        return neighborLowerPattern;
+    }
+    
+    void setNeighborPatterns(byte higherPattern, byte lowerPattern) {
+        neighborHigherPattern = higherPattern;
+        neighborLowerPattern = lowerPattern;
+    }
+    
+    /**
+     * The pattern cliffs are drawn from. Raised tiles see which neighbors
+     * are not below them, so their edges show where the cliff drops away,
+     * and ground sees which neighbors are above it, so it shows cliff sides.
+     */
+    public byte getNeighborRaisePattern() {
+        return toRaisePattern(getTerrainCode(), neighborHigherPattern, neighborLowerPattern);
+    }
+    
+    public int getCoordinates() {
+        return coordinates;
+    }
+    
     public int getX() {
-        return Byte.toUnsignedInt(coordinates) & X_COORD_MASK;
+        return coordinates & X_COORD_MASK;
     }
     
     public int getY() {
-        return Byte.toUnsignedInt(coordinates) >> 4;
+        return coordinates >>> Y_COORD_SHIFT;
     }
     
-    public void setCoordinates(int x, int y) {
+    void setCoordinates(int x, int y) {
         if (isBorderTile()) return; // Don't care about border tiles
         
         coordinates = createCoordinates(x, y);
@@ -207,7 +462,47 @@ public class TacticalTileData {
         throw new RuntimeException("Direction index out of range: " + direction);
     }
     
-    public static byte createCoordinates(int x, int y) {
+    /**
+     * Gets how far one step in a direction moves a row-major tile index.
+     * @param direction the direction of the step
+     * @param width the width of the grid being indexed
+     */
+    public static int getIndexOffset(int direction, int width) {
+        return getXOffsetFromDirection(direction) + (getYOffsetFromDirection(direction) * width);
+    }
+    
+    /**
+     * @return getIndexOffset() for every direction, indexed by direction
+     */
+    public static int[] createIndexOffsets(int width) {
+        int[] product = new int[DIR_LEN];
+        for (int d = 0; d < DIR_LEN; d++) {
+            product[d] = getIndexOffset(d, width);
+        }
+        return product;
+    }
+    
+    /**
+     * Gets the direction of a step from the signs of its offsets.
+     * @param dx -1, 0, or 1
+     * @param dy -1, 0, or 1, where negative is north
+     * @return the direction, or -1 if both are 0
+     */
+    public static int getDirectionFromSigns(int dx, int dy) {
+        return DIRECTIONS_BY_SIGN[((dy + 1) * 3) + dx + 1];
+    }
+    
+    /**
+     * Gets the directions worth trying, in order, when a step is blocked:
+     * straight ahead first, then a turn either way.
+     * @param direction the step wanted
+     * @param attempt from 0 to STEP_TRIES - 1
+     */
+    public static int getStepTry(int direction, int attempt) {
+        return (direction + STEP_TURNS[attempt]) % DIR_LEN;
+    }
+    
+    public static int createCoordinates(int x, int y) {
         if (x >= TacticalMapData.MAX_DIM || x < 0) {
             throw new RuntimeException("X coordinate out of range: " + x);
         }
@@ -215,6 +510,6 @@ public class TacticalTileData {
             throw new RuntimeException("Y coordinate out of range: " + y);
         }
         
-        return (byte)((y << 4) | x);
+        return (y << Y_COORD_SHIFT) | x;
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.util.BitSet;
+
+/**
+ * Summed-area tables over the terrain flags of a map, so the number of
+ * raised, ramp base, or ramp tiles in any rectangle takes four reads.<br>
+ * <br>
+ * An edit only invalidates the rows from its top edge down. Edits just mark
+ * that band dirty, and the next count rebuilds it once, however many edits
+ * came before. Counts can therefore write to the table, so they are not safe
+ * to call from more than one thread at a time.
+ * @author Joseph Cramsey
+ */
+public class TerrainCountTable implements TacticalMapListener {
+    
+    public static final int FLAG_RAISED = 0;
+    public static final int FLAG_RAMP_BASE = 1;
+    public static final int FLAG_RAMP = 2;
+    
+    /**
+     * Counts the part of a rectangle past the edge of the map, which reads as
+     * border tiles.
+     */
+    public static final int FLAG_BORDER = 3;
+    public static final int FLAG_LEN = 4;
+    
+    // The border is not stored, because no tile inside the map has it
+    private static final int STORED_FLAG_LEN = 3;
+    
+    private final TacticalMapData map;
+    private final int width;
+    private final int height;
+    private final int stride;
+    
+    // Stored flags of each tile, one bit per flag, so rebuilds stay in arrays
+    private final byte[] flagBits;
+    
+    // One table per stored flag, with an extra zero row and column in front
+    private final int[][] sums;
+    private int dirtyFromRow;
+    private long rebuiltRowCount = 0;
+    
+    private TerrainCountTable(TacticalMapData map) {
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+        stride = width + 1;
+        flagBits = new byte[map.getTileCount()];
+        sums = new int[STORED_FLAG_LEN][stride * (height + 1)];
+        dirtyFromRow = 0;
+    }
+    
+    public static TerrainCountTable create(TacticalMapData map) {
+        TerrainCountTable product = new TerrainCountTable(map);
+        for (int i = 0; i < product.flagBits.length; i++) {
+            product.readFlags(i);
+        }
+        product.refresh();
+        map.addListener(product);
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map || change.isEmpty()) return;
+        
+        // Ramp flags can change next to an edit, which changedTiles covers
+        BitSet changedTiles = change.getChangedTiles();
+        for (int i = changedTiles.nextSetBit(0); i >= 0; i = changedTiles.nextSetBit(i + 1)) {
+            readFlags(i);
+        }
+        dirtyFromRow = Math.min(dirtyFromRow, change.getMinY());
+    }
+    
+    /**
+     * Counts the tiles with a flag inside a rectangle, edges included. Parts
+     * of the rectangle past the edge of the map only count as FLAG_BORDER.
+     * @param flag one of FLAG_*
+     * @return how many tiles have the flag
+     */
+    public int count(int flag, int minX, int minY, int maxX, int maxY) {
+        if (flag < 0 || flag >= FLAG_LEN) {
+            throw new RuntimeException("Terrain flag out of range: " + flag);
+        }
+        if (maxX < minX || maxY < minY) return 0;
+        
+        int clippedMinX = Math.max(0, minX);
+        int clippedMinY = Math.max(0, minY);
+        int clippedMaxX = Math.min(width - 1, maxX);
+        int clippedMaxY = Math.min(height - 1, maxY);
+        boolean isOnMap = clippedMinX <= clippedMaxX && clippedMinY <= clippedMaxY;
+        if (flag == FLAG_BORDER) {
+            long area = ((long)maxX - minX + 1) * ((long)maxY - minY + 1);
+            if (isOnMap) {
+                area -= (long)(clippedMaxX - clippedMinX + 1) * (clippedMaxY - clippedMinY + 1);
+            }
+            return (int)Math.min(Integer.MAX_VALUE, area);
+        }
+        if (!isOnMap) return 0;
+        
+        if (dirtyFromRow < height) {
+            refresh();
+        }
+        int[] table = sums[flag];
+        int top = clippedMinY * stride;
+        int bottom = (clippedMaxY + 1) * stride;
+        return table[bottom + clippedMaxX + 1] - table[bottom + clippedMinX]
+                - table[top + clippedMaxX + 1] + table[top + clippedMinX];
+    }
+    
+    /**
+     * @return true if a rectangle is entirely on the map and on ground level,
+     * which is what placing most things needs
+     */
+    public boolean isClearGround(int minX, int minY, int maxX, int maxY) {
+        return count(FLAG_BORDER, minX, minY, maxX, maxY) == 0
+                && count(FLAG_RAISED, minX, minY, maxX, maxY) == 0;
+    }
+    
+    /**
+     * Rebuilds the dirty band now, rather than on the next count.
+     */
+    public void refresh() {
+        int[] raisedSums = sums[FLAG_RAISED];
+        int[] rampBaseSums = sums[FLAG_RAMP_BASE];
+        int[] rampSums = sums[FLAG_RAMP];
+        for (int y = dirtyFromRow; y < height; y++) {
+            int above = y * stride;
+            int row = above + stride;
+            int raised = 0;
+            int rampBases = 0;
+            int ramps = 0;
+            for (int x = 0; x < width; x++) {
+                int bits = flagBits[(y * width) + x];
+                raised += (bits >>> FLAG_RAISED) & 1;
+                rampBases += (bits >>> FLAG_RAMP_BASE) & 1;
+                ramps += (bits >>> FLAG_RAMP) & 1;
+                raisedSums[row + x + 1] = raisedSums[above + x + 1] + raised;
+                rampBaseSums[row + x + 1] = rampBaseSums[above + x + 1] + rampBases;
+                rampSums[row + x + 1] = rampSums[above + x + 1] + ramps;
+            }
+        }
+        rebuiltRowCount += height - dirtyFromRow;
+        dirtyFromRow = height;
+    }
+    
+    public long getRebuiltRowCount() {
+        return rebuiltRowCount;
+    }
+    
+    private void readFlags(int tileIndex) {
+        TacticalTileData tile = map.getTiles()[tileIndex];
+        int bits = 0;
+        if (tile.isRaised()) bits |= 1 << FLAG_RAISED;
+        if (tile.isRampBase()) bits |= 1 << FLAG_RAMP_BASE;
+        if (tile.isRamp()) bits |= 1 << FLAG_RAMP;
+        flagBits[tileIndex] = (byte)bits;
+    }
+}
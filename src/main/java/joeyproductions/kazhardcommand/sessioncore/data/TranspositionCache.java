@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.data;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache of results keyed by 64-bit hashes, such as the Zobrist
+ * hash of a map. It never grows; when both slots of a bucket are taken, the
+ * one used least recently is replaced.<br>
+ * <br>
+ * Entries can also carry a second, independent check value. A lookup whose
+ * hash matches but whose check does not is a hash collision, which is counted
+ * and treated as a miss. Not safe to use from more than one thread at a time.
+ * @author Joseph Cramsey
+ * @param <V> the kind of result being cached
+ */
+public class TranspositionCache<V> {
+    
+    private static final int BUCKET_SLOTS = 2;
+    private static final int MIN_CAPACITY = BUCKET_SLOTS;
+    
+    private final int bucketMask;
+    private final long[] keys;
+    private final long[] checks;
+    private final Object[] values;
+    private final long[] lastUses;
+    private long useCount = 0;
+    private int size = 0;
+    
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long storeCount = 0;
+    private long evictionCount = 0;
+    private long collisionCount = 0;
+    
+    private TranspositionCache(int capacity) {
+        bucketMask = (capacity / BUCKET_SLOTS) - 1;
+        keys = new long[capacity];
+        checks = new long[capacity];
+        values = new Object[capacity];
+        lastUses = new long[capacity];
+    }
+    
+    /**
+     * @param capacity the most entries to keep, rounded up to a power of two
+     * @return the new cache
+     */
+    public static <V> TranspositionCache<V> create(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new RuntimeException("Cache capacity out of range: " + capacity);
+        }
+        return new TranspositionCache<>(Math.max(MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1));
+    }
+    
+    public V get(long key) {
+        return get(key, 0);
+    }
+    
+    /**
+     * @param key the hash to look up
+     * @param check the check value it was stored with
+     * @return the cached result, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key, long check) {
+        int bucket = getBucket(key);
+        for (int slot = bucket; slot < bucket + BUCKET_SLOTS; slot++) {
+            if (values[slot] == null || keys[slot] != key) continue;
+            
+            if (checks[slot] != check) {
+                collisionCount++;
+                break;
+            }
+            hitCount++;
+            lastUses[slot] = ++useCount;
+            return (V)values[slot];
+        }
+        missCount++;
+        return null;
+    }
+    
+    public void put(long key, V value) {
+        put(key, 0, value);
+    }
+    
+    /**
+     * Stores a result, replacing whatever was stored under the same key.
+     * @param key the hash to store under
+     * @param check an independent check value, or zero
+     * @param value the result, which must not be null
+     */
+    public void put(long key, long check, V value) {
+        if (value == null) {
+            throw new RuntimeException("Cannot cache a null result");
+        }
+        
+        int bucket = getBucket(key);
+        int target = bucket;
+        for (int slot = bucket; slot < bucket + BUCKET_SLOTS; slot++) {
+            if (values[slot] == null) {
+                target = slot;
+                size++;
+                break;
+            }
+            if (keys[slot] == key) {
+                target = slot;
+                break;
+            }
+            if (lastUses[slot] < lastUses[target]) {
+                target = slot;
+            }
+            if (slot == bucket + BUCKET_SLOTS - 1) {
+                evictionCount++;
+            }
+        }
+        
+        keys[target] = key;
+        checks[target] = check;
+        values[target] = value;
+        lastUses[target] = ++useCount;
+        storeCount++;
+    }
+    
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public int getCapacity() {
+        return values.length;
+    }
+    
+    public long getHitCount() {
+        return hitCount;
+    }
+    
+    public long getMissCount() {
+        return missCount;
+    }
+    
+    public long getStoreCount() {
+        return storeCount;
+    }
+    
+    /**
+     * @return how many stores pushed out a different key
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * @return how many lookups matched a key, but not its check value
+     */
+    public long getCollisionCount() {
+        return collisionCount;
+    }
+    
+    public double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0.0 : (double)hitCount / lookups;
+    }
+    
+    private int getBucket(long key) {
+        int mixed = (int)(key ^ (key >>> 32));
+        return (mixed & bucketMask) * BUCKET_SLOTS;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.sessioncore.ui;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.BitSet;
+import joeyproductions.kazhardcommand.aicore.InfluenceMap;
+
+/**
+ * A translucent heatmap of one team's influence, kept as an image with one
+ * pixel per tile and drawn scaled up over the map. Friendly ground is tinted
+ * blue and threatened ground red, more strongly the more lopsided it is.<br>
+ * <br>
+ * The image is kept between paints, and refresh() only recolors the tiles
+ * whose influence changed.
+ * @author Joseph Cramsey
+ */
+public class InfluenceOverlay {
+    
+    // A balance this far either way gets the strongest tint
+    public static final int DEFAULT_FULL_SCALE = 64;
+    
+    private static final int MAX_ALPHA = 144;
+    private static final int FRIENDLY_RGB = 0x3070FF;
+    private static final int HOSTILE_RGB = 0xFF3030;
+    
+    private final InfluenceMap influence;
+    private final int team;
+    private final int fullScale;
+    private final int width;
+    private final int height;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final BitSet changedTiles = new BitSet();
+    
+    private long seenGeneration;
+    private long recolorCount = 0;
+    
+    private InfluenceOverlay(InfluenceMap influence, int team, int fullScale) {
+        this.influence = influence;
+        this.team = team;
+        this.fullScale = fullScale;
+        width = influence.getMap().getWidth();
+        height = influence.getMap().getHeight();
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+    
+    public static InfluenceOverlay create(InfluenceMap influence, int team) {
+        return create(influence, team, DEFAULT_FULL_SCALE);
+    }
+    
+    /**
+     * Colors every tile, once.
+     * @param influence the influence map to show, which other overlays can
+     * show too
+     * @param team whose side the heatmap is from
+     * @param fullScale how lopsided a tile has to be to get the strongest tint
+     * @return the new overlay
+     */
+    public static InfluenceOverlay create(InfluenceMap influence, int team, int fullScale) {
+        if (team < 0 || team >= influence.getTeamCount()) {
+            throw new RuntimeException("Team out of range: " + team);
+        }
+        if (fullScale < 1) {
+            throw new RuntimeException("Full scale out of range: " + fullScale);
+        }
+        
+        InfluenceOverlay product = new InfluenceOverlay(influence, team, fullScale);
+        product.seenGeneration = influence.getGeneration();
+        for (int i = 0; i < product.pixels.length; i++) {
+            product.pixels[i] = product.getColor(i);
+        }
+        
+        return product;
+    }
+    
+    public InfluenceMap getInfluenceMap() {
+        return influence;
+    }
+    
+    public int getTeam() {
+        return team;
+    }
+    
+    public BufferedImage getImage() {
+        return image;
+    }
+    
+    /**
+     * @return how many tiles have been recolored since the overlay was made
+     */
+    public long getRecolorCount() {
+        return recolorCount;
+    }
+    
+    /**
+     * Recolors the tiles whose influence changed since the last refresh.
+     * @return the recolored tiles' bounds, in tiles, or null if none changed
+     */
+    public Rectangle refresh() {
+        changedTiles.clear();
+        influence.collectChangedTiles(seenGeneration, changedTiles);
+        seenGeneration = influence.getGeneration();
+        if (changedTiles.isEmpty()) return null;
+        
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+        for (int i = changedTiles.nextSetBit(0); i >= 0; i = changedTiles.nextSetBit(i + 1)) {
+            pixels[i] = getColor(i);
+            int x = i % width;
+            int y = i / width;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            recolorCount++;
+        }
+        
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+    
+    /**
+     * Draws the tiles under the clip, scaled up to tile size.
+     * @param originX where the map's first tile starts
+     * @param originY where the map's first tile starts
+     * @param tileSideLen how many pixels a tile is on a side
+     */
+    public void paint(Graphics2D g2, int originX, int originY, int tileSideLen) {
+        Rectangle clip = g2.getClipBounds();
+        int minX = 0;
+        int minY = 0;
+        int maxX = width;
+        int maxY = height;
+        if (clip != null) {
+            minX = Math.max(0, Math.floorDiv(clip.x - originX, tileSideLen));
+            minY = Math.max(0, Math.floorDiv(clip.y - originY, tileSideLen));
+            maxX = Math.min(width, Math.floorDiv(clip.x + clip.width - originX - 1, tileSideLen) + 1);
+            maxY = Math.min(height, Math.floorDiv(clip.y + clip.height - originY - 1, tileSideLen) + 1);
+        }
+        if (minX >= maxX || minY >= maxY) return;
+        
+        g2.drawImage(image,
+                originX + (minX * tileSideLen), originY + (minY * tileSideLen),
+                originX + (maxX * tileSideLen), originY + (maxY * tileSideLen),
+                minX, minY, maxX, maxY, null);
+    }
+    
+    private int getColor(int tileIndex) {
+        int balance = influence.getBalance(team, tileIndex);
+        if (balance == 0) return 0;
+        int alpha = (Math.min(fullScale, Math.abs(balance)) * MAX_ALPHA) / fullScale;
+        return (alpha << 24) | (balance > 0 ? FRIENDLY_RGB : HOSTILE_RGB);
+    }
+}
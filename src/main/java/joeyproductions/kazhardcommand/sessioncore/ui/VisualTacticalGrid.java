@@ -29,39 +29,60 @@ import joeyproductions.kazhardcommand.spritecore.SpriteTilePatternSwitch;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
+import java.awt.Rectangle;
+import java.util.BitSet;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JComponent;
+import javax.swing.JLayer;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
+import javax.swing.plaf.LayerUI;
 import joeyproductions.kazhardcommand.Main;
+import joeyproductions.kazhardcommand.aicore.InfluenceMap;
 import joeyproductions.kazhardcommand.events.ui.RepaintEvent;
 import joeyproductions.kazhardcommand.events.ui.RepaintHandler;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
 import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
 
 /**
  * Basic handler for map grids.
  * @author Joseph Cramsey
  */
-public class VisualTacticalGrid extends RepaintHandler {
+public class VisualTacticalGrid extends RepaintHandler implements TacticalMapListener {
     
     public static final int TILE_SIDE_LEN = 64;
     public static final Dimension TILE_SIZE = new Dimension(TILE_SIDE_LEN, TILE_SIDE_LEN);
     private static final int SCROLL_SPEED = 8;
     
     private TacticalMapData tileData;
+    private long seenGeneration = -1; // Anything negative means refresh all
+    private final BitSet changedTiles = new BitSet();
+    private final int mapWidth;
+    private final int mapHeight;
     private final VisualTacticalTile[] tiles;
     
     private JPanel tilePanel;
+    private JLayer<JPanel> tileLayer;
     private JScrollPane scrollPane;
+    private InfluenceOverlay overlay = null;
     
-    private VisualTacticalGrid() {
-        tiles = new VisualTacticalTile[TacticalMapData.TILE_LENGTH];
+    private VisualTacticalGrid(int mapWidth, int mapHeight) {
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+        tiles = new VisualTacticalTile[mapWidth * mapHeight];
     }
     
     public static VisualTacticalGrid create() {
-        VisualTacticalGrid product = new VisualTacticalGrid();
+        TacticalMapData defaultMap = TacticalMapData.create();
+        VisualTacticalGrid product = new VisualTacticalGrid(
+                defaultMap.getWidth(), defaultMap.getHeight()
+        );
         
         product.tilePanel = new JPanel() {
             @Override
@@ -81,8 +102,18 @@ public class VisualTacticalGrid extends RepaintHandler {
         JPanel hPadding = new JPanel();
         hPadding.setLayout(new BoxLayout(hPadding, BoxLayout.X_AXIS));
         
+        // The overlay is painted over the tiles, including when only some of
+        // them repaint
+        product.tileLayer = new JLayer<>(product.tilePanel, new LayerUI<JPanel>() {
+            @Override
+            public void paint(Graphics g, JComponent c) {
+                super.paint(g, c);
+                product.paintOverlay((Graphics2D)g);
+            }
+        });
+        
         hPadding.add(Box.createHorizontalGlue());
-        hPadding.add(product.tilePanel);
+        hPadding.add(product.tileLayer);
         hPadding.add(Box.createHorizontalGlue());
         
         vPadding.add(Box.createVerticalGlue());
@@ -91,55 +122,37 @@ public class VisualTacticalGrid extends RepaintHandler {
         
         product.scrollPane = new JScrollPane(vPadding);
         
-        int dimWithBorders = TacticalMapData.MAX_DIM + 2;
+        int widthWithBorders = product.mapWidth + 2;
+        int heightWithBorders = product.mapHeight + 2;
         
-        product.tilePanel.setLayout(new GridLayout(dimWithBorders, dimWithBorders));
+        product.tilePanel.setLayout(new GridLayout(heightWithBorders, widthWithBorders));
         product.tilePanel.setBackground(Color.BLACK);
         hPadding.setBackground(Color.BLACK);
         vPadding.setBackground(Color.BLACK);
         product.scrollPane.getVerticalScrollBar().setUnitIncrement(SCROLL_SPEED);
         product.scrollPane.getHorizontalScrollBar().setUnitIncrement(SCROLL_SPEED);
         
-        String[] coordinateLetters = {
-            "A",
-            "B",
-            "C",
-            "D",
-            "E",
-            "F",
-            "G",
-            "H",
-            "I",
-            "J",
-            "K",
-            "L",
-            "M",
-            "N",
-            "O",
-            "P"
-        };
-        
         // Northern border
-        for (int i = 0; i < dimWithBorders; i++) {
+        for (int i = 0; i < widthWithBorders; i++) {
             if (i == 0) {
                 product.tilePanel.add(new RulerMapTile(RulerMapTile.NORTHWEST, false));
             }
-            else if (i == dimWithBorders - 1) {
+            else if (i == widthWithBorders - 1) {
                 product.tilePanel.add(new RulerMapTile(RulerMapTile.NORTHEAST, false));
             }
             else {
-                product.tilePanel.add(new RulerMapTile(RulerMapTile.NORTH, i % 2 == 0, coordinateLetters[i - 1]));
+                product.tilePanel.add(new RulerMapTile(RulerMapTile.NORTH, i % 2 == 0, getColumnLetters(i - 1)));
             }
         }
         
         // Create visual tiles
         int k = -1;
-        for (int i = 0; i < TacticalMapData.TILE_LENGTH; i++) {
-            int j = i % TacticalMapData.MAX_DIM;
+        for (int i = 0; i < product.tiles.length; i++) {
+            int j = i % product.mapWidth;
             if (j == 0) {
                 k++;
             }
-            String coordinateNumber = "" + (TacticalMapData.MAX_DIM - k);
+            String coordinateNumber = "" + (product.mapHeight - k);
             if (j == 0) {
                 product.tilePanel.add(new RulerMapTile(RulerMapTile.WEST, k % 2 == 0, coordinateNumber));
             }
@@ -147,26 +160,26 @@ public class VisualTacticalGrid extends RepaintHandler {
             visualTile.addMouseListener(visualTile);
             product.tiles[i] = visualTile;
             product.tilePanel.add(visualTile);
-            if (j == TacticalMapData.MAX_DIM - 1) {
+            if (j == product.mapWidth - 1) {
                 product.tilePanel.add(new RulerMapTile(RulerMapTile.EAST, k % 2 == 1, coordinateNumber));
             }
         }
         
         // Southern border
-        for (int i = 0; i < dimWithBorders; i++) {
+        for (int i = 0; i < widthWithBorders; i++) {
             if (i == 0) {
                 product.tilePanel.add(new RulerMapTile(RulerMapTile.SOUTHWEST, false));
             }
-            else if (i == dimWithBorders - 1) {
+            else if (i == widthWithBorders - 1) {
                 product.tilePanel.add(new RulerMapTile(RulerMapTile.SOUTHEAST, false));
             }
             else {
-                product.tilePanel.add(new RulerMapTile(RulerMapTile.SOUTH, i % 2 == 1, coordinateLetters[i - 1]));
+                product.tilePanel.add(new RulerMapTile(RulerMapTile.SOUTH, i % 2 == 1, getColumnLetters(i - 1)));
             }
         }
         
         // Load default map
-        product.loadMap(TacticalMapData.create());
+        product.loadMap(defaultMap);
         Main.handleEvent(new RepaintEvent(VISIBLE_GRID, true));
         
         return product;
@@ -177,18 +190,112 @@ public class VisualTacticalGrid extends RepaintHandler {
     }
     
     public void loadMap(TacticalMapData tileData) {
+        if (tileData.getWidth() != mapWidth || tileData.getHeight() != mapHeight) {
+            throw new RuntimeException("Map size does not match grid size: "
+                    + tileData.getWidth() + "x" + tileData.getHeight());
+        }
+        if (this.tileData != null) {
+            this.tileData.removeListener(this);
+        }
         this.tileData = tileData;
+        seenGeneration = -1;
+        tileData.addListener(this);
+    }
+    
+    /**
+     * Shows a team's influence over the map, or nothing.
+     * @param influence an influence map over a map this size, or null
+     * @param team whose side to show it from
+     */
+    public void showInfluence(InfluenceMap influence, int team) {
+        if (influence == null) {
+            overlay = null;
+        }
+        else if (influence.getMap().getWidth() != mapWidth || influence.getMap().getHeight() != mapHeight) {
+            throw new RuntimeException("Influence map size does not match grid size: "
+                    + influence.getMap().getWidth() + "x" + influence.getMap().getHeight());
+        }
+        else {
+            overlay = InfluenceOverlay.create(influence, team);
+        }
+        tileLayer.repaint();
+    }
+    
+    /**
+     * Brings the overlay up to date with its influence map, and repaints the
+     * tiles under the part that changed. Nothing else is refreshed, so
+     * call this on the Swing thread, after refreshing the influence map.
+     */
+    public void refreshInfluence() {
+        if (overlay == null) return;
+        Rectangle changed = overlay.refresh();
+        if (changed == null) return;
+        
+        Component origin = tiles[0];
+        tilePanel.repaint(
+                origin.getX() + (changed.x * TILE_SIDE_LEN),
+                origin.getY() + (changed.y * TILE_SIDE_LEN),
+                changed.width * TILE_SIDE_LEN,
+                changed.height * TILE_SIDE_LEN
+        );
+    }
+    
+    private void paintOverlay(Graphics2D g2) {
+        if (overlay == null) return;
+        Component origin = tiles[0];
+        overlay.paint(g2, origin.getX(), origin.getY(), TILE_SIDE_LEN);
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        Main.handleEvent(new RepaintEvent(VISIBLE_GRID, true));
+    }
+    
+    private static String getColumnLetters(int column) {
+        // A-Z, then AA, AB, and so on
+        String letters = "";
+        int remaining = column;
+        do {
+            letters = (char)('A' + (remaining % 26)) + letters;
+            remaining = (remaining / 26) - 1;
+        } while (remaining >= 0);
+        return letters;
     }
     
     @Override
     public void beforeRevalidate() {
         TacticalTileData[] dataTiles = tileData.getTiles();
-        for (int i = 0; i < tiles.length; i++) {
-            tiles[i].data = dataTiles[i];
-            tiles[i].cachedRaiseSprite =
-                    SpriteTilePatternSwitch.IS_RAISED_SWITCH.getSprite(dataTiles[i]);
+        
+        // Edits can come from other threads, so read one whole generation
+        long stamp = tileData.readLock();
+        try {
+            long generation = tileData.getGeneration();
+            
+            if (seenGeneration < 0) {
+                for (int i = 0; i < tiles.length; i++) {
+                    refreshTile(i, dataTiles[i]);
+                }
+            }
+            else {
+                // Only the sprites of tiles that changed need another look
+                changedTiles.clear();
+                tileData.collectChangedTiles(seenGeneration, changedTiles);
+                for (int i = changedTiles.nextSetBit(0); i >= 0; i = changedTiles.nextSetBit(i + 1)) {
+                    refreshTile(i, dataTiles[i]);
+                }
+            }
+            
+            seenGeneration = generation;
+        } finally {
+            tileData.unlockRead(stamp);
         }
     }
+    
+    private void refreshTile(int index, TacticalTileData dataTile) {
+        tiles[index].data = dataTile;
+        tiles[index].cachedRaiseSprite =
+                SpriteTilePatternSwitch.IS_RAISED_SWITCH.getSprite(dataTile);
+    }
 
     @Override
     public Component getRepaintTarget() {
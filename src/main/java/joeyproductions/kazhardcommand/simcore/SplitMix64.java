@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.simcore;
+
+/**
+ * A small, seeded, splittable random number generator. The same seed always
+ * gives the same numbers on every machine, which java.util.Random only
+ * promises as long as nobody else shares it. split() hands out a generator
+ * with its own stream, so separate systems can draw numbers without changing
+ * each other's.
+ * @author Joseph Cramsey
+ */
+public class SplitMix64 {
+    
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    private long state;
+    
+    public SplitMix64(long seed) {
+        state = seed;
+    }
+    
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+    
+    /**
+     * @return a number from 0 up to, but not including, bound
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new RuntimeException("Random bound out of range: " + bound);
+        }
+        
+        // Throw away draws from the uneven top end, so every result is as likely
+        long bits = nextLong() >>> 1;
+        long value = bits % bound;
+        while (bits - value + (bound - 1) < 0) {
+            bits = nextLong() >>> 1;
+            value = bits % bound;
+        }
+        return (int)value;
+    }
+    
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+    
+    /**
+     * @return a new generator, seeded from this one
+     */
+    public SplitMix64 split() {
+        return new SplitMix64(mix(nextLong()));
+    }
+    
+    /**
+     * @return the whole state, for checksums
+     */
+    public long getState() {
+        return state;
+    }
+    
+    /**
+     * The SplitMix64 finalizer, which scrambles every bit of its input.
+     */
+    public static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
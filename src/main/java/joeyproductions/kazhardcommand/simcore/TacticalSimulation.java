@@ -0,0 +1,343 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.simcore;
+
+import joeyproductions.kazhardcommand.combatcore.CoverTable;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.unitcore.UnitSpatialIndex;
+
+/**
+ * A deterministic skirmish on a tactical map: units wander between goals,
+ * fight whoever is next to them, and the terrain shifts now and then.<br>
+ * <br>
+ * Peers that start from the same map and seed, and are given the same
+ * commands, stay bit for bit the same. Every decision comes from SplitMix64
+ * streams, units are always handled in id order, and no state update uses
+ * floating point.<br>
+ * <br>
+ * The checksum folds the map's Zobrist hash, a hash of every unit, the tick,
+ * and every random stream together. The unit hash is XORed per unit as units
+ * change, so checksumming every tick costs nothing per unit.
+ * @author Joseph Cramsey
+ */
+public class TacticalSimulation {
+    
+    public static final int TEAM_COUNT = 2;
+    public static final int MAX_HP = 100;
+    
+    private static final int GOAL_RANGE = 32;
+    private static final int TERRAIN_INTERVAL = 8;
+    private static final long UNIT_SALT = 0x5DEECE66DL;
+    
+    private final TacticalMapData map;
+    private final TerrainPassability passability;
+    private final CoverTable cover;
+    private final UnitSpatialIndex index;
+    private final int width;
+    private final int height;
+    
+    private final SplitMix64 placementRandom;
+    private final SplitMix64 movementRandom;
+    private final SplitMix64 combatRandom;
+    private final SplitMix64 terrainRandom;
+    
+    private final int[] unitXs;
+    private final int[] unitYs;
+    private final int[] hitPoints;
+    private final int[] teams;
+    private final int[] goalXs;
+    private final int[] goalYs;
+    private final int[] neighbors;
+    private int livingCount;
+    
+    private long tick = 0;
+    private long unitHash = 0;
+    
+    private TacticalSimulation(TacticalMapData map, long seed, int unitCount) {
+        this.map = map;
+        passability = TerrainPassability.create(map);
+        cover = CoverTable.create(map);
+        index = UnitSpatialIndex.create(map);
+        width = map.getWidth();
+        height = map.getHeight();
+        
+        SplitMix64 root = new SplitMix64(seed);
+        placementRandom = root.split();
+        movementRandom = root.split();
+        combatRandom = root.split();
+        terrainRandom = root.split();
+        
+        unitXs = new int[unitCount];
+        unitYs = new int[unitCount];
+        hitPoints = new int[unitCount];
+        teams = new int[unitCount];
+        goalXs = new int[unitCount];
+        goalYs = new int[unitCount];
+        neighbors = new int[unitCount];
+    }
+    
+    /**
+     * Sets up a simulation, placing units on open ground.
+     * @param map the map to fight on, which the simulation will edit
+     * @param seed where every random decision comes from
+     * @param unitCount how many units to place, split between the teams
+     * @return the new simulation
+     */
+    public static TacticalSimulation create(TacticalMapData map, long seed, int unitCount) {
+        if (unitCount < 0 || unitCount > map.getTileCount()) {
+            throw new RuntimeException("Unit count out of range: " + unitCount);
+        }
+        
+        TacticalSimulation product = new TacticalSimulation(map, seed, unitCount);
+        TacticalTileData[] tiles = map.getTiles();
+        for (int id = 0; id < unitCount; id++) {
+            int x;
+            int y;
+            do {
+                x = product.placementRandom.nextInt(product.width);
+                y = product.placementRandom.nextInt(product.height);
+            } while (tiles[map.getTileIndex(x, y)].isRaised());
+            
+            if (product.index.addUnit(x, y) != id) {
+                throw new RuntimeException("Unit ids out of step with the index");
+            }
+            product.unitXs[id] = x;
+            product.unitYs[id] = y;
+            product.hitPoints[id] = MAX_HP;
+            product.teams[id] = id % TEAM_COUNT;
+            product.pickGoal(id);
+            product.unitHash ^= product.getUnitKey(id);
+        }
+        product.livingCount = unitCount;
+        
+        return product;
+    }
+    
+    /**
+     * Stops following the map.
+     */
+    public void dispose() {
+        passability.dispose();
+        cover.dispose();
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * Runs one tick: every living unit, in id order, attacks a neighboring
+     * enemy if it has one, and otherwise steps toward its goal. Then the
+     * terrain may shift.
+     */
+    public void step() {
+        for (int id = 0; id < unitXs.length; id++) {
+            if (hitPoints[id] <= 0) continue;
+            
+            int target = findTarget(id);
+            if (target >= 0) {
+                attack(id, target);
+            }
+            else {
+                move(id);
+            }
+        }
+        
+        if (tick % TERRAIN_INTERVAL == 0) {
+            shiftTerrain();
+        }
+        tick++;
+    }
+    
+    /**
+     * Hurts a unit from outside the simulation, like a scripted event. Every
+     * peer has to be given the same commands on the same tick.
+     */
+    public void damageUnit(int id, int amount) {
+        if (id < 0 || id >= unitXs.length) {
+            throw new RuntimeException("Unit out of range: " + id);
+        }
+        if (hitPoints[id] <= 0) return;
+        setHitPoints(id, hitPoints[id] - amount);
+    }
+    
+    public long getTick() {
+        return tick;
+    }
+    
+    /**
+     * @return a checksum of everything that decides what happens next
+     */
+    public long getChecksum() {
+        return fold(map.getZobristHash(), unitHash);
+    }
+    
+    /**
+     * Works the checksum out without the incremental hashes, to check them.
+     */
+    public long computeChecksumFromScratch() {
+        TacticalTileData[] tiles = map.getTiles();
+        long mapHash = TacticalMapData.getZobristBase(width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            mapHash ^= TacticalMapData.getZobristKey(i, tiles[i].getTerrainCode());
+        }
+        long units = 0;
+        for (int id = 0; id < unitXs.length; id++) {
+            units ^= getUnitKey(id);
+        }
+        return fold(mapHash, units);
+    }
+    
+    public int getUnitCount() {
+        return unitXs.length;
+    }
+    
+    public int getLivingUnitCount() {
+        return livingCount;
+    }
+    
+    public int getUnitX(int id) {
+        return unitXs[id];
+    }
+    
+    public int getUnitY(int id) {
+        return unitYs[id];
+    }
+    
+    public int getHitPoints(int id) {
+        return hitPoints[id];
+    }
+    
+    public int getTeam(int id) {
+        return teams[id];
+    }
+    
+    private long fold(long mapHash, long units) {
+        long product = SplitMix64.mix(mapHash ^ SplitMix64.mix(tick));
+        product = SplitMix64.mix(product ^ units);
+        product = SplitMix64.mix(product ^ movementRandom.getState());
+        product = SplitMix64.mix(product ^ combatRandom.getState());
+        return SplitMix64.mix(product ^ terrainRandom.getState());
+    }
+    
+    private long getUnitKey(int id) {
+        if (hitPoints[id] <= 0) return 0;
+        return SplitMix64.mix(((long)id << 44) ^ ((long)hitPoints[id] << 32)
+                ^ ((long)unitYs[id] << 16) ^ unitXs[id] ^ UNIT_SALT);
+    }
+    
+    /**
+     * @return the enemy next to a unit with the lowest id, or -1
+     */
+    private int findTarget(int id) {
+        int x = unitXs[id];
+        int y = unitYs[id];
+        int found = Math.min(neighbors.length,
+                index.queryRectangle(x - 1, y - 1, x + 1, y + 1, neighbors));
+        
+        // Neighbors come back in list order, which is not worth relying on
+        int target = -1;
+        for (int i = 0; i < found; i++) {
+            int other = neighbors[i];
+            if (teams[other] != teams[id] && (target < 0 || other < target)) {
+                target = other;
+            }
+        }
+        return target;
+    }
+    
+    private void attack(int id, int target) {
+        int attackerTile = (unitYs[id] * width) + unitXs[id];
+        int targetTile = (unitYs[target] * width) + unitXs[target];
+        int damage = CoverTable.getAttackDamage(
+                combatRandom.nextInt(CoverTable.DAMAGE_SPREAD),
+                cover.getElevationAdvantage(attackerTile, targetTile),
+                cover.getCover(unitXs[target], unitYs[target], unitXs[id], unitYs[id])
+        );
+        
+        setHitPoints(target, hitPoints[target] - damage);
+    }
+    
+    private void move(int id) {
+        int x = unitXs[id];
+        int y = unitYs[id];
+        int dx = Integer.signum(goalXs[id] - x);
+        int dy = Integer.signum(goalYs[id] - y);
+        int direction = TacticalTileData.getDirectionFromSigns(dx, dy);
+        if (direction < 0) {
+            pickGoal(id);
+            return;
+        }
+        
+        int tileIndex = (y * width) + x;
+        for (int attempt = 0; attempt < TacticalTileData.STEP_TRIES; attempt++) {
+            int tryDirection = TacticalTileData.getStepTry(direction, attempt);
+            if (passability.canStep(tileIndex, tryDirection)) {
+                setPosition(id,
+                        x + TacticalTileData.getXOffsetFromDirection(tryDirection),
+                        y + TacticalTileData.getYOffsetFromDirection(tryDirection));
+                return;
+            }
+        }
+        pickGoal(id);
+    }
+    
+    private void pickGoal(int id) {
+        goalXs[id] = Math.max(0, Math.min(width - 1,
+                unitXs[id] + movementRandom.nextInt((2 * GOAL_RANGE) + 1) - GOAL_RANGE));
+        goalYs[id] = Math.max(0, Math.min(height - 1,
+                unitYs[id] + movementRandom.nextInt((2 * GOAL_RANGE) + 1) - GOAL_RANGE));
+    }
+    
+    private void shiftTerrain() {
+        int x = terrainRandom.nextInt(width);
+        int y = terrainRandom.nextInt(height);
+        if (index.getUnitsOnTile(x, y, neighbors) > 0) return;
+        
+        byte terrainCode = map.getTile(x, y).getTerrainCode();
+        if (terrainCode == TacticalTileData.TERRAIN_RAMP_BASE) return;
+        map.setTerrainCode(x, y, terrainCode == TacticalTileData.TERRAIN_RAISED
+                ? TacticalTileData.TERRAIN_GROUND : TacticalTileData.TERRAIN_RAISED);
+    }
+    
+    private void setPosition(int id, int x, int y) {
+        unitHash ^= getUnitKey(id);
+        unitXs[id] = x;
+        unitYs[id] = y;
+        unitHash ^= getUnitKey(id);
+        index.moveUnit(id, x, y);
+    }
+    
+    private void setHitPoints(int id, int value) {
+        unitHash ^= getUnitKey(id);
+        hitPoints[id] = Math.max(0, value);
+        unitHash ^= getUnitKey(id);
+        if (hitPoints[id] == 0) {
+            index.removeUnit(id);
+            livingCount--;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.simcore;
+
+import java.util.Arrays;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * The orders given for one turn, already batched by type. Each type keeps
+ * its orders in plain int columns, in the order they were given, which is
+ * also the order they win conflicts in. A buffer can be cleared and filled
+ * again every turn without allocating.
+ * @author Joseph Cramsey
+ */
+public class TurnOrders {
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private int[] moveUnits = new int[INITIAL_CAPACITY];
+    private int[] moveDirections = new int[INITIAL_CAPACITY];
+    private int moveCount = 0;
+    
+    private int[] attackUnits = new int[INITIAL_CAPACITY];
+    private int[] attackTargets = new int[INITIAL_CAPACITY];
+    private int attackCount = 0;
+    
+    public TurnOrders() {
+        //
+    }
+    
+    /**
+     * @param unit handle of the unit to move
+     * @param direction one of the TacticalTileData directions
+     */
+    public void addMove(int unit, int direction) {
+        if (direction < 0 || direction >= TacticalTileData.DIR_LEN) {
+            throw new RuntimeException("Direction out of range: " + direction);
+        }
+        if (moveCount == moveUnits.length) {
+            moveUnits = Arrays.copyOf(moveUnits, moveCount * 2);
+            moveDirections = Arrays.copyOf(moveDirections, moveCount * 2);
+        }
+        moveUnits[moveCount] = unit;
+        moveDirections[moveCount] = direction;
+        moveCount++;
+    }
+    
+    /**
+     * @param unit handle of the attacking unit
+     * @param target handle of the unit being attacked, which has to be on a
+     * neighboring tile when the turn starts
+     */
+    public void addAttack(int unit, int target) {
+        if (attackCount == attackUnits.length) {
+            attackUnits = Arrays.copyOf(attackUnits, attackCount * 2);
+            attackTargets = Arrays.copyOf(attackTargets, attackCount * 2);
+        }
+        attackUnits[attackCount] = unit;
+        attackTargets[attackCount] = target;
+        attackCount++;
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    public int getMoveUnit(int order) {
+        return moveUnits[order];
+    }
+    
+    public int getMoveDirection(int order) {
+        return moveDirections[order];
+    }
+    
+    public int getAttackCount() {
+        return attackCount;
+    }
+    
+    public int getAttackUnit(int order) {
+        return attackUnits[order];
+    }
+    
+    public int getAttackTarget(int order) {
+        return attackTargets[order];
+    }
+    
+    public int getOrderCount() {
+        return moveCount + attackCount;
+    }
+    
+    public void clear() {
+        moveCount = 0;
+        attackCount = 0;
+    }
+}
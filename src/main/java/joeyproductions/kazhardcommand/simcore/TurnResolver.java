@@ -0,0 +1,462 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.simcore;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import joeyproductions.kazhardcommand.combatcore.CoverTable;
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+import joeyproductions.kazhardcommand.unitcore.UnitStore;
+
+/**
+ * Resolves a turn's worth of orders for the units in a store, all at once.
+ * Every order sees the units as they stood when the turn started.<br>
+ * <br>
+ * Orders are sorted by the map chunk their unit stands in, and chunks are
+ * worked out in parallel on the common fork-join pool. That phase only
+ * reads the map and the store, and writes what each order would do into its
+ * own slot, so chunks never touch each other's results. A serial merge then
+ * applies the results in the order they were given: attacks land first, then
+ * moves, where the first unit to claim a tile gets it and any later ones
+ * trying for the same tile stay put. Last, units killed this turn leave the
+ * store. Damage rolls come from the seed, the turn, and the order's place in
+ * its batch, so the outcome never depends on how the work was split up.<br>
+ * <br>
+ * Units may still share a tile; only moves onto the same tile in one turn
+ * conflict. A unit only gets its first move order in a turn; any more are
+ * dropped, even if the first was blocked.
+ * @author Joseph Cramsey
+ */
+public class TurnResolver {
+    
+    public static final int NO_TILE = -1;
+    
+    private static final int CHUNK_DIM = TacticalMapData.CHUNK_DIM;
+    private static final int DROPPED = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private final UnitStore store;
+    private final TerrainPassability passability;
+    private final CoverTable cover;
+    private final int width;
+    private final int chunkColumns;
+    private final int chunkCount;
+    private final long seed;
+    private final boolean isParallel;
+    private final int[] directionOffsets;
+    
+    // Tiles moved onto, open-addressed and stamped with the turn they were
+    // claimed on, so claims never need clearing. Kept at least twice the
+    // turn's move count, rather than one slot for every tile on the map.
+    private int[] claimTiles = new int[INITIAL_CAPACITY * 2];
+    private int[] claimTurns = new int[INITIAL_CAPACITY * 2];
+    
+    // The turn each row last had a move order, the same way
+    private int[] rowMoveTurns = new int[INITIAL_CAPACITY];
+    
+    // Where each chunk's orders start in the sorted lists
+    private final int[] moveChunkStarts;
+    private final int[] attackChunkStarts;
+    
+    // Per order, in the order given
+    private int[] moveRows = new int[INITIAL_CAPACITY];
+    private int[] moveStarts = new int[INITIAL_CAPACITY];
+    private int[] moveDestinations = new int[INITIAL_CAPACITY];
+    private int[] attackRows = new int[INITIAL_CAPACITY];
+    private int[] attackTargetRows = new int[INITIAL_CAPACITY];
+    private int[] attackDamages = new int[INITIAL_CAPACITY];
+    
+    // Order numbers, sorted by chunk
+    private int[] sortedMoves = new int[INITIAL_CAPACITY];
+    private int[] sortedAttacks = new int[INITIAL_CAPACITY];
+    
+    private int turn = 0;
+    private int lastMoved = 0;
+    private int lastBlocked = 0;
+    private int lastConflicts = 0;
+    private int lastHits = 0;
+    private int lastKills = 0;
+    private int lastDropped = 0;
+    
+    private long orderCount = 0;
+    private long sortNanos = 0;
+    private long parallelNanos = 0;
+    private long mergeNanos = 0;
+    
+    private TurnResolver(UnitStore store, TerrainPassability passability,
+            CoverTable cover, long seed, boolean isParallel) {
+        this.store = store;
+        this.passability = passability;
+        this.cover = cover;
+        this.seed = seed;
+        this.isParallel = isParallel;
+        TacticalMapData map = store.getMap();
+        width = map.getWidth();
+        chunkColumns = map.getChunkColumns();
+        chunkCount = chunkColumns * map.getChunkRows();
+        moveChunkStarts = new int[chunkCount + 1];
+        attackChunkStarts = new int[chunkCount + 1];
+        directionOffsets = TacticalTileData.createIndexOffsets(width);
+    }
+    
+    public static TurnResolver create(UnitStore store, TerrainPassability passability,
+            CoverTable cover, long seed) {
+        return create(store, passability, cover, seed, true);
+    }
+    
+    /**
+     * @param store the units taking orders
+     * @param passability moves allowed on the store's map
+     * @param cover cover on the store's map
+     * @param seed where damage rolls come from
+     * @param isParallel false to work out every chunk on the calling thread
+     * @return the new resolver
+     */
+    public static TurnResolver create(UnitStore store, TerrainPassability passability,
+            CoverTable cover, long seed, boolean isParallel) {
+        if (passability.getMap() != store.getMap() || cover.getMap() != store.getMap()) {
+            throw new RuntimeException("Passability and cover have to be for the store's map");
+        }
+        return new TurnResolver(store, passability, cover, seed, isParallel);
+    }
+    
+    public UnitStore getStore() {
+        return store;
+    }
+    
+    /**
+     * Carries out one turn's orders. Orders for units that are gone or dead
+     * when the turn starts, and attacks on units that are not next to the
+     * attacker or are on its own team, are dropped.
+     */
+    public void resolve(TurnOrders orders) {
+        int moveCount = orders.getMoveCount();
+        int attackCount = orders.getAttackCount();
+        turn++;
+        lastMoved = 0;
+        lastBlocked = 0;
+        lastConflicts = 0;
+        lastHits = 0;
+        lastKills = 0;
+        lastDropped = 0;
+        ensureCapacity(moveCount, attackCount);
+        
+        long start = System.nanoTime();
+        sortMoves(orders);
+        sortAttacks(orders);
+        long sorted = System.nanoTime();
+        
+        if (isParallel) {
+            IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+                resolveMoves(chunk, orders);
+                resolveAttacks(chunk, orders);
+            });
+        }
+        else {
+            // A plain loop, so serial turns allocate nothing
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                resolveMoves(chunk, orders);
+                resolveAttacks(chunk, orders);
+            }
+        }
+        long resolved = System.nanoTime();
+        
+        merge(orders);
+        long merged = System.nanoTime();
+        
+        orderCount += moveCount + attackCount;
+        sortNanos += sorted - start;
+        parallelNanos += resolved - sorted;
+        mergeNanos += merged - resolved;
+    }
+    
+    public int getTurn() {
+        return turn;
+    }
+    
+    /**
+     * @return units that moved last turn
+     */
+    public int getLastMoved() {
+        return lastMoved;
+    }
+    
+    /**
+     * @return moves last turn that terrain did not allow
+     */
+    public int getLastBlocked() {
+        return lastBlocked;
+    }
+    
+    /**
+     * @return moves last turn onto a tile another unit had already claimed
+     */
+    public int getLastConflicts() {
+        return lastConflicts;
+    }
+    
+    public int getLastHits() {
+        return lastHits;
+    }
+    
+    public int getLastKills() {
+        return lastKills;
+    }
+    
+    /**
+     * @return orders last turn that were not valid, or whose unit died first
+     */
+    public int getLastDropped() {
+        return lastDropped;
+    }
+    
+    /**
+     * @return every order given, over every turn
+     */
+    public long getOrderCount() {
+        return orderCount;
+    }
+    
+    public long getSortNanos() {
+        return sortNanos;
+    }
+    
+    public long getParallelNanos() {
+        return parallelNanos;
+    }
+    
+    public long getMergeNanos() {
+        return mergeNanos;
+    }
+    
+    public long getTotalNanos() {
+        return sortNanos + parallelNanos + mergeNanos;
+    }
+    
+    public double getOrdersPerSecond() {
+        long nanos = getTotalNanos();
+        return nanos == 0 ? 0 : orderCount * 1000000000.0 / nanos;
+    }
+    
+    public void resetStats() {
+        orderCount = 0;
+        sortNanos = 0;
+        parallelNanos = 0;
+        mergeNanos = 0;
+    }
+    
+    private int getChunk(int tileIndex) {
+        return (((tileIndex / width) / CHUNK_DIM) * chunkColumns) + ((tileIndex % width) / CHUNK_DIM);
+    }
+    
+    /**
+     * @return the unit's row, or DROPPED if it cannot act this turn
+     */
+    private int getActingRow(int handle) {
+        if (!store.hasUnit(handle)) return DROPPED;
+        int row = store.getRow(handle);
+        return store.getHitPointColumn()[row] > 0 ? row : DROPPED;
+    }
+    
+    private void sortMoves(TurnOrders orders) {
+        int count = orders.getMoveCount();
+        int[] tileIndices = store.getTileIndexColumn();
+        Arrays.fill(moveChunkStarts, 0);
+        for (int order = 0; order < count; order++) {
+            int row = getActingRow(orders.getMoveUnit(order));
+            moveRows[order] = row;
+            if (row == DROPPED) continue;
+            moveStarts[order] = tileIndices[row];
+            moveChunkStarts[getChunk(tileIndices[row]) + 1]++;
+        }
+        
+        // Counting sort, which keeps orders in the order given within a chunk
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            moveChunkStarts[chunk + 1] += moveChunkStarts[chunk];
+        }
+        for (int order = 0; order < count; order++) {
+            if (moveRows[order] == DROPPED) continue;
+            sortedMoves[moveChunkStarts[getChunk(moveStarts[order])]++] = order;
+        }
+        
+        // Filling moved each start to where the next chunk starts
+        System.arraycopy(moveChunkStarts, 0, moveChunkStarts, 1, chunkCount);
+        moveChunkStarts[0] = 0;
+    }
+    
+    private void sortAttacks(TurnOrders orders) {
+        int count = orders.getAttackCount();
+        int[] tileIndices = store.getTileIndexColumn();
+        Arrays.fill(attackChunkStarts, 0);
+        for (int order = 0; order < count; order++) {
+            int row = getActingRow(orders.getAttackUnit(order));
+            int target = orders.getAttackTarget(order);
+            attackRows[order] = row;
+            attackTargetRows[order] = store.hasUnit(target) ? store.getRow(target) : DROPPED;
+            if (row == DROPPED || attackTargetRows[order] == DROPPED) {
+                attackRows[order] = DROPPED;
+                continue;
+            }
+            attackChunkStarts[getChunk(tileIndices[row]) + 1]++;
+        }
+        
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            attackChunkStarts[chunk + 1] += attackChunkStarts[chunk];
+        }
+        for (int order = 0; order < count; order++) {
+            if (attackRows[order] == DROPPED) continue;
+            sortedAttacks[attackChunkStarts[getChunk(tileIndices[attackRows[order]])]++] = order;
+        }
+        
+        System.arraycopy(attackChunkStarts, 0, attackChunkStarts, 1, chunkCount);
+        attackChunkStarts[0] = 0;
+    }
+    
+    private void resolveMoves(int chunk, TurnOrders orders) {
+        for (int i = moveChunkStarts[chunk]; i < moveChunkStarts[chunk + 1]; i++) {
+            int order = sortedMoves[i];
+            int tileIndex = moveStarts[order];
+            int direction = orders.getMoveDirection(order);
+            moveDestinations[order] = passability.canStep(tileIndex, direction)
+                    ? tileIndex + directionOffsets[direction] : NO_TILE;
+        }
+    }
+    
+    private void resolveAttacks(int chunk, TurnOrders orders) {
+        int[] tileIndices = store.getTileIndexColumn();
+        byte[] teams = store.getTeamColumn();
+        for (int i = attackChunkStarts[chunk]; i < attackChunkStarts[chunk + 1]; i++) {
+            int order = sortedAttacks[i];
+            int row = attackRows[order];
+            int targetRow = attackTargetRows[order];
+            int tileIndex = tileIndices[row];
+            int targetTileIndex = tileIndices[targetRow];
+            int x = tileIndex % width;
+            int y = tileIndex / width;
+            int targetX = targetTileIndex % width;
+            int targetY = targetTileIndex / width;
+            if (teams[row] == teams[targetRow]
+                    || Math.abs(targetX - x) > 1 || Math.abs(targetY - y) > 1) {
+                attackDamages[order] = DROPPED;
+                continue;
+            }
+            
+            long roll = SplitMix64.mix(seed ^ SplitMix64.mix(((long)turn << 32) | order));
+            attackDamages[order] = CoverTable.getAttackDamage(
+                    (int)Long.remainderUnsigned(roll, CoverTable.DAMAGE_SPREAD),
+                    cover.getElevationAdvantage(tileIndex, targetTileIndex),
+                    cover.getCover(targetX, targetY, x, y)
+            );
+        }
+    }
+    
+    private void merge(TurnOrders orders) {
+        int[] tileIndices = store.getTileIndexColumn();
+        int[] hitPoints = store.getHitPointColumn();
+        
+        // Every attack lands, even from units that fall this turn
+        for (int order = 0; order < orders.getAttackCount(); order++) {
+            if (attackRows[order] == DROPPED || attackDamages[order] == DROPPED) {
+                lastDropped++;
+                continue;
+            }
+            hitPoints[attackTargetRows[order]] -= attackDamages[order];
+            lastHits++;
+        }
+        
+        for (int order = 0; order < orders.getMoveCount(); order++) {
+            int row = moveRows[order];
+            if (row == DROPPED || hitPoints[row] <= 0 || rowMoveTurns[row] == turn) {
+                lastDropped++;
+                continue;
+            }
+            rowMoveTurns[row] = turn;
+            int destination = moveDestinations[order];
+            if (destination == NO_TILE) {
+                lastBlocked++;
+            }
+            else if (!claimTile(destination)) {
+                lastConflicts++;
+            }
+            else {
+                tileIndices[row] = destination;
+                lastMoved++;
+            }
+        }
+        
+        // Removing moves rows around, so go by handle from here
+        for (int order = 0; order < orders.getAttackCount(); order++) {
+            int target = orders.getAttackTarget(order);
+            if (attackRows[order] == DROPPED || !store.hasUnit(target)) continue;
+            if (store.getHitPoints(target) <= 0) {
+                store.removeUnit(target);
+                lastKills++;
+            }
+        }
+    }
+    
+    /**
+     * @return false if another unit already moved onto the tile this turn
+     */
+    private boolean claimTile(int tileIndex) {
+        int mask = claimTiles.length - 1;
+        int hash = tileIndex * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (claimTurns[slot] == turn) {
+            if (claimTiles[slot] == tileIndex) return false;
+            slot = (slot + 1) & mask;
+        }
+        claimTiles[slot] = tileIndex;
+        claimTurns[slot] = turn;
+        return true;
+    }
+    
+    private void ensureCapacity(int moveCount, int attackCount) {
+        if (store.getCount() > rowMoveTurns.length) {
+            rowMoveTurns = Arrays.copyOf(rowMoveTurns, Math.max(store.getCount(), rowMoveTurns.length * 2));
+        }
+        if (moveCount > moveRows.length) {
+            int capacity = Math.max(moveCount, moveRows.length * 2);
+            moveRows = new int[capacity];
+            moveStarts = new int[capacity];
+            moveDestinations = new int[capacity];
+            sortedMoves = new int[capacity];
+        }
+        if (moveCount * 2 > claimTiles.length) {
+            // Stamps from before are all zero, which no turn uses
+            int capacity = Integer.highestOneBit((moveCount * 2) - 1) << 1;
+            claimTiles = new int[capacity];
+            claimTurns = new int[capacity];
+        }
+        if (attackCount > attackRows.length) {
+            int capacity = Math.max(attackCount, attackRows.length * 2);
+            attackRows = new int[capacity];
+            attackTargetRows = new int[capacity];
+            attackDamages = new int[capacity];
+            sortedAttacks = new int[capacity];
+        }
+    }
+}
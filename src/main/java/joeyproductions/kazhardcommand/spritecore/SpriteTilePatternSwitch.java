@@ -267,7 +267,7 @@ public abstract class SpriteTilePatternSwitch {
 
                 @Override
                 public byte getPattern(TacticalTileData dataTile) {
-                    return dataTile.neighborRaisePattern;
+                    return dataTile.getNeighborRaisePattern();
                 }
             };
             IS_RAISED_SWITCH.setDefault(Sprite.BLANK_GROUND);
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.unitcore;
+
+import joeyproductions.kazhardcommand.pathcore.TerrainPassability;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Walks every living unit in a store one tile along its facing each tick,
+ * turning clockwise when the way ahead is blocked. It only reads and writes
+ * the store's columns, row by row.
+ * @author Joseph Cramsey
+ */
+public class UnitMovementSystem {
+    
+    private final UnitStore store;
+    private final TerrainPassability passability;
+    
+    // How far a step in each direction moves a tile index
+    private final int[] directionOffsets;
+    
+    private UnitMovementSystem(UnitStore store, TerrainPassability passability) {
+        this.store = store;
+        this.passability = passability;
+        int width = store.getMap().getWidth();
+        directionOffsets = TacticalTileData.createIndexOffsets(width);
+    }
+    
+    /**
+     * @param store the units to move
+     * @param passability moves allowed on the store's map
+     */
+    public static UnitMovementSystem create(UnitStore store, TerrainPassability passability) {
+        if (passability.getMap() != store.getMap()) {
+            throw new RuntimeException("Passability is for another map");
+        }
+        return new UnitMovementSystem(store, passability);
+    }
+    
+    /**
+     * @return how many units took a step
+     */
+    public int step() {
+        int count = store.getCount();
+        int[] tileIndices = store.getTileIndexColumn();
+        int[] hitPoints = store.getHitPointColumn();
+        byte[] facings = store.getFacingColumn();
+        
+        int moved = 0;
+        for (int row = 0; row < count; row++) {
+            if (hitPoints[row] <= 0) continue;
+            
+            int tileIndex = tileIndices[row];
+            int facing = facings[row];
+            if (passability.canStep(tileIndex, facing)) {
+                tileIndices[row] = tileIndex + directionOffsets[facing];
+                moved++;
+            }
+            else {
+                facings[row] = (byte)((facing + 1) % TacticalTileData.DIR_LEN);
+            }
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.unitcore;
+
+import java.util.Arrays;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+
+/**
+ * A uniform grid over a tactical map, for finding units by position. Each
+ * cell covers a square of tiles, and keeps its units in an intrusive doubly
+ * linked list, so adding, removing, and moving a unit are all constant time.
+ * <br><br>
+ * Queries write unit ids into a caller's buffer, or can be walked by hand with
+ * getCellHead() and getNextInCell(), and never allocate.
+ * @author Joseph Cramsey
+ */
+public class UnitSpatialIndex {
+    
+    public static final int NO_UNIT = -1;
+    public static final int DEFAULT_CELL_SHIFT = 2;
+    
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_CELL_SHIFT = 8;
+    
+    private final TacticalMapData map;
+    private final int width;
+    private final int height;
+    private final int cellShift;
+    private final int cellColumns;
+    private final int cellRows;
+    private final int[] cellHeads;
+    
+    // Units, by id; ids of removed units are reused
+    private int[] unitXs = new int[INITIAL_CAPACITY];
+    private int[] unitYs = new int[INITIAL_CAPACITY];
+    private int[] unitCells = new int[INITIAL_CAPACITY];
+    private int[] nextUnits = new int[INITIAL_CAPACITY];
+    private int[] previousUnits = new int[INITIAL_CAPACITY];
+    private int unitLimit = 0;
+    private int unitCount = 0;
+    private int freeHead = NO_UNIT;
+    
+    private UnitSpatialIndex(TacticalMapData map, int cellShift) {
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+        this.cellShift = cellShift;
+        cellColumns = ((width - 1) >> cellShift) + 1;
+        cellRows = ((height - 1) >> cellShift) + 1;
+        cellHeads = new int[cellColumns * cellRows];
+        Arrays.fill(cellHeads, NO_UNIT);
+    }
+    
+    public static UnitSpatialIndex create(TacticalMapData map) {
+        return create(map, DEFAULT_CELL_SHIFT);
+    }
+    
+    /**
+     * @param map the map units stand on
+     * @param cellShift cells are 2^cellShift tiles on a side, and 0 makes
+     * every tile its own cell
+     */
+    public static UnitSpatialIndex create(TacticalMapData map, int cellShift) {
+        if (cellShift < 0 || cellShift > MAX_CELL_SHIFT) {
+            throw new RuntimeException("Cell shift out of range: " + cellShift);
+        }
+        return new UnitSpatialIndex(map, cellShift);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public int getCellShift() {
+        return cellShift;
+    }
+    
+    public int getUnitCount() {
+        return unitCount;
+    }
+    
+    /**
+     * @return one more than the highest id handed out so far
+     */
+    public int getUnitLimit() {
+        return unitLimit;
+    }
+    
+    /**
+     * @return the new unit's id, which stays the same until it is removed
+     */
+    public int addUnit(int x, int y) {
+        checkPosition(x, y);
+        
+        int id;
+        if (freeHead != NO_UNIT) {
+            id = freeHead;
+            freeHead = nextUnits[id];
+        }
+        else {
+            if (unitLimit == unitXs.length) {
+                grow(unitLimit * 2);
+            }
+            id = unitLimit++;
+        }
+        
+        unitXs[id] = x;
+        unitYs[id] = y;
+        link(id, getCell(x, y));
+        unitCount++;
+        return id;
+    }
+    
+    public void removeUnit(int id) {
+        checkUnit(id);
+        
+        unlink(id);
+        unitCells[id] = NO_UNIT;
+        nextUnits[id] = freeHead;
+        freeHead = id;
+        unitCount--;
+    }
+    
+    public void moveUnit(int id, int x, int y) {
+        checkUnit(id);
+        checkPosition(x, y);
+        
+        unitXs[id] = x;
+        unitYs[id] = y;
+        int cell = getCell(x, y);
+        if (cell == unitCells[id]) return;
+        unlink(id);
+        link(id, cell);
+    }
+    
+    public boolean hasUnit(int id) {
+        return id >= 0 && id < unitLimit && unitCells[id] != NO_UNIT;
+    }
+    
+    public int getUnitX(int id) {
+        checkUnit(id);
+        return unitXs[id];
+    }
+    
+    public int getUnitY(int id) {
+        checkUnit(id);
+        return unitYs[id];
+    }
+    
+    public int getCell(int x, int y) {
+        return ((y >> cellShift) * cellColumns) + (x >> cellShift);
+    }
+    
+    public int getCellHead(int cell) {
+        return cellHeads[cell];
+    }
+    
+    /**
+     * @return the next unit in the same cell, or NO_UNIT
+     */
+    public int getNextInCell(int id) {
+        return nextUnits[id];
+    }
+    
+    /**
+     * Finds the units standing on one tile.
+     * @param out receives unit ids, as many as fit
+     * @return how many units were found, which can be more than fit in out
+     */
+    public int getUnitsOnTile(int x, int y, int[] out) {
+        return queryRectangle(x, y, x, y, out);
+    }
+    
+    /**
+     * Finds the units inside a rectangle, edges included. The rectangle is
+     * clipped to the map.
+     * @param out receives unit ids, as many as fit
+     * @return how many units were found, which can be more than fit in out
+     */
+    public int queryRectangle(int minX, int minY, int maxX, int maxY, int[] out) {
+        minX = Math.max(0, minX);
+        minY = Math.max(0, minY);
+        maxX = Math.min(width - 1, maxX);
+        maxY = Math.min(height - 1, maxY);
+        
+        int found = 0;
+        for (int cy = minY >> cellShift; cy <= maxY >> cellShift; cy++) {
+            for (int cx = minX >> cellShift; cx <= maxX >> cellShift; cx++) {
+                // Cells fully inside need no checks per unit
+                boolean isInside = (cx << cellShift) >= minX && (cy << cellShift) >= minY
+                        && ((cx + 1) << cellShift) - 1 <= maxX && ((cy + 1) << cellShift) - 1 <= maxY;
+                for (int id = cellHeads[(cy * cellColumns) + cx]; id != NO_UNIT; id = nextUnits[id]) {
+                    if (isInside || (unitXs[id] >= minX && unitXs[id] <= maxX
+                            && unitYs[id] >= minY && unitYs[id] <= maxY)) {
+                        if (found < out.length) {
+                            out[found] = id;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Finds the units within a distance of a tile, measured center to center.
+     * @param out receives unit ids, as many as fit
+     * @return how many units were found, which can be more than fit in out
+     */
+    public int queryRadius(int centerX, int centerY, int radius, int[] out) {
+        long radiusSquared = (long)radius * radius;
+        int found = 0;
+        int minY = Math.max(0, centerY - radius);
+        int maxY = Math.min(height - 1, centerY + radius);
+        int minX = Math.max(0, centerX - radius);
+        int maxX = Math.min(width - 1, centerX + radius);
+        for (int cy = minY >> cellShift; cy <= maxY >> cellShift; cy++) {
+            for (int cx = minX >> cellShift; cx <= maxX >> cellShift; cx++) {
+                for (int id = cellHeads[(cy * cellColumns) + cx]; id != NO_UNIT; id = nextUnits[id]) {
+                    long dx = unitXs[id] - centerX;
+                    long dy = unitYs[id] - centerY;
+                    if ((dx * dx) + (dy * dy) <= radiusSquared) {
+                        if (found < out.length) {
+                            out[found] = id;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Removes every unit, keeping the storage around.
+     */
+    public void clear() {
+        Arrays.fill(cellHeads, NO_UNIT);
+        unitLimit = 0;
+        unitCount = 0;
+        freeHead = NO_UNIT;
+    }
+    
+    private void link(int id, int cell) {
+        int head = cellHeads[cell];
+        unitCells[id] = cell;
+        previousUnits[id] = NO_UNIT;
+        nextUnits[id] = head;
+        if (head != NO_UNIT) {
+            previousUnits[head] = id;
+        }
+        cellHeads[cell] = id;
+    }
+    
+    private void unlink(int id) {
+        int previous = previousUnits[id];
+        int next = nextUnits[id];
+        if (previous != NO_UNIT) {
+            nextUnits[previous] = next;
+        }
+        else {
+            cellHeads[unitCells[id]] = next;
+        }
+        if (next != NO_UNIT) {
+            previousUnits[next] = previous;
+        }
+    }
+    
+    private void grow(int capacity) {
+        unitXs = Arrays.copyOf(unitXs, capacity);
+        unitYs = Arrays.copyOf(unitYs, capacity);
+        unitCells = Arrays.copyOf(unitCells, capacity);
+        nextUnits = Arrays.copyOf(nextUnits, capacity);
+        previousUnits = Arrays.copyOf(previousUnits, capacity);
+    }
+    
+    private void checkPosition(int x, int y) {
+        if (!map.isInBounds(x, y)) {
+            throw new RuntimeException("Unit position out of range: " + x + ", " + y);
+        }
+    }
+    
+    private void checkUnit(int id) {
+        if (!hasUnit(id)) {
+            throw new RuntimeException("Unit out of range: " + id);
+        }
+    }
+}
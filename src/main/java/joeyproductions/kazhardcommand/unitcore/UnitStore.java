@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.unitcore;
+
+import java.util.Arrays;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Units as rows of primitive columns, instead of one object per unit, so a
+ * whole army costs a handful of arrays and nothing for the collector to
+ * walk.<br>
+ * <br>
+ * Living units are packed into the first getCount() rows of every column,
+ * and systems loop straight over those. Removing a unit moves the last row
+ * into its place, so rows are not stable; handles are. A handle keeps a slot
+ * number and that slot's generation, so a handle to a removed unit stops
+ * working even after its slot goes to a new unit.<br>
+ * <br>
+ * Columns are handed out as the arrays themselves. They are replaced when
+ * the store grows, so fetch them again after adding units.
+ * @author Joseph Cramsey
+ */
+public class UnitStore {
+    
+    public static final int NO_UNIT = -1;
+    public static final int MAX_UNITS = 1 << 20;
+    
+    // Handles keep the sign bit clear, so they never look like NO_UNIT
+    private static final int SLOT_BITS = Integer.numberOfTrailingZeros(MAX_UNITS);
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private final TacticalMapData map;
+    private final int tileCount;
+    
+    // Columns, by row
+    private int[] tileIndices;
+    private int[] hitPoints;
+    private byte[] facings;
+    private byte[] teams;
+    private int[] rowHandles;
+    private int count = 0;
+    
+    // Slots, by handle; a free slot's row holds the next free slot instead
+    private int[] slotRows;
+    private int[] slotGenerations;
+    private int slotLimit = 0;
+    private int freeHead = NO_UNIT;
+    
+    private UnitStore(TacticalMapData map, int capacity) {
+        this.map = map;
+        tileCount = map.getTileCount();
+        tileIndices = new int[capacity];
+        hitPoints = new int[capacity];
+        facings = new byte[capacity];
+        teams = new byte[capacity];
+        rowHandles = new int[capacity];
+        slotRows = new int[capacity];
+        slotGenerations = new int[capacity];
+    }
+    
+    public static UnitStore create(TacticalMapData map) {
+        return create(map, INITIAL_CAPACITY);
+    }
+    
+    /**
+     * @param map the map units stand on
+     * @param capacity how many units fit before the columns have to grow
+     */
+    public static UnitStore create(TacticalMapData map, int capacity) {
+        if (capacity < 1 || capacity > MAX_UNITS) {
+            throw new RuntimeException("Unit capacity out of range: " + capacity);
+        }
+        return new UnitStore(map, capacity);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * @return how many units are alive, which is also how many rows are in use
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * @param tileIndex where the unit stands, as a tile index into the map
+     * @param team the unit's team
+     * @param hitPoints the unit's starting health
+     * @param facing one of the TacticalTileData directions
+     * @return the new unit's handle, which stays valid until it is removed
+     */
+    public int addUnit(int tileIndex, int team, int hitPoints, int facing) {
+        checkTileIndex(tileIndex);
+        checkFacing(facing);
+        if (team < 0 || team > Byte.MAX_VALUE) {
+            throw new RuntimeException("Team out of range: " + team);
+        }
+        
+        int slot;
+        if (freeHead != NO_UNIT) {
+            slot = freeHead;
+            freeHead = slotRows[slot];
+        }
+        else {
+            if (slotLimit == MAX_UNITS) {
+                throw new RuntimeException("Unit count out of range: " + (count + 1));
+            }
+            if (slotLimit == slotRows.length) {
+                growSlots(Math.min(MAX_UNITS, slotLimit * 2));
+            }
+            slot = slotLimit++;
+        }
+        if (count == tileIndices.length) {
+            growRows(Math.min(MAX_UNITS, count * 2));
+        }
+        
+        int row = count++;
+        int handle = (slotGenerations[slot] << SLOT_BITS) | slot;
+        slotRows[slot] = row;
+        rowHandles[row] = handle;
+        tileIndices[row] = tileIndex;
+        this.hitPoints[row] = hitPoints;
+        facings[row] = (byte)facing;
+        teams[row] = (byte)team;
+        return handle;
+    }
+    
+    /**
+     * Removes a unit. The last row moves into its place, so when removing
+     * while looping over rows, either loop backwards or look at the same row
+     * again.
+     */
+    public void removeUnit(int handle) {
+        int row = getRow(handle);
+        int slot = handle & SLOT_MASK;
+        
+        int last = --count;
+        if (row != last) {
+            int moved = rowHandles[last];
+            tileIndices[row] = tileIndices[last];
+            hitPoints[row] = hitPoints[last];
+            facings[row] = facings[last];
+            teams[row] = teams[last];
+            rowHandles[row] = moved;
+            slotRows[moved & SLOT_MASK] = row;
+        }
+        
+        // Old handles to this slot stop matching right away
+        slotGenerations[slot] = (slotGenerations[slot] + 1) & GENERATION_MASK;
+        slotRows[slot] = freeHead;
+        freeHead = slot;
+    }
+    
+    public boolean hasUnit(int handle) {
+        if (handle < 0) return false;
+        int slot = handle & SLOT_MASK;
+        return slot < slotLimit && slotGenerations[slot] == (handle >>> SLOT_BITS);
+    }
+    
+    /**
+     * @return the row a unit is in right now, which changes as units are
+     * removed
+     */
+    public int getRow(int handle) {
+        if (!hasUnit(handle)) {
+            throw new RuntimeException("Unit out of range: " + handle);
+        }
+        return slotRows[handle & SLOT_MASK];
+    }
+    
+    /**
+     * @return the slot a handle points at, which stays the same for as long
+     * as the unit lives, so other classes can keep their own data by slot
+     */
+    public static int getSlot(int handle) {
+        return handle & SLOT_MASK;
+    }
+    
+    /**
+     * @return one more than the highest slot handed out so far
+     */
+    public int getSlotLimit() {
+        return slotLimit;
+    }
+    
+    public int getHandle(int row) {
+        checkRow(row);
+        return rowHandles[row];
+    }
+    
+    public int getTileIndex(int handle) {
+        return tileIndices[getRow(handle)];
+    }
+    
+    public void setTileIndex(int handle, int tileIndex) {
+        checkTileIndex(tileIndex);
+        tileIndices[getRow(handle)] = tileIndex;
+    }
+    
+    public int getHitPoints(int handle) {
+        return hitPoints[getRow(handle)];
+    }
+    
+    public void setHitPoints(int handle, int value) {
+        hitPoints[getRow(handle)] = value;
+    }
+    
+    public int getFacing(int handle) {
+        return facings[getRow(handle)];
+    }
+    
+    public void setFacing(int handle, int facing) {
+        checkFacing(facing);
+        facings[getRow(handle)] = (byte)facing;
+    }
+    
+    public int getTeam(int handle) {
+        return teams[getRow(handle)];
+    }
+    
+    /**
+     * @return tile indices into the map, by row
+     */
+    public int[] getTileIndexColumn() {
+        return tileIndices;
+    }
+    
+    public int[] getHitPointColumn() {
+        return hitPoints;
+    }
+    
+    /**
+     * @return TacticalTileData directions, by row
+     */
+    public byte[] getFacingColumn() {
+        return facings;
+    }
+    
+    public byte[] getTeamColumn() {
+        return teams;
+    }
+    
+    /**
+     * Makes this store hold the same units as another, handles included,
+     * growing only if the other has more.
+     * @param other a store on the same map
+     */
+    public void copyFrom(UnitStore other) {
+        if (other.map != map) {
+            throw new RuntimeException("Unit store is for another map");
+        }
+        if (other.count > tileIndices.length) {
+            growRows(other.count);
+        }
+        if (other.slotLimit > slotRows.length) {
+            growSlots(other.slotLimit);
+        }
+        
+        count = other.count;
+        System.arraycopy(other.tileIndices, 0, tileIndices, 0, count);
+        System.arraycopy(other.hitPoints, 0, hitPoints, 0, count);
+        System.arraycopy(other.facings, 0, facings, 0, count);
+        System.arraycopy(other.teams, 0, teams, 0, count);
+        System.arraycopy(other.rowHandles, 0, rowHandles, 0, count);
+        
+        // Slots past the other's limit are never looked at
+        slotLimit = other.slotLimit;
+        System.arraycopy(other.slotRows, 0, slotRows, 0, slotLimit);
+        System.arraycopy(other.slotGenerations, 0, slotGenerations, 0, slotLimit);
+        freeHead = other.freeHead;
+    }
+    
+    /**
+     * Removes every unit, keeping the storage around. Generations carry on,
+     * so handles from before still do not work.
+     */
+    public void clear() {
+        for (int row = count - 1; row >= 0; row--) {
+            removeUnit(rowHandles[row]);
+        }
+    }
+    
+    private void growRows(int capacity) {
+        tileIndices = Arrays.copyOf(tileIndices, capacity);
+        hitPoints = Arrays.copyOf(hitPoints, capacity);
+        facings = Arrays.copyOf(facings, capacity);
+        teams = Arrays.copyOf(teams, capacity);
+        rowHandles = Arrays.copyOf(rowHandles, capacity);
+    }
+    
+    private void growSlots(int capacity) {
+        slotRows = Arrays.copyOf(slotRows, capacity);
+        slotGenerations = Arrays.copyOf(slotGenerations, capacity);
+    }
+    
+    private void checkTileIndex(int tileIndex) {
+        if (tileIndex < 0 || tileIndex >= tileCount) {
+            throw new RuntimeException("Tile index out of range: " + tileIndex);
+        }
+    }
+    
+    private static void checkFacing(int facing) {
+        if (facing < 0 || facing >= TacticalTileData.DIR_LEN) {
+            throw new RuntimeException("Facing out of range: " + facing);
+        }
+    }
+    
+    private void checkRow(int row) {
+        if (row < 0 || row >= count) {
+            throw new RuntimeException("Row out of range: " + row);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.visioncore;
+
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Recursive shadowcasting over a tactical map. Tiles above the observer block
+ * sight, but can still be seen themselves. Observers see over everything on
+ * their own level or below.
+ * @author Joseph Cramsey
+ */
+public class FieldOfView {
+    
+    // Sign flips for each octant: xx, xy, yx, yy
+    private static final int[][] OCTANTS = {
+        {1, 0, 0, 1}, {0, 1, 1, 0}, {0, -1, 1, 0}, {-1, 0, 0, 1},
+        {-1, 0, 0, -1}, {0, -1, -1, 0}, {0, 1, -1, 0}, {1, 0, 0, -1}
+    };
+    
+    private final TacticalMapData map;
+    private final TacticalTileData[] tiles;
+    private final int width;
+    private final int height;
+    
+    // Set for the duration of one compute() call
+    private VisibilityWindow target;
+    private int originX;
+    private int originY;
+    private int radius;
+    private int observerLevel;
+    
+    private FieldOfView(TacticalMapData map) {
+        this.map = map;
+        tiles = map.getTiles();
+        width = map.getWidth();
+        height = map.getHeight();
+    }
+    
+    public static FieldOfView create(TacticalMapData map) {
+        return new FieldOfView(map);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    /**
+     * Works out what one observer can see. Not safe to call from more than
+     * one thread at a time; make one FieldOfView per thread instead.
+     * @param x observer x coordinate
+     * @param y observer y coordinate
+     * @param radius how far the observer can see, in tiles
+     * @param out receives the visible tiles, replacing what it had
+     */
+    public void compute(int x, int y, int radius, VisibilityWindow out) {
+        if (radius < 0) {
+            throw new RuntimeException("Sight radius out of range: " + radius);
+        }
+        
+        target = out;
+        originX = x;
+        originY = y;
+        this.radius = radius;
+        observerLevel = tiles[map.getTileIndex(x, y)].getLevel();
+        
+        out.reset(width, height, x, y, radius);
+        out.set(x, y);
+        for (int[] octant : OCTANTS) {
+            castLight(1, 1.0, 0.0, octant[0], octant[1], octant[2], octant[3]);
+        }
+        target = null;
+    }
+    
+    private boolean isOpaque(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return true;
+        return tiles[(y * width) + x].getLevel() > observerLevel;
+    }
+    
+    /**
+     * Scans one octant row by row, between two slopes, and recurses past
+     * every blocker with a narrower slope range.
+     */
+    private void castLight(int row, double startSlope, double endSlope, int xx, int xy, int yx, int yy) {
+        if (startSlope < endSlope) return;
+        
+        int radiusSquared = radius * radius;
+        double nextStartSlope = startSlope;
+        for (int distance = row; distance <= radius; distance++) {
+            boolean isBlocked = false;
+            int dy = -distance;
+            for (int dx = -distance; dx <= 0; dx++) {
+                double leftSlope = (dx - 0.5) / (dy + 0.5);
+                double rightSlope = (dx + 0.5) / (dy - 0.5);
+                if (startSlope < rightSlope) continue;
+                if (endSlope > leftSlope) break;
+                
+                int x = originX + (dx * xx) + (dy * xy);
+                int y = originY + (dx * yx) + (dy * yy);
+                boolean isInside = x >= 0 && y >= 0 && x < width && y < height;
+                if (isInside && (dx * dx) + (dy * dy) <= radiusSquared) {
+                    target.set(x, y);
+                }
+                
+                boolean isOpaque = isOpaque(x, y);
+                if (isBlocked) {
+                    if (isOpaque) {
+                        nextStartSlope = rightSlope;
+                    }
+                    else {
+                        isBlocked = false;
+                        startSlope = nextStartSlope;
+                    }
+                }
+                else if (isOpaque && distance < radius) {
+                    // Everything past this blocker is in its shadow
+                    isBlocked = true;
+                    castLight(distance + 1, startSlope, leftSlope, xx, xy, yx, yy);
+                    nextStartSlope = rightSlope;
+                }
+            }
+            if (isBlocked) return;
+        }
+    }
+}
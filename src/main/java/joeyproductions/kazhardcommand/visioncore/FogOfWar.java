@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.visioncore;
+
+import java.util.Arrays;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapChange;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapData;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalMapListener;
+import joeyproductions.kazhardcommand.sessioncore.data.TacticalTileData;
+
+/**
+ * Keeps track of what each team can see. Every observer keeps its own
+ * VisibilityWindow, and a team's fog is the OR of its observers' windows.<br>
+ * <br>
+ * Nothing is worked out right away. Moving an observer, or editing elevation
+ * inside its sight square, only marks it dirty, and update() then recomputes
+ * just the dirty observers and merges the teams they belong to.
+ * @author Joseph Cramsey
+ */
+public class FogOfWar implements TacticalMapListener {
+    
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private final TacticalMapData map;
+    private final FieldOfView fieldOfView;
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    
+    // Observers, by id; ids of removed observers are reused
+    private int[] observerXs = new int[INITIAL_CAPACITY];
+    private int[] observerYs = new int[INITIAL_CAPACITY];
+    private int[] radii = new int[INITIAL_CAPACITY];
+    private int[] teams = new int[INITIAL_CAPACITY];
+    private boolean[] isActive = new boolean[INITIAL_CAPACITY];
+    private boolean[] isDirty = new boolean[INITIAL_CAPACITY];
+    private VisibilityWindow[] windows = new VisibilityWindow[INITIAL_CAPACITY];
+    private int observerLimit = 0;
+    private int observerCount = 0;
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeIdCount = 0;
+    
+    // One bit per tile, per team
+    private final long[][] visibleWords;
+    private final long[][] exploredWords;
+    private final boolean[] isTeamDirty;
+    
+    private long recomputeCount = 0;
+    private long mergeCount = 0;
+    
+    private FogOfWar(TacticalMapData map, int teamCount) {
+        this.map = map;
+        fieldOfView = FieldOfView.create(map);
+        width = map.getWidth();
+        height = map.getHeight();
+        wordsPerRow = (width + 63) >>> 6;
+        visibleWords = new long[teamCount][wordsPerRow * height];
+        exploredWords = new long[teamCount][wordsPerRow * height];
+        isTeamDirty = new boolean[teamCount];
+    }
+    
+    public static FogOfWar create(TacticalMapData map, int teamCount) {
+        if (teamCount < 1) {
+            throw new RuntimeException("Team count out of range: " + teamCount);
+        }
+        
+        FogOfWar product = new FogOfWar(map, teamCount);
+        map.addListener(product);
+        return product;
+    }
+    
+    public void dispose() {
+        map.removeListener(this);
+    }
+    
+    public TacticalMapData getMap() {
+        return map;
+    }
+    
+    public int getTeamCount() {
+        return isTeamDirty.length;
+    }
+    
+    /**
+     * Adds an observer, which will be seen to on the next update().
+     * @return the observer's id, which stays the same until it is removed
+     */
+    public int addObserver(int team, int x, int y, int radius) {
+        checkTeam(team);
+        checkPosition(x, y);
+        if (radius < 0) {
+            throw new RuntimeException("Sight radius out of range: " + radius);
+        }
+        
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        }
+        else {
+            if (observerLimit == observerXs.length) {
+                grow(observerLimit * 2);
+            }
+            id = observerLimit++;
+            windows[id] = new VisibilityWindow();
+        }
+        
+        observerXs[id] = x;
+        observerYs[id] = y;
+        radii[id] = radius;
+        teams[id] = team;
+        isActive[id] = true;
+        isDirty[id] = true;
+        observerCount++;
+        return id;
+    }
+    
+    public void removeObserver(int id) {
+        checkObserver(id);
+        
+        isActive[id] = false;
+        isDirty[id] = false;
+        isTeamDirty[teams[id]] = true;
+        observerCount--;
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+        }
+        freeIds[freeIdCount++] = id;
+    }
+    
+    public void moveObserver(int id, int x, int y) {
+        checkObserver(id);
+        checkPosition(x, y);
+        if (observerXs[id] == x && observerYs[id] == y) return;
+        
+        observerXs[id] = x;
+        observerYs[id] = y;
+        isDirty[id] = true;
+    }
+    
+    public int getObserverX(int id) {
+        checkObserver(id);
+        return observerXs[id];
+    }
+    
+    public int getObserverY(int id) {
+        checkObserver(id);
+        return observerYs[id];
+    }
+    
+    public int getObserverTeam(int id) {
+        checkObserver(id);
+        return teams[id];
+    }
+    
+    public int getObserverCount() {
+        return observerCount;
+    }
+    
+    /**
+     * Gets what one observer saw as of the last update().
+     */
+    public VisibilityWindow getObserverVisibility(int id) {
+        checkObserver(id);
+        return windows[id];
+    }
+    
+    /**
+     * Recomputes dirty observers, and merges the fog of every team that had
+     * one of them.
+     * @return how many observers were recomputed
+     */
+    public int update() {
+        int recomputed = 0;
+        for (int id = 0; id < observerLimit; id++) {
+            if (!isDirty[id]) continue;
+            
+            fieldOfView.compute(observerXs[id], observerYs[id], radii[id], windows[id]);
+            isDirty[id] = false;
+            isTeamDirty[teams[id]] = true;
+            recomputed++;
+        }
+        recomputeCount += recomputed;
+        
+        for (int team = 0; team < isTeamDirty.length; team++) {
+            if (!isTeamDirty[team]) continue;
+            
+            long[] visible = visibleWords[team];
+            Arrays.fill(visible, 0L);
+            for (int id = 0; id < observerLimit; id++) {
+                if (isActive[id] && teams[id] == team) {
+                    windows[id].orInto(visible, wordsPerRow);
+                }
+            }
+            
+            long[] explored = exploredWords[team];
+            for (int i = 0; i < explored.length; i++) {
+                explored[i] |= visible[i];
+            }
+            isTeamDirty[team] = false;
+            mergeCount++;
+        }
+        return recomputed;
+    }
+    
+    /**
+     * Marks every observer dirty, so the next update() starts over.
+     */
+    public void invalidateAll() {
+        for (int id = 0; id < observerLimit; id++) {
+            isDirty[id] = isActive[id];
+        }
+    }
+    
+    public boolean isVisible(int team, int x, int y) {
+        checkTeam(team);
+        return checkWord(visibleWords[team], x, y);
+    }
+    
+    /**
+     * Checks if a team has ever seen a tile, as of the last update().
+     */
+    public boolean isExplored(int team, int x, int y) {
+        checkTeam(team);
+        return checkWord(exploredWords[team], x, y);
+    }
+    
+    public int getVisibleCount(int team) {
+        checkTeam(team);
+        return countWords(visibleWords[team]);
+    }
+    
+    public int getExploredCount(int team) {
+        checkTeam(team);
+        return countWords(exploredWords[team]);
+    }
+    
+    public long getRecomputeCount() {
+        return recomputeCount;
+    }
+    
+    public long getMergeCount() {
+        return mergeCount;
+    }
+    
+    @Override
+    public void mapChanged(TacticalMapData map, TacticalMapChange change) {
+        if (map != this.map) return;
+        
+        // Only edits that change a level move shadows around
+        for (int e = 0; e < change.getEditCount(); e++) {
+            if (TacticalTileData.getLevel(change.getOldTerrainCode(e))
+                    == TacticalTileData.getLevel(change.getNewTerrainCode(e))) {
+                continue;
+            }
+            
+            int tileIndex = change.getEditedTileIndex(e);
+            int x = tileIndex % width;
+            int y = tileIndex / width;
+            for (int id = 0; id < observerLimit; id++) {
+                if (!isActive[id] || isDirty[id]) continue;
+                if (Math.abs(observerXs[id] - x) <= radii[id] && Math.abs(observerYs[id] - y) <= radii[id]) {
+                    isDirty[id] = true;
+                }
+            }
+        }
+    }
+    
+    private boolean checkWord(long[] words, int x, int y) {
+        checkPosition(x, y);
+        return (words[(y * wordsPerRow) + (x >>> 6)] & (1L << x)) != 0;
+    }
+    
+    private static int countWords(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+    
+    private void grow(int capacity) {
+        observerXs = Arrays.copyOf(observerXs, capacity);
+        observerYs = Arrays.copyOf(observerYs, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        teams = Arrays.copyOf(teams, capacity);
+        isActive = Arrays.copyOf(isActive, capacity);
+        isDirty = Arrays.copyOf(isDirty, capacity);
+        windows = Arrays.copyOf(windows, capacity);
+    }
+    
+    private void checkTeam(int team) {
+        if (team < 0 || team >= isTeamDirty.length) {
+            throw new RuntimeException("Team out of range: " + team);
+        }
+    }
+    
+    private void checkPosition(int x, int y) {
+        if (!map.isInBounds(x, y)) {
+            throw new RuntimeException("Observer position out of range: " + x + ", " + y);
+        }
+    }
+    
+    private void checkObserver(int id) {
+        if (id < 0 || id >= observerLimit || !isActive[id]) {
+            throw new RuntimeException("Observer out of range: " + id);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Joseph Cramsey.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package joeyproductions.kazhardcommand.visioncore;
+
+import java.util.Arrays;
+
+/**
+ * A reusable bitset of visible tiles, covering only the square around one
+ * observer. Rows line up with the 64-tile words of a whole-map bitset, so
+ * merging into one is a plain OR of words.
+ * @author Joseph Cramsey
+ */
+public class VisibilityWindow {
+    
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private int firstWord;
+    private int wordsPerRow;
+    private long[] words = new long[0];
+    
+    public VisibilityWindow() {
+        //
+    }
+    
+    /**
+     * Clears the window, and moves it to cover a square, clipped to the map.
+     * Storage is only reallocated when the square grows.
+     */
+    void reset(int mapWidth, int mapHeight, int centerX, int centerY, int radius) {
+        minX = Math.max(0, centerX - radius);
+        minY = Math.max(0, centerY - radius);
+        maxX = Math.min(mapWidth - 1, centerX + radius);
+        maxY = Math.min(mapHeight - 1, centerY + radius);
+        firstWord = minX >>> 6;
+        wordsPerRow = (maxX >>> 6) - firstWord + 1;
+        
+        int length = wordsPerRow * (maxY - minY + 1);
+        if (words.length < length) {
+            words = new long[length];
+        }
+        else {
+            Arrays.fill(words, 0, length, 0L);
+        }
+    }
+    
+    void set(int x, int y) {
+        words[((y - minY) * wordsPerRow) + (x >>> 6) - firstWord] |= 1L << x;
+    }
+    
+    public boolean contains(int x, int y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+    
+    public boolean isVisible(int x, int y) {
+        if (!contains(x, y)) return false;
+        return (words[((y - minY) * wordsPerRow) + (x >>> 6) - firstWord] & (1L << x)) != 0;
+    }
+    
+    public int getVisibleCount() {
+        int count = 0;
+        for (int i = 0; i < wordsPerRow * (maxY - minY + 1); i++) {
+            count += Long.bitCount(words[i]);
+        }
+        return count;
+    }
+    
+    /**
+     * ORs this window into a whole-map bitset.
+     * @param mapWords one bit per tile, rows of mapWordsPerRow words
+     */
+    public void orInto(long[] mapWords, int mapWordsPerRow) {
+        for (int y = minY; y <= maxY; y++) {
+            int source = (y - minY) * wordsPerRow;
+            int target = (y * mapWordsPerRow) + firstWord;
+            for (int w = 0; w < wordsPerRow; w++) {
+                mapWords[target + w] |= words[source + w];
+            }
+        }
+    }
+}